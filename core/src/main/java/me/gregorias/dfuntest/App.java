@@ -1,16 +1,24 @@
 package me.gregorias.dfuntest;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This type represents tested applications.
  *
  * It acts as proxy to a real, possibly remote, application.
  *
+ * Applications are readiness probes. Subclasses should override {@link #isReady()} with a health
+ * check, so that test scripts can wait for started applications with
+ * {@link Readiness#awaitAll(java.util.Collection, long, TimeUnit)} instead of sleeping.
+ *
  * @author Grzegorz Milka
  *
  */
-public abstract class App<EnvironmentT extends Environment> {
+public abstract class App<EnvironmentT extends Environment> implements ReadinessProbe {
   private final int mId;
   private final String mName;
 
@@ -38,6 +46,19 @@ public abstract class App<EnvironmentT extends Environment> {
     return mName;
   }
 
+  /**
+   * Checks once whether started application is ready to handle requests. By default application is
+   * ready as soon as it has been started.
+   *
+   * @return true iff application is ready
+   * @throws IOException thrown when check could not be performed
+   * @throws InterruptedException thrown when interrupted
+   */
+  @Override
+  public boolean isReady() throws IOException, InterruptedException {
+    return true;
+  }
+
   /**
    * Starts the application and allows it to run in background.
    */
@@ -50,4 +71,38 @@ public abstract class App<EnvironmentT extends Environment> {
    */
   @SuppressWarnings("unused")
   public abstract void shutDown() throws IOException, InterruptedException;
+
+  /**
+   * Forcibly terminates the application, for example with {@link RemoteProcess#destroy()}. Used
+   * when {@link #startUp()} or {@link #shutDown()} has failed or has not finished in time, so it
+   * may be called concurrently with them and should not wait for them. By default does nothing.
+   *
+   * @throws IOException thrown when application could not be terminated
+   */
+  public void destroy() throws IOException {
+  }
+
+  /**
+   * Returns command which prints thread dump of the running application to its standard output,
+   * such as jcmd or jstack invocation, when run in application's environment. Test runners use it
+   * to capture state of a hung application. By default thread dumps are not supported.
+   *
+   * @return command or null if thread dump can not be taken
+   */
+  public List<String> getThreadDumpCommand() {
+    return null;
+  }
+
+  /**
+   * Polls {@link #isReady()} with exponential backoff until application is ready.
+   *
+   * @param timeout maximal time to wait
+   * @param unit unit of timeout
+   * @throws InterruptedException thrown when interrupted
+   * @throws TimeoutException thrown when application is not ready by the deadline
+   */
+  public void waitUntilReady(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException {
+    Readiness.awaitAll(Collections.singleton(this), timeout, unit);
+  }
 }
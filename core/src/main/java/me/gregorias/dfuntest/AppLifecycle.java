@@ -0,0 +1,233 @@
+package me.gregorias.dfuntest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Starts up and shuts down many applications concurrently, so that the time it takes is the time
+ * of the slowest application instead of the sum of all of them.
+ * </p>
+ *
+ * <p>
+ * Every application gets its own thread and all of them share one deadline. Applications which
+ * have failed or have not finished by the deadline are forcibly terminated with
+ * {@link App#destroy()} and their threads are interrupted. Meant to be used by
+ * {@link TestScript}s.
+ * </p>
+ */
+public final class AppLifecycle {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AppLifecycle.class);
+
+  private static final AppAction START_UP = new AppAction() {
+    @Override
+    public void run(App<?> app) throws Exception {
+      app.startUp();
+    }
+
+    @Override
+    public String toString() {
+      return "startUp";
+    }
+  };
+
+  private static final AppAction SHUT_DOWN = new AppAction() {
+    @Override
+    public void run(App<?> app) throws Exception {
+      app.shutDown();
+    }
+
+    @Override
+    public String toString() {
+      return "shutDown";
+    }
+  };
+
+  private AppLifecycle() {
+  }
+
+  /**
+   * Starts up all applications concurrently. If any of them fails or does not start in time, the
+   * started ones are shut down with the same timeout and the rest are destroyed. If start up
+   * throws an unchecked exception or an error, all applications are destroyed before it is
+   * rethrown.
+   *
+   * @param apps applications to start up
+   * @param timeout maximal time to wait for start up
+   * @param unit unit of timeout
+   * @param <AppT> type of application
+   * @throws AppLifecycleException thrown when some applications could not be started in time
+   * @throws InterruptedException thrown when interrupted. Applications which have not started by
+   *         then are destroyed.
+   */
+  public static <AppT extends App<?>> void startUpAll(Collection<AppT> apps,
+      long timeout,
+      TimeUnit unit) throws AppLifecycleException, InterruptedException {
+    Map<AppT, Exception> failures;
+    try {
+      failures = runAll(apps, START_UP, timeout, unit);
+    } catch (RuntimeException | Error e) {
+      LOGGER.error("startUpAll(): Start up has thrown an unexpected exception. Destroying all"
+          + " apps.");
+      destroyAll(apps);
+      throw e;
+    }
+    if (failures.isEmpty()) {
+      return;
+    }
+
+    LOGGER.warn("startUpAll(): {} out of {} apps could not be started. Shutting down the rest.",
+        failures.size(), apps.size());
+    List<AppT> startedApps = new ArrayList<>(apps);
+    startedApps.removeAll(failures.keySet());
+    shutDownAll(startedApps, timeout, unit);
+    throw new AppLifecycleException(String.format("%d out of %d apps could not be started.",
+        failures.size(), apps.size()), failures);
+  }
+
+  /**
+   * Shuts down all applications concurrently. Applications which fail to shut down or do not shut
+   * down in time are destroyed.
+   *
+   * @param apps applications to shut down
+   * @param timeout maximal time to wait for shut down
+   * @param unit unit of timeout
+   * @param <AppT> type of application
+   * @return exceptions thrown by shut down keyed by application, empty if all applications have
+   *         been shut down correctly
+   * @throws InterruptedException thrown when interrupted. Applications which have not shut down by
+   *         then are destroyed.
+   */
+  public static <AppT extends App<?>> Map<AppT, Exception> shutDownAll(Collection<AppT> apps,
+      long timeout,
+      TimeUnit unit) throws InterruptedException {
+    Map<AppT, Exception> failures = runAll(apps, SHUT_DOWN, timeout, unit);
+    if (!failures.isEmpty()) {
+      LOGGER.warn("shutDownAll(): {} out of {} apps could not be shut down cleanly.",
+          failures.size(), apps.size());
+    }
+    return failures;
+  }
+
+  /**
+   * Forcibly terminates all applications with {@link App#destroy()}. Failures are logged.
+   *
+   * @param apps applications to destroy
+   */
+  public static void destroyAll(Collection<? extends App<?>> apps) {
+    for (App<?> app : apps) {
+      destroy(app);
+    }
+  }
+
+  private interface AppAction {
+    void run(App<?> app) throws Exception;
+  }
+
+  // Runs action on a single app. If the app has been abandoned before action has finished, it is
+  // destroyed once action finishes, so that a late start up does not leave a running application.
+  private static class AppTask implements Callable<Void> {
+    private final App<?> mApp;
+    private final AppAction mAction;
+    private final AtomicBoolean mIsAbandoned = new AtomicBoolean(false);
+
+    public AppTask(App<?> app, AppAction action) {
+      mApp = app;
+      mAction = action;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      mAction.run(mApp);
+      if (mIsAbandoned.get()) {
+        destroy(mApp);
+      }
+      return null;
+    }
+
+    public void abandon() {
+      mIsAbandoned.set(true);
+    }
+  }
+
+  private static <AppT extends App<?>> Map<AppT, Exception> runAll(Collection<AppT> apps,
+      AppAction action,
+      long timeout,
+      TimeUnit unit) throws InterruptedException {
+    Map<AppT, Exception> failures = new LinkedHashMap<>();
+    if (apps.isEmpty()) {
+      return failures;
+    }
+
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    ExecutorService executor = Executors.newFixedThreadPool(apps.size(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AppLifecycle-%d").build());
+    Map<AppT, AppTask> tasks = new LinkedHashMap<>();
+    Map<AppT, Future<Void>> futures = new LinkedHashMap<>();
+    try {
+      for (AppT app : apps) {
+        AppTask task = new AppTask(app, action);
+        tasks.put(app, task);
+        futures.put(app, executor.submit(task));
+      }
+
+      for (AppT app : apps) {
+        try {
+          futures.get(app).get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          LOGGER.warn("runAll(): {}() of app {} has failed. Destroying it.", action, app.getId(),
+              cause);
+          failures.put(app, (Exception) cause);
+          destroy(app);
+        } catch (TimeoutException e) {
+          LOGGER.warn("runAll(): {}() of app {} has not finished in time. Destroying it.", action,
+              app.getId());
+          failures.put(app, new TimeoutException(String.format("%s() of app %d has not finished"
+              + " in time.", action, app.getId())));
+          tasks.get(app).abandon();
+          destroy(app);
+        }
+      }
+    } catch (Throwable e) {
+      // Interruption or an error of one app leaves the unfinished ones behind.
+      for (AppT app : apps) {
+        Future<Void> future = futures.get(app);
+        if (future != null && !future.isDone()) {
+          tasks.get(app).abandon();
+          destroy(app);
+        }
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+    return failures;
+  }
+
+  private static void destroy(App<?> app) {
+    try {
+      app.destroy();
+    } catch (Exception e) {
+      LOGGER.error("destroy(): Could not destroy app {}.", app.getId(), e);
+    }
+  }
+}
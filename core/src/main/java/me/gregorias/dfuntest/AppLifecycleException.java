@@ -0,0 +1,30 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exception thrown when {@link AppLifecycle#startUpAll} could not start up some of the
+ * applications. By the time it is thrown the applications which did start have been shut down, so
+ * none of them is left running. Exception of the first failed application is its cause.
+ */
+public class AppLifecycleException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final Map<App<?>, Exception> mFailures;
+
+  public AppLifecycleException(String message, Map<? extends App<?>, Exception> failures) {
+    super(message, failures.isEmpty() ? null : failures.values().iterator().next());
+    mFailures = Collections.unmodifiableMap(new LinkedHashMap<App<?>, Exception>(failures));
+  }
+
+  /**
+   * @return exceptions thrown by applications, keyed by application which has failed. Applications
+   *         which have not finished in time have a {@link java.util.concurrent.TimeoutException}.
+   */
+  public Map<App<?>, Exception> getFailures() {
+    return mFailures;
+  }
+}
@@ -0,0 +1,55 @@
+package me.gregorias.dfuntest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Environment which also provides nonblocking variants of its operations.
+ *
+ * Returned futures fail with the exception the corresponding blocking operation would throw.
+ * Waiting for process termination does not occupy a thread per process, so operations may be
+ * outstanding on many environments at once.
+ */
+public interface AsyncEnvironment extends Environment {
+  /**
+   * Asynchronous variant of {@link #copyFilesFromLocalDisk(Path, String)}.
+   *
+   * @param srcPath Local source path.
+   * @param destRelPath Relative destination directory on this environment.
+   * @return future completed once files have been copied
+   */
+  ListenableFuture<Void> copyFilesFromLocalDiskAsync(Path srcPath, String destRelPath);
+
+  /**
+   * Asynchronous variant of {@link #copyFilesToLocalDisk(String, Path)}.
+   *
+   * @param srcRelPath Relative source path on this environment.
+   * @param destPath Local destination directory.
+   * @return future completed once files have been copied
+   */
+  ListenableFuture<Void> copyFilesToLocalDiskAsync(String srcRelPath, Path destPath);
+
+  /**
+   * @param process process started by this environment
+   * @return future of process's exit code completed once it has finished
+   */
+  ListenableFuture<Integer> onExit(RemoteProcess process);
+
+  /**
+   * Asynchronous variant of {@link #removeFile(String)}.
+   *
+   * @param relPath Relative path to file on this environment.
+   * @return future completed once file has been removed
+   */
+  ListenableFuture<Void> removeFileAsync(String relPath);
+
+  /**
+   * Starts command and returns future of its process completed once it has finished.
+   *
+   * @param command Command to run
+   * @return future of finished process
+   */
+  ListenableFuture<RemoteProcess> runCommandAsync(List<String> command);
+}
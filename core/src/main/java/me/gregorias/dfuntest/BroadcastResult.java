@@ -0,0 +1,153 @@
+package me.gregorias.dfuntest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregated results of an operation broadcast by {@link EnvironmentGroup}.
+ *
+ * @param <EnvironmentT> type of environment
+ */
+public class BroadcastResult<EnvironmentT extends Environment> {
+  private final Map<EnvironmentT, EnvironmentResult> mResults;
+  private final List<EnvironmentT> mUnfinishedEnvironments;
+  private final int mRequiredSuccessCount;
+
+  /**
+   * @param results results of environments on which operation has finished
+   * @param unfinishedEnvironments environments on which operation was still running when its
+   *                               completion policy was decided
+   * @param requiredSuccessCount number of successes required for the whole operation to succeed
+   */
+  public BroadcastResult(Map<EnvironmentT, EnvironmentResult> results,
+      Collection<EnvironmentT> unfinishedEnvironments,
+      int requiredSuccessCount) {
+    mResults = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+    mUnfinishedEnvironments = Collections.unmodifiableList(
+        new ArrayList<>(unfinishedEnvironments));
+    mRequiredSuccessCount = requiredSuccessCount;
+  }
+
+  /**
+   * Result of operation on a single environment.
+   */
+  public static class EnvironmentResult {
+    private final Integer mExitCode;
+    private final Exception mException;
+    private final long mDurationMillis;
+    private final String mOutput;
+    private final String mErrorOutput;
+
+    /**
+     * @param exitCode exit code of command or null if operation was not a command or has thrown
+     *                 an exception
+     * @param exception exception thrown by operation or null
+     * @param durationMillis time from start of operation till its end
+     * @param output tail of command's standard output or empty string
+     * @param errorOutput tail of command's standard error or empty string
+     */
+    public EnvironmentResult(Integer exitCode,
+        Exception exception,
+        long durationMillis,
+        String output,
+        String errorOutput) {
+      mExitCode = exitCode;
+      mException = exception;
+      mDurationMillis = durationMillis;
+      mOutput = output;
+      mErrorOutput = errorOutput;
+    }
+
+    public long getDurationMillis() {
+      return mDurationMillis;
+    }
+
+    public String getErrorOutput() {
+      return mErrorOutput;
+    }
+
+    /**
+     * @return exception thrown by operation or null if it has not thrown any
+     */
+    public Exception getException() {
+      return mException;
+    }
+
+    /**
+     * @return exit code of command or null if operation was not a command or has thrown an
+     *         exception
+     */
+    public Integer getExitCode() {
+      return mExitCode;
+    }
+
+    public String getOutput() {
+      return mOutput;
+    }
+
+    /**
+     * @return true iff operation has not thrown an exception and command, if any, has exited with
+     *         0
+     */
+    public boolean isSuccess() {
+      return mException == null && (mExitCode == null || mExitCode == 0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("EnvironmentResult[exitCode: %s, exception: %s, duration: %d ms]",
+          mExitCode, mException, mDurationMillis);
+    }
+  }
+
+  /**
+   * @return environments on which operation has failed, in group's order
+   */
+  public List<EnvironmentT> getFailedEnvironments() {
+    List<EnvironmentT> failedEnvs = new ArrayList<>();
+    for (Map.Entry<EnvironmentT, EnvironmentResult> entry : mResults.entrySet()) {
+      if (!entry.getValue().isSuccess()) {
+        failedEnvs.add(entry.getKey());
+      }
+    }
+    return failedEnvs;
+  }
+
+  /**
+   * @return results of environments on which operation has finished, in group's order
+   */
+  public Map<EnvironmentT, EnvironmentResult> getResults() {
+    return mResults;
+  }
+
+  public int getSuccessCount() {
+    return mResults.size() - getFailedEnvironments().size();
+  }
+
+  /**
+   * @return environments on which operation was still running when its completion policy was
+   *         decided. Operation is left running on them.
+   */
+  public List<EnvironmentT> getUnfinishedEnvironments() {
+    return mUnfinishedEnvironments;
+  }
+
+  /**
+   * @return true iff operation has succeeded on the number of environments required by its
+   *         completion policy
+   */
+  public boolean isSuccessful() {
+    return getSuccessCount() >= mRequiredSuccessCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("BroadcastResult[succeeded: %d, failed: %d, unfinished: %d,"
+        + " required: %d]", getSuccessCount(), getFailedEnvironments().size(),
+        mUnfinishedEnvironments.size(), mRequiredSuccessCount);
+  }
+}
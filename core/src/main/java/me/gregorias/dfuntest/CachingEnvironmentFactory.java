@@ -0,0 +1,70 @@
+package me.gregorias.dfuntest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Factory which creates environments once through another factory and returns the same
+ * environments on every subsequent create, so that they stay alive and prepared between test
+ * runs.
+ *
+ * {@link #destroy(Collection)} keeps environments alive. They are destroyed by {@link #close()}.
+ *
+ * @param <EnvironmentT> type of environment
+ */
+public class CachingEnvironmentFactory<EnvironmentT extends Environment>
+    implements EnvironmentFactory<EnvironmentT> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingEnvironmentFactory.class);
+  private final EnvironmentFactory<EnvironmentT> mEnvironmentFactory;
+  private Collection<EnvironmentT> mEnvironments = null;
+
+  /**
+   * @param environmentFactory factory creating cached environments
+   */
+  public CachingEnvironmentFactory(EnvironmentFactory<EnvironmentT> environmentFactory) {
+    mEnvironmentFactory = environmentFactory;
+  }
+
+  /**
+   * Destroys cached environments. Next create will create new ones.
+   */
+  public synchronized void close() {
+    LOGGER.info("close()");
+    if (mEnvironments != null) {
+      mEnvironmentFactory.destroy(mEnvironments);
+      mEnvironments = null;
+    }
+  }
+
+  @Override
+  public synchronized Collection<EnvironmentT> create() throws IOException {
+    if (mEnvironments == null) {
+      LOGGER.info("create(): Creating environments.");
+      mEnvironments = new ArrayList<>(mEnvironmentFactory.create());
+    } else {
+      LOGGER.debug("create(): Reusing {} cached environments.", mEnvironments.size());
+    }
+    return new ArrayList<>(mEnvironments);
+  }
+
+  /**
+   * Keeps environments alive. Use {@link #close()} to destroy them.
+   *
+   * @param envs environments created by create
+   */
+  @Override
+  public void destroy(Collection<EnvironmentT> envs) {
+    LOGGER.debug("destroy(): Keeping {} environments alive.", envs.size());
+  }
+
+  /**
+   * @return true iff environments have been created and not closed
+   */
+  public synchronized boolean hasEnvironments() {
+    return mEnvironments != null;
+  }
+}
@@ -0,0 +1,67 @@
+package me.gregorias.dfuntest;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estimates how far clocks of environments' hosts are ahead of the local clock, so that
+ * timestamps of their logs can be compared. Used together with
+ * {@link me.gregorias.dfuntest.util.LogMerger}.
+ *
+ * Remote time is read with GNU date. Its reading is compared with the midpoint of the local time
+ * before and after the command, so the error of a sample is at most half of its round trip. The
+ * sample with the shortest round trip is used.
+ */
+public final class ClockOffsets {
+  private static final List<String> DATE_COMMAND = Arrays.asList("date", "+%s%3N");
+
+  private ClockOffsets() {
+  }
+
+  /**
+   * @param env environment to measure
+   * @param sampleCount number of samples to take, at least 1
+   * @return estimated offset in milliseconds of environment's clock from the local clock
+   * @throws IOException thrown when remote time could not be read
+   * @throws InterruptedException thrown when interrupted
+   */
+  public static long measureMillis(Environment env, int sampleCount)
+      throws IOException, InterruptedException {
+    if (sampleCount < 1) {
+      throw new IllegalArgumentException("At least one sample is required.");
+    }
+    long bestOffsetMillis = 0;
+    long bestRoundTripMillis = Long.MAX_VALUE;
+    for (int sampleIdx = 0; sampleIdx < sampleCount; ++sampleIdx) {
+      long beforeMillis = System.currentTimeMillis();
+      long remoteMillis = readRemoteTimeMillis(env);
+      long afterMillis = System.currentTimeMillis();
+      if (afterMillis - beforeMillis < bestRoundTripMillis) {
+        bestRoundTripMillis = afterMillis - beforeMillis;
+        bestOffsetMillis = remoteMillis - (beforeMillis + afterMillis) / 2;
+      }
+    }
+    return bestOffsetMillis;
+  }
+
+  private static long readRemoteTimeMillis(Environment env)
+      throws IOException, InterruptedException {
+    RemoteProcess process = env.runCommand(DATE_COMMAND);
+    String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8).trim();
+    int exitCode = process.waitFor();
+    if (exitCode != 0) {
+      throw new IOException(String.format("Reading time of environment %d has ended with failure"
+          + " exit code: %d", env.getId(), exitCode));
+    }
+    try {
+      return Long.parseLong(output);
+    } catch (NumberFormatException e) {
+      throw new IOException(String.format("Environment %d has returned unexpected time: %s",
+          env.getId(), output), e);
+    }
+  }
+}
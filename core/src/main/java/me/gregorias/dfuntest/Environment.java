@@ -78,4 +78,18 @@ public interface Environment {
    * @param value property's value
    */
   void setProperty(String key, Object value);
+
+  /**
+   * Incrementally copies specified file or directory to destination directory on environment.
+   *
+   * A synchronized directory keeps a manifest of content hashes of its files. Only files which
+   * are new or whose content differs from the manifest are transferred and files which no longer
+   * exist locally are removed. The manifest is trusted, so files modified on the environment by
+   * other means than this method are not detected. A single file is always copied.
+   *
+   * @param srcPath Local source path.
+   * @param destRelPath Relative destination directory on this environment.
+   * @return Summary of transferred and skipped files.
+   */
+  SyncResult syncFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException;
 }
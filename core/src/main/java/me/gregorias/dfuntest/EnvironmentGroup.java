@@ -0,0 +1,375 @@
+package me.gregorias.dfuntest;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.gregorias.dfuntest.BroadcastResult.EnvironmentResult;
+import me.gregorias.dfuntest.util.RingBufferOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Group of environments to which commands and file transfers are broadcast in one call.
+ * </p>
+ *
+ * <p>
+ * An operation is started on all environments at once and its results are aggregated per
+ * environment in {@link BroadcastResult}. Environments implementing {@link AsyncEnvironment} run
+ * it without occupying a thread, others run it on the group's executor. The default executor
+ * shared by all groups runs at most {@link ParallelEnvironmentExecutor#DEFAULT_MAX_CONCURRENCY}
+ * operations at the same time and queues the rest. Command's output is read
+ * once it has finished and only its last bytes are kept, so commands with large output should be
+ * run on environments which drain it.
+ * </p>
+ *
+ * <p>
+ * {@link CompletionPolicy} decides when a broadcast returns. Operations still running at that
+ * point are left running and reported as unfinished.
+ * </p>
+ *
+ * @param <EnvironmentT> type of environment
+ */
+public class EnvironmentGroup<EnvironmentT extends Environment> {
+  public static final int DEFAULT_MAX_OUTPUT_SIZE = 64 * 1024;
+  private static final Logger LOGGER = LoggerFactory.getLogger(EnvironmentGroup.class);
+  private static final long DEFAULT_EXECUTOR_KEEP_ALIVE_SECONDS = 60;
+  private static final ListeningExecutorService DEFAULT_EXECUTOR = createDefaultExecutor();
+  private final List<EnvironmentT> mEnvironments;
+  private final ListeningExecutorService mExecutor;
+  private final int mMaxOutputSize;
+
+  /**
+   * @param envs environments of this group
+   */
+  public EnvironmentGroup(Collection<EnvironmentT> envs) {
+    this(envs, DEFAULT_EXECUTOR, DEFAULT_MAX_OUTPUT_SIZE);
+  }
+
+  /**
+   * @param envs environments of this group
+   * @param executor executor running blocking operations and collecting results
+   * @param maxOutputSize maximal number of last bytes of each output stream kept in results
+   */
+  public EnvironmentGroup(Collection<EnvironmentT> envs,
+      ExecutorService executor,
+      int maxOutputSize) {
+    if (maxOutputSize <= 0) {
+      throw new IllegalArgumentException("Maximal output size was nonpositive.");
+    }
+    mEnvironments = Collections.unmodifiableList(new ArrayList<>(envs));
+    mExecutor = MoreExecutors.listeningDecorator(executor);
+    mMaxOutputSize = maxOutputSize;
+  }
+
+  /**
+   * Decides when a broadcast operation is complete and whether it has succeeded.
+   */
+  public static final class CompletionPolicy {
+    /**
+     * Waits for all environments. Succeeds if all of them succeed.
+     */
+    public static final CompletionPolicy ALL = new CompletionPolicy(-1, false);
+
+    /**
+     * Returns on the first failure. Succeeds if all environments succeed.
+     */
+    public static final CompletionPolicy FAIL_FAST = new CompletionPolicy(-1, true);
+
+    private final int mQuorum;
+    private final boolean mShouldStopOnFailure;
+
+    private CompletionPolicy(int quorum, boolean shouldStopOnFailure) {
+      mQuorum = quorum;
+      mShouldStopOnFailure = shouldStopOnFailure;
+    }
+
+    /**
+     * @param quorum number of environments which have to succeed
+     * @return policy which returns once quorum environments have succeeded or once it is no
+     *         longer possible
+     */
+    public static CompletionPolicy quorum(int quorum) {
+      if (quorum <= 0) {
+        throw new IllegalArgumentException("Quorum was nonpositive.");
+      }
+      return new CompletionPolicy(quorum, false);
+    }
+
+    int getRequiredSuccessCount(int envCount) {
+      return mQuorum < 0 ? envCount : Math.min(mQuorum, envCount);
+    }
+
+    boolean isDecided(int successCount, int failureCount, int envCount) {
+      int requiredSuccessCount = getRequiredSuccessCount(envCount);
+      if (successCount + failureCount == envCount || successCount >= requiredSuccessCount) {
+        return true;
+      } else if (mShouldStopOnFailure && failureCount > 0) {
+        return true;
+      }
+      return mQuorum >= 0 && envCount - failureCount < requiredSuccessCount;
+    }
+  }
+
+  /**
+   * Copies files from local disk to all environments.
+   *
+   * @param srcPath local source path
+   * @param destRelPath relative destination directory on environments
+   * @param policy completion policy
+   * @return results per environment
+   * @throws InterruptedException thrown when interrupted while waiting. Operations are left
+   *         running.
+   * @see Environment#copyFilesFromLocalDisk(Path, String)
+   */
+  public BroadcastResult<EnvironmentT> copyFilesFromLocalDisk(final Path srcPath,
+      final String destRelPath,
+      CompletionPolicy policy) throws InterruptedException {
+    LOGGER.debug("copyFilesFromLocalDisk({}, {})", srcPath, destRelPath);
+    return broadcast(new Operation<EnvironmentT>() {
+      @Override
+      public ListenableFuture<?> start(final EnvironmentT env) {
+        if (env instanceof AsyncEnvironment) {
+          return ((AsyncEnvironment) env).copyFilesFromLocalDiskAsync(srcPath, destRelPath);
+        }
+        return mExecutor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            env.copyFilesFromLocalDisk(srcPath, destRelPath);
+            return null;
+          }
+        });
+      }
+    }, policy);
+  }
+
+  public List<EnvironmentT> getEnvironments() {
+    return mEnvironments;
+  }
+
+  /**
+   * Removes file from all environments.
+   *
+   * @param relPath relative path to file on environments
+   * @param policy completion policy
+   * @return results per environment
+   * @throws InterruptedException thrown when interrupted while waiting. Operations are left
+   *         running.
+   * @see Environment#removeFile(String)
+   */
+  public BroadcastResult<EnvironmentT> removeFile(final String relPath, CompletionPolicy policy)
+      throws InterruptedException {
+    LOGGER.debug("removeFile({})", relPath);
+    return broadcast(new Operation<EnvironmentT>() {
+      @Override
+      public ListenableFuture<?> start(final EnvironmentT env) {
+        if (env instanceof AsyncEnvironment) {
+          return ((AsyncEnvironment) env).removeFileAsync(relPath);
+        }
+        return mExecutor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException, IOException {
+            env.removeFile(relPath);
+            return null;
+          }
+        });
+      }
+    }, policy);
+  }
+
+  /**
+   * Runs command on all environments and waits for it to finish.
+   *
+   * @param command command to run
+   * @param policy completion policy. Nonzero exit code counts as failure.
+   * @return results per environment with exit codes and output of command
+   * @throws InterruptedException thrown when interrupted while waiting. Commands are left
+   *         running.
+   * @see Environment#runCommand(List)
+   */
+  public BroadcastResult<EnvironmentT> runCommand(final List<String> command,
+      CompletionPolicy policy) throws InterruptedException {
+    LOGGER.debug("runCommand({})", command);
+    return broadcast(new Operation<EnvironmentT>() {
+      @Override
+      public ListenableFuture<?> start(final EnvironmentT env) {
+        if (env instanceof AsyncEnvironment) {
+          return ((AsyncEnvironment) env).runCommandAsync(command);
+        }
+        return mExecutor.submit(new Callable<RemoteProcess>() {
+          @Override
+          public RemoteProcess call() throws InterruptedException, IOException {
+            return env.runCommand(command);
+          }
+        });
+      }
+    }, policy);
+  }
+
+  /**
+   * Operation started on a single environment. Its future's value is the finished process if
+   * operation is a command.
+   */
+  private interface Operation<EnvironmentT extends Environment> {
+    ListenableFuture<?> start(EnvironmentT env);
+  }
+
+  /**
+   * Counts finished operations and wakes up broadcasting thread.
+   */
+  private static class Tally {
+    private int mSuccessCount = 0;
+    private int mFailureCount = 0;
+
+    public synchronized void add(boolean isSuccess) {
+      if (isSuccess) {
+        ++mSuccessCount;
+      } else {
+        ++mFailureCount;
+      }
+      notifyAll();
+    }
+
+    public synchronized void await(CompletionPolicy policy, int envCount)
+        throws InterruptedException {
+      while (!policy.isDecided(mSuccessCount, mFailureCount, envCount)) {
+        wait();
+      }
+    }
+  }
+
+  private BroadcastResult<EnvironmentT> broadcast(Operation<EnvironmentT> operation,
+      CompletionPolicy policy) throws InterruptedException {
+    final Tally tally = new Tally();
+    Map<EnvironmentT, ListenableFuture<EnvironmentResult>> futures = new LinkedHashMap<>();
+    for (EnvironmentT env : mEnvironments) {
+      ListenableFuture<EnvironmentResult> future = startAndWrapResult(operation, env);
+      Futures.addCallback(future, new FutureCallback<EnvironmentResult>() {
+        @Override
+        public void onSuccess(EnvironmentResult result) {
+          tally.add(result.isSuccess());
+        }
+
+        @Override
+        public void onFailure(Throwable throwable) {
+          tally.add(false);
+        }
+      });
+      futures.put(env, future);
+    }
+
+    tally.await(policy, mEnvironments.size());
+
+    Map<EnvironmentT, EnvironmentResult> results = new LinkedHashMap<>();
+    List<EnvironmentT> unfinishedEnvs = new ArrayList<>();
+    for (Map.Entry<EnvironmentT, ListenableFuture<EnvironmentResult>> entry : futures.entrySet()) {
+      if (!entry.getValue().isDone()) {
+        unfinishedEnvs.add(entry.getKey());
+        continue;
+      }
+      try {
+        results.put(entry.getKey(), entry.getValue().get());
+      } catch (ExecutionException e) {
+        throw (Error) e.getCause();
+      }
+    }
+    BroadcastResult<EnvironmentT> broadcastResult = new BroadcastResult<>(results,
+        unfinishedEnvs,
+        policy.getRequiredSuccessCount(mEnvironments.size()));
+    LOGGER.debug("broadcast() -> {}", broadcastResult);
+    return broadcastResult;
+  }
+
+  // Returns output captured by process truncated to its last mMaxOutputSize bytes.
+  private String readOutputTail(InputStream inputStream) {
+    RingBufferOutputStream buffer = new RingBufferOutputStream(mMaxOutputSize);
+    try {
+      IOUtils.copyLarge(inputStream, buffer);
+    } catch (IOException e) {
+      LOGGER.debug("readOutputTail(): Could not read whole output.", e);
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+    return new String(buffer.toByteArray(), Charset.defaultCharset());
+  }
+
+  // Starts operation and converts its outcome, including a thrown exception, into a result.
+  // Errors fail the returned future.
+  private ListenableFuture<EnvironmentResult> startAndWrapResult(Operation<EnvironmentT> operation,
+      EnvironmentT env) {
+    final long startNanos = System.nanoTime();
+    ListenableFuture<?> operationFuture;
+    try {
+      operationFuture = operation.start(env);
+    } catch (RuntimeException e) {
+      operationFuture = Futures.immediateFailedFuture(e);
+    }
+
+    ListenableFuture<EnvironmentResult> resultFuture = Futures.transform(operationFuture,
+        new AsyncFunction<Object, EnvironmentResult>() {
+          @Override
+          public ListenableFuture<EnvironmentResult> apply(Object value)
+              throws InterruptedException, IOException {
+            if (!(value instanceof RemoteProcess)) {
+              return Futures.immediateFuture(new EnvironmentResult(null, null,
+                  getMillisSince(startNanos), "", ""));
+            }
+            RemoteProcess process = (RemoteProcess) value;
+            int exitCode = process.waitFor();
+            long durationMillis = getMillisSince(startNanos);
+            return Futures.immediateFuture(new EnvironmentResult(exitCode, null, durationMillis,
+                readOutputTail(process.getInputStream()),
+                readOutputTail(process.getErrorStream())));
+          }
+        }, mExecutor);
+    return Futures.withFallback(resultFuture, new FutureFallback<EnvironmentResult>() {
+      @Override
+      public ListenableFuture<EnvironmentResult> create(Throwable throwable) {
+        if (!(throwable instanceof Exception)) {
+          return Futures.immediateFailedFuture(throwable);
+        }
+        return Futures.immediateFuture(new EnvironmentResult(null, (Exception) throwable,
+            getMillisSince(startNanos), "", ""));
+      }
+    });
+  }
+
+  private static ListeningExecutorService createDefaultExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        ParallelEnvironmentExecutor.DEFAULT_MAX_CONCURRENCY,
+        ParallelEnvironmentExecutor.DEFAULT_MAX_CONCURRENCY,
+        DEFAULT_EXECUTOR_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("EnvironmentGroup-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(executor);
+  }
+
+  private static long getMillisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,385 @@
+package me.gregorias.dfuntest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.RingBufferOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Local environment which runs Java applications inside the JVM of the test runner instead of
+ * forking a new JVM for each of them. This allows to run thousands of applications on a single
+ * host.
+ * </p>
+ *
+ * <p>
+ * Commands of the form {@code java [-cp|-classpath CLASSPATH] [-Dkey=value]... MAIN_CLASS
+ * [ARGS]...} start MAIN_CLASS's main method in a new thread group with a fresh class loader built
+ * from CLASSPATH resolved against the environment's directory. Other JVM options are ignored.
+ * Any other command is run as a forked process like in {@link LocalEnvironment}.
+ * </p>
+ *
+ * <p>
+ * System properties given with -D, the user.dir property set to the environment's directory and
+ * standard output and error are isolated per application for all threads of its thread group.
+ * Output is kept in a bounded in-memory buffer. Standard input is not available. Relative values
+ * of -D properties whose names end with "file", "path" or "dir", ignoring case, are resolved
+ * against the environment's directory, so that for example log files of applications do not
+ * overwrite each other. Other relative paths opened directly by an application still resolve
+ * against the working directory of the runner, since it is shared by the whole JVM, and the
+ * application must not call System.exit. Applications share the process ID of the runner.
+ * </p>
+ *
+ * <p>
+ * An application ends when its main method and all non-daemon threads it has started finish.
+ * Its exit code is 0 if main has returned normally and 1 otherwise. Destroying it interrupts all of
+ * its threads.
+ * </p>
+ */
+public class InProcessEnvironment extends LocalEnvironment {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InProcessEnvironment.class);
+  private static final String CLASS_PATH_WILDCARD = "*";
+  private static final String[] PATH_PROPERTY_SUFFIXES = {"file", "path", "dir"};
+  private static final List<String> STANDARD_STREAM_NAMES = Arrays.asList("System.out",
+      "System.err");
+  private final Path mDir;
+  private final int mOutputBufferSize;
+  private final AtomicInteger mApplicationCount = new AtomicInteger(0);
+
+  /**
+   * @param id Environment's id
+   * @param dir Environment's home directory
+   * @param fileUtils file utilities to use
+   */
+  public InProcessEnvironment(int id, Path dir, FileUtils fileUtils) {
+    this(id,
+        dir,
+        fileUtils,
+        null,
+        DeploymentMode.COPY,
+        OutputDrainingMode.NONE,
+        DEFAULT_OUTPUT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param id Environment's id
+   * @param dir Environment's home directory
+   * @param fileUtils file utilities to use
+   * @param stagingArea staging area shared with other environments. May be null if
+   *                    deploymentMode is COPY.
+   * @param deploymentMode how to deploy files copied from local disk
+   * @param outputDrainingMode how to consume output of forked processes
+   * @param outputBufferSize size in bytes of each in-memory output buffer
+   */
+  public InProcessEnvironment(int id,
+                              Path dir,
+                              FileUtils fileUtils,
+                              LocalStagingArea stagingArea,
+                              DeploymentMode deploymentMode,
+                              OutputDrainingMode outputDrainingMode,
+                              int outputBufferSize) {
+    super(id, dir, fileUtils, stagingArea, deploymentMode, outputDrainingMode, outputBufferSize);
+    mDir = dir;
+    mOutputBufferSize = outputBufferSize;
+  }
+
+  @Override
+  public ListenableFuture<Integer> onExit(RemoteProcess process) {
+    if (process instanceof InProcessApplication) {
+      return ((InProcessApplication) process).mExitFuture;
+    }
+    return super.onExit(process);
+  }
+
+  @Override
+  public RemoteProcess runCommandAsynchronously(List<String> command) throws IOException {
+    JavaCommand javaCommand = JavaCommand.parse(command);
+    if (javaCommand == null) {
+      return super.runCommandAsynchronously(command);
+    }
+
+    LOGGER.debug("runCommandAsynchronously(): Starting {} in process.", javaCommand.mMainClass);
+    InProcessRouting.install();
+    URLClassLoader classLoader = new URLClassLoader(resolveClassPath(javaCommand.mClassPath),
+        ClassLoader.getSystemClassLoader().getParent());
+    Method mainMethod;
+    try {
+      mainMethod = findMainMethod(classLoader, javaCommand.mMainClass);
+    } catch (IOException e) {
+      classLoader.close();
+      throw e;
+    }
+
+    Map<String, String> properties = new HashMap<>();
+    for (Map.Entry<String, String> property : javaCommand.mProperties.entrySet()) {
+      properties.put(property.getKey(), resolvePathProperty(property.getKey(),
+          property.getValue()));
+    }
+    properties.put("user.dir", mDir.toAbsolutePath().toString());
+    String name = String.format("InProcess-%d-%d", getId(), mApplicationCount.getAndIncrement());
+    InProcessApplication application = new InProcessApplication(name,
+        classLoader,
+        mainMethod,
+        javaCommand.mArguments,
+        properties,
+        mOutputBufferSize);
+    application.start();
+    return application;
+  }
+
+  /**
+   * Java application running in a thread group of the test runner's JVM.
+   */
+  private static class InProcessApplication implements RemoteProcess, Runnable {
+    private final ThreadGroup mThreadGroup;
+    private final Thread mMainThread;
+    private final URLClassLoader mClassLoader;
+    private final Method mMainMethod;
+    private final String[] mArguments;
+    private final RingBufferOutputStream mOutputBuffer;
+    private final RingBufferOutputStream mErrorBuffer;
+    private final InProcessRouting.Route mRoute;
+    private final CountDownLatch mFinishedLatch = new CountDownLatch(1);
+    private final SettableFuture<Integer> mExitFuture = SettableFuture.create();
+    private volatile int mExitCode;
+
+    public InProcessApplication(String name,
+                                URLClassLoader classLoader,
+                                Method mainMethod,
+                                List<String> arguments,
+                                Map<String, String> properties,
+                                int outputBufferSize) {
+      mThreadGroup = new ThreadGroup(name);
+      mMainThread = new Thread(mThreadGroup, this, name + "-main");
+      mMainThread.setContextClassLoader(classLoader);
+      mClassLoader = classLoader;
+      mMainMethod = mainMethod;
+      mArguments = arguments.toArray(new String[arguments.size()]);
+      mOutputBuffer = new RingBufferOutputStream(outputBufferSize);
+      mErrorBuffer = new RingBufferOutputStream(outputBufferSize);
+      mRoute = new InProcessRouting.Route(properties, mOutputBuffer, mErrorBuffer);
+    }
+
+    @Override
+    public void destroy() {
+      mThreadGroup.interrupt();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(mErrorBuffer.toByteArray());
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(mOutputBuffer.toByteArray());
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new NullOutputStream();
+    }
+
+    @Override
+    public void run() {
+      int exitCode = 0;
+      try {
+        mMainMethod.invoke(null, (Object) mArguments);
+        joinNonDaemonThreads();
+      } catch (InvocationTargetException e) {
+        LOGGER.warn("run(): Main method of {} has thrown an exception.", mThreadGroup.getName(),
+            e.getCause());
+        exitCode = 1;
+      } catch (IllegalAccessException e) {
+        LOGGER.error("run(): Could not invoke main method of {}.", mThreadGroup.getName(), e);
+        exitCode = 1;
+      } catch (InterruptedException e) {
+        LOGGER.warn("run(): Interrupted while waiting for threads of {}.",
+            mThreadGroup.getName());
+        exitCode = 1;
+      } finally {
+        InProcessRouting.unregister(mThreadGroup);
+        try {
+          mClassLoader.close();
+        } catch (IOException e) {
+          LOGGER.warn("run(): Could not close class loader of {}.", mThreadGroup.getName(), e);
+        }
+        mExitCode = exitCode;
+        mFinishedLatch.countDown();
+        mExitFuture.set(exitCode);
+      }
+    }
+
+    public void start() {
+      InProcessRouting.register(mThreadGroup, mRoute);
+      mMainThread.start();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      mFinishedLatch.await();
+      return mExitCode;
+    }
+
+    // Waits, like JVM does, until all non-daemon threads other than main have finished.
+    private void joinNonDaemonThreads() throws InterruptedException {
+      boolean hasJoinedAny = true;
+      while (hasJoinedAny) {
+        hasJoinedAny = false;
+        Thread[] threads = new Thread[mThreadGroup.activeCount() + 1];
+        int threadCount = mThreadGroup.enumerate(threads);
+        for (Thread thread : Arrays.asList(threads).subList(0, threadCount)) {
+          if (thread != Thread.currentThread() && !thread.isDaemon()) {
+            thread.join();
+            hasJoinedAny = true;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Parsed java launcher command.
+   */
+  private static class JavaCommand {
+    private final List<String> mClassPath;
+    private final Map<String, String> mProperties;
+    private final String mMainClass;
+    private final List<String> mArguments;
+
+    public JavaCommand(List<String> classPath,
+                       Map<String, String> properties,
+                       String mainClass,
+                       List<String> arguments) {
+      mClassPath = classPath;
+      mProperties = properties;
+      mMainClass = mainClass;
+      mArguments = arguments;
+    }
+
+    /**
+     * @param command command to parse
+     * @return parsed command or null if it does not start a main class with java launcher
+     */
+    public static JavaCommand parse(List<String> command) {
+      if (command.isEmpty() || !new File(command.get(0)).getName().equals("java")) {
+        return null;
+      }
+
+      List<String> classPath = Collections.singletonList(".");
+      Map<String, String> properties = new HashMap<>();
+      int argIdx = 1;
+      while (argIdx < command.size() && command.get(argIdx).startsWith("-")) {
+        String option = command.get(argIdx);
+        if (option.equals("-cp") || option.equals("-classpath")) {
+          if (argIdx + 1 == command.size()) {
+            return null;
+          }
+          classPath = Arrays.asList(command.get(argIdx + 1).split(File.pathSeparator));
+          argIdx += 2;
+          continue;
+        } else if (option.equals("-jar")) {
+          return null;
+        } else if (option.startsWith("-D")) {
+          String[] keyAndValue = option.substring(2).split("=", 2);
+          properties.put(keyAndValue[0], keyAndValue.length == 2 ? keyAndValue[1] : "");
+        } else {
+          LOGGER.debug("parse(): Ignoring JVM option {}.", option);
+        }
+        ++argIdx;
+      }
+
+      if (argIdx == command.size()) {
+        return null;
+      }
+      return new JavaCommand(classPath,
+          properties,
+          command.get(argIdx),
+          new ArrayList<>(command.subList(argIdx + 1, command.size())));
+    }
+  }
+
+  private static Method findMainMethod(ClassLoader classLoader, String mainClass)
+      throws IOException {
+    try {
+      Method mainMethod = Class.forName(mainClass, false, classLoader)
+          .getMethod("main", String[].class);
+      if (!Modifier.isStatic(mainMethod.getModifiers())) {
+        throw new IOException("Main method of " + mainClass + " is not static.");
+      }
+      return mainMethod;
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      throw new IOException("Could not find main method of " + mainClass + ".", e);
+    }
+  }
+
+  // Resolves relative value of a property which names a file against environment's directory.
+  // Names of standard streams, which for example slf4j-simple accepts as its log file, are kept.
+  private String resolvePathProperty(String key, String value) {
+    if (value.isEmpty() || STANDARD_STREAM_NAMES.contains(value)
+        || Paths.get(value).isAbsolute()) {
+      return value;
+    }
+    String lowerCaseKey = key.toLowerCase(Locale.ROOT);
+    for (String suffix : PATH_PROPERTY_SUFFIXES) {
+      if (lowerCaseKey.endsWith(suffix)) {
+        return mDir.toAbsolutePath().resolve(value).toString();
+      }
+    }
+    return value;
+  }
+
+  // Resolves classpath entries against environment's directory and expands wildcards like java.
+  private URL[] resolveClassPath(List<String> classPath) throws IOException {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : classPath) {
+      if (entry.equals(CLASS_PATH_WILDCARD) || entry.endsWith(File.separator
+          + CLASS_PATH_WILDCARD)) {
+        Path dirPath = mDir.resolve(entry.substring(0, entry.length() - 1));
+        if (!Files.isDirectory(dirPath)) {
+          continue;
+        }
+        List<Path> jarPaths = new ArrayList<>();
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(dirPath, "*.{jar,JAR}")) {
+          for (Path jarPath : jars) {
+            jarPaths.add(jarPath);
+          }
+        }
+        Collections.sort(jarPaths);
+        for (Path jarPath : jarPaths) {
+          urls.add(jarPath.toUri().toURL());
+        }
+      } else {
+        urls.add(mDir.resolve(entry).toUri().toURL());
+      }
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+}
@@ -0,0 +1,71 @@
+package me.gregorias.dfuntest;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.FileUtilsImpl;
+
+import java.nio.file.Path;
+
+/**
+ * Factory of {@link InProcessEnvironment} working in local temporary directories.
+ *
+ * It accepts the same arguments as {@link LocalEnvironmentFactory}.
+ */
+public class InProcessEnvironmentFactory extends LocalEnvironmentFactory {
+  /**
+   * @param environmentCount number of environments create will make
+   * @param dirPrefix directory prefix used for creating temporary directories
+   * @param deploymentMode how created environments deploy files copied from local disk
+   * @param outputBufferSize size in bytes of in-memory output buffers of applications
+   * @param fileUtils FileUtils to use
+   */
+  public InProcessEnvironmentFactory(int environmentCount,
+                                     String dirPrefix,
+                                     LocalEnvironment.DeploymentMode deploymentMode,
+                                     int outputBufferSize,
+                                     FileUtils fileUtils) {
+    super(environmentCount,
+        dirPrefix,
+        deploymentMode,
+        LocalEnvironment.OutputDrainingMode.MEMORY,
+        outputBufferSize,
+        fileUtils);
+  }
+
+  /**
+   * Creates factory with default deployment mode and output buffer size, which keeps output of
+   * forked processes in memory. Guice overrides these settings if their properties are bound,
+   * like in {@link LocalEnvironmentFactory}.
+   *
+   * @param environmentCount number of environments create will make
+   * @param dirPrefix directory prefix used for creating temporary directories
+   */
+  @Inject
+  public InProcessEnvironmentFactory(
+      @Named(ENV_COUNT_ARGUMENT_NAME) int environmentCount,
+      @Named(DIR_PREFIX_ARGUMENT_NAME) String dirPrefix) {
+    this(environmentCount,
+        dirPrefix,
+        DEFAULT_DEPLOYMENT_MODE,
+        LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE,
+        FileUtilsImpl.getFileUtilsImpl());
+  }
+
+  @Override
+  protected LocalEnvironment newEnvironment(int id,
+                                            Path dir,
+                                            FileUtils fileUtils,
+                                            LocalStagingArea stagingArea,
+                                            LocalEnvironment.DeploymentMode deploymentMode,
+                                            LocalEnvironment.OutputDrainingMode outputDrainingMode,
+                                            int outputBufferSize) {
+    return new InProcessEnvironment(id,
+        dir,
+        fileUtils,
+        stagingArea,
+        deploymentMode,
+        outputDrainingMode,
+        outputBufferSize);
+  }
+}
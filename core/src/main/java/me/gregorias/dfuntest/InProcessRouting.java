@@ -0,0 +1,139 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Routes JVM-wide state, that is standard output, standard error and system properties, of
+ * applications run by {@link InProcessEnvironment} to per-application overrides.
+ * </p>
+ *
+ * <p>
+ * An application is identified by the thread group in which its main thread runs. Threads it
+ * creates inherit that group, so they are routed as well. Threads outside of registered groups see
+ * the original state.
+ * </p>
+ */
+final class InProcessRouting {
+  private static final Map<ThreadGroup, Route> ROUTES = new ConcurrentHashMap<>();
+  private static boolean IS_INSTALLED = false;
+
+  private InProcessRouting() {
+  }
+
+  /**
+   * State seen by threads of one application.
+   */
+  static class Route {
+    private final Map<String, String> mProperties;
+    private final OutputStream mOutputStream;
+    private final OutputStream mErrorStream;
+
+    public Route(Map<String, String> properties,
+                 OutputStream outputStream,
+                 OutputStream errorStream) {
+      mProperties = properties;
+      mOutputStream = outputStream;
+      mErrorStream = errorStream;
+    }
+  }
+
+  /**
+   * Replaces System.out, System.err and system properties with routing ones, if it has not been
+   * done yet.
+   */
+  static synchronized void install() {
+    if (IS_INSTALLED) {
+      return;
+    }
+    System.setOut(new PrintStream(new RoutingOutputStream(System.out, false), true));
+    System.setErr(new PrintStream(new RoutingOutputStream(System.err, true), true));
+    System.setProperties(new RoutingProperties(System.getProperties()));
+    IS_INSTALLED = true;
+  }
+
+  static void register(ThreadGroup threadGroup, Route route) {
+    ROUTES.put(threadGroup, route);
+  }
+
+  static void unregister(ThreadGroup threadGroup) {
+    ROUTES.remove(threadGroup);
+  }
+
+  private static class RoutingOutputStream extends OutputStream {
+    private final OutputStream mDefaultStream;
+    private final boolean mIsErrorStream;
+
+    public RoutingOutputStream(OutputStream defaultStream, boolean isErrorStream) {
+      mDefaultStream = defaultStream;
+      mIsErrorStream = isErrorStream;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      getStream().flush();
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      getStream().write(oneByte);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      getStream().write(bytes, offset, length);
+    }
+
+    private OutputStream getStream() {
+      Route route = findCurrentRoute();
+      if (route == null) {
+        return mDefaultStream;
+      }
+      return mIsErrorStream ? route.mErrorStream : route.mOutputStream;
+    }
+  }
+
+  private static class RoutingProperties extends Properties {
+    private static final long serialVersionUID = 1L;
+
+    public RoutingProperties(Properties properties) {
+      super();
+      putAll(properties);
+    }
+
+    @Override
+    public String getProperty(String key) {
+      Route route = findCurrentRoute();
+      if (route != null && route.mProperties.containsKey(key)) {
+        return route.mProperties.get(key);
+      }
+      return super.getProperty(key);
+    }
+
+    @Override
+    public String getProperty(String key, String defaultValue) {
+      String value = getProperty(key);
+      return value == null ? defaultValue : value;
+    }
+  }
+
+  private static Route findCurrentRoute() {
+    if (ROUTES.isEmpty()) {
+      return null;
+    }
+    ThreadGroup threadGroup = Thread.currentThread().getThreadGroup();
+    while (threadGroup != null) {
+      Route route = ROUTES.get(threadGroup);
+      if (route != null) {
+        return route;
+      }
+      threadGroup = threadGroup.getParent();
+    }
+    return null;
+  }
+}
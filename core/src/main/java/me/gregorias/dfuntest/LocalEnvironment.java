@@ -1,20 +1,112 @@
 package me.gregorias.dfuntest;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.gregorias.dfuntest.util.FileManifest;
 import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.ProcessExitPoller;
+import me.gregorias.dfuntest.util.RingBufferOutputStream;
+import me.gregorias.dfuntest.util.StreamDrainer;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Environment on local host with specified home path
+ * Environment on local host with specified home path.
+ *
+ * Files copied from local disk are either copied or, depending on {@link DeploymentMode}, linked to
+ * a copy staged in {@link LocalStagingArea} shared with other environments. In the latter case
+ * changed sources are staged again and syncing files relinks only files which have changed.
+ *
+ * Output of started processes is either left to the caller, who has to read it so that the process
+ * does not block on a full pipe, or drained as specified by {@link OutputDrainingMode}. Drained
+ * output is available through {@link RemoteProcess#getInputStream()} and
+ * {@link RemoteProcess#getErrorStream()}, which then return a new stream with output captured so
+ * far on every call.
+ *
+ * Asynchronous file operations run on a small pool of threads shared by all local environments.
+ * Termination of processes is detected by {@link ProcessExitPoller}.
  */
-public class LocalEnvironment extends AbstractConfigurationEnvironment {
+public class LocalEnvironment extends AbstractConfigurationEnvironment
+    implements AsyncEnvironment {
+  public static final String PROCESS_OUTPUT_DIR_NAME = "process-output";
+  public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 64 * 1024;
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalEnvironment.class);
+  private static final int FILE_OPERATION_THREAD_COUNT = 4;
+  private static final ListeningExecutorService FILE_OPERATION_EXECUTOR =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(FILE_OPERATION_THREAD_COUNT,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("LocalEnvironment-%d").build()));
   private final int mId;
   private final Path mDir;
   private final FileUtils mFileUtils;
+  private final LocalStagingArea mStagingArea;
+  private final DeploymentMode mDeploymentMode;
+  private final OutputDrainingMode mOutputDrainingMode;
+  private final int mOutputBufferSize;
+  private final AtomicInteger mProcessCount = new AtomicInteger(0);
+
+  /**
+   * How files copied from local disk are deployed into environment.
+   */
+  public enum DeploymentMode {
+    /**
+     * Every environment gets its own full copy.
+     */
+    COPY,
+
+    /**
+     * Files are hard links to the staged copy. Directory structure is recreated in environment.
+     */
+    HARD_LINK,
+
+    /**
+     * Deployed file or directory is a single symbolic link to the staged copy.
+     */
+    SYMBOLIC_LINK
+  }
+
+  /**
+   * How output of processes started in environment is consumed.
+   */
+  public enum OutputDrainingMode {
+    /**
+     * Output is not read. Caller has to consume process's streams.
+     */
+    NONE,
+
+    /**
+     * Output is redirected by the operating system to files in {@value #PROCESS_OUTPUT_DIR_NAME}
+     * directory of environment, without any threads. Files of n-th started process are named n.out
+     * and n.err.
+     */
+    FILE,
+
+    /**
+     * Output is pumped by {@link StreamDrainer} into bounded in-memory buffers which keep only the
+     * most recent bytes. Each running process occupies two threads blocked on reading its
+     * standard and error output until it exits, so with many long-running processes
+     * {@link #FILE} should be preferred.
+     */
+    MEMORY
+  }
 
   /**
    * @param id Environment's id
@@ -22,36 +114,93 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
    * @param fileUtils file utilities to use
    */
   public LocalEnvironment(int id, Path dir, FileUtils fileUtils) {
+    this(id, dir, fileUtils, null, DeploymentMode.COPY);
+  }
+
+  /**
+   * @param id Environment's id
+   * @param dir Environment's home directory
+   * @param fileUtils file utilities to use
+   * @param stagingArea staging area shared with other environments. May be null if
+   *                    deploymentMode is COPY.
+   * @param deploymentMode how to deploy files copied from local disk
+   */
+  public LocalEnvironment(int id,
+                          Path dir,
+                          FileUtils fileUtils,
+                          LocalStagingArea stagingArea,
+                          DeploymentMode deploymentMode) {
+    this(id,
+        dir,
+        fileUtils,
+        stagingArea,
+        deploymentMode,
+        OutputDrainingMode.NONE,
+        DEFAULT_OUTPUT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param id Environment's id
+   * @param dir Environment's home directory
+   * @param fileUtils file utilities to use
+   * @param stagingArea staging area shared with other environments. May be null if
+   *                    deploymentMode is COPY.
+   * @param deploymentMode how to deploy files copied from local disk
+   * @param outputDrainingMode how to consume output of started processes
+   * @param outputBufferSize size in bytes of each in-memory output buffer in MEMORY draining mode
+   */
+  public LocalEnvironment(int id,
+                          Path dir,
+                          FileUtils fileUtils,
+                          LocalStagingArea stagingArea,
+                          DeploymentMode deploymentMode,
+                          OutputDrainingMode outputDrainingMode,
+                          int outputBufferSize) {
     super();
+    if (stagingArea == null && deploymentMode != DeploymentMode.COPY) {
+      throw new IllegalArgumentException("Staging area is required to deploy files by links.");
+    }
+    if (outputBufferSize <= 0) {
+      throw new IllegalArgumentException("Output buffer size was nonpositive.");
+    }
     mId = id;
     mDir = dir;
     mFileUtils = fileUtils;
+    mStagingArea = stagingArea;
+    mDeploymentMode = deploymentMode;
+    mOutputDrainingMode = outputDrainingMode;
+    mOutputBufferSize = outputBufferSize;
   }
 
   @Override
   public void copyFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException {
     Path destPath = mDir.resolve(destRelPath);
-    if (!mFileUtils.exists(destPath)) {
-      mFileUtils.createDirectories(destPath);
-    } else if (!mFileUtils.isDirectory(destPath)) {
-      throw new IOException("Destination path exists and it is not a directory.");
-    }
-    if (mFileUtils.isDirectory(srcPath)) {
+    createDestinationDirectory(destPath);
+    if (mDeploymentMode != DeploymentMode.COPY) {
+      mStagingArea.deploy(srcPath, destPath, mDeploymentMode);
+    } else if (mFileUtils.isDirectory(srcPath)) {
       mFileUtils.copyDirectoryToDirectory(srcPath.toFile(), destPath.toFile());
     } else {
       mFileUtils.copyFileToDirectory(srcPath.toFile(), destPath.toFile());
     }
   }
 
+  @Override
+  public ListenableFuture<Void> copyFilesFromLocalDiskAsync(final Path srcPath,
+                                                            final String destRelPath) {
+    return FILE_OPERATION_EXECUTOR.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        copyFilesFromLocalDisk(srcPath, destRelPath);
+        return null;
+      }
+    });
+  }
+
   @Override
   public void copyFilesToLocalDisk(String srcRelPath, Path destPath) throws IOException {
     Path srcPath = mDir.resolve(srcRelPath);
-    if (!mFileUtils.exists(destPath)) {
-      mFileUtils.createDirectories(destPath);
-    } else if (!mFileUtils.isDirectory(destPath)) {
-      throw new IOException(
-          "Destination path exists and it is not a directory.");
-    }
+    createDestinationDirectory(destPath);
     if (mFileUtils.isDirectory(srcPath)) {
       mFileUtils.copyDirectoryToDirectory(srcPath.toFile(), destPath.toFile());
     } else {
@@ -59,6 +208,18 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
     }
   }
 
+  @Override
+  public ListenableFuture<Void> copyFilesToLocalDiskAsync(final String srcRelPath,
+                                                          final Path destPath) {
+    return FILE_OPERATION_EXECUTOR.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        copyFilesToLocalDisk(srcRelPath, destPath);
+        return null;
+      }
+    });
+  }
+
   @Override
   public String getHostname() {
     return "localhost";
@@ -74,6 +235,28 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
     return mDir.toAbsolutePath().toString();
   }
 
+  @Override
+  public ListenableFuture<Integer> onExit(RemoteProcess process) {
+    if (!(process instanceof ProcessAdapter)) {
+      throw new IllegalArgumentException("Process was not started by this environment.");
+    }
+    final ProcessAdapter processAdapter = (ProcessAdapter) process;
+    ListenableFuture<Void> exitFuture = ProcessExitPoller.getProcessExitPoller().register(
+        new ProcessExitPoller.ExitCheck() {
+          @Override
+          public boolean hasExited() {
+            return processAdapter.hasExited();
+          }
+        });
+    // Process has exited and its output has been drained, so nothing blocks here.
+    return Futures.transform(exitFuture, new Function<Void, Integer>() {
+      @Override
+      public Integer apply(Void input) {
+        return processAdapter.getExitCode();
+      }
+    });
+  }
+
   @Override
   public RemoteProcess runCommand(List<String> command) throws InterruptedException, IOException {
     RemoteProcess process = runCommandAsynchronously(command);
@@ -83,8 +266,45 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
 
   @Override
   public RemoteProcess runCommandAsynchronously(List<String> command) throws IOException {
-    Process process = mFileUtils.runCommand(command, mDir.toFile());
-    return new ProcessAdapter(process);
+    switch (mOutputDrainingMode) {
+      case FILE:
+        Path outputDirPath = mDir.resolve(PROCESS_OUTPUT_DIR_NAME);
+        mFileUtils.createDirectories(outputDirPath);
+        int processIdx = mProcessCount.getAndIncrement();
+        Path outputPath = outputDirPath.resolve(processIdx + ".out");
+        Path errorPath = outputDirPath.resolve(processIdx + ".err");
+        Process redirectedProcess = mFileUtils.runCommand(command,
+            mDir.toFile(),
+            outputPath.toFile(),
+            errorPath.toFile());
+        return new ProcessAdapter(redirectedProcess,
+            new FileCapturedOutput(outputPath),
+            new FileCapturedOutput(errorPath));
+      case MEMORY:
+        Process drainedProcess = mFileUtils.runCommand(command, mDir.toFile());
+        return new ProcessAdapter(drainedProcess,
+            new MemoryCapturedOutput(drainedProcess.getInputStream(), mOutputBufferSize),
+            new MemoryCapturedOutput(drainedProcess.getErrorStream(), mOutputBufferSize));
+      case NONE:
+      default:
+        return new ProcessAdapter(mFileUtils.runCommand(command, mDir.toFile()));
+    }
+  }
+
+  @Override
+  public ListenableFuture<RemoteProcess> runCommandAsync(List<String> command) {
+    final RemoteProcess process;
+    try {
+      process = runCommandAsynchronously(command);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    return Futures.transform(onExit(process), new Function<Integer, RemoteProcess>() {
+      @Override
+      public RemoteProcess apply(Integer exitCode) {
+        return process;
+      }
+    });
   }
 
   @Override
@@ -92,11 +312,149 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
     mFileUtils.deleteQuietly(mDir.resolve(relPath).toFile());
   }
 
+  @Override
+  public ListenableFuture<Void> removeFileAsync(final String relPath) {
+    return FILE_OPERATION_EXECUTOR.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        removeFile(relPath);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public SyncResult syncFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException {
+    Path destPath = mDir.resolve(destRelPath);
+    createDestinationDirectory(destPath);
+    if (mDeploymentMode != DeploymentMode.COPY) {
+      return mStagingArea.deploy(srcPath, destPath, mDeploymentMode);
+    }
+    if (!mFileUtils.isDirectory(srcPath)) {
+      mFileUtils.copyFileToDirectory(srcPath.toFile(), destPath.toFile());
+      return new SyncResult(1, srcPath.toFile().length(), 0, 0);
+    }
+
+    Path syncedDirPath = destPath.resolve(srcPath.getFileName().toString());
+    Path manifestPath = syncedDirPath.resolve(FileManifest.MANIFEST_FILE_NAME);
+    FileManifest localManifest = FileManifest.fromDirectory(srcPath);
+    FileManifest cachedManifest = FileManifest.empty();
+    if (mFileUtils.exists(manifestPath)) {
+      cachedManifest = FileManifest.fromLines(mFileUtils.readAllLines(manifestPath));
+    }
+
+    for (String relPath : localManifest.findRemovedPaths(cachedManifest)) {
+      mFileUtils.deleteQuietly(syncedDirPath.resolve(relPath).toFile());
+    }
+    List<String> changedPaths = localManifest.findChangedPaths(cachedManifest);
+    long transferredByteCount = 0;
+    for (String relPath : changedPaths) {
+      Path targetDirPath = syncedDirPath.resolve(relPath).getParent();
+      mFileUtils.createDirectories(targetDirPath);
+      mFileUtils.copyFileToDirectory(srcPath.resolve(relPath).toFile(), targetDirPath.toFile());
+      transferredByteCount += localManifest.getSize(relPath);
+    }
+    mFileUtils.createDirectories(syncedDirPath);
+    mFileUtils.deleteQuietly(manifestPath.toFile());
+    mFileUtils.write(manifestPath, StringUtils.join(localManifest.toLines(), '\n'));
+
+    return new SyncResult(changedPaths.size(),
+        transferredByteCount,
+        localManifest.getPaths().size() - changedPaths.size(),
+        localManifest.getTotalSize() - transferredByteCount);
+  }
+
+  /**
+   * Output of a process consumed by this environment.
+   */
+  private interface CapturedOutput {
+    /**
+     * Blocks until whole output of finished process has been captured.
+     */
+    void awaitEnd() throws InterruptedException;
+
+    /**
+     * @return whether whole output of finished process has been captured
+     */
+    boolean hasEnded();
+
+    /**
+     * @return stream of output captured so far
+     */
+    InputStream newInputStream();
+  }
+
+  private static class FileCapturedOutput implements CapturedOutput {
+    private final Path mPath;
+
+    public FileCapturedOutput(Path path) {
+      mPath = path;
+    }
+
+    @Override
+    public void awaitEnd() {
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return true;
+    }
+
+    @Override
+    public InputStream newInputStream() {
+      try {
+        return new FileInputStream(mPath.toFile());
+      } catch (FileNotFoundException e) {
+        LOGGER.warn("newInputStream(): Could not open captured output file.", e);
+        return new ByteArrayInputStream(new byte[0]);
+      }
+    }
+  }
+
+  private static class MemoryCapturedOutput implements CapturedOutput {
+    private final RingBufferOutputStream mBuffer;
+    private final Future<Long> mDrainFuture;
+
+    public MemoryCapturedOutput(InputStream inputStream, int bufferSize) {
+      mBuffer = new RingBufferOutputStream(bufferSize);
+      mDrainFuture = StreamDrainer.drain(inputStream, mBuffer);
+    }
+
+    @Override
+    public void awaitEnd() throws InterruptedException {
+      try {
+        mDrainFuture.get();
+      } catch (ExecutionException e) {
+        LOGGER.warn("awaitEnd(): Could not drain output.", e);
+      }
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return mDrainFuture.isDone();
+    }
+
+    @Override
+    public InputStream newInputStream() {
+      return new ByteArrayInputStream(mBuffer.toByteArray());
+    }
+  }
+
   private static class ProcessAdapter implements RemoteProcess {
     private final Process mProcess;
+    private final CapturedOutput mCapturedOutput;
+    private final CapturedOutput mCapturedError;
 
     public ProcessAdapter(Process process) {
+      this(process, null, null);
+    }
+
+    public ProcessAdapter(Process process,
+                          CapturedOutput capturedOutput,
+                          CapturedOutput capturedError) {
       mProcess = process;
+      mCapturedOutput = capturedOutput;
+      mCapturedError = capturedError;
     }
 
     @Override
@@ -106,12 +464,18 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
 
     @Override
     public InputStream getErrorStream() {
-      return mProcess.getErrorStream();
+      if (mCapturedError == null) {
+        return mProcess.getErrorStream();
+      }
+      return mCapturedError.newInputStream();
     }
 
     @Override
     public InputStream getInputStream() {
-      return mProcess.getInputStream();
+      if (mCapturedOutput == null) {
+        return mProcess.getInputStream();
+      }
+      return mCapturedOutput.newInputStream();
     }
 
     @Override
@@ -119,9 +483,42 @@ public class LocalEnvironment extends AbstractConfigurationEnvironment {
       return mProcess.getOutputStream();
     }
 
+    /**
+     * @return exit code of process which has exited
+     */
+    public int getExitCode() {
+      return mProcess.exitValue();
+    }
+
+    /**
+     * @return whether process has exited and its drained output has been captured
+     */
+    public boolean hasExited() {
+      try {
+        mProcess.exitValue();
+      } catch (IllegalThreadStateException e) {
+        return false;
+      }
+      return mCapturedOutput == null
+          || (mCapturedOutput.hasEnded() && mCapturedError.hasEnded());
+    }
+
     @Override
     public int waitFor() throws InterruptedException {
-      return mProcess.waitFor();
+      int exitValue = mProcess.waitFor();
+      if (mCapturedOutput != null) {
+        mCapturedOutput.awaitEnd();
+        mCapturedError.awaitEnd();
+      }
+      return exitValue;
+    }
+  }
+
+  private void createDestinationDirectory(Path destPath) throws IOException {
+    if (!mFileUtils.exists(destPath)) {
+      mFileUtils.createDirectories(destPath);
+    } else if (!mFileUtils.isDirectory(destPath)) {
+      throw new IOException("Destination path exists and it is not a directory.");
     }
   }
 }
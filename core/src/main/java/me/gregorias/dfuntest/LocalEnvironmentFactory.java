@@ -21,12 +21,27 @@ import org.slf4j.LoggerFactory;
 public class LocalEnvironmentFactory implements EnvironmentFactory<Environment> {
   public static final String ENV_COUNT_ARGUMENT_NAME = "LocalEnvironmentFactory.environmentCount";
   public static final String DIR_PREFIX_ARGUMENT_NAME = "LocalEnvironmentFactory.dirPrefix";
+  public static final String DEPLOYMENT_MODE_ARGUMENT_NAME =
+      "LocalEnvironmentFactory.deploymentMode";
+  public static final LocalEnvironment.DeploymentMode DEFAULT_DEPLOYMENT_MODE =
+      LocalEnvironment.DeploymentMode.COPY;
+  public static final String OUTPUT_DRAINING_MODE_ARGUMENT_NAME =
+      "LocalEnvironmentFactory.outputDrainingMode";
+  public static final String OUTPUT_BUFFER_SIZE_ARGUMENT_NAME =
+      "LocalEnvironmentFactory.outputBufferSize";
+  public static final LocalEnvironment.OutputDrainingMode DEFAULT_OUTPUT_DRAINING_MODE =
+      LocalEnvironment.OutputDrainingMode.NONE;
   private static final Logger LOGGER = LoggerFactory.getLogger(LocalEnvironmentFactory.class);
   private static final String ENV_CONFIG_ROOT_DIR = "localEnvironmentFactoryRootDir";
+  private static final String STAGING_DIR_SUFFIX = "staging";
 
   private final int mEnvironmentCount;
   private final String mDirPrefix;
   private final FileUtils mFileUtils;
+  private LocalEnvironment.DeploymentMode mDeploymentMode;
+  private LocalEnvironment.OutputDrainingMode mOutputDrainingMode;
+  private int mOutputBufferSize;
+  private final LocalStagingArea mStagingArea;
 
   /**
    * @param environmentCount number of environments create will make
@@ -34,14 +49,78 @@ public class LocalEnvironmentFactory implements EnvironmentFactory<Environment>
    * @param fileUtils FileUtils to use
    */
   public LocalEnvironmentFactory(int environmentCount, String dirPrefix, FileUtils fileUtils) {
+    this(environmentCount, dirPrefix, DEFAULT_DEPLOYMENT_MODE, fileUtils);
+  }
+
+  /**
+   * @param environmentCount number of environments create will make
+   * @param dirPrefix directory prefix used for creating temporary directories
+   * @param deploymentMode how created environments deploy files copied from local disk. Files
+   *                       deployed by links are staged once in a directory shared by all
+   *                       environments of this factory.
+   * @param fileUtils FileUtils to use
+   */
+  public LocalEnvironmentFactory(int environmentCount,
+                                 String dirPrefix,
+                                 LocalEnvironment.DeploymentMode deploymentMode,
+                                 FileUtils fileUtils) {
+    this(environmentCount,
+        dirPrefix,
+        deploymentMode,
+        DEFAULT_OUTPUT_DRAINING_MODE,
+        LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE,
+        fileUtils);
+  }
+
+  /**
+   * @param environmentCount number of environments create will make
+   * @param dirPrefix directory prefix used for creating temporary directories
+   * @param deploymentMode how created environments deploy files copied from local disk
+   * @param outputDrainingMode how created environments consume output of started processes
+   * @param outputBufferSize size in bytes of in-memory output buffers
+   * @param fileUtils FileUtils to use
+   */
+  public LocalEnvironmentFactory(int environmentCount,
+                                 String dirPrefix,
+                                 LocalEnvironment.DeploymentMode deploymentMode,
+                                 LocalEnvironment.OutputDrainingMode outputDrainingMode,
+                                 int outputBufferSize,
+                                 FileUtils fileUtils) {
     if (environmentCount <= 0) {
       throw new IllegalArgumentException("Number of environments was nonpositive.");
     }
+    checkOutputBufferSize(outputBufferSize);
     mEnvironmentCount = environmentCount;
     mDirPrefix = dirPrefix;
     mFileUtils = fileUtils;
+    mDeploymentMode = deploymentMode;
+    mOutputDrainingMode = outputDrainingMode;
+    mOutputBufferSize = outputBufferSize;
+    mStagingArea = new LocalStagingArea(dirPrefix + STAGING_DIR_SUFFIX, fileUtils);
+  }
+
+  public LocalEnvironmentFactory(int environmentCount,
+                                 String dirPrefix,
+                                 LocalEnvironment.DeploymentMode deploymentMode,
+                                 LocalEnvironment.OutputDrainingMode outputDrainingMode,
+                                 int outputBufferSize) {
+    this(environmentCount,
+        dirPrefix,
+        deploymentMode,
+        outputDrainingMode,
+        outputBufferSize,
+        FileUtilsImpl.getFileUtilsImpl());
   }
 
+  /**
+   * Creates factory with default deployment mode, output draining mode and output buffer size.
+   * Guice overrides them with {@link #setDeploymentMode(LocalEnvironment.DeploymentMode)},
+   * {@link #setOutputDrainingMode(LocalEnvironment.OutputDrainingMode)} and
+   * {@link #setOutputBufferSize(int)} if their properties are bound.
+   *
+   * @param environmentCount number of environments create will make
+   * @param dirPrefix directory prefix used for creating temporary directories
+   */
   @Inject
   public LocalEnvironmentFactory(
       @Named(ENV_COUNT_ARGUMENT_NAME) int environmentCount,
@@ -49,6 +128,43 @@ public class LocalEnvironmentFactory implements EnvironmentFactory<Environment>
     this(environmentCount, dirPrefix, FileUtilsImpl.getFileUtilsImpl());
   }
 
+  /**
+   * Overrides how environments created after this call deploy files copied from local disk.
+   * Guice calls it only if {@value #DEPLOYMENT_MODE_ARGUMENT_NAME} is bound.
+   *
+   * @param deploymentMode how to deploy files copied from local disk
+   */
+  @Inject(optional = true)
+  public void setDeploymentMode(
+      @Named(DEPLOYMENT_MODE_ARGUMENT_NAME) LocalEnvironment.DeploymentMode deploymentMode) {
+    mDeploymentMode = deploymentMode;
+  }
+
+  /**
+   * Overrides how environments created after this call consume output of started processes.
+   * Guice calls it only if {@value #OUTPUT_DRAINING_MODE_ARGUMENT_NAME} is bound.
+   *
+   * @param outputDrainingMode how to consume output of started processes
+   */
+  @Inject(optional = true)
+  public void setOutputDrainingMode(
+      @Named(OUTPUT_DRAINING_MODE_ARGUMENT_NAME)
+      LocalEnvironment.OutputDrainingMode outputDrainingMode) {
+    mOutputDrainingMode = outputDrainingMode;
+  }
+
+  /**
+   * Overrides size of in-memory output buffers of environments created after this call. Guice
+   * calls it only if {@value #OUTPUT_BUFFER_SIZE_ARGUMENT_NAME} is bound.
+   *
+   * @param outputBufferSize size in bytes of each in-memory output buffer
+   */
+  @Inject(optional = true)
+  public void setOutputBufferSize(@Named(OUTPUT_BUFFER_SIZE_ARGUMENT_NAME) int outputBufferSize) {
+    checkOutputBufferSize(outputBufferSize);
+    mOutputBufferSize = outputBufferSize;
+  }
+
   @Override
   public Collection<Environment> create() throws IOException {
     LOGGER.info("create()");
@@ -57,7 +173,13 @@ public class LocalEnvironmentFactory implements EnvironmentFactory<Environment>
     for (int envIdx = 0; envIdx < mEnvironmentCount; ++envIdx) {
       Path tempDirPath;
       tempDirPath = mFileUtils.createTempDirectory(mDirPrefix);
-      LocalEnvironment env = new LocalEnvironment(envIdx, tempDirPath, mFileUtils);
+      LocalEnvironment env = newEnvironment(envIdx,
+          tempDirPath,
+          mFileUtils,
+          mStagingArea,
+          mDeploymentMode,
+          mOutputDrainingMode,
+          mOutputBufferSize);
       env.setProperty(ENV_CONFIG_ROOT_DIR, tempDirPath);
       environments.add(env);
     }
@@ -77,5 +199,41 @@ public class LocalEnvironmentFactory implements EnvironmentFactory<Environment>
       }
       mFileUtils.deleteQuietly(dirPath.toFile());
     }
+    mStagingArea.destroy();
+  }
+
+  private static void checkOutputBufferSize(int outputBufferSize) {
+    if (outputBufferSize <= 0) {
+      throw new IllegalArgumentException("Output buffer size was nonpositive.");
+    }
+  }
+
+  /**
+   * Creates a single environment. Subclasses may override it to create other kinds of local
+   * environments.
+   *
+   * @param id Environment's id
+   * @param dir Environment's home directory
+   * @param fileUtils file utilities to use
+   * @param stagingArea staging area shared by environments of this factory
+   * @param deploymentMode how to deploy files copied from local disk
+   * @param outputDrainingMode how to consume output of started processes
+   * @param outputBufferSize size in bytes of each in-memory output buffer
+   * @return new environment
+   */
+  protected LocalEnvironment newEnvironment(int id,
+                                            Path dir,
+                                            FileUtils fileUtils,
+                                            LocalStagingArea stagingArea,
+                                            LocalEnvironment.DeploymentMode deploymentMode,
+                                            LocalEnvironment.OutputDrainingMode outputDrainingMode,
+                                            int outputBufferSize) {
+    return new LocalEnvironment(id,
+        dir,
+        fileUtils,
+        stagingArea,
+        deploymentMode,
+        outputDrainingMode,
+        outputBufferSize);
   }
 }
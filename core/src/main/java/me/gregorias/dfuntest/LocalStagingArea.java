@@ -0,0 +1,296 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Local directory holding one read-only staged copy of every file deployed to
+ * {@link LocalEnvironment}s which share it. Environments get hard links or symbolic links to the
+ * staged copy instead of their own copy, so deployment time and disk usage do not depend on the
+ * number of environments.
+ * </p>
+ *
+ * <p>
+ * A source path is staged on its first deployment and staged again whenever size or modification
+ * time of any of its files changes, or files are added or removed. Superseded copies are kept
+ * until the area is destroyed, since environments may still link to them. If links can not be
+ * created, for example because the environment is on a different filesystem than the staging
+ * area, files are copied instead. Reflinks (copy-on-write clones) are not available through the
+ * Java 7 file API, so they are not used.
+ * </p>
+ *
+ * <p>
+ * Deployment is incremental. Only files whose size or modification time differs from their
+ * staged copy are linked again, and files which are no longer staged are removed.
+ * </p>
+ */
+public class LocalStagingArea {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalStagingArea.class);
+  private final String mDirPrefix;
+  private final FileUtils mFileUtils;
+  private final Map<Path, StagedEntry> mStagedEntries = new HashMap<>();
+  private Path mStagingDirPath;
+  private int mStagedCopyCount = 0;
+  private volatile boolean mAreLinksSupported = true;
+
+  /**
+   * @param dirPrefix prefix of temporary directory holding staged files
+   * @param fileUtils file utilities to use
+   */
+  public LocalStagingArea(String dirPrefix, FileUtils fileUtils) {
+    mDirPrefix = dirPrefix;
+    mFileUtils = fileUtils;
+  }
+
+  /**
+   * Makes srcPath available in destDirPath by linking it to its staged copy. Existing file or
+   * directory with the same name in destination is updated to match the staged copy.
+   *
+   * @param srcPath local file or directory to deploy
+   * @param destDirPath existing directory into which srcPath should be deployed
+   * @param mode how to link deployed files, either HARD_LINK or SYMBOLIC_LINK
+   * @return summary of deployment. Files which differed from the previous deployment are
+   *         reported as transferred and files which were already in place as skipped.
+   */
+  public SyncResult deploy(Path srcPath, Path destDirPath, LocalEnvironment.DeploymentMode mode)
+      throws IOException {
+    if (mode == LocalEnvironment.DeploymentMode.COPY) {
+      throw new IllegalArgumentException("Copy deployment does not use staging area.");
+    }
+
+    StagedEntry stagedEntry = stageEntry(srcPath);
+    Path targetPath = destDirPath.resolve(srcPath.getFileName().toString());
+    if (mode == LocalEnvironment.DeploymentMode.SYMBOLIC_LINK && mAreLinksSupported) {
+      Map<String, FileFingerprint> deployedFiles = readFingerprints(targetPath);
+      if (Files.isSymbolicLink(targetPath)
+          && Files.readSymbolicLink(targetPath).equals(stagedEntry.mPath)) {
+        return compareFiles(stagedEntry.mFiles, deployedFiles);
+      }
+      try {
+        mFileUtils.deleteQuietly(targetPath.toFile());
+        mFileUtils.createSymbolicLink(targetPath, stagedEntry.mPath);
+        return compareFiles(stagedEntry.mFiles, deployedFiles);
+      } catch (IOException | UnsupportedOperationException e) {
+        disableLinks(e);
+      }
+    }
+    return linkTree(stagedEntry, targetPath);
+  }
+
+  /**
+   * Removes all staged files.
+   */
+  public synchronized void destroy() {
+    if (mStagingDirPath != null) {
+      mFileUtils.deleteQuietly(mStagingDirPath.toFile());
+      mStagingDirPath = null;
+    }
+    mStagedEntries.clear();
+  }
+
+  /**
+   * Returns path to read-only copy of srcPath, copying it if it has not been staged yet or has
+   * changed since it was staged.
+   *
+   * @param srcPath local file or directory
+   * @return path to staged copy of srcPath
+   */
+  public Path stage(Path srcPath) throws IOException {
+    return stageEntry(srcPath).mPath;
+  }
+
+  /**
+   * Size and modification time of a file, used to detect changed files without reading them.
+   */
+  private static class FileFingerprint {
+    private final long mSize;
+    private final long mLastModifiedMillis;
+
+    public FileFingerprint(long size, long lastModifiedMillis) {
+      mSize = size;
+      mLastModifiedMillis = lastModifiedMillis;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof FileFingerprint)) {
+        return false;
+      }
+      FileFingerprint other = (FileFingerprint) obj;
+      return mSize == other.mSize && mLastModifiedMillis == other.mLastModifiedMillis;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (mSize ^ mLastModifiedMillis);
+    }
+  }
+
+  private static class StagedEntry {
+    private final Path mPath;
+    private final Map<String, FileFingerprint> mFiles;
+
+    public StagedEntry(Path path, Map<String, FileFingerprint> files) {
+      mPath = path;
+      mFiles = files;
+    }
+  }
+
+  // Counts files which differ from their deployed version as transferred and others as skipped.
+  private static SyncResult compareFiles(Map<String, FileFingerprint> stagedFiles,
+                                         Map<String, FileFingerprint> deployedFiles) {
+    int changedFileCount = 0;
+    long changedByteCount = 0;
+    int unchangedFileCount = 0;
+    long unchangedByteCount = 0;
+    for (Map.Entry<String, FileFingerprint> file : stagedFiles.entrySet()) {
+      if (file.getValue().equals(deployedFiles.get(file.getKey()))) {
+        unchangedFileCount += 1;
+        unchangedByteCount += file.getValue().mSize;
+      } else {
+        changedFileCount += 1;
+        changedByteCount += file.getValue().mSize;
+      }
+    }
+    return new SyncResult(changedFileCount, changedByteCount, unchangedFileCount,
+        unchangedByteCount);
+  }
+
+  private void disableLinks(Exception cause) {
+    if (mAreLinksSupported) {
+      LOGGER.warn("disableLinks(): Could not create link. Falling back to copying.", cause);
+      mAreLinksSupported = false;
+    }
+  }
+
+  // Makes targetPath a tree of hard links to staged files. Only files which differ from their
+  // staged copy are linked again and files which are not staged are removed.
+  private SyncResult linkTree(StagedEntry stagedEntry, Path targetPath) throws IOException {
+    if (Files.isSymbolicLink(targetPath)) {
+      mFileUtils.deleteQuietly(targetPath.toFile());
+    }
+    Map<String, FileFingerprint> deployedFiles = readFingerprints(targetPath);
+    Path stagedBasePath = stagedEntry.mPath.getParent();
+    Path targetBasePath = targetPath.getParent();
+    for (String relPath : deployedFiles.keySet()) {
+      if (!stagedEntry.mFiles.containsKey(relPath)) {
+        mFileUtils.deleteQuietly(targetBasePath.resolve(relPath).toFile());
+      }
+    }
+
+    for (Map.Entry<String, FileFingerprint> file : stagedEntry.mFiles.entrySet()) {
+      if (file.getValue().equals(deployedFiles.get(file.getKey()))) {
+        continue;
+      }
+      Path stagedFilePath = stagedBasePath.resolve(file.getKey());
+      Path linkPath = targetBasePath.resolve(file.getKey());
+      mFileUtils.deleteQuietly(linkPath.toFile());
+      mFileUtils.createDirectories(linkPath.getParent());
+      boolean isLinked = false;
+      if (mAreLinksSupported) {
+        try {
+          mFileUtils.createLink(linkPath, stagedFilePath);
+          isLinked = true;
+        } catch (IOException | UnsupportedOperationException e) {
+          disableLinks(e);
+        }
+      }
+      if (!isLinked) {
+        mFileUtils.copyFileToDirectory(stagedFilePath.toFile(), linkPath.getParent().toFile());
+      }
+    }
+    if (mFileUtils.isDirectory(stagedEntry.mPath)) {
+      mFileUtils.createDirectories(targetPath);
+    }
+    return compareFiles(stagedEntry.mFiles, deployedFiles);
+  }
+
+  // Makes staged files read-only.
+  private static void makeReadOnly(Path stagedPath) throws IOException {
+    Files.walkFileTree(stagedPath, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (!file.toFile().setWritable(false, false)) {
+          LOGGER.warn("makeReadOnly(): Could not make {} read-only.", file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // Returns fingerprints of regular files in path keyed by their path relative to path's parent,
+  // with '/' as a separator. Returns empty map if path does not exist.
+  private static Map<String, FileFingerprint> readFingerprints(Path path) throws IOException {
+    final Map<String, FileFingerprint> files = new HashMap<>();
+    if (!Files.exists(path)) {
+      return files;
+    }
+    final Path basePath = path.toAbsolutePath().normalize().getParent();
+    Files.walkFileTree(path.toAbsolutePath().normalize(),
+        EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+        Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (attrs.isRegularFile()) {
+              files.put(toRelativePath(basePath, file),
+                  new FileFingerprint(attrs.size(), attrs.lastModifiedTime().toMillis()));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return files;
+  }
+
+  private static String toRelativePath(Path basePath, Path path) {
+    StringBuilder builder = new StringBuilder();
+    for (Path element : basePath.relativize(path)) {
+      if (builder.length() > 0) {
+        builder.append('/');
+      }
+      builder.append(element.toString());
+    }
+    return builder.toString();
+  }
+
+  private synchronized StagedEntry stageEntry(Path srcPath) throws IOException {
+    Path absoluteSrcPath = srcPath.toAbsolutePath().normalize();
+    StagedEntry stagedEntry = mStagedEntries.get(absoluteSrcPath);
+    if (stagedEntry != null && stagedEntry.mFiles.equals(readFingerprints(absoluteSrcPath))) {
+      return stagedEntry;
+    }
+
+    if (mStagingDirPath == null) {
+      mStagingDirPath = mFileUtils.createTempDirectory(mDirPrefix);
+    }
+    Path stagedDirPath = mStagingDirPath.resolve(Integer.toString(mStagedCopyCount));
+    ++mStagedCopyCount;
+    mFileUtils.createDirectories(stagedDirPath);
+    LOGGER.debug("stageEntry(): Staging {} in {}.", absoluteSrcPath, stagedDirPath);
+    if (mFileUtils.isDirectory(absoluteSrcPath)) {
+      mFileUtils.copyDirectoryToDirectory(absoluteSrcPath.toFile(), stagedDirPath.toFile());
+    } else {
+      mFileUtils.copyFileToDirectory(absoluteSrcPath.toFile(), stagedDirPath.toFile());
+    }
+    // Copies keep modification times of their sources, so fingerprints of the staged copy are
+    // compared with the source on later calls.
+    Path stagedPath = stagedDirPath.resolve(absoluteSrcPath.getFileName().toString());
+    makeReadOnly(stagedPath);
+    stagedEntry = new StagedEntry(stagedPath, readFingerprints(stagedPath));
+    mStagedEntries.put(absoluteSrcPath, stagedEntry);
+    return stagedEntry;
+  }
+}
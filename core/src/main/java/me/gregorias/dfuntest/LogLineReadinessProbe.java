@@ -0,0 +1,44 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Probe which is ready once a file in environment contains given fixed string, for example a log
+ * line printed by an application once it has started.
+ *
+ * The file is searched with grep run on the environment. Since some environments pass commands
+ * through a shell, the string should not contain whitespace or characters special to the shell.
+ */
+public class LogLineReadinessProbe implements ReadinessProbe {
+  private final Environment mEnvironment;
+  private final String mRelPath;
+  private final String mLine;
+
+  /**
+   * @param environment environment containing the file
+   * @param relPath relative path to the file in environment
+   * @param line fixed string to look for
+   */
+  public LogLineReadinessProbe(Environment environment, String relPath, String line) {
+    mEnvironment = environment;
+    mRelPath = relPath;
+    mLine = line;
+  }
+
+  @Override
+  public boolean isReady() throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add("grep");
+    command.add("-qF");
+    command.add(mLine);
+    command.add(mRelPath);
+    return mEnvironment.runCommand(command).waitFor() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("LogLineReadinessProbe[%d:%s]", mEnvironment.getId(), mRelPath);
+  }
+}
@@ -1,22 +1,48 @@
 package me.gregorias.dfuntest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.StreamDrainer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <p>
- * Basic implementation of TestRunner which runs sequentially multiple test script on given
- * environments and apps.
+ * Basic implementation of TestRunner which runs multiple test script on given environments and
+ * apps.
  * </p>
  *
  * <p>
@@ -30,6 +56,46 @@ import java.util.Set;
  * After all tests, environments are destroyed iff shouldCleanEnvironments flag is set to true.
  * </p>
  *
+ * <p>
+ * By default scripts are run sequentially on all environments, including scripts implementing
+ * {@link ParallelizableTestScript}. If maxConcurrentScripts is greater than one, up to that many
+ * scripts run at the same time on disjoint groups of environments. A script implementing
+ * {@link ParallelizableTestScript} gets a group of the size it requires, any other script gets
+ * all environments. Every group goes through its own prepare/restore, collect and clean cycle,
+ * so in this mode {@link EnvironmentPreparator} has to be safe to call concurrently on disjoint
+ * collections of environments. Results are written to the summary report
+ * in scripts' iteration order regardless of the order in which they finish. If the runner is
+ * interrupted, finished results still waiting for an earlier script are written right away.
+ * </p>
+ *
+ * <p>
+ * Results are written by a {@link ReportWriter} to {@value #REPORT_FILENAME}, JSON Lines and JUnit
+ * XML files in the report directory as soon as they are known. Only types of results are kept
+ * until the end of the run, so memory used by reporting does not grow with results' size.
+ * </p>
+ *
+ * <p>
+ * Duration of every phase (environment creation, preparation or restoration, application
+ * construction, script run, output collection, cleaning and environment destruction) is recorded
+ * per script and environment in a {@link TimingReport} which is written as CSV to
+ * {@value #TIMING_REPORT_FILENAME} next to the summary report, even if the run fails. Phases run
+ * by {@link ParallelEnvironmentExecutor} additionally get a duration per environment.
+ * </p>
+ *
+ * <p>
+ * Artifacts of a script's {@link TestResult}, such as measurements, are written to the script's
+ * report directory next to its {@value #REPORT_FILENAME}.
+ * </p>
+ *
+ * <p>
+ * If scriptTimeoutMillis is positive, or a script is a {@link TimeLimitedTestScript} with a
+ * positive time limit, the script runs on a separate thread watched by the thread of its
+ * environment group. Once the limit passes, thread dumps of apps are taken with their
+ * {@link App#getThreadDumpCommand()} and saved as artifacts, the script is interrupted, apps are
+ * destroyed and the script's result is {@link TestResult.Type#TIMEOUT}. Other scripts are run
+ * as usual.
+ * </p>
+ *
  * @author Grzegorz Milka
  *
  * @param <EnvironmentT>
@@ -38,6 +104,7 @@ import java.util.Set;
 public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<EnvironmentT>>
     implements TestRunner {
   public static final String REPORT_FILENAME = "report.txt";
+  public static final String TIMING_REPORT_FILENAME = "timing.csv";
   public static final String SCRIPTS_ARGUMENT_NAME = "MultiTestRunner.scripts";
   public static final String SHOULD_PREPARE_ARGUMENT_NAME =
       "MultiTestRunner.shouldPrepareEnvironments";
@@ -45,7 +112,16 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
       "MultiTestRunner.shouldCleanEnvironments";
   public static final String REPORT_PATH_ARGUMENT_NAME =
       "MultiTestRunner.reportPath";
+  public static final String MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME =
+      "MultiTestRunner.maxConcurrentScripts";
+  public static final String SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME =
+      "MultiTestRunner.scriptTimeoutMillis";
+  public static final int DEFAULT_MAX_CONCURRENT_SCRIPTS = 1;
+  public static final long DEFAULT_SCRIPT_TIMEOUT_MILLIS = 0;
+  public static final String THREAD_DUMP_FILENAME_FORMAT = "threaddump-%d.txt";
   private static final Logger LOGGER = LoggerFactory.getLogger(MultiTestRunner.class);
+  private static final long THREAD_DUMP_TIMEOUT_MILLIS = 30000;
+  private static final long INTERRUPTED_SCRIPT_GRACE_MILLIS = 10000;
   private final Collection<TestScript<AppT>> mScripts;
   private final EnvironmentFactory<EnvironmentT> mEnvironmentFactory;
   private final EnvironmentPreparator<EnvironmentT> mEnvironmentPreparator;
@@ -53,9 +129,11 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
   private final boolean mShouldPrepareEnvironments;
   private final boolean mShouldCleanEnvironments;
   private final Path mReportPath;
+  private int mMaxConcurrentScripts;
+  private long mScriptTimeoutMillis;
   private final FileUtils mFileUtils;
 
-  private final Path mSummaryReportPath;
+  private final Path mTimingReportPath;
 
   public MultiTestRunner(TestScript<AppT> script,
                          EnvironmentFactory<EnvironmentT> environmentFactory,
@@ -65,19 +143,32 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
                          boolean shouldCleanEnvironments,
                          Path reportPath,
                          FileUtils fileUtils) {
-    mScripts = new ArrayList<>();
-    mScripts.add(script);
-    mEnvironmentFactory = environmentFactory;
-    mEnvironmentPreparator = environmentPreparator;
-    mApplicationFactory = applicationFactory;
-    mShouldPrepareEnvironments = shouldPrepareEnvironments;
-    mShouldCleanEnvironments = shouldCleanEnvironments;
-    mReportPath = reportPath;
-    mFileUtils = fileUtils;
-
-    mSummaryReportPath = mReportPath.resolve(REPORT_FILENAME);
+    this(Collections.singleton(script),
+        environmentFactory,
+        environmentPreparator,
+        applicationFactory,
+        shouldPrepareEnvironments,
+        shouldCleanEnvironments,
+        reportPath,
+        DEFAULT_MAX_CONCURRENT_SCRIPTS,
+        DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+        fileUtils);
   }
 
+  /**
+   * Creates runner with default maximal number of concurrent scripts and script timeout. Guice
+   * overrides them with {@link #setMaxConcurrentScripts(int)} and
+   * {@link #setScriptTimeoutMillis(long)} if their properties are bound.
+   *
+   * @param scripts scripts to run
+   * @param environmentFactory factory of environments
+   * @param environmentPreparator preparator of environments
+   * @param applicationFactory factory of applications
+   * @param shouldPrepareEnvironments whether environments should be prepared or only restored
+   * @param shouldCleanEnvironments whether environments should be cleaned and destroyed
+   * @param reportPath directory of reports
+   * @param fileUtils file utilities
+   */
   @Inject
   public MultiTestRunner(@Named(SCRIPTS_ARGUMENT_NAME) Set<TestScript<AppT>> scripts,
                          EnvironmentFactory<EnvironmentT> environmentFactory,
@@ -90,6 +181,63 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
                          @Named(REPORT_PATH_ARGUMENT_NAME)
                          Path reportPath,
                          FileUtils fileUtils) {
+    this(scripts,
+        environmentFactory,
+        environmentPreparator,
+        applicationFactory,
+        shouldPrepareEnvironments,
+        shouldCleanEnvironments,
+        reportPath,
+        DEFAULT_MAX_CONCURRENT_SCRIPTS,
+        DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+        fileUtils);
+  }
+
+  public MultiTestRunner(Set<TestScript<AppT>> scripts,
+                         EnvironmentFactory<EnvironmentT> environmentFactory,
+                         EnvironmentPreparator<EnvironmentT> environmentPreparator,
+                         ApplicationFactory<EnvironmentT, AppT> applicationFactory,
+                         boolean shouldPrepareEnvironments,
+                         boolean shouldCleanEnvironments,
+                         Path reportPath,
+                         int maxConcurrentScripts,
+                         FileUtils fileUtils) {
+    this(scripts,
+        environmentFactory,
+        environmentPreparator,
+        applicationFactory,
+        shouldPrepareEnvironments,
+        shouldCleanEnvironments,
+        reportPath,
+        maxConcurrentScripts,
+        DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+        fileUtils);
+  }
+
+  /**
+   * @param scripts scripts to run
+   * @param environmentFactory factory of environments
+   * @param environmentPreparator preparator of environments
+   * @param applicationFactory factory of applications
+   * @param shouldPrepareEnvironments whether environments should be prepared or only restored
+   * @param shouldCleanEnvironments whether environments should be cleaned and destroyed
+   * @param reportPath directory of reports
+   * @param maxConcurrentScripts maximal number of scripts running at the same time
+   * @param scriptTimeoutMillis maximal duration of a script's run unless the script is a
+   *                            {@link TimeLimitedTestScript}. Nonpositive value means no limit.
+   * @param fileUtils file utilities
+   */
+  public MultiTestRunner(Set<TestScript<AppT>> scripts,
+                         EnvironmentFactory<EnvironmentT> environmentFactory,
+                         EnvironmentPreparator<EnvironmentT> environmentPreparator,
+                         ApplicationFactory<EnvironmentT, AppT> applicationFactory,
+                         boolean shouldPrepareEnvironments,
+                         boolean shouldCleanEnvironments,
+                         Path reportPath,
+                         int maxConcurrentScripts,
+                         long scriptTimeoutMillis,
+                         FileUtils fileUtils) {
+    checkMaxConcurrentScripts(maxConcurrentScripts);
     mScripts = scripts;
     mEnvironmentFactory = environmentFactory;
     mEnvironmentPreparator = environmentPreparator;
@@ -97,92 +245,389 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
     mShouldPrepareEnvironments = shouldPrepareEnvironments;
     mShouldCleanEnvironments = shouldCleanEnvironments;
     mReportPath = reportPath;
+    mMaxConcurrentScripts = maxConcurrentScripts;
+    mScriptTimeoutMillis = scriptTimeoutMillis;
     mFileUtils = fileUtils;
 
-    mSummaryReportPath = mReportPath.resolve(REPORT_FILENAME);
+    mTimingReportPath = mReportPath.resolve(TIMING_REPORT_FILENAME);
+  }
+
+  /**
+   * Overrides maximal number of scripts running at the same time. Guice calls it only if
+   * {@value #MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME} is bound.
+   *
+   * @param maxConcurrentScripts maximal number of scripts running at the same time
+   */
+  @Inject(optional = true)
+  public void setMaxConcurrentScripts(@Named(MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME)
+                                      int maxConcurrentScripts) {
+    checkMaxConcurrentScripts(maxConcurrentScripts);
+    mMaxConcurrentScripts = maxConcurrentScripts;
+  }
+
+  /**
+   * Overrides maximal duration of scripts which are not {@link TimeLimitedTestScript}. Guice
+   * calls it only if {@value #SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME} is bound.
+   *
+   * @param scriptTimeoutMillis maximal duration of a script's run. Nonpositive value means no
+   *                            limit.
+   */
+  @Inject(optional = true)
+  public void setScriptTimeoutMillis(@Named(SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME)
+                                     long scriptTimeoutMillis) {
+    mScriptTimeoutMillis = scriptTimeoutMillis;
   }
 
   @Override
   public TestResult run() {
     LOGGER.info("run()");
+    TimingReport timingReport = new TimingReport();
+    try {
+      return runAndMeasure(timingReport);
+    } finally {
+      saveTimingReport(timingReport);
+    }
+  }
 
+  // Runs all scripts and records phases common to them in timingReport.
+  private TestResult runAndMeasure(TimingReport timingReport) {
     Collection<EnvironmentT> envs;
     LOGGER.debug("run(): Creating environments.");
+    TimingReport.PhaseTimer createTimer = timingReport.startPhase("createEnvironments", "",
+        Collections.<Environment>emptyList());
     try {
       envs = mEnvironmentFactory.create();
     } catch (IOException e) {
       LOGGER.error("run(): Could not create environments.", e);
       return new TestResult(TestResult.Type.FAILURE, "Could not create environments.");
+    } finally {
+      createTimer.stop();
+    }
+
+    List<TestScript<AppT>> scripts = new ArrayList<>(mScripts);
+    ReportWriter reportWriter = openReportWriter();
+    List<TestResult.Type> resultTypes;
+    try {
+      resultTypes = runScripts(scripts, new ArrayList<>(envs), timingReport, reportWriter);
+    } finally {
+      closeReportWriter(reportWriter);
     }
 
-    boolean hasPrepared = false;
     Collection<String> failedTests = new ArrayList<>();
+    for (int scriptIdx = 0; scriptIdx < scripts.size(); ++scriptIdx) {
+      if (resultTypes.get(scriptIdx) != TestResult.Type.SUCCESS) {
+        failedTests.add(scripts.get(scriptIdx).toString());
+      }
+    }
 
-    for (TestScript<AppT> script : mScripts) {
-      LOGGER.debug("run(): Preparing and running {}.", script);
+    if (mShouldCleanEnvironments) {
+      LOGGER.debug("run(): Destroying environments.");
+      TimingReport.PhaseTimer destroyTimer = timingReport.startPhase("destroyEnvironments", "",
+          envs);
       try {
-        if (mShouldPrepareEnvironments && !hasPrepared) {
-          LOGGER.debug("run(): Preparing environments.");
-          mEnvironmentPreparator.prepare(envs);
-          hasPrepared = true;
-        } else {
-          LOGGER.debug("run(): Restoring environments.");
-          mEnvironmentPreparator.restore(envs);
-        }
+        mEnvironmentFactory.destroy(envs);
+      } finally {
+        destroyTimer.stop();
+      }
+    }
+
+    if (failedTests.isEmpty()) {
+      return new TestResult(TestResult.Type.SUCCESS, "TestRunner has run all tests successfully.");
+    } else {
+      return new TestResult(TestResult.Type.FAILURE,
+          "Some tests have failed: " + StringUtils.join(failedTests, " "));
+    }
+  }
+
+  /**
+   * Run of a single script on its group of environments.
+   */
+  private class ScriptRun implements Callable<ScriptRun> {
+    private final int mScriptIdx;
+    private final TestScript<AppT> mScript;
+    private final List<EnvironmentT> mEnvs;
+    private final Set<EnvironmentT> mPreparedEnvs;
+    private final TimingReport mTimingReport;
+    private TestResult mResult;
+    private long mDurationMillis;
+
+    public ScriptRun(int scriptIdx,
+        TestScript<AppT> script,
+        List<EnvironmentT> envs,
+        Set<EnvironmentT> preparedEnvs,
+        TimingReport timingReport) {
+      mScriptIdx = scriptIdx;
+      mScript = script;
+      mEnvs = envs;
+      mPreparedEnvs = preparedEnvs;
+      mTimingReport = timingReport;
+    }
+
+    @Override
+    public ScriptRun call() {
+      long startTime = System.nanoTime();
+      try {
+        mResult = runScript();
+      } catch (RuntimeException e) {
+        LOGGER.error("run(): Test {} has thrown an exception.", mScript, e);
+        mResult = new TestResult(TestResult.Type.FAILURE,
+            String.format("Test %s has thrown an exception: %s", mScript, e));
+      }
+      mDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+      return this;
+    }
+
+    private TestResult runScript() {
+      LOGGER.debug("run(): Preparing and running {}.", mScript);
+      try {
+        prepareOrRestoreEnvironments();
         LOGGER.debug("run(): Environments were prepared or restored successfully.");
       } catch (IOException e) {
         String errorMsg = String.format("Could not prepare environments for %s.",
-            script.toString());
-        LOGGER.error("run(): " + errorMsg, script, e);
-        saveResultToSummaryReportFile(
-            new TestResult(TestResult.Type.FAILURE, errorMsg),
-            script);
-        failedTests.add(script.toString());
-        continue;
+            mScript.toString());
+        LOGGER.error("run(): " + errorMsg, e);
+        return new TestResult(TestResult.Type.FAILURE, errorMsg);
       }
 
       Collection<AppT> apps = new ArrayList<>();
-      for (EnvironmentT env : envs) {
-        apps.add(mApplicationFactory.newApp(env));
+      for (EnvironmentT env : mEnvs) {
+        TimingReport.PhaseTimer newAppTimer = startPhase("newApp",
+            Collections.singleton(env));
+        try {
+          apps.add(mApplicationFactory.newApp(env));
+        } finally {
+          newAppTimer.stop();
+        }
       }
 
-      LOGGER.info("run(): Running test {}", script);
-      TestResult scriptResult = script.run(apps);
-      LOGGER.info("run(): Test {} has ended with {}", script, scriptResult.getType());
-
-      if (scriptResult.getType() == TestResult.Type.FAILURE) {
-        failedTests.add(script.toString());
+      LOGGER.info("run(): Running test {}", mScript);
+      TimingReport.PhaseTimer runTimer = startPhase("runScript", mEnvs);
+      TestResult scriptResult;
+      try {
+        scriptResult = runScriptWithDeadline(apps);
+      } finally {
+        runTimer.stop();
       }
+      LOGGER.info("run(): Test {} has ended with {}", mScript, scriptResult.getType());
 
       LOGGER.debug("run(): Collecting output and log files.");
-      Path testReportPath = mReportPath.resolve(script.toString());
-      mEnvironmentPreparator.collectOutput(envs, testReportPath);
-      saveResultToSummaryReportFile(scriptResult, script);
+      Path testReportPath = mReportPath.resolve(mScript.toString());
+      TimingReport.PhaseTimer collectTimer = startPhase("collectOutput", mEnvs);
+      try {
+        mEnvironmentPreparator.collectOutput(mEnvs, testReportPath);
+      } finally {
+        collectTimer.stop();
+      }
       saveResultToScriptReportFile(scriptResult, testReportPath);
 
       if (mShouldPrepareEnvironments && mShouldCleanEnvironments) {
         LOGGER.debug("run(): Cleaning environments completely.");
-        mEnvironmentPreparator.cleanAll(envs);
-        hasPrepared = false;
+        TimingReport.PhaseTimer cleanTimer = startPhase("cleanAll", mEnvs);
+        try {
+          mEnvironmentPreparator.cleanAll(mEnvs);
+        } finally {
+          cleanTimer.stop();
+        }
+        mPreparedEnvs.removeAll(mEnvs);
       } else {
         LOGGER.debug("run(): Cleaning output in environments.");
-        mEnvironmentPreparator.cleanOutput(envs);
+        TimingReport.PhaseTimer cleanTimer = startPhase("cleanOutput", mEnvs);
+        try {
+          mEnvironmentPreparator.cleanOutput(mEnvs);
+        } finally {
+          cleanTimer.stop();
+        }
       }
+      return scriptResult;
     }
 
-    if (mShouldCleanEnvironments) {
-      LOGGER.debug("run(): Destroying environments.");
-      mEnvironmentFactory.destroy(envs);
+    // Runs the script on its own thread while this thread watches its deadline. A script which
+    // has not finished in time is interrupted and its apps are destroyed after their thread dumps
+    // have been taken. A script which ignores the interruption is abandoned.
+    private TestResult runScriptWithDeadline(final Collection<AppT> apps) {
+      long timeoutMillis = calculateScriptTimeoutMillis(mScript);
+      if (timeoutMillis <= 0) {
+        return mScript.run(apps);
+      }
+
+      FutureTask<TestResult> scriptTask = new FutureTask<>(new Callable<TestResult>() {
+        @Override
+        public TestResult call() {
+          return mScript.run(apps);
+        }
+      });
+      Thread scriptThread = new Thread(scriptTask, "MultiTestRunner-" + mScript);
+      scriptThread.setDaemon(true);
+      scriptThread.start();
+      try {
+        return scriptTask.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw (RuntimeException) cause;
+      } catch (TimeoutException e) {
+        LOGGER.error("run(): Test {} has not finished in {} ms. Interrupting it.", mScript,
+            timeoutMillis);
+        // Thread dumps are taken before interruption, so that they show where apps have hung
+        // and not how they shut down.
+        Map<String, String> threadDumps = captureThreadDumps(apps);
+        scriptTask.cancel(true);
+        AppLifecycle.destroyAll(apps);
+        try {
+          scriptThread.join(INTERRUPTED_SCRIPT_GRACE_MILLIS);
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        if (scriptThread.isAlive()) {
+          LOGGER.warn("run(): Test {} has not stopped after interruption. Abandoning it.",
+              mScript);
+        }
+        return new TestResult(TestResult.Type.TIMEOUT, String.format(
+            "Test %s has not finished in %d ms.", mScript, timeoutMillis), threadDumps);
+      } catch (InterruptedException e) {
+        LOGGER.warn("run(): Interrupted while running test {}.", mScript);
+        scriptTask.cancel(true);
+        AppLifecycle.destroyAll(apps);
+        Thread.currentThread().interrupt();
+        return new TestResult(TestResult.Type.FAILURE, "Test runner was interrupted.");
+      }
     }
 
-    if (failedTests.isEmpty()) {
-      return new TestResult(TestResult.Type.SUCCESS, "TestRunner has run all tests successfully.");
-    } else {
-      return new TestResult(TestResult.Type.FAILURE,
-          "Some tests have failed: " + StringUtils.join(failedTests, " "));
+    private TimingReport.PhaseTimer startPhase(String phase, Collection<EnvironmentT> envs) {
+      return mTimingReport.startPhase(phase, mScript.toString(), envs);
+    }
+
+    private void prepareOrRestoreEnvironments() throws IOException {
+      List<EnvironmentT> unpreparedEnvs = new ArrayList<>();
+      for (EnvironmentT env : mEnvs) {
+        if (!mPreparedEnvs.contains(env)) {
+          unpreparedEnvs.add(env);
+        }
+      }
+
+      if (mShouldPrepareEnvironments && !unpreparedEnvs.isEmpty()) {
+        LOGGER.debug("run(): Preparing environments.");
+        TimingReport.PhaseTimer prepareTimer = startPhase("prepare", unpreparedEnvs);
+        try {
+          mEnvironmentPreparator.prepare(unpreparedEnvs);
+        } finally {
+          prepareTimer.stop();
+        }
+        mPreparedEnvs.addAll(unpreparedEnvs);
+        if (unpreparedEnvs.size() == mEnvs.size()) {
+          return;
+        }
+      }
+      LOGGER.debug("run(): Restoring environments.");
+      TimingReport.PhaseTimer restoreTimer = startPhase("restore", mEnvs);
+      try {
+        mEnvironmentPreparator.restore(mEnvs);
+      } finally {
+        restoreTimer.stop();
+      }
+    }
+  }
+
+  // Takes thread dumps of all apps supporting them concurrently. Returns them by artifact name.
+  // Dump commands which have not finished before the deadline are destroyed.
+  private Map<String, String> captureThreadDumps(Collection<AppT> apps) {
+    Map<String, String> threadDumps = new LinkedHashMap<>();
+    if (apps.isEmpty()) {
+      return threadDumps;
+    }
+
+    long deadlineNanos = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(THREAD_DUMP_TIMEOUT_MILLIS);
+    final Map<AppT, RemoteProcess> processes = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(apps.size(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ThreadDump-%d").build());
+    Map<AppT, Future<String>> futures = new LinkedHashMap<>();
+    try {
+      for (final AppT app : apps) {
+        final List<String> command = app.getThreadDumpCommand();
+        if (command == null) {
+          continue;
+        }
+        futures.put(app, executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws IOException, InterruptedException {
+            RemoteProcess process = app.getEnvironment().runCommandAsynchronously(command);
+            processes.put(app, process);
+            // Both streams are read until EOF before waiting, so that a large dump can not
+            // block the command on a full pipe.
+            Future<Long> errorDrain = StreamDrainer.drain(process.getErrorStream(),
+                NullOutputStream.NULL_OUTPUT_STREAM);
+            String threadDump = IOUtils.toString(process.getInputStream(),
+                StandardCharsets.UTF_8);
+            try {
+              errorDrain.get();
+            } catch (ExecutionException e) {
+              throw new IOException("Could not drain error stream of thread dump command.", e);
+            }
+            process.waitFor();
+            return threadDump;
+          }
+        }));
+      }
+
+      for (Map.Entry<AppT, Future<String>> entry : futures.entrySet()) {
+        int appId = entry.getKey().getId();
+        try {
+          String threadDump = entry.getValue().get(deadlineNanos - System.nanoTime(),
+              TimeUnit.NANOSECONDS);
+          threadDumps.put(String.format(THREAD_DUMP_FILENAME_FORMAT, appId), threadDump);
+        } catch (ExecutionException | TimeoutException e) {
+          LOGGER.warn("captureThreadDumps(): Could not take thread dump of app {}.", appId, e);
+        }
+      }
+    } catch (InterruptedException e) {
+      LOGGER.warn("captureThreadDumps(): Interrupted while taking thread dumps.");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+      for (Map.Entry<AppT, Future<String>> entry : futures.entrySet()) {
+        RemoteProcess process = processes.get(entry.getKey());
+        if (process != null && !entry.getValue().isDone()) {
+          destroyThreadDumpProcess(entry.getKey(), process);
+        }
+      }
+    }
+    return threadDumps;
+  }
+
+  private void destroyThreadDumpProcess(AppT app, RemoteProcess process) {
+    try {
+      process.destroy();
+    } catch (IOException e) {
+      LOGGER.warn("captureThreadDumps(): Could not destroy thread dump command of app {}.",
+          app.getId(), e);
     }
   }
 
+  private static void checkMaxConcurrentScripts(int maxConcurrentScripts) {
+    if (maxConcurrentScripts <= 0) {
+      throw new IllegalArgumentException("Maximal number of concurrent scripts was nonpositive.");
+    }
+  }
+
+  private long calculateScriptTimeoutMillis(TestScript<AppT> script) {
+    if (script instanceof TimeLimitedTestScript) {
+      return ((TimeLimitedTestScript<AppT>) script).getTimeoutMillis();
+    }
+    return mScriptTimeoutMillis;
+  }
+
+  private int calculateRequiredEnvironmentCount(TestScript<AppT> script, int envCount) {
+    if (mMaxConcurrentScripts > 1 && script instanceof ParallelizableTestScript) {
+      int requiredEnvCount = ((ParallelizableTestScript<AppT>) script)
+          .getRequiredEnvironmentCount();
+      return Math.min(Math.max(1, requiredEnvCount), envCount);
+    }
+    return envCount;
+  }
+
   private void createParentDirectories(Path destPath) throws IOException {
     Path parentPath = destPath.getParent();
     assert parentPath != null : "Destination path pointed to current directory.";
@@ -193,25 +638,167 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
     switch (type) {
       case SUCCESS:
         return "[SUCCESS]";
+      case TIMEOUT:
+        return "[TIMEOUT]";
       case FAILURE:
       default:
         return "[FAILURE]";
     }
   }
 
-  private boolean saveResultToSummaryReportFile(TestResult scriptResult,
-                                      TestScript<AppT> script) {
-    String resultString = getResultTypeString(scriptResult.getType());
+  private ReportWriter openReportWriter() {
+    try {
+      return new ReportWriter(mReportPath, mFileUtils);
+    } catch (IOException e) {
+      LOGGER.warn("openReportWriter(): Could not open report files. Results will not be"
+          + " reported.", e);
+      return null;
+    }
+  }
+
+  private void closeReportWriter(ReportWriter reportWriter) {
+    if (reportWriter == null) {
+      return;
+    }
+    try {
+      reportWriter.close();
+    } catch (IOException e) {
+      LOGGER.warn("closeReportWriter(): Could not close report files.", e);
+    }
+  }
 
+  private void saveResultToReport(ReportWriter reportWriter, ScriptRun run) {
+    if (reportWriter == null) {
+      return;
+    }
     try {
-      String content = resultString + " " + script.toString();
-      createParentDirectories(mSummaryReportPath);
-      mFileUtils.write(mSummaryReportPath, content);
+      reportWriter.writeResult(run.mScript.toString(), run.mResult, run.mDurationMillis,
+          run.mEnvs);
     } catch (IOException e) {
-      LOGGER.warn("saveResultToReportFile(): Could not append to summary report file.", e);
-      return false;
+      LOGGER.warn("saveResultToReport(): Could not write result of {} to report.", run.mScript,
+          e);
+    }
+  }
+
+  // Runs scripts on disjoint groups of environments and writes their results to report in
+  // scripts' order. Only runs which wait for an earlier script to finish are kept in memory.
+  // Returns types of results in scripts' order.
+  private List<TestResult.Type> runScripts(List<TestScript<AppT>> scripts,
+                                           List<EnvironmentT> envs,
+                                           TimingReport timingReport,
+                                           ReportWriter reportWriter) {
+    final Map<EnvironmentT, Integer> envPositions = new HashMap<>();
+    for (int envIdx = 0; envIdx < envs.size(); ++envIdx) {
+      envPositions.put(envs.get(envIdx), envIdx);
+    }
+    Comparator<EnvironmentT> envComparator = new Comparator<EnvironmentT>() {
+      @Override
+      public int compare(EnvironmentT first, EnvironmentT second) {
+        return envPositions.get(first).compareTo(envPositions.get(second));
+      }
+    };
+
+    List<EnvironmentT> freeEnvs = new ArrayList<>(envs);
+    Set<EnvironmentT> preparedEnvs = Collections.newSetFromMap(
+        new ConcurrentHashMap<EnvironmentT, Boolean>());
+    List<Integer> pendingScriptIdxs = new LinkedList<>();
+    for (int scriptIdx = 0; scriptIdx < scripts.size(); ++scriptIdx) {
+      pendingScriptIdxs.add(scriptIdx);
+    }
+    Map<Integer, ScriptRun> unreportedRuns = new HashMap<>();
+    TestResult.Type[] resultTypes = new TestResult.Type[scripts.size()];
+    int nextScriptToReportIdx = 0;
+    int runningScriptCount = 0;
+
+    ExecutorService executor = Executors.newFixedThreadPool(mMaxConcurrentScripts);
+    CompletionService<ScriptRun> completionService = new ExecutorCompletionService<>(executor);
+    try {
+      while (!pendingScriptIdxs.isEmpty() || runningScriptCount > 0) {
+        Iterator<Integer> pendingIterator = pendingScriptIdxs.iterator();
+        while (runningScriptCount < mMaxConcurrentScripts && pendingIterator.hasNext()) {
+          int scriptIdx = pendingIterator.next();
+          TestScript<AppT> script = scripts.get(scriptIdx);
+          int requiredEnvCount = calculateRequiredEnvironmentCount(script, envs.size());
+          if (requiredEnvCount <= freeEnvs.size()) {
+            List<EnvironmentT> group = new ArrayList<>(freeEnvs.subList(0, requiredEnvCount));
+            freeEnvs.subList(0, requiredEnvCount).clear();
+            pendingIterator.remove();
+            completionService.submit(new ScriptRun(scriptIdx, script, group, preparedEnvs,
+                timingReport));
+            ++runningScriptCount;
+          }
+        }
+
+        ScriptRun finishedRun;
+        try {
+          finishedRun = completionService.take().get();
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("Script run has thrown an unexpected error.",
+              e.getCause());
+        }
+        // take may return a run even if interruption has come in the meantime.
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        --runningScriptCount;
+        freeEnvs.addAll(finishedRun.mEnvs);
+        Collections.sort(freeEnvs, envComparator);
+        unreportedRuns.put(finishedRun.mScriptIdx, finishedRun);
+        resultTypes[finishedRun.mScriptIdx] = finishedRun.mResult.getType();
+
+        while (unreportedRuns.containsKey(nextScriptToReportIdx)) {
+          saveResultToReport(reportWriter, unreportedRuns.remove(nextScriptToReportIdx));
+          ++nextScriptToReportIdx;
+        }
+      }
+    } catch (InterruptedException e) {
+      LOGGER.warn("run(): Interrupted while running tests.", e);
+      Thread.currentThread().interrupt();
+      // Finished runs which wait for an unfinished earlier script are reported out of order
+      // rather than lost.
+      for (ScriptRun run : new TreeMap<>(unreportedRuns).values()) {
+        saveResultToReport(reportWriter, run);
+      }
+      for (int scriptIdx = 0; scriptIdx < scripts.size(); ++scriptIdx) {
+        if (resultTypes[scriptIdx] == null) {
+          resultTypes[scriptIdx] = TestResult.Type.FAILURE;
+        }
+      }
+    } finally {
+      shutDownScriptExecutor(executor);
+    }
+    return Arrays.asList(resultTypes);
+  }
+
+  // Interrupts running scripts and waits a bounded time for them to finish, so that environments
+  // are not cleaned and destroyed while scripts still use them. Keeps interrupted status.
+  private static void shutDownScriptExecutor(ExecutorService executor) {
+    executor.shutdownNow();
+    boolean wasInterrupted = Thread.interrupted();
+    try {
+      if (!executor.awaitTermination(INTERRUPTED_SCRIPT_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOGGER.warn("run(): Script runs have not stopped after interruption. Abandoning them.");
+      }
+    } catch (InterruptedException e) {
+      wasInterrupted = true;
+    } finally {
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void saveTimingReport(TimingReport timingReport) {
+    for (Map.Entry<String, Long> entry : timingReport.getTotalDurations().entrySet()) {
+      LOGGER.info("run(): Phase {} has taken {} ms in total.", entry.getKey(), entry.getValue());
+    }
+
+    try {
+      createParentDirectories(mTimingReportPath);
+      mFileUtils.write(mTimingReportPath, StringUtils.join(timingReport.toCsvLines(), "\n"));
+    } catch (IOException e) {
+      LOGGER.warn("saveTimingReport(): Could not write timing report file.", e);
     }
-    return true;
   }
 
   private void saveResultToScriptReportFile(TestResult scriptResult, Path testScriptReportPath) {
@@ -225,5 +812,15 @@ public class MultiTestRunner<EnvironmentT extends Environment, AppT extends App<
     } catch (IOException e) {
       LOGGER.warn("saveResultToReportFile(): Could not append to report file.", e);
     }
+
+    for (Map.Entry<String, String> artifact : scriptResult.getArtifacts().entrySet()) {
+      Path artifactPath = testScriptReportPath.resolve(artifact.getKey());
+      try {
+        createParentDirectories(artifactPath);
+        mFileUtils.write(artifactPath, artifact.getValue());
+      } catch (IOException e) {
+        LOGGER.warn("saveResultToReportFile(): Could not write artifact {}.", artifactPath, e);
+      }
+    }
   }
 }
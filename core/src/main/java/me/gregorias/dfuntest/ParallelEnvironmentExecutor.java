@@ -0,0 +1,235 @@
+package me.gregorias.dfuntest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * Runs an action on many environments concurrently.
+ * </p>
+ *
+ * <p>
+ * At most maxConcurrency actions run at the same time and at most maxConcurrencyPerHost of them
+ * run on environments sharing the same hostname, so that a single host is not overloaded by
+ * environments placed on it. {@link LocalEnvironment}s are limited by maxConcurrency only.
+ * Environments of different hosts are interleaved, so all hosts progress at the same time.
+ * An action takes a thread only once its host has a free slot.
+ * </p>
+ *
+ * <p>
+ * An action which fails on one environment does not stop the others. Failures are collected per
+ * environment. This class is meant to be used by {@link EnvironmentPreparator} and
+ * {@link EnvironmentFactory} implementations.
+ * </p>
+ *
+ * <p>
+ * If the calling thread measures a phase with {@link TimingReport}, duration of the action on
+ * each environment is recorded in that phase.
+ * </p>
+ */
+public class ParallelEnvironmentExecutor {
+  public static final int DEFAULT_MAX_CONCURRENCY = 32;
+  public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 4;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParallelEnvironmentExecutor.class);
+  private final int mMaxConcurrency;
+  private final int mMaxConcurrencyPerHost;
+
+  public ParallelEnvironmentExecutor() {
+    this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY_PER_HOST);
+  }
+
+  /**
+   * @param maxConcurrency Maximal number of actions running at the same time
+   * @param maxConcurrencyPerHost Maximal number of actions running at the same time on
+   *                              non-local environments with the same hostname
+   */
+  public ParallelEnvironmentExecutor(int maxConcurrency, int maxConcurrencyPerHost) {
+    if (maxConcurrency <= 0 || maxConcurrencyPerHost <= 0) {
+      throw new IllegalArgumentException("Concurrency limit was nonpositive.");
+    }
+    mMaxConcurrency = maxConcurrency;
+    mMaxConcurrencyPerHost = maxConcurrencyPerHost;
+  }
+
+  /**
+   * Action run on a single environment.
+   *
+   * @param <EnvironmentT> type of environment
+   */
+  public interface EnvironmentAction<EnvironmentT extends Environment> {
+    void run(EnvironmentT env) throws IOException, InterruptedException;
+  }
+
+  /**
+   * Runs action on all environments and waits for it to finish.
+   *
+   * @param envs environments to run action on
+   * @param action action to run
+   * @param <EnvironmentT> type of environment
+   * @return exceptions thrown by the action keyed by environment, empty if action has succeeded
+   *         everywhere
+   * @throws InterruptedException thrown when interrupted while waiting. Running actions are
+   *         interrupted as well.
+   */
+  public <EnvironmentT extends Environment> Map<EnvironmentT, Exception> execute(
+      Collection<EnvironmentT> envs,
+      final EnvironmentAction<? super EnvironmentT> action) throws InterruptedException {
+    Map<EnvironmentT, Exception> failures = new LinkedHashMap<>();
+    if (envs.isEmpty()) {
+      return failures;
+    }
+
+    final TimingReport.PhaseTimer phaseTimer = TimingReport.getCurrentPhase();
+    final Map<EnvironmentT, Exception> concurrentFailures = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(mMaxConcurrency,
+        envs.size()));
+    CompletionService<EnvironmentT> completionService = new ExecutorCompletionService<>(executor);
+    try {
+      // Actions are submitted only when both a global and a host slot are free, so pool threads
+      // never wait for host slots.
+      List<EnvironmentT> pendingEnvs = interleaveHosts(envs);
+      Map<String, Integer> runningActionCountsPerHost = new HashMap<>();
+      int runningActionCount = 0;
+      while (true) {
+        Iterator<EnvironmentT> pendingIterator = pendingEnvs.iterator();
+        while (runningActionCount < mMaxConcurrency && pendingIterator.hasNext()) {
+          final EnvironmentT env = pendingIterator.next();
+          if (isHostLimited(env)) {
+            Integer hostActionCount = runningActionCountsPerHost.get(env.getHostname());
+            hostActionCount = hostActionCount == null ? 0 : hostActionCount;
+            if (hostActionCount >= mMaxConcurrencyPerHost) {
+              continue;
+            }
+            runningActionCountsPerHost.put(env.getHostname(), hostActionCount + 1);
+          }
+          pendingIterator.remove();
+          ++runningActionCount;
+          completionService.submit(new Callable<EnvironmentT>() {
+            @Override
+            public EnvironmentT call() {
+              long startTime = System.nanoTime();
+              try {
+                action.run(env);
+              } catch (Exception e) {
+                concurrentFailures.put(env, e);
+              } finally {
+                if (phaseTimer != null) {
+                  phaseTimer.recordEnvironment(env, startTime, System.nanoTime());
+                }
+              }
+              return env;
+            }
+          });
+        }
+        if (runningActionCount == 0) {
+          break;
+        }
+
+        EnvironmentT finishedEnv = getFinishedEnvironment(completionService);
+        --runningActionCount;
+        if (isHostLimited(finishedEnv)) {
+          runningActionCountsPerHost.put(finishedEnv.getHostname(),
+              runningActionCountsPerHost.get(finishedEnv.getHostname()) - 1);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (EnvironmentT env : envs) {
+      Exception failure = concurrentFailures.get(env);
+      if (failure != null) {
+        LOGGER.debug("execute(): Action has failed on environment {}.", env.getId(), failure);
+        failures.put(env, failure);
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Runs action on all environments. If it fails on any of them, rollback is run on all
+   * environments, including the failed ones, to undo partial effects of the action.
+   * Failures of rollback are logged.
+   *
+   * @param envs environments to run action on
+   * @param action action to run
+   * @param rollback best-effort action undoing action
+   * @param <EnvironmentT> type of environment
+   * @throws ParallelExecutionException thrown when action has failed on some of environments
+   */
+  public <EnvironmentT extends Environment> void executeWithRollback(
+      Collection<EnvironmentT> envs,
+      EnvironmentAction<? super EnvironmentT> action,
+      EnvironmentAction<? super EnvironmentT> rollback)
+      throws InterruptedException, ParallelExecutionException {
+    Map<EnvironmentT, Exception> failures = execute(envs, action);
+    if (failures.isEmpty()) {
+      return;
+    }
+
+    LOGGER.warn("executeWithRollback(): Action has failed on {} out of {} environments. Rolling"
+        + " back.", failures.size(), envs.size());
+    Map<EnvironmentT, Exception> rollbackFailures = execute(envs, rollback);
+    for (Map.Entry<EnvironmentT, Exception> entry : rollbackFailures.entrySet()) {
+      LOGGER.error("executeWithRollback(): Could not roll back environment {}.",
+          entry.getKey().getId(), entry.getValue());
+    }
+    throw new ParallelExecutionException(String.format("Action has failed on %d out of %d"
+        + " environments.", failures.size(), envs.size()), failures);
+  }
+
+  private static <EnvironmentT extends Environment> EnvironmentT getFinishedEnvironment(
+      CompletionService<EnvironmentT> completionService) throws InterruptedException {
+    try {
+      return completionService.take().get();
+    } catch (ExecutionException e) {
+      // Actions catch exceptions, so only errors reach here.
+      throw (Error) e.getCause();
+    }
+  }
+
+  // Per-host limit protects remote hosts. All local environments report the same hostname, so
+  // they are bounded by the global limit only.
+  private static boolean isHostLimited(Environment env) {
+    return !(env instanceof LocalEnvironment);
+  }
+
+  // Orders environments so that consecutive ones are on different hosts where possible.
+  private static <EnvironmentT extends Environment> List<EnvironmentT> interleaveHosts(
+      Collection<EnvironmentT> envs) {
+    Map<String, LinkedList<EnvironmentT>> envsByHost = new LinkedHashMap<>();
+    for (EnvironmentT env : envs) {
+      if (!envsByHost.containsKey(env.getHostname())) {
+        envsByHost.put(env.getHostname(), new LinkedList<EnvironmentT>());
+      }
+      envsByHost.get(env.getHostname()).add(env);
+    }
+
+    List<EnvironmentT> interleavedEnvs = new ArrayList<>();
+    while (interleavedEnvs.size() < envs.size()) {
+      for (LinkedList<EnvironmentT> hostEnvs : envsByHost.values()) {
+        if (!hostEnvs.isEmpty()) {
+          interleavedEnvs.add(hostEnvs.removeFirst());
+        }
+      }
+    }
+    return interleavedEnvs;
+  }
+}
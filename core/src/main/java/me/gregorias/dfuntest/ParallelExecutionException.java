@@ -0,0 +1,31 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exception thrown by {@link ParallelEnvironmentExecutor#executeWithRollback} when its action has
+ * failed on some of the environments. Rollback has been attempted on all environments before, so
+ * they should be in their initial state unless rollback has failed as well, which is only logged.
+ * Its cause is the failure of the first failed environment in the order they were given.
+ */
+public class ParallelExecutionException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final Map<Environment, Exception> mFailures;
+
+  public ParallelExecutionException(String message,
+      Map<? extends Environment, Exception> failures) {
+    super(message, failures.isEmpty() ? null : failures.values().iterator().next());
+    mFailures = Collections.unmodifiableMap(new LinkedHashMap<Environment, Exception>(failures));
+  }
+
+  /**
+   * @return exceptions thrown by the action, keyed by environment on which it has failed
+   */
+  public Map<Environment, Exception> getFailures() {
+    return mFailures;
+  }
+}
@@ -0,0 +1,16 @@
+package me.gregorias.dfuntest;
+
+/**
+ * Test script which does not need all environments and may run concurrently with other scripts
+ * on a separate group of environments.
+ *
+ * @param <AppT>
+ */
+public interface ParallelizableTestScript<AppT extends App> extends TestScript<AppT> {
+  /**
+   * @return number of environments this script should be run on when scripts run concurrently.
+   *         If fewer environments are available the script is run on all of them. Scripts run
+   *         sequentially always get all environments.
+   */
+  int getRequiredEnvironmentCount();
+}
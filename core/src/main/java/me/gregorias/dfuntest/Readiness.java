@@ -0,0 +1,123 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.ExponentialBackoff;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for {@link ReadinessProbe}s by polling them with exponential backoff until a deadline.
+ *
+ * Pending probes are polled one after another in rounds by the calling thread, so a round takes
+ * the sum of the times the probes block for. Probes which have reported readiness are not polled
+ * again. Probes which block, for example on network, should therefore be quick to fail and bound
+ * their timeouts with {@link #boundTimeoutMillis(int)}, so that the deadline is kept.
+ */
+public final class Readiness {
+  public static final long DEFAULT_INITIAL_DELAY_MILLIS = 10;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+  private static final Logger LOGGER = LoggerFactory.getLogger(Readiness.class);
+  private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+
+  private Readiness() {
+  }
+
+  /**
+   * Waits with default backoff until all probes are ready.
+   *
+   * @param probes probes to wait for
+   * @param timeout maximal time to wait
+   * @param unit unit of timeout
+   * @throws InterruptedException thrown when interrupted
+   * @throws TimeoutException thrown when some probes are not ready by the deadline
+   */
+  public static void awaitAll(Collection<? extends ReadinessProbe> probes,
+      long timeout,
+      TimeUnit unit) throws InterruptedException, TimeoutException {
+    awaitAll(probes, timeout, unit, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * Waits until all probes are ready. Probes which have once reported readiness are not polled
+   * again.
+   *
+   * @param probes probes to wait for
+   * @param timeout maximal time to wait
+   * @param unit unit of timeout
+   * @param initialDelayMillis delay after the first round of polling
+   * @param maxDelayMillis maximal delay between rounds of polling
+   * @throws InterruptedException thrown when interrupted
+   * @throws TimeoutException thrown when some probes are not ready by the deadline
+   */
+  public static void awaitAll(Collection<? extends ReadinessProbe> probes,
+      long timeout,
+      TimeUnit unit,
+      long initialDelayMillis,
+      long maxDelayMillis) throws InterruptedException, TimeoutException {
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    ExponentialBackoff backoff = new ExponentialBackoff(initialDelayMillis, maxDelayMillis);
+    List<ReadinessProbe> pendingProbes = new ArrayList<>(probes);
+    Long previousDeadlineNanos = DEADLINE_NANOS.get();
+    DEADLINE_NANOS.set(deadlineNanos);
+    try {
+      while (true) {
+        Iterator<ReadinessProbe> iterator = pendingProbes.iterator();
+        while (iterator.hasNext() && System.nanoTime() - deadlineNanos < 0) {
+          if (isReady(iterator.next())) {
+            iterator.remove();
+          }
+        }
+        if (pendingProbes.isEmpty()) {
+          return;
+        }
+
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis <= 0) {
+          throw new TimeoutException(String.format(
+              "%d out of %d probes were not ready in time: %s", pendingProbes.size(),
+              probes.size(), pendingProbes));
+        }
+        Thread.sleep(Math.min(backoff.nextDelayMillis(), remainingMillis));
+      }
+    } finally {
+      if (previousDeadlineNanos == null) {
+        DEADLINE_NANOS.remove();
+      } else {
+        DEADLINE_NANOS.set(previousDeadlineNanos);
+      }
+    }
+  }
+
+  /**
+   * Bounds timeout of a probe's blocking operation by the time left until the deadline of
+   * {@link #awaitAll} which polls the probe on the current thread.
+   *
+   * @param maxTimeoutMillis positive timeout to use when no deadline is that close
+   * @return positive timeout which exceeds neither maxTimeoutMillis nor the remaining time,
+   *         except that it is at least 1 ms, since timeout of 0 means no timeout to sockets
+   */
+  public static int boundTimeoutMillis(int maxTimeoutMillis) {
+    Long deadlineNanos = DEADLINE_NANOS.get();
+    if (deadlineNanos == null) {
+      return maxTimeoutMillis;
+    }
+    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    return (int) Math.max(1, Math.min(maxTimeoutMillis, remainingMillis));
+  }
+
+  private static boolean isReady(ReadinessProbe probe) throws InterruptedException {
+    try {
+      return probe.isReady();
+    } catch (IOException e) {
+      LOGGER.trace("isReady(): {} is not ready.", probe, e);
+      return false;
+    }
+  }
+}
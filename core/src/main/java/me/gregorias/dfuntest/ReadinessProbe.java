@@ -0,0 +1,20 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+
+/**
+ * Health check telling whether something, usually an application, is ready to be used.
+ *
+ * @see Readiness
+ */
+public interface ReadinessProbe {
+  /**
+   * Checks readiness once without waiting for it. Exceptions are treated by {@link Readiness} as
+   * not being ready yet.
+   *
+   * @return true iff ready
+   * @throws IOException thrown when check could not be performed
+   * @throws InterruptedException thrown when interrupted
+   */
+  boolean isReady() throws IOException, InterruptedException;
+}
@@ -0,0 +1,252 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Writes results of test scripts, one at a time, as soon as they are known. Every result is
+ * written to three files in the report directory:
+ * </p>
+ *
+ * <ul>
+ * <li>{@value #SUMMARY_REPORT_FILENAME} - one human readable line per script.</li>
+ * <li>{@value #JSON_REPORT_FILENAME} - one JSON object per line with script's name, result,
+ * description, duration, environments and names of artifacts.</li>
+ * <li>{@value #JUNIT_REPORT_FILENAME} - JUnit XML with one test suite of a single test case per
+ * script, so that counts of suites are known when they are written.</li>
+ * </ul>
+ *
+ * <p>
+ * Files are kept open by buffered writers which are flushed after every result, so nothing but
+ * the current result is kept in memory and summary and JSON Lines reports of an interrupted run
+ * contain all results written so far. JUnit XML report is well-formed only once the writer is
+ * closed, since its root element is closed then. Existing files are overwritten. This class is
+ * not thread-safe.
+ * </p>
+ *
+ * <p>
+ * Characters which are not allowed in XML 1.0, that is control characters other than tab, line
+ * feed and carriage return, are replaced in JUnit XML report with U+FFFD.
+ * </p>
+ */
+public class ReportWriter implements Closeable {
+  public static final String SUMMARY_REPORT_FILENAME = "report.txt";
+  public static final String JSON_REPORT_FILENAME = "results.jsonl";
+  public static final String JUNIT_REPORT_FILENAME = "junit.xml";
+  private static final String JUNIT_SUITES_NAME = "dfuntest";
+  private static final double MILLIS_PER_SECOND = 1000.0;
+  private static final char XML_REPLACEMENT_CHARACTER = '\uFFFD';
+  private final List<Writer> mWriters = new ArrayList<>();
+  private final Writer mSummaryWriter;
+  private final Writer mJsonWriter;
+  private final Writer mJUnitWriter;
+
+  /**
+   * Opens report files.
+   *
+   * @param reportPath report directory. It is created if it does not exist.
+   * @param fileUtils file utilities
+   * @throws IOException thrown when report files could not be opened
+   */
+  public ReportWriter(Path reportPath, FileUtils fileUtils) throws IOException {
+    try {
+      fileUtils.createDirectories(reportPath);
+      mSummaryWriter = open(reportPath.resolve(SUMMARY_REPORT_FILENAME), fileUtils);
+      mJsonWriter = open(reportPath.resolve(JSON_REPORT_FILENAME), fileUtils);
+      mJUnitWriter = open(reportPath.resolve(JUNIT_REPORT_FILENAME), fileUtils);
+      mJUnitWriter.write(String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n"
+          + "<testsuites name=\"%s\">%n", JUNIT_SUITES_NAME));
+      mJUnitWriter.flush();
+    } catch (IOException e) {
+      try {
+        closeWriters();
+      } catch (IOException closeException) {
+        e.addSuppressed(closeException);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes result of a script to all report files.
+   *
+   * @param scriptName name of the script
+   * @param result result of the script
+   * @param durationMillis duration of the script's run, including preparation and collection of
+   *                       output
+   * @param envs environments the script has run on
+   * @throws IOException thrown when result could not be written
+   */
+  public void writeResult(String scriptName,
+                          TestResult result,
+                          long durationMillis,
+                          Collection<? extends Environment> envs) throws IOException {
+    mSummaryWriter.write(String.format("[%s] %s%n", result.getType(), scriptName));
+    mSummaryWriter.flush();
+    mJsonWriter.write(toJson(scriptName, result, durationMillis, envs));
+    mJsonWriter.write(String.format("%n"));
+    mJsonWriter.flush();
+    mJUnitWriter.write(toJUnitTestSuite(scriptName, result, durationMillis, envs));
+    mJUnitWriter.flush();
+  }
+
+  /**
+   * Finishes JUnit XML report and closes all files.
+   *
+   * @throws IOException thrown when report could not be finished
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      mJUnitWriter.write(String.format("</testsuites>%n"));
+    } finally {
+      closeWriters();
+    }
+  }
+
+  private void closeWriters() throws IOException {
+    IOException closeException = null;
+    for (Writer writer : mWriters) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        closeException = e;
+      }
+    }
+    mWriters.clear();
+    if (closeException != null) {
+      throw closeException;
+    }
+  }
+
+  private Writer open(Path path, FileUtils fileUtils) throws IOException {
+    Writer writer = fileUtils.newBufferedWriter(path);
+    mWriters.add(writer);
+    return writer;
+  }
+
+  private static String toJson(String scriptName,
+                               TestResult result,
+                               long durationMillis,
+                               Collection<? extends Environment> envs) {
+    List<String> envObjects = new ArrayList<>();
+    for (Environment env : envs) {
+      envObjects.add(String.format("{\"id\":%d,\"hostname\":%s}", env.getId(),
+          toJsonString(env.getHostname())));
+    }
+    List<String> artifactNames = new ArrayList<>();
+    for (String artifactName : result.getArtifacts().keySet()) {
+      artifactNames.add(toJsonString(artifactName));
+    }
+    return String.format("{\"script\":%s,\"result\":\"%s\",\"description\":%s,"
+        + "\"durationMillis\":%d,\"environments\":[%s],\"artifacts\":[%s]}",
+        toJsonString(scriptName), result.getType(), toJsonString(result.getDescription()),
+        durationMillis, StringUtils.join(envObjects, ','), StringUtils.join(artifactNames, ','));
+  }
+
+  // Quotes and escapes string as JSON string literal. Null is written as JSON null.
+  private static String toJsonString(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder builder = new StringBuilder(value.length() + 2);
+    builder.append('"');
+    for (int charIdx = 0; charIdx < value.length(); ++charIdx) {
+      char character = value.charAt(charIdx);
+      switch (character) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (character < ' ') {
+            builder.append(String.format("\\u%04x", (int) character));
+          } else {
+            builder.append(character);
+          }
+      }
+    }
+    builder.append('"');
+    return builder.toString();
+  }
+
+  private static String toJUnitTestSuite(String scriptName,
+                                         TestResult result,
+                                         long durationMillis,
+                                         Collection<? extends Environment> envs) {
+    String name = toXmlAttribute(scriptName);
+    String time = String.format(Locale.ROOT, "%.3f", durationMillis / MILLIS_PER_SECOND);
+    int failureCount = result.getType() == TestResult.Type.FAILURE ? 1 : 0;
+    int errorCount = result.getType() == TestResult.Type.TIMEOUT ? 1 : 0;
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("  <testsuite name=\"%s\" tests=\"1\" failures=\"%d\""
+        + " errors=\"%d\" skipped=\"0\" time=\"%s\">%n", name, failureCount, errorCount, time));
+    if (!envs.isEmpty()) {
+      builder.append(String.format("    <properties>%n"));
+      for (Environment env : envs) {
+        builder.append(String.format("      <property name=\"environment.%d\" value=\"%s\"/>%n",
+            env.getId(), toXmlAttribute(env.getHostname())));
+      }
+      builder.append(String.format("    </properties>%n"));
+    }
+    builder.append(String.format("    <testcase name=\"%s\" classname=\"%s\" time=\"%s\"",
+        name, name, time));
+    String message = toXmlAttribute(result.getDescription());
+    switch (result.getType()) {
+      case FAILURE:
+        builder.append(String.format(">%n      <failure message=\"%s\"/>%n    </testcase>%n",
+            message));
+        break;
+      case TIMEOUT:
+        builder.append(String.format(">%n      <error type=\"timeout\" message=\"%s\"/>%n"
+            + "    </testcase>%n", message));
+        break;
+      case SUCCESS:
+      default:
+        builder.append(String.format("/>%n"));
+    }
+    builder.append(String.format("  </testsuite>%n"));
+    return builder.toString();
+  }
+
+  // Escapes value of XML attribute. Whitespace is written as character references, so that it is
+  // not normalized by parsers.
+  private static String toXmlAttribute(String value) {
+    if (value == null) {
+      return "";
+    }
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int charIdx = 0; charIdx < value.length(); ++charIdx) {
+      char character = value.charAt(charIdx);
+      if (character < ' ' && character != '\t' && character != '\n' && character != '\r') {
+        builder.append(XML_REPLACEMENT_CHARACTER);
+      } else {
+        builder.append(character);
+      }
+    }
+    return StringEscapeUtils.escapeXml(builder.toString()).replace("\t", "&#9;")
+        .replace("\n", "&#10;").replace("\r", "&#13;");
+  }
+}
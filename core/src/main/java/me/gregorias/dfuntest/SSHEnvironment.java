@@ -1,43 +1,89 @@
 package me.gregorias.dfuntest;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import me.gregorias.dfuntest.util.FileManifest;
 import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.ProcessExitPoller;
+import me.gregorias.dfuntest.util.RingBufferOutputStream;
 import me.gregorias.dfuntest.util.SSHClientFactory;
+import me.gregorias.dfuntest.util.SSHConnectionPool;
+import me.gregorias.dfuntest.util.StreamDrainer;
+import me.gregorias.dfuntest.util.TarUtils;
 import net.schmizz.sshj.sftp.SFTPClient;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.OpenFailException;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.connection.channel.direct.Session.Command;
+import net.schmizz.sshj.connection.channel.direct.Signal;
 import net.schmizz.sshj.xfer.FileSystemFile;
 
 /**
  * An UNIX environment accessible through SSH with public key.
+ *
+ * Authenticated SSH connections are kept in a {@link SSHConnectionPool} and reused by all
+ * operations on this environment. Concurrent commands are multiplexed as separate channels over
+ * a shared connection. Call {@link #close()} to disconnect them once the environment is no longer
+ * used.
+ *
+ * Remote home path may start with ~, which denotes the user's home. It is resolved to a path
+ * relative to the user's home, since every SSH session starts there, so that it can be quoted
+ * for the remote shell like any other path.
+ *
+ * Directories are uploaded as a single tar stream piped into remote tar, which avoids a round
+ * trip per file. SCP is used if tar is not available on the remote host.
+ *
+ * Asynchronous file operations run on the executor. Commands started by
+ * {@link #runCommandAsync(List)} or {@link #runCommandAsynchronously(List)} do not occupy an
+ * executor thread while they run. Their channels are checked by {@link ProcessExitPoller} and
+ * the executor only finishes them once they close.
  */
-public class SSHEnvironment extends AbstractConfigurationEnvironment {
+public class SSHEnvironment extends AbstractConfigurationEnvironment implements AsyncEnvironment {
+  public static final int DEFAULT_MAX_CONNECTIONS = 4;
+  /**
+   * Default value of OpenSSH's MaxSessions.
+   */
+  public static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 10;
+  public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = 60 * 1000;
   private static final Logger LOGGER = LoggerFactory.getLogger(SSHEnvironment.class);
+  private static final int MAX_SESSION_OPEN_ATTEMPTS = 3;
+  private static final int ERROR_OUTPUT_TAIL_SIZE = 64 * 1024;
   private final int mId;
   private final String mRemoteHomePath;
 
-  private final String mUsername;
-  private final Path mPrivateKeyPath;
-
   private final InetAddress mRemoteInetAddress;
   private final Executor mExecutor;
-  private final SSHClientFactory mSSHClientFactory;
+  private final SSHConnectionPool mConnectionPool;
   private final FileUtils mFileUtils;
+  private volatile Boolean mIsRemoteTarAvailable = null;
 
   /**
    * @param id Environment's id
@@ -45,7 +91,7 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
    * @param privateKeyPath Path to private key file
    * @param remoteInetAddress Remote host's address
    * @param remoteHomePath Path to remote home where environment will be placed.
-   *                       May be relative to user's home.
+   *                       May be relative to user's home or start with ~.
    * @param executor Executor for running remote commands
    * @param sshClientFactory Factory for SSHClients
    * @param fileUtils Local file utils
@@ -58,19 +104,54 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
       Executor executor,
       SSHClientFactory sshClientFactory,
       FileUtils fileUtils) {
+    this(id,
+        remoteInetAddress,
+        remoteHomePath,
+        executor,
+        new SSHConnectionPool(sshClientFactory,
+            remoteInetAddress,
+            username,
+            privateKeyPath,
+            DEFAULT_MAX_CONNECTIONS,
+            DEFAULT_MAX_SESSIONS_PER_CONNECTION,
+            DEFAULT_MAX_IDLE_TIME_MILLIS),
+        fileUtils);
+  }
+
+  /**
+   * @param id Environment's id
+   * @param remoteInetAddress Remote host's address
+   * @param remoteHomePath Path to remote home where environment will be placed.
+   *                       May be relative to user's home or start with ~.
+   * @param executor Executor for running remote commands
+   * @param connectionPool Pool of connections to remoteInetAddress
+   * @param fileUtils Local file utils
+   */
+  public SSHEnvironment(int id,
+      InetAddress remoteInetAddress,
+      String remoteHomePath,
+      Executor executor,
+      SSHConnectionPool connectionPool,
+      FileUtils fileUtils) {
     super();
     mId = id;
-    mRemoteHomePath = remoteHomePath;
-
-    mUsername = username;
-    mPrivateKeyPath = privateKeyPath;
+    mRemoteHomePath = resolveUserHome(remoteHomePath);
 
     mRemoteInetAddress = remoteInetAddress;
     mExecutor = executor;
-    mSSHClientFactory = sshClientFactory;
+    mConnectionPool = connectionPool;
     mFileUtils = fileUtils;
   }
 
+  /**
+   * Disconnects all pooled connections. Running asynchronous commands are disconnected once they
+   * finish.
+   */
+  public void close() {
+    LOGGER.trace("close()");
+    mConnectionPool.close();
+  }
+
   @Override
   public void copyFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException {
     LOGGER.trace("copyFilesFromLocalDisk({}, {})", srcPath.toString(), destRelPath);
@@ -79,33 +160,57 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
     // Must be correct, because mkdirs has passed.
     String remotePath = concatenatePathToHome(destRelPath);
 
-    SSHClient ssh = connectWithSSH();
+    SSHClient ssh = mConnectionPool.borrow();
     try {
-      ssh.useCompression();
-
-      ssh.newSCPFileTransfer().upload(new FileSystemFile(srcPath.toFile()), remotePath);
+      if (mFileUtils.isDirectory(srcPath) && isRemoteTarAvailable(ssh)) {
+        uploadTarStream(srcPath, null, remotePath, ssh);
+      } else {
+        ssh.newSCPFileTransfer().upload(new FileSystemFile(srcPath.toFile()), remotePath);
+      }
     } finally {
-      ssh.disconnect();
+      mConnectionPool.release(ssh);
     }
   }
 
+  @Override
+  public ListenableFuture<Void> copyFilesFromLocalDiskAsync(final Path srcPath,
+                                                            final String destRelPath) {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        copyFilesFromLocalDisk(srcPath, destRelPath);
+        return null;
+      }
+    });
+  }
+
   @Override
   public void copyFilesToLocalDisk(String srcRelPath, Path destPath) throws IOException {
     LOGGER.trace("copyFilesToLocalDisk({}, {})", srcRelPath, destPath.toString());
     createDestinationDirectoriesLocally(destPath);
 
-    SSHClient ssh = connectWithSSH();
+    SSHClient ssh = mConnectionPool.borrow();
     try {
-      ssh.useCompression();
-
       String remotePath = concatenatePathToHome(srcRelPath);
 
       ssh.newSCPFileTransfer().download(remotePath, new FileSystemFile(destPath.toFile()));
     } finally {
-      ssh.disconnect();
+      mConnectionPool.release(ssh);
     }
   }
 
+  @Override
+  public ListenableFuture<Void> copyFilesToLocalDiskAsync(final String srcRelPath,
+                                                          final Path destPath) {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        copyFilesToLocalDisk(srcRelPath, destPath);
+        return null;
+      }
+    });
+  }
+
   @Override
   public String getHostname() {
     return mRemoteInetAddress.getHostName();
@@ -121,6 +226,10 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
     return mRemoteInetAddress.getHostName();
   }
 
+  /**
+   * @return path to remote home of this environment. Leading ~ of the configured path is resolved
+   *         to a path relative to user's home.
+   */
   public String getRemoteHomePath() {
     return mRemoteHomePath;
   }
@@ -141,7 +250,7 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
       finalDirectoryPath = "./" + finalDirectoryPath;
     }
 
-    SSHClient ssh = connectWithSSH();
+    SSHClient ssh = mConnectionPool.borrow();
     try {
       try {
         try (SFTPClient sftp = ssh.newSFTPClient()) {
@@ -152,7 +261,7 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
         List<String> command = new ArrayList<>();
         command.add("mkdir");
         command.add("-p");
-        command.add(finalDirectoryPath);
+        command.add(quote(finalDirectoryPath));
         String sshHomeDir = ".";
         int exitStatus = runCommand(command, ssh, sshHomeDir);
         if (exitStatus != 0) {
@@ -160,16 +269,24 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
         }
       }
     } finally {
-      ssh.disconnect();
+      mConnectionPool.release(ssh);
     }
   }
 
+  @Override
+  public ListenableFuture<Integer> onExit(RemoteProcess process) {
+    if (!(process instanceof ProcessAdapter)) {
+      throw new IllegalArgumentException("Process was not started by this environment.");
+    }
+    return ((ProcessAdapter) process).mExitFuture;
+  }
+
   @Override
   public void removeFile(String relPath) throws InterruptedException, IOException {
     List<String> command = new ArrayList<>();
     command.add("rm");
     command.add("-rf");
-    command.add(relPath);
+    command.add(quote(relPath));
     RemoteProcess finishedProcess = runCommand(command);
     int exitCode = finishedProcess.waitFor();
     if (exitCode != 0) {
@@ -178,6 +295,17 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
     }
   }
 
+  @Override
+  public ListenableFuture<Void> removeFileAsync(final String relPath) {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException, IOException {
+        removeFile(relPath);
+        return null;
+      }
+    });
+  }
+
   /**
    * Run arbitrary command from selected current directory.
    *
@@ -187,80 +315,172 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
    * @throws IOException
    */
   public int runCommand(List<String> command, String pwdDir) throws IOException {
-    SSHClient ssh = connectWithSSH();
+    SSHClient ssh = mConnectionPool.borrow();
     try {
       return runCommand(command, ssh, pwdDir);
-    } catch (IOException e) {
-      throw e;
     } finally {
-      try {
-        ssh.disconnect();
-      } catch (IOException ioException) {
-        LOGGER.warn("runCommand(): Could not disconnect ssh.", ioException);
-      }
+      mConnectionPool.release(ssh);
     }
   }
 
   @Override
   public RemoteProcess runCommand(List<String> command) throws InterruptedException, IOException {
-    SSHClient ssh;
-    ssh = connectWithSSH();
-    try {
-      ProcessAdapter process = runCommandAndWrapInProcessAdapter(command, ssh);
-      process.run();
-      process.waitFor();
-      return process;
-    } catch (InterruptedException | IOException e) {
-      try {
-        ssh.disconnect();
-      } catch (IOException ioException) {
-        LOGGER.warn("runCommand(): Could not disconnect ssh.", ioException);
-      }
-      throw e;
-    }
+    ProcessAdapter process = borrowConnectionAndStartCommand(command);
+    process.run();
+    process.waitFor();
+    return process;
   }
 
   @Override
   public RemoteProcess runCommandAsynchronously(List<String> command) throws IOException {
-    SSHClient ssh;
-    ssh = connectWithSSH();
+    ProcessAdapter process = borrowConnectionAndStartCommand(command);
+    finishOnClose(process);
+    return process;
+  }
+
+  @Override
+  public ListenableFuture<RemoteProcess> runCommandAsync(List<String> command) {
+    final ProcessAdapter process;
     try {
-      ProcessAdapter process = runCommandAndWrapInProcessAdapter(command, ssh);
-      mExecutor.execute(process);
-      return process;
+      process = borrowConnectionAndStartCommand(command);
     } catch (IOException e) {
-      try {
-        ssh.disconnect();
-      } catch (IOException ioException) {
-        LOGGER.warn("runCommandAsynchronously(): Could not disconnect ssh.", ioException);
+      return Futures.immediateFailedFuture(e);
+    }
+
+    ListenableFuture<Integer> exitFuture = finishOnClose(process);
+    return Futures.transform(exitFuture, new Function<Integer, RemoteProcess>() {
+      @Override
+      public RemoteProcess apply(Integer exitCode) {
+        return process;
       }
-      throw e;
+    });
+  }
+
+  @Override
+  public SyncResult syncFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException {
+    LOGGER.trace("syncFilesFromLocalDisk({}, {})", srcPath.toString(), destRelPath);
+    if (!mFileUtils.isDirectory(srcPath)) {
+      copyFilesFromLocalDisk(srcPath, destRelPath);
+      return new SyncResult(1, srcPath.toFile().length(), 0, 0);
+    }
+
+    String syncedDirRelPath = FilenameUtils.concat(destRelPath, srcPath.getFileName().toString());
+    if (syncedDirRelPath == null) {
+      throw new IllegalArgumentException("Provided path can not be concatenated.");
+    }
+    mkdirs(syncedDirRelPath);
+    String remotePath = concatenatePathToHome(destRelPath);
+    String remoteSyncedDirPath = concatenatePathToHome(syncedDirRelPath);
+    String remoteManifestPath = remoteSyncedDirPath + "/" + FileManifest.MANIFEST_FILE_NAME;
+    FileManifest localManifest = FileManifest.fromDirectory(srcPath);
+
+    SSHClient ssh = mConnectionPool.borrow();
+    try {
+      FileManifest cachedManifest = FileManifest.empty();
+      String cachedManifestContent = readRemoteFile(remoteManifestPath, ssh);
+      if (cachedManifestContent != null) {
+        cachedManifest = FileManifest.fromLines(Arrays.asList(cachedManifestContent.split("\n")));
+      }
+
+      List<String> removedPaths = localManifest.findRemovedPaths(cachedManifest);
+      if (!removedPaths.isEmpty()) {
+        List<String> command = new ArrayList<>();
+        command.add("rm");
+        command.add("-f");
+        for (String removedPath : removedPaths) {
+          command.add(quote(removedPath));
+        }
+        if (runCommand(command, ssh, remoteSyncedDirPath) != 0) {
+          throw new IOException("Could not remove stale files.");
+        }
+      }
+
+      List<String> changedPaths = localManifest.findChangedPaths(cachedManifest);
+      if (!changedPaths.isEmpty()) {
+        if (isRemoteTarAvailable(ssh)) {
+          uploadTarStream(srcPath, changedPaths, remotePath, ssh);
+        } else {
+          uploadFilesThroughSCP(srcPath, changedPaths, remoteSyncedDirPath, ssh);
+        }
+      }
+      writeRemoteFile(remoteManifestPath, StringUtils.join(localManifest.toLines(), '\n'), ssh);
+
+      long transferredByteCount = 0;
+      for (String relPath : changedPaths) {
+        transferredByteCount += localManifest.getSize(relPath);
+      }
+      SyncResult result = new SyncResult(changedPaths.size(),
+          transferredByteCount,
+          localManifest.getPaths().size() - changedPaths.size(),
+          localManifest.getTotalSize() - transferredByteCount);
+      LOGGER.debug("syncFilesFromLocalDisk(): {}", result);
+      return result;
+    } finally {
+      mConnectionPool.release(ssh);
     }
   }
 
+  // Finishes process on the executor once its channel closes, so that no thread waits for it in
+  // the meantime.
+  private ListenableFuture<Integer> finishOnClose(final ProcessAdapter process) {
+    ListenableFuture<Void> closeFuture = ProcessExitPoller.getProcessExitPoller().register(
+        new ProcessExitPoller.ExitCheck() {
+          @Override
+          public boolean hasExited() {
+            return !process.mCommand.isOpen();
+          }
+        });
+    // Channel is already closed, so run does not block on join.
+    return Futures.transform(closeFuture,
+        new AsyncFunction<Void, Integer>() {
+          @Override
+          public ListenableFuture<Integer> apply(Void input) {
+            process.run();
+            return process.mExitFuture;
+          }
+        }, mExecutor);
+  }
+
   private static class ProcessAdapter implements RemoteProcess, Runnable {
+    private final SSHConnectionPool mConnectionPool;
     private final SSHClient mSSHClient;
-    private boolean mHasSSHClientBeenClosed = false;
+    private boolean mHasSSHClientBeenReturned = false;
     private final Session mSSHSession;
     private final Command mCommand;
     private final AtomicBoolean mHasJoined = new AtomicBoolean(false);
+    private final SettableFuture<Integer> mExitFuture = SettableFuture.create();
     private IOException mIOException;
     private int mExitCode;
 
-    public ProcessAdapter(SSHClient client, Session session, Command command) {
+    public ProcessAdapter(SSHConnectionPool connectionPool,
+        SSHClient client,
+        Session session,
+        Command command) {
+      mConnectionPool = connectionPool;
       mSSHClient = client;
       mCommand = command;
       mSSHSession = session;
     }
 
+    /**
+     * Kills the remote command and closes its channel. The connection itself is shared with other
+     * commands and stays open.
+     */
     @Override
-    public void destroy() throws IOException {
-      synchronized (mSSHClient) {
-        if (!mHasSSHClientBeenClosed) {
-          mSSHClient.disconnect();
-          mHasSSHClientBeenClosed = true;
-        }
+    public void destroy() {
+      try {
+        mCommand.signal(Signal.KILL);
+      } catch (IOException e) {
+        LOGGER.warn("destroy(): Could not send kill signal to command.", e);
+      }
+
+      try {
+        mCommand.close();
+      } catch (IOException e) {
+        LOGGER.warn("destroy(): Could not close command's channel.", e);
       }
+
+      releaseConnection();
     }
 
     @Override
@@ -280,10 +500,12 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
 
     @Override
     public void run() {
+      boolean hasFinished = false;
       try {
         mCommand.join();
         mExitCode = mCommand.getExitStatus();
         mCommand.close();
+        hasFinished = true;
       } catch (IOException e) {
         LOGGER.error("run(): Could not correctly wait for command finish.", e);
         mIOException = e;
@@ -292,6 +514,13 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
           mHasJoined.set(true);
           this.notifyAll();
         }
+        if (hasFinished) {
+          mExitFuture.set(mExitCode);
+        } else if (mIOException != null) {
+          mExitFuture.setException(mIOException);
+        } else {
+          mExitFuture.setException(new IOException("Could not get exit status of command."));
+        }
 
         try {
           mSSHSession.close();
@@ -299,16 +528,7 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
           LOGGER.warn("run(): Could not close SSHSession.", e);
         }
 
-        try {
-          synchronized (mSSHClient) {
-            if (!mHasSSHClientBeenClosed) {
-              mSSHClient.disconnect();
-              mHasSSHClientBeenClosed = true;
-            }
-          }
-        } catch (IOException e) {
-          LOGGER.warn("run(): Could not disconnect SSHClient.", e);
-        }
+        releaseConnection();
       }
     }
 
@@ -326,6 +546,31 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
         return mExitCode;
       }
     }
+
+    private void releaseConnection() {
+      synchronized (mSSHClient) {
+        if (!mHasSSHClientBeenReturned) {
+          mConnectionPool.release(mSSHClient);
+          mHasSSHClientBeenReturned = true;
+        }
+      }
+    }
+  }
+
+  // Quotes argument for the remote shell, so that paths with spaces or shell metacharacters are
+  // passed literally.
+  static String quote(String argument) {
+    return "'" + argument.replace("'", "'\\''") + "'";
+  }
+
+  // Resolves leading ~ of path to a path relative to user's home.
+  private static String resolveUserHome(String path) {
+    if (path.equals("~") || path.equals("~/")) {
+      return ".";
+    } else if (path.startsWith("~/")) {
+      return path.substring(2);
+    }
+    return path;
   }
 
   private String concatenatePathToHome(String relPath) {
@@ -336,20 +581,70 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
     return finalPath;
   }
 
-  private SSHClient connectWithSSH() throws IOException {
-    SSHClient ssh = mSSHClientFactory.newSSHClient();
-    ssh.loadKnownHosts();
-    ssh.connect(mRemoteInetAddress);
-    ssh.authPublickey(mUsername, mPrivateKeyPath.toString());
-    return ssh;
+  // Leases a connection and starts the command in a new session on it. If the server refuses to
+  // open another session on a shared connection the command is started on a different one.
+  private ProcessAdapter borrowConnectionAndStartCommand(List<String> command)
+      throws IOException {
+    for (int attempt = 1; ; ++attempt) {
+      SSHClient ssh = mConnectionPool.borrow();
+      try {
+        return runCommandAndWrapInProcessAdapter(command, ssh);
+      } catch (OpenFailException e) {
+        if (attempt >= MAX_SESSION_OPEN_ATTEMPTS) {
+          mConnectionPool.release(ssh);
+          throw e;
+        }
+        LOGGER.debug("borrowConnectionAndStartCommand(): Server refused to open a session.", e);
+        mConnectionPool.releaseRefusedSession(ssh);
+      } catch (IOException | RuntimeException e) {
+        mConnectionPool.release(ssh);
+        throw e;
+      }
+    }
+  }
+
+  private <T> ListenableFuture<T> submit(Callable<T> callable) {
+    ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+    mExecutor.execute(task);
+    return task;
   }
 
   private void createDestinationDirectoriesLocally(Path destPath) throws IOException {
     mFileUtils.createDirectories(destPath);
   }
 
+  private boolean isRemoteTarAvailable(SSHClient ssh) throws IOException {
+    if (mIsRemoteTarAvailable == null) {
+      List<String> command = new ArrayList<>();
+      command.add("command");
+      command.add("-v");
+      command.add("tar");
+      mIsRemoteTarAvailable = runCommand(command, ssh, ".") == 0;
+      if (!mIsRemoteTarAvailable) {
+        LOGGER.info("isRemoteTarAvailable(): tar is not available on {}, falling back to SCP.",
+            mRemoteInetAddress);
+      }
+    }
+    return mIsRemoteTarAvailable;
+  }
+
+  // Returns content of remote file or null if it could not be read.
+  private String readRemoteFile(String remotePath, SSHClient ssh) throws IOException {
+    try (Session session = ssh.startSession()) {
+      Command cmd = session.exec("cat " + quote(remotePath));
+      String content = IOUtils.toString(cmd.getInputStream(), StandardCharsets.UTF_8);
+      cmd.join();
+      Integer exitStatus = cmd.getExitStatus();
+      cmd.close();
+      if (exitStatus == null || exitStatus != 0) {
+        return null;
+      }
+      return content;
+    }
+  }
+
   private int runCommand(List<String> command, SSHClient ssh, String pwdDir) throws IOException {
-    String cdCommand = "cd " + pwdDir + ";";
+    String cdCommand = "cd " + quote(pwdDir) + ";";
     try (Session session = ssh.startSession()) {
       Command cmd = session.exec(cdCommand + StringUtils.join(command, ' '));
       cmd.join();
@@ -359,16 +654,95 @@ public class SSHEnvironment extends AbstractConfigurationEnvironment {
     }
   }
 
+  // Uploads chosen files of srcPath directory, or the whole directory if relPaths is null, into
+  // remotePath directory.
+  private void uploadTarStream(Path srcPath,
+      Collection<String> relPaths,
+      String remotePath,
+      SSHClient ssh) throws IOException {
+    try (Session session = ssh.startSession()) {
+      Command cmd = session.exec("tar -xf - -C " + quote(remotePath));
+      // Error output is drained while the archive is written, so that remote tar does not block
+      // on a full error stream before it consumes its input.
+      RingBufferOutputStream errorStream = new RingBufferOutputStream(ERROR_OUTPUT_TAIL_SIZE);
+      Future<Long> errorDrainFuture = StreamDrainer.drain(cmd.getErrorStream(), errorStream);
+      long byteCount;
+      try (OutputStream tarStream = new BufferedOutputStream(cmd.getOutputStream())) {
+        if (relPaths == null) {
+          byteCount = TarUtils.writeDirectory(srcPath, tarStream);
+        } else {
+          byteCount = TarUtils.writeFiles(srcPath, relPaths, tarStream);
+        }
+      }
+      waitForDrain(errorDrainFuture);
+      String errorOutput = new String(errorStream.toByteArray(), StandardCharsets.UTF_8);
+      cmd.join();
+      Integer exitStatus = cmd.getExitStatus();
+      cmd.close();
+      if (exitStatus == null || exitStatus != 0) {
+        throw new IOException(String.format("Remote tar has failed with exit status %s: %s",
+            exitStatus, errorOutput));
+      }
+      LOGGER.debug("uploadTarStream(): Uploaded {} bytes of {} to {}.", byteCount, srcPath,
+          remotePath);
+    }
+  }
+
+  private static void waitForDrain(Future<Long> drainFuture) throws IOException {
+    try {
+      drainFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading error output.");
+    } catch (ExecutionException e) {
+      throw new IOException("Could not read error output.", e.getCause());
+    }
+  }
+
+  // Uploads files one by one through SCP.
+  private void uploadFilesThroughSCP(Path srcPath,
+      Collection<String> relPaths,
+      String remotePath,
+      SSHClient ssh) throws IOException {
+    for (String relPath : relPaths) {
+      String remoteFilePath = remotePath + "/" + relPath;
+      String remoteDirPath = FilenameUtils.getFullPathNoEndSeparator(remoteFilePath);
+      int exitStatus = runCommand(Arrays.asList("mkdir", "-p", quote(remoteDirPath)), ssh,
+          ".");
+      if (exitStatus != 0) {
+        throw new IOException("Could not create directory " + remoteDirPath + ".");
+      }
+      ssh.newSCPFileTransfer().upload(new FileSystemFile(srcPath.resolve(relPath).toFile()),
+          remoteDirPath);
+    }
+  }
+
   private ProcessAdapter runCommandAndWrapInProcessAdapter(List<String> command, SSHClient ssh)
       throws IOException {
-    String cdCommand = "cd " + mRemoteHomePath + ";";
+    String cdCommand = "cd " + quote(mRemoteHomePath) + ";";
     Session session = ssh.startSession();
     try {
       Command cmd = session.exec(cdCommand + StringUtils.join(command, ' '));
-      return new ProcessAdapter(ssh, session, cmd);
+      return new ProcessAdapter(mConnectionPool, ssh, session, cmd);
     } catch (IOException e) {
       session.close();
       throw e;
     }
   }
+
+  private void writeRemoteFile(String remotePath, String content, SSHClient ssh)
+      throws IOException {
+    try (Session session = ssh.startSession()) {
+      Command cmd = session.exec("cat > " + quote(remotePath));
+      try (OutputStream outputStream = cmd.getOutputStream()) {
+        outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+      }
+      cmd.join();
+      Integer exitStatus = cmd.getExitStatus();
+      cmd.close();
+      if (exitStatus == null || exitStatus != 0) {
+        throw new IOException("Could not write remote file " + remotePath + ".");
+      }
+    }
+  }
 }
@@ -33,6 +33,7 @@ public class SSHEnvironmentFactory implements EnvironmentFactory<Environment> {
   private final Path mPrivateKeyPath;
   private final String mRemoteDir;
   private final Executor mExecutor;
+  private final ParallelEnvironmentExecutor mParallelExecutor = new ParallelEnvironmentExecutor();
 
   /**
    * @param hosts list of remote hosts
@@ -82,22 +83,35 @@ public class SSHEnvironmentFactory implements EnvironmentFactory<Environment> {
 
   @Override
   public void destroy(Collection<Environment> envs) {
-    String errorMsg = "destroy(): Could not destroy environment due to exception.";
-    for (Environment env : envs) {
-      SSHEnvironment ssh = (SSHEnvironment) env;
-      try {
-        List<String> command = new ArrayList<>();
-        command.add("rmdir");
-        command.add(ssh.getRemoteHomePath());
-        int exitStatus = ssh.runCommand(command, ".");
-        if (exitStatus != 0) {
-          LOGGER.error("destroy(): rmdir command has failed with status {}.", exitStatus);
-        }
-      } catch (IOException e) {
-        LOGGER.error(errorMsg, e);
-      }
+    try {
+      mParallelExecutor.execute(envs,
+          new ParallelEnvironmentExecutor.EnvironmentAction<Environment>() {
+            @Override
+            public void run(Environment env) {
+              destroy((SSHEnvironment) env);
+            }
+          });
+    } catch (InterruptedException e) {
+      LOGGER.warn("destroy(): Interrupted while destroying environments.", e);
+      Thread.currentThread().interrupt();
     }
 
     LOGGER.info("destroy() -> void");
   }
-}
\ No newline at end of file
+
+  private void destroy(SSHEnvironment ssh) {
+    try {
+      List<String> command = new ArrayList<>();
+      command.add("rmdir");
+      command.add(SSHEnvironment.quote(ssh.getRemoteHomePath()));
+      int exitStatus = ssh.runCommand(command, ".");
+      if (exitStatus != 0) {
+        LOGGER.error("destroy(): rmdir command has failed with status {}.", exitStatus);
+      }
+    } catch (IOException e) {
+      LOGGER.error("destroy(): Could not destroy environment due to exception.", e);
+    } finally {
+      ssh.close();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package me.gregorias.dfuntest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Probe which is ready once a TCP connection to given address succeeds. The connection is closed
+ * immediately, so the application has to tolerate empty connections.
+ */
+public class SocketReadinessProbe implements ReadinessProbe {
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+  private final InetSocketAddress mSocketAddress;
+  private final int mConnectTimeoutMillis;
+
+  public SocketReadinessProbe(InetSocketAddress socketAddress) {
+    this(socketAddress, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param socketAddress address to connect to
+   * @param connectTimeoutMillis timeout of a single connection attempt. It is shortened to the
+   *                             deadline of {@link Readiness#awaitAll}.
+   */
+  public SocketReadinessProbe(InetSocketAddress socketAddress, int connectTimeoutMillis) {
+    mSocketAddress = socketAddress;
+    mConnectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  @Override
+  public boolean isReady() throws IOException {
+    try (Socket socket = new Socket()) {
+      socket.connect(mSocketAddress, Readiness.boundTimeoutMillis(mConnectTimeoutMillis));
+      return true;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SocketReadinessProbe[" + mSocketAddress + "]";
+  }
+}
@@ -0,0 +1,55 @@
+package me.gregorias.dfuntest;
+
+/**
+ * Summary of {@link Environment#syncFilesFromLocalDisk(java.nio.file.Path, String)}.
+ */
+public class SyncResult {
+  private final int mTransferredFileCount;
+  private final long mTransferredByteCount;
+  private final int mSkippedFileCount;
+  private final long mSkippedByteCount;
+
+  public SyncResult(int transferredFileCount,
+      long transferredByteCount,
+      int skippedFileCount,
+      long skippedByteCount) {
+    mTransferredFileCount = transferredFileCount;
+    mTransferredByteCount = transferredByteCount;
+    mSkippedFileCount = skippedFileCount;
+    mSkippedByteCount = skippedByteCount;
+  }
+
+  /**
+   * @return total size of files which were already up to date
+   */
+  public long getSkippedByteCount() {
+    return mSkippedByteCount;
+  }
+
+  /**
+   * @return number of files which were already up to date
+   */
+  public int getSkippedFileCount() {
+    return mSkippedFileCount;
+  }
+
+  /**
+   * @return total size of new or changed files which were transferred
+   */
+  public long getTransferredByteCount() {
+    return mTransferredByteCount;
+  }
+
+  /**
+   * @return number of new or changed files which were transferred
+   */
+  public int getTransferredFileCount() {
+    return mTransferredFileCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SyncResult[transferred: %d files, %d bytes; skipped: %d files, %d bytes]",
+        mTransferredFileCount, mTransferredByteCount, mSkippedFileCount, mSkippedByteCount);
+  }
+}
@@ -1,16 +1,50 @@
 package me.gregorias.dfuntest;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class TestResult {
   private final Type mType;
   private final String mDescription;
+  private final Map<String, String> mArtifacts;
 
+  /**
+   * Outcome of a test. TIMEOUT means that the test has not finished in time and has been
+   * interrupted by the test runner.
+   */
   public enum Type {
-    SUCCESS, FAILURE
+    SUCCESS, FAILURE, TIMEOUT
   }
 
   public TestResult(Type type, String description) {
+    this(type, description, Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * @param type type of result
+   * @param description description of result
+   * @param artifacts contents of additional files, such as measurements, by their names. Test
+   *                  runners save them in report directory of the script.
+   */
+  public TestResult(Type type, String description, Map<String, String> artifacts) {
+    for (String artifactName : artifacts.keySet()) {
+      if (artifactName.isEmpty() || artifactName.contains("/") || artifactName.contains("\\")
+          || artifactName.startsWith(".")) {
+        throw new IllegalArgumentException("Artifact name should be a plain file name: "
+            + artifactName);
+      }
+    }
     mType = type;
     mDescription = description;
+    mArtifacts = Collections.unmodifiableMap(new LinkedHashMap<>(artifacts));
+  }
+
+  /**
+   * @return contents of additional files by their names
+   */
+  public Map<String, String> getArtifacts() {
+    return mArtifacts;
   }
 
   public String getDescription() {
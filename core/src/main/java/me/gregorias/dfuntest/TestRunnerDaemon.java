@@ -0,0 +1,301 @@
+package me.gregorias.dfuntest;
+
+import com.google.inject.Inject;
+import me.gregorias.dfuntest.util.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Long-lived test runner which keeps environments alive and prepared between test runs. Test runs
+ * are submitted through a line-based protocol on a loopback socket, for example with netcat, and
+ * run one at a time by {@link MultiTestRunner} against environments cached by
+ * {@link CachingEnvironmentFactory}. Environments are never cleaned completely between runs, only
+ * their output is.
+ * </p>
+ *
+ * <p>
+ * Every request is a single line. Responses are single lines as well, unless stated otherwise.
+ * </p>
+ * <ul>
+ * <li>{@code RUN [SCRIPT]...} - prepares environments, which synchronizes changed files, and runs
+ * given scripts, or all of them if none is given. Responds with
+ * {@code SUCCESS|FAILURE REPORT_PATH DESCRIPTION}.</li>
+ * <li>{@code RERUN [SCRIPT]...} - like RUN, but only restores environments prepared by a previous
+ * run. Use it when nothing has changed since.</li>
+ * <li>{@code LIST} - responds with names of available scripts, one per line, followed by
+ * {@code END}.</li>
+ * <li>{@code QUIT} - closes connection.</li>
+ * <li>{@code SHUTDOWN} - destroys environments and stops the daemon.</li>
+ * </ul>
+ * <p>
+ * Invalid requests get {@code ERROR MESSAGE} response. Scripts are named by their toString.
+ * Reports of n-th run are written to run-n directory of report path.
+ * </p>
+ *
+ * @param <EnvironmentT> type of environment
+ * @param <AppT> type of application
+ */
+public class TestRunnerDaemon<EnvironmentT extends Environment, AppT extends App<EnvironmentT>> {
+  public static final String PORT_ARGUMENT_NAME = "TestRunnerDaemon.port";
+  public static final int DEFAULT_PORT = 9970;
+  public static final String RUN_REQUEST = "RUN";
+  public static final String RERUN_REQUEST = "RERUN";
+  public static final String LIST_REQUEST = "LIST";
+  public static final String QUIT_REQUEST = "QUIT";
+  public static final String SHUTDOWN_REQUEST = "SHUTDOWN";
+  public static final String END_RESPONSE = "END";
+  public static final String ERROR_RESPONSE = "ERROR";
+  public static final String OK_RESPONSE = "OK";
+  private static final Logger LOGGER = LoggerFactory.getLogger(TestRunnerDaemon.class);
+  private static final String RUN_DIR_PREFIX = "run-";
+  private final Map<String, TestScript<AppT>> mScripts = new LinkedHashMap<>();
+  private final CachingEnvironmentFactory<EnvironmentT> mEnvironmentFactory;
+  private final EnvironmentPreparator<EnvironmentT> mEnvironmentPreparator;
+  private final ApplicationFactory<EnvironmentT, AppT> mApplicationFactory;
+  private final Path mReportPath;
+  private final int mMaxConcurrentScripts;
+  private final long mScriptTimeoutMillis;
+  private final int mPort;
+  private final FileUtils mFileUtils;
+  private volatile ServerSocket mServerSocket;
+  private volatile Thread mRunningThread;
+  private volatile boolean mIsShutDown = false;
+  private int mRunCount = 0;
+
+  /**
+   * @param scripts scripts which may be run
+   * @param environmentFactory factory of environments. Environments are created once and kept
+   *                           until shutdown.
+   * @param environmentPreparator preparator of environments
+   * @param applicationFactory factory of applications
+   * @param reportPath directory of reports of all runs
+   * @param maxConcurrentScripts see {@link MultiTestRunner}
+   * @param scriptTimeoutMillis see {@link MultiTestRunner}
+   * @param port port on loopback address to listen on. 0 chooses a free port.
+   * @param fileUtils file utilities
+   */
+  @Inject
+  public TestRunnerDaemon(@Named(MultiTestRunner.SCRIPTS_ARGUMENT_NAME)
+                          Set<TestScript<AppT>> scripts,
+                          EnvironmentFactory<EnvironmentT> environmentFactory,
+                          EnvironmentPreparator<EnvironmentT> environmentPreparator,
+                          ApplicationFactory<EnvironmentT, AppT> applicationFactory,
+                          @Named(MultiTestRunner.REPORT_PATH_ARGUMENT_NAME)
+                          Path reportPath,
+                          @Named(MultiTestRunner.MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME)
+                          int maxConcurrentScripts,
+                          @Named(MultiTestRunner.SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME)
+                          long scriptTimeoutMillis,
+                          @Named(PORT_ARGUMENT_NAME)
+                          int port,
+                          FileUtils fileUtils) {
+    for (TestScript<AppT> script : scripts) {
+      mScripts.put(script.toString(), script);
+    }
+    mEnvironmentFactory = new CachingEnvironmentFactory<>(environmentFactory);
+    mEnvironmentPreparator = environmentPreparator;
+    mApplicationFactory = applicationFactory;
+    mReportPath = reportPath;
+    mMaxConcurrentScripts = maxConcurrentScripts;
+    mScriptTimeoutMillis = scriptTimeoutMillis;
+    mPort = port;
+    mFileUtils = fileUtils;
+  }
+
+  /**
+   * @return port the daemon listens on
+   */
+  public synchronized int getPort() {
+    if (mServerSocket == null) {
+      throw new IllegalStateException("Daemon has not been started.");
+    }
+    return mServerSocket.getLocalPort();
+  }
+
+  /**
+   * Runs scripts against cached environments, creating them if necessary.
+   *
+   * @param scriptNames names of scripts to run. All scripts are run if it is empty.
+   * @param shouldPrepareEnvironments whether environments should be prepared or only restored.
+   *                                  Newly created environments are always prepared.
+   * @return result of the run
+   */
+  public synchronized TestResult run(Collection<String> scriptNames,
+                                     boolean shouldPrepareEnvironments) {
+    Set<TestScript<AppT>> scripts = new LinkedHashSet<>();
+    for (String scriptName : scriptNames) {
+      TestScript<AppT> script = mScripts.get(scriptName);
+      if (script == null) {
+        throw new IllegalArgumentException("Unknown script: " + scriptName);
+      }
+      scripts.add(script);
+    }
+    if (scripts.isEmpty()) {
+      scripts.addAll(mScripts.values());
+    }
+
+    Path runReportPath = getRunReportPath(mRunCount);
+    ++mRunCount;
+    LOGGER.info("run(): Running {} with report at {}.", scripts, runReportPath);
+    MultiTestRunner<EnvironmentT, AppT> testRunner = new MultiTestRunner<>(scripts,
+        mEnvironmentFactory,
+        mEnvironmentPreparator,
+        mApplicationFactory,
+        shouldPrepareEnvironments || !mEnvironmentFactory.hasEnvironments(),
+        false,
+        runReportPath,
+        mMaxConcurrentScripts,
+        mScriptTimeoutMillis,
+        mFileUtils);
+    // Running thread is published before checking for shutdown, so that shutDown either sees and
+    // interrupts it or this run sees the shutdown.
+    mRunningThread = Thread.currentThread();
+    try {
+      if (mIsShutDown) {
+        return new TestResult(TestResult.Type.FAILURE, "Daemon has been shut down.");
+      }
+      return testRunner.run();
+    } finally {
+      mRunningThread = null;
+    }
+  }
+
+  /**
+   * Accepts connections and handles their requests until shutdown. Connections are handled one at
+   * a time.
+   *
+   * @throws IOException thrown when the listening socket has failed
+   */
+  public void serve() throws IOException {
+    LOGGER.info("serve(): Listening on port {}.", getPort());
+    while (!mIsShutDown) {
+      Socket socket;
+      try {
+        socket = mServerSocket.accept();
+      } catch (SocketException e) {
+        if (mIsShutDown) {
+          break;
+        }
+        throw e;
+      }
+
+      try {
+        handleConnection(socket);
+      } catch (IOException e) {
+        LOGGER.warn("serve(): Connection has failed.", e);
+      } finally {
+        IOUtils.closeQuietly(socket);
+      }
+    }
+    LOGGER.info("serve(): Daemon has been shut down.");
+  }
+
+  /**
+   * Stops accepting connections, interrupts the run in progress, if any, and destroys cached
+   * environments once it has returned. It may be called from any thread, for example from a
+   * shutdown hook.
+   */
+  public void shutDown() {
+    LOGGER.info("shutDown()");
+    mIsShutDown = true;
+    IOUtils.closeQuietly(mServerSocket);
+    Thread runningThread = mRunningThread;
+    if (runningThread != null) {
+      LOGGER.info("shutDown(): Interrupting run in progress.");
+      runningThread.interrupt();
+    }
+    synchronized (this) {
+      mEnvironmentFactory.close();
+    }
+  }
+
+  /**
+   * Starts listening on loopback address.
+   *
+   * @throws IOException thrown when socket could not be bound
+   */
+  public synchronized void start() throws IOException {
+    mServerSocket = new ServerSocket(mPort, 0, InetAddress.getLoopbackAddress());
+  }
+
+  Path getRunReportPath(int runIdx) {
+    return mReportPath.resolve(RUN_DIR_PREFIX + runIdx);
+  }
+
+  // Handles requests of a single connection until it is closed or QUIT or SHUTDOWN is received.
+  private void handleConnection(Socket socket) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.UTF_8));
+    PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+        StandardCharsets.UTF_8), true);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      List<String> words = new ArrayList<>(Arrays.asList(StringUtils.split(line)));
+      if (words.isEmpty()) {
+        continue;
+      }
+      String request = words.remove(0);
+      LOGGER.debug("handleConnection(): Received {} request.", request);
+      switch (request) {
+        case RUN_REQUEST:
+        case RERUN_REQUEST:
+          writer.println(handleRunRequest(words, request.equals(RUN_REQUEST)));
+          break;
+        case LIST_REQUEST:
+          for (String scriptName : mScripts.keySet()) {
+            writer.println(scriptName);
+          }
+          writer.println(END_RESPONSE);
+          break;
+        case QUIT_REQUEST:
+          writer.println(OK_RESPONSE);
+          return;
+        case SHUTDOWN_REQUEST:
+          shutDown();
+          writer.println(OK_RESPONSE);
+          return;
+        default:
+          writer.println(ERROR_RESPONSE + " Unknown request: " + request);
+      }
+    }
+  }
+
+  private String handleRunRequest(List<String> scriptNames, boolean shouldPrepareEnvironments) {
+    Path runReportPath;
+    TestResult result;
+    synchronized (this) {
+      runReportPath = getRunReportPath(mRunCount);
+      try {
+        result = run(scriptNames, shouldPrepareEnvironments);
+      } catch (IllegalArgumentException e) {
+        return ERROR_RESPONSE + " " + e.getMessage();
+      }
+    }
+    return String.format("%s %s %s", result.getType(), runReportPath,
+        result.getDescription().replace('\n', ' '));
+  }
+}
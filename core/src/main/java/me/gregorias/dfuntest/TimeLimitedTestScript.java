@@ -0,0 +1,14 @@
+package me.gregorias.dfuntest;
+
+/**
+ * Test script with its own time limit which overrides the default one of the test runner.
+ *
+ * @param <AppT>
+ */
+public interface TimeLimitedTestScript<AppT extends App> extends TestScript<AppT> {
+  /**
+   * @return maximal duration of {@link TestScript#run(java.util.Collection)} in milliseconds.
+   *         Nonpositive value means no limit.
+   */
+  long getTimeoutMillis();
+}
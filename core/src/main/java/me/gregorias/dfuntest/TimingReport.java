@@ -0,0 +1,205 @@
+package me.gregorias.dfuntest;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Thread-safe record of how long phases of a test run took.
+ * </p>
+ *
+ * <p>
+ * Each phase is recorded together with the script it was run for (empty for phases common to all
+ * scripts, like environment creation) and the environments it was run on. The report may be
+ * written out as CSV with one row per recorded phase and columns
+ * {@value #CSV_HEADER}. Start times are relative to creation of the report.
+ * </p>
+ *
+ * <p>
+ * A started phase is the current phase of the thread which has started it until it is stopped.
+ * {@link ParallelEnvironmentExecutor} run on that thread records the duration of its action on
+ * each environment as a separate phase, named like the current one with suffix
+ * {@value #PER_ENVIRONMENT_SUFFIX}, so that a slow environment stands out in a group.
+ * </p>
+ */
+public class TimingReport {
+  public static final String CSV_HEADER = "phase,script,environments,start_ms,duration_ms";
+  public static final String PER_ENVIRONMENT_SUFFIX = "PerEnvironment";
+  private static final ThreadLocal<PhaseTimer> CURRENT_PHASE = new ThreadLocal<>();
+  private final long mStartTime;
+  private final List<Entry> mEntries = new ArrayList<>();
+
+  public TimingReport() {
+    mStartTime = System.nanoTime();
+  }
+
+  /**
+   * Phase which has been started and is waiting to be stopped.
+   */
+  public class PhaseTimer {
+    private final String mPhase;
+    private final String mScript;
+    private final Collection<? extends Environment> mEnvs;
+    private final long mPhaseStartTime;
+    private final PhaseTimer mPreviousPhase;
+
+    private PhaseTimer(String phase, String script, Collection<? extends Environment> envs) {
+      mPhase = phase;
+      mScript = script;
+      mEnvs = new ArrayList<>(envs);
+      mPreviousPhase = CURRENT_PHASE.get();
+      CURRENT_PHASE.set(this);
+      mPhaseStartTime = System.nanoTime();
+    }
+
+    /**
+     * Records part of this phase which has been run on a single environment.
+     *
+     * @param env environment on which the part was run
+     * @param startTime value of {@link System#nanoTime()} at the start of the part
+     * @param endTime value of {@link System#nanoTime()} at the end of the part
+     */
+    public void recordEnvironment(Environment env, long startTime, long endTime) {
+      record(mPhase + PER_ENVIRONMENT_SUFFIX, mScript, Collections.singleton(env),
+          startTime - mStartTime, endTime - startTime);
+    }
+
+    /**
+     * Records this phase as finished now. Previous phase of the thread becomes current again.
+     */
+    public void stop() {
+      record(mPhase, mScript, mEnvs, mPhaseStartTime - mStartTime,
+          System.nanoTime() - mPhaseStartTime);
+      if (CURRENT_PHASE.get() == this) {
+        if (mPreviousPhase == null) {
+          CURRENT_PHASE.remove();
+        } else {
+          CURRENT_PHASE.set(mPreviousPhase);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return phase started and not yet stopped by the current thread, null if there is none
+   */
+  public static PhaseTimer getCurrentPhase() {
+    return CURRENT_PHASE.get();
+  }
+
+  /**
+   * @return total time, in milliseconds, spent in each phase keyed by phase name in order of
+   *         first occurrence
+   */
+  public Map<String, Long> getTotalDurations() {
+    Map<String, Long> totalDurations = new LinkedHashMap<>();
+    for (Entry entry : getEntries()) {
+      Long totalDuration = totalDurations.get(entry.mPhase);
+      totalDurations.put(entry.mPhase, (totalDuration == null ? 0 : totalDuration)
+          + TimeUnit.NANOSECONDS.toMillis(entry.mDuration));
+    }
+    return totalDurations;
+  }
+
+  /**
+   * Records phase which has happened.
+   *
+   * @param phase name of the phase
+   * @param script script for which the phase was run, empty if it is common to all scripts
+   * @param envs environments on which the phase was run
+   * @param start start of the phase in nanoseconds since creation of this report
+   * @param duration duration of the phase in nanoseconds
+   */
+  public void record(String phase,
+                     String script,
+                     Collection<? extends Environment> envs,
+                     long start,
+                     long duration) {
+    Entry entry = new Entry(phase, script, envs, start, duration);
+    synchronized (mEntries) {
+      mEntries.add(entry);
+    }
+  }
+
+  /**
+   * Starts measuring a phase. Phase is recorded once the returned timer is stopped.
+   *
+   * @param phase name of the phase
+   * @param script script for which the phase is run, empty if it is common to all scripts
+   * @param envs environments on which the phase is run
+   * @return timer of started phase
+   */
+  public PhaseTimer startPhase(String phase,
+                               String script,
+                               Collection<? extends Environment> envs) {
+    return new PhaseTimer(phase, script, envs);
+  }
+
+  /**
+   * @return report in CSV format including header, rows are sorted by start time
+   */
+  public List<String> toCsvLines() {
+    List<Entry> entries = getEntries();
+    List<String> lines = new ArrayList<>();
+    lines.add(CSV_HEADER);
+    for (Entry entry : entries) {
+      lines.add(entry.toCsvLine());
+    }
+    return lines;
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    private final String mPhase;
+    private final String mScript;
+    private final Collection<Integer> mEnvIds;
+    private final long mStart;
+    private final long mDuration;
+
+    public Entry(String phase,
+                 String script,
+                 Collection<? extends Environment> envs,
+                 long start,
+                 long duration) {
+      mPhase = phase;
+      mScript = script;
+      mEnvIds = new ArrayList<>();
+      for (Environment env : envs) {
+        mEnvIds.add(env.getId());
+      }
+      mStart = start;
+      mDuration = duration;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      return Long.compare(mStart, other.mStart);
+    }
+
+    public String toCsvLine() {
+      return StringUtils.join(new Object[] {
+          StringEscapeUtils.escapeCsv(mPhase),
+          StringEscapeUtils.escapeCsv(mScript),
+          StringUtils.join(mEnvIds, " "),
+          TimeUnit.NANOSECONDS.toMillis(mStart),
+          TimeUnit.NANOSECONDS.toMillis(mDuration)}, ",");
+    }
+  }
+
+  // Returns a snapshot of entries sorted by start time.
+  private List<Entry> getEntries() {
+    List<Entry> entries;
+    synchronized (mEntries) {
+      entries = new ArrayList<>(mEntries);
+    }
+    Collections.sort(entries);
+    return entries;
+  }
+}
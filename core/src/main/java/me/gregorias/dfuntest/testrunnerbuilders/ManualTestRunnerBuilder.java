@@ -26,6 +26,8 @@ public class ManualTestRunnerBuilder<EnvironmentT extends Environment,
   private boolean mShouldPrepareEnvironments = true;
   private boolean mShouldCleanEnvironments = true;
   private Path mReportPath;
+  private int mMaxConcurrentScripts = MultiTestRunner.DEFAULT_MAX_CONCURRENT_SCRIPTS;
+  private long mScriptTimeoutMillis = MultiTestRunner.DEFAULT_SCRIPT_TIMEOUT_MILLIS;
 
   public ManualTestRunnerBuilder<EnvironmentT, AppT> addTestScript(TestScript<AppT> testScript) {
     mTestScripts.add(testScript);
@@ -49,6 +51,8 @@ public class ManualTestRunnerBuilder<EnvironmentT extends Environment,
         mShouldPrepareEnvironments,
         mShouldCleanEnvironments,
         mReportPath,
+        mMaxConcurrentScripts,
+        mScriptTimeoutMillis,
         FileUtilsImpl.getFileUtilsImpl());
   }
 
@@ -70,6 +74,30 @@ public class ManualTestRunnerBuilder<EnvironmentT extends Environment,
     return this;
   }
 
+  /**
+   * Sets how many test scripts may run at the same time on disjoint groups of environments.
+   * 1 on default.
+   * @param maxConcurrentScripts maximal number of concurrently running scripts
+   * @return this
+   */
+  public ManualTestRunnerBuilder<EnvironmentT, AppT> setMaxConcurrentScripts(
+      int maxConcurrentScripts) {
+    mMaxConcurrentScripts = maxConcurrentScripts;
+    return this;
+  }
+
+  /**
+   * Sets maximal duration of a script's run after which it is interrupted and its result is
+   * TIMEOUT. Scripts implementing TimeLimitedTestScript set their own limit. No limit on default.
+   * @param scriptTimeoutMillis time limit in milliseconds, nonpositive for no limit
+   * @return this
+   */
+  public ManualTestRunnerBuilder<EnvironmentT, AppT> setScriptTimeoutMillis(
+      long scriptTimeoutMillis) {
+    mScriptTimeoutMillis = scriptTimeoutMillis;
+    return this;
+  }
+
   public ManualTestRunnerBuilder<EnvironmentT, AppT> setReportPath(Path reportPath) {
     mReportPath = reportPath;
     return this;
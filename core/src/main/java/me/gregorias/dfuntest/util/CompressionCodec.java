@@ -0,0 +1,67 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compression of tar archives created by the tar command. Each codec knows tar's option which
+ * selects it and how to decompress archives it has produced.
+ */
+public enum CompressionCodec {
+  /**
+   * Plain tar archive.
+   */
+  NONE("", ".tar"),
+  /**
+   * Fast compression with gzip.
+   */
+  GZIP("z", ".tar.gz"),
+  /**
+   * Slower, but usually stronger compression with bzip2.
+   */
+  BZIP2("j", ".tar.bz2");
+
+  private final String mTarOption;
+  private final String mArchiveExtension;
+
+  CompressionCodec(String tarOption, String archiveExtension) {
+    mTarOption = tarOption;
+    mArchiveExtension = archiveExtension;
+  }
+
+  /**
+   * @return extension of archive file, including the leading dot
+   */
+  public String getArchiveExtension() {
+    return mArchiveExtension;
+  }
+
+  /**
+   * @return tar's option which creates archive in this format, for example "-czf"
+   */
+  public String getTarCreateOption() {
+    return "-c" + mTarOption + "f";
+  }
+
+  /**
+   * Wraps stream of compressed archive with stream of uncompressed archive.
+   *
+   * @param inputStream stream of compressed archive
+   * @return stream of plain tar archive
+   * @throws IOException thrown when stream does not start with valid header
+   */
+  public InputStream newDecompressingInputStream(InputStream inputStream) throws IOException {
+    switch (this) {
+      case GZIP:
+        return new GzipCompressorInputStream(inputStream, true);
+      case BZIP2:
+        return new BZip2CompressorInputStream(inputStream, true);
+      case NONE:
+      default:
+        return inputStream;
+    }
+  }
+}
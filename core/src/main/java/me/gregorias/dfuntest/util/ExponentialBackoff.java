@@ -0,0 +1,40 @@
+package me.gregorias.dfuntest.util;
+
+/**
+ * Sequence of delays which doubles after every step until it reaches a maximum.
+ */
+public class ExponentialBackoff {
+  private final long mInitialDelayMillis;
+  private final long mMaxDelayMillis;
+  private long mNextDelayMillis;
+
+  /**
+   * @param initialDelayMillis first delay
+   * @param maxDelayMillis maximal delay
+   */
+  public ExponentialBackoff(long initialDelayMillis, long maxDelayMillis) {
+    if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+      throw new IllegalArgumentException("Delays were nonpositive or maximal delay was smaller"
+          + " than initial one.");
+    }
+    mInitialDelayMillis = initialDelayMillis;
+    mMaxDelayMillis = maxDelayMillis;
+    mNextDelayMillis = initialDelayMillis;
+  }
+
+  /**
+   * @return next delay in the sequence
+   */
+  public long nextDelayMillis() {
+    long delayMillis = mNextDelayMillis;
+    mNextDelayMillis = Math.min(mMaxDelayMillis, 2 * mNextDelayMillis);
+    return delayMillis;
+  }
+
+  /**
+   * Starts the sequence again from the initial delay.
+   */
+  public void reset() {
+    mNextDelayMillis = mInitialDelayMillis;
+  }
+}
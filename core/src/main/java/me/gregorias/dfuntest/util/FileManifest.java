@@ -0,0 +1,231 @@
+package me.gregorias.dfuntest.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Content hashes and sizes of all regular files in a directory tree, used for incremental
+ * synchronization of directories.
+ * </p>
+ *
+ * <p>
+ * A manifest is serialized as lines of the form "&lt;SHA-1&gt; &lt;size&gt; &lt;path&gt;", where
+ * path is relative to the directory and uses '/' as a separator. Synchronized directory stores
+ * the manifest of its last synchronized state in {@link #MANIFEST_FILE_NAME} file.
+ * </p>
+ */
+public final class FileManifest {
+  public static final String MANIFEST_FILE_NAME = ".dfuntest-manifest";
+  private static final String HASH_ALGORITHM = "SHA-1";
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final SortedMap<String, Entry> mEntries;
+
+  private FileManifest(SortedMap<String, Entry> entries) {
+    mEntries = entries;
+  }
+
+  /**
+   * @return manifest without any files
+   */
+  public static FileManifest empty() {
+    return new FileManifest(new TreeMap<String, Entry>());
+  }
+
+  /**
+   * Computes manifest of all regular files in given directory, except for the manifest file.
+   *
+   * @param dirPath directory to scan
+   * @return manifest of the directory
+   */
+  public static FileManifest fromDirectory(Path dirPath) throws IOException {
+    final Path absoluteDirPath = dirPath.toAbsolutePath().normalize();
+    final SortedMap<String, Entry> entries = new TreeMap<>();
+    final MessageDigest digest = newMessageDigest();
+    Files.walkFileTree(absoluteDirPath,
+        EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+        Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            String relPath = toRelativePath(absoluteDirPath, file);
+            if (attrs.isRegularFile() && !relPath.equals(MANIFEST_FILE_NAME)) {
+              entries.put(relPath, new Entry(hash(digest, file), attrs.size()));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return new FileManifest(entries);
+  }
+
+  /**
+   * Parses serialized manifest. Malformed lines are ignored, so files described by them are
+   * treated as missing.
+   *
+   * @param lines lines of serialized manifest
+   * @return parsed manifest
+   */
+  public static FileManifest fromLines(Collection<String> lines) {
+    SortedMap<String, Entry> entries = new TreeMap<>();
+    for (String line : lines) {
+      String[] fields = line.split(" ", 3);
+      if (fields.length != 3) {
+        continue;
+      }
+      try {
+        entries.put(fields[2], new Entry(fields[0], Long.parseLong(fields[1])));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+    }
+    return new FileManifest(entries);
+  }
+
+  /**
+   * Finds files which are new or have different content than in other manifest.
+   *
+   * @param other manifest of previous state
+   * @return relative paths of changed files
+   */
+  public List<String> findChangedPaths(FileManifest other) {
+    List<String> changedPaths = new ArrayList<>();
+    for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+      if (!entry.getValue().equals(other.mEntries.get(entry.getKey()))) {
+        changedPaths.add(entry.getKey());
+      }
+    }
+    return changedPaths;
+  }
+
+  /**
+   * Finds files which are present in other manifest, but not in this one.
+   *
+   * @param other manifest of previous state
+   * @return relative paths of removed files
+   */
+  public List<String> findRemovedPaths(FileManifest other) {
+    List<String> removedPaths = new ArrayList<>();
+    for (String path : other.mEntries.keySet()) {
+      if (!mEntries.containsKey(path)) {
+        removedPaths.add(path);
+      }
+    }
+    return removedPaths;
+  }
+
+  /**
+   * @return relative paths of all files in this manifest
+   */
+  public Collection<String> getPaths() {
+    return mEntries.keySet();
+  }
+
+  /**
+   * @param relPath relative path of file in this manifest
+   * @return size of file in bytes
+   */
+  public long getSize(String relPath) {
+    return mEntries.get(relPath).mSize;
+  }
+
+  /**
+   * @return sum of sizes of all files in this manifest
+   */
+  public long getTotalSize() {
+    long totalSize = 0;
+    for (Entry entry : mEntries.values()) {
+      totalSize += entry.mSize;
+    }
+    return totalSize;
+  }
+
+  /**
+   * @return serialized manifest, one line per file
+   */
+  public List<String> toLines() {
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+      lines.add(entry.getValue().mHash + " " + entry.getValue().mSize + " " + entry.getKey());
+    }
+    return lines;
+  }
+
+  private static class Entry {
+    private final String mHash;
+    private final long mSize;
+
+    public Entry(String hash, long size) {
+      mHash = hash;
+      mSize = size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Entry)) {
+        return false;
+      }
+      Entry other = (Entry) obj;
+      return mHash.equals(other.mHash) && mSize == other.mSize;
+    }
+
+    @Override
+    public int hashCode() {
+      return mHash.hashCode();
+    }
+  }
+
+  private static String hash(MessageDigest digest, Path file) throws IOException {
+    digest.reset();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      int readByteCount;
+      while ((readByteCount = inputStream.read(buffer)) != -1) {
+        digest.update(buffer, 0, readByteCount);
+      }
+    }
+    byte[] hash = digest.digest();
+    char[] hexHash = new char[2 * hash.length];
+    for (int idx = 0; idx < hash.length; ++idx) {
+      hexHash[2 * idx] = HEX_DIGITS[(hash[idx] >> 4) & 0xf];
+      hexHash[2 * idx + 1] = HEX_DIGITS[hash[idx] & 0xf];
+    }
+    return new String(hexHash);
+  }
+
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every Java platform is required to support SHA-1.", e);
+    }
+  }
+
+  private static String toRelativePath(Path dirPath, Path path) {
+    StringBuilder builder = new StringBuilder();
+    for (Path element : dirPath.relativize(path)) {
+      if (builder.length() > 0) {
+        builder.append('/');
+      }
+      builder.append(element.toString());
+    }
+    return builder.toString();
+  }
+}
@@ -2,6 +2,7 @@ package me.gregorias.dfuntest.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -34,6 +35,23 @@ public interface FileUtils {
    */
   void createDirectories(Path path) throws IOException;
 
+  /**
+   * {@link java.nio.file.Files#createLink(java.nio.file.Path, java.nio.file.Path)}
+   *
+   * @param link Path of hard link to create
+   * @param existing Path to an existing file
+   */
+  void createLink(Path link, Path existing) throws IOException;
+
+  /**
+   * {@link java.nio.file.Files#createSymbolicLink(java.nio.file.Path, java.nio.file.Path,
+   *   java.nio.file.attribute.FileAttribute[])}
+   *
+   * @param link Path of symbolic link to create
+   * @param target Target of the link
+   */
+  void createSymbolicLink(Path link, Path target) throws IOException;
+
   /**
    * {@link java.nio.file.Files#createTempDirectory(
    * String, java.nio.file.attribute.FileAttribute[])}
@@ -67,6 +85,24 @@ public interface FileUtils {
    */
   boolean isDirectory(Path path);
 
+  /**
+   * {@link java.nio.file.Files#readAllLines(java.nio.file.Path, java.nio.charset.Charset)} with
+   * default charset.
+   *
+   * @param path Path of file to read
+   * @return lines of the file
+   */
+  List<String> readAllLines(Path path) throws IOException;
+
+  /**
+   * {@link java.nio.file.Files#newBufferedWriter(java.nio.file.Path, java.nio.charset.Charset,
+   * java.nio.file.OpenOption...)} with UTF-8 charset. Existing file is truncated.
+   *
+   * @param path Path of file to write to
+   * @return writer of the file
+   */
+  Writer newBufferedWriter(Path path) throws IOException;
+
   /**
    * {@link java.lang.ProcessBuilder}
    *
@@ -76,6 +112,18 @@ public interface FileUtils {
    */
   Process runCommand(List<String> command, File pwdFile) throws IOException;
 
+  /**
+   * {@link java.lang.ProcessBuilder} with standard output and error redirected to files.
+   *
+   * @param command command to run
+   * @param pwdFile working directory of the process
+   * @param outputFile file to which standard output is written
+   * @param errorFile file to which standard error is written
+   * @return process running the command
+   */
+  Process runCommand(List<String> command, File pwdFile, File outputFile, File errorFile)
+      throws IOException;
+
   /**
    * {@link java.nio.file.Files#write(java.nio.file.Path, Iterable, java.nio.charset.Charset,
    * java.nio.file.OpenOption...)}
@@ -2,7 +2,9 @@ package me.gregorias.dfuntest.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -31,6 +33,16 @@ public class FileUtilsImpl implements FileUtils {
     Files.createDirectories(path);
   }
 
+  @Override
+  public void createLink(Path link, Path existing) throws IOException {
+    Files.createLink(link, existing);
+  }
+
+  @Override
+  public void createSymbolicLink(Path link, Path target) throws IOException {
+    Files.createSymbolicLink(link, target);
+  }
+
   @Override
   public Path createTempDirectory(String dirPrefix) throws IOException {
     return Files.createTempDirectory(dirPrefix);
@@ -55,6 +67,11 @@ public class FileUtilsImpl implements FileUtils {
     return Files.isDirectory(path);
   }
 
+  @Override
+  public List<String> readAllLines(Path path) throws IOException {
+    return Files.readAllLines(path, Charset.defaultCharset());
+  }
+
   @Override
   public Process runCommand(List<String> command, File pwdFile) throws IOException {
     ProcessBuilder pb = new ProcessBuilder();
@@ -62,6 +79,20 @@ public class FileUtilsImpl implements FileUtils {
     return pb.start();
   }
 
+  @Override
+  public Process runCommand(List<String> command, File pwdFile, File outputFile, File errorFile)
+      throws IOException {
+    ProcessBuilder pb = new ProcessBuilder();
+    pb.command(command).directory(pwdFile).redirectOutput(outputFile).redirectError(errorFile);
+    return pb.start();
+  }
+
+  @Override
+  public Writer newBufferedWriter(Path path) throws IOException {
+    return Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
   @Override
   public void write(Path path, String content) throws IOException {
     StandardOpenOption[] options = new StandardOpenOption[3];
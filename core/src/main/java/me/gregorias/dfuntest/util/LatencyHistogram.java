@@ -0,0 +1,272 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Thread-safe histogram of nonnegative long values, such as latencies in nanoseconds, with
+ * bounded relative error and constant memory.
+ * </p>
+ *
+ * <p>
+ * Values smaller than 2^precisionBits are counted exactly. Larger values are counted in buckets
+ * whose width is at most 2^-(precisionBits - 1) of their lower bound, so percentiles are
+ * reported with that relative precision. Percentiles are reported as the highest value
+ * equivalent to the bucket, but not higher than the maximal recorded value.
+ * </p>
+ *
+ * <p>
+ * Histograms with the same precision may be merged with {@link #add(LatencyHistogram)}, also
+ * after they have been saved with {@link #encode()} and loaded with {@link #decode(String)}.
+ * </p>
+ */
+public class LatencyHistogram {
+  public static final int DEFAULT_PRECISION_BITS = 7;
+  public static final int MAX_PRECISION_BITS = 20;
+  private static final String ENCODING_SEPARATOR = " ";
+  private static final String COUNT_SEPARATOR = ":";
+  private static final int FIRST_BUCKET_TOKEN_IDX = 4;
+  private final int mPrecisionBits;
+  private final long[] mCounts;
+  private long mTotalCount = 0;
+  private long mMin = Long.MAX_VALUE;
+  private long mMax = 0;
+  private long mSum = 0;
+
+  public LatencyHistogram() {
+    this(DEFAULT_PRECISION_BITS);
+  }
+
+  /**
+   * @param precisionBits number of significant bits of recorded values. Should be between 1 and
+   *                      {@value #MAX_PRECISION_BITS}.
+   */
+  public LatencyHistogram(int precisionBits) {
+    if (precisionBits < 1 || precisionBits > MAX_PRECISION_BITS) {
+      throw new IllegalArgumentException("Precision bits should be between 1 and "
+          + MAX_PRECISION_BITS + ".");
+    }
+    mPrecisionBits = precisionBits;
+    mCounts = new long[getSubBucketCount() + (Long.SIZE - 1 - precisionBits)
+        * getHalfSubBucketCount()];
+  }
+
+  /**
+   * Loads histogram saved with {@link #encode()}.
+   *
+   * @param encodedHistogram encoded histogram
+   * @return decoded histogram
+   */
+  public static LatencyHistogram decode(String encodedHistogram) {
+    String[] tokens = StringUtils.split(encodedHistogram, ENCODING_SEPARATOR);
+    try {
+      LatencyHistogram histogram = new LatencyHistogram(Integer.parseInt(tokens[0]));
+      if (tokens.length == 1) {
+        return histogram;
+      }
+      histogram.mMin = Long.parseLong(tokens[1]);
+      histogram.mMax = Long.parseLong(tokens[2]);
+      histogram.mSum = Long.parseLong(tokens[3]);
+      for (int tokenIdx = FIRST_BUCKET_TOKEN_IDX; tokenIdx < tokens.length; ++tokenIdx) {
+        String[] bucket = StringUtils.split(tokens[tokenIdx], COUNT_SEPARATOR);
+        long count = Long.parseLong(bucket[1]);
+        histogram.mCounts[Integer.parseInt(bucket[0])] += count;
+        histogram.mTotalCount += count;
+      }
+      return histogram;
+    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed histogram: " + encodedHistogram, e);
+    }
+  }
+
+  /**
+   * Adds all values recorded by other histogram to this one.
+   *
+   * @param other histogram with the same precision
+   */
+  public void add(LatencyHistogram other) {
+    if (other.mPrecisionBits != mPrecisionBits) {
+      throw new IllegalArgumentException("Histograms have different precision.");
+    }
+    LatencyHistogram snapshot = other.copy();
+    synchronized (this) {
+      for (int idx = 0; idx < mCounts.length; ++idx) {
+        mCounts[idx] += snapshot.mCounts[idx];
+      }
+      mTotalCount += snapshot.mTotalCount;
+      mMin = Math.min(mMin, snapshot.mMin);
+      mMax = Math.max(mMax, snapshot.mMax);
+      mSum += snapshot.mSum;
+    }
+  }
+
+  /**
+   * @return copy of this histogram
+   */
+  public synchronized LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram(mPrecisionBits);
+    System.arraycopy(mCounts, 0, copy.mCounts, 0, mCounts.length);
+    copy.mTotalCount = mTotalCount;
+    copy.mMin = mMin;
+    copy.mMax = mMax;
+    copy.mSum = mSum;
+    return copy;
+  }
+
+  /**
+   * Saves histogram as a single line of text: precision bits, minimum, maximum and sum of values,
+   * followed by index:count pairs of nonempty buckets.
+   *
+   * @return encoded histogram
+   */
+  public synchronized String encode() {
+    List<String> tokens = new ArrayList<>();
+    tokens.add(Integer.toString(mPrecisionBits));
+    if (mTotalCount > 0) {
+      tokens.add(Long.toString(mMin));
+      tokens.add(Long.toString(mMax));
+      tokens.add(Long.toString(mSum));
+      for (int idx = 0; idx < mCounts.length; ++idx) {
+        if (mCounts[idx] > 0) {
+          tokens.add(idx + COUNT_SEPARATOR + mCounts[idx]);
+        }
+      }
+    }
+    return StringUtils.join(tokens, ENCODING_SEPARATOR);
+  }
+
+  /**
+   * @return maximal recorded value or 0 if histogram is empty
+   */
+  public synchronized long getMax() {
+    return mMax;
+  }
+
+  /**
+   * @return mean of recorded values or 0 if histogram is empty
+   */
+  public synchronized double getMean() {
+    return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+  }
+
+  /**
+   * @return minimal recorded value or 0 if histogram is empty
+   */
+  public synchronized long getMin() {
+    return mTotalCount == 0 ? 0 : mMin;
+  }
+
+  public int getPrecisionBits() {
+    return mPrecisionBits;
+  }
+
+  public synchronized long getTotalCount() {
+    return mTotalCount;
+  }
+
+  /**
+   * @param percentile percentile between 0 and 100
+   * @return value such that given percentage of recorded values are not greater than it, or 0 if
+   *         histogram is empty
+   */
+  public synchronized long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile should be between 0 and 100.");
+    }
+    if (mTotalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+    long cumulativeCount = 0;
+    for (int idx = 0; idx < mCounts.length; ++idx) {
+      cumulativeCount += mCounts[idx];
+      if (cumulativeCount >= rank) {
+        return Math.max(mMin, Math.min(mMax, getHighestEquivalentValue(idx)));
+      }
+    }
+    return mMax;
+  }
+
+  /**
+   * @param value nonnegative value to record
+   */
+  public void recordValue(long value) {
+    recordValue(value, 1);
+  }
+
+  /**
+   * @param value nonnegative value to record
+   * @param count number of times value should be recorded
+   */
+  public synchronized void recordValue(long value, long count) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Recorded value should be nonnegative.");
+    }
+    if (count < 0) {
+      throw new IllegalArgumentException("Count should be nonnegative.");
+    }
+    if (count == 0) {
+      return;
+    }
+    mCounts[getIndex(value)] += count;
+    mTotalCount += count;
+    mMin = Math.min(mMin, value);
+    mMax = Math.max(mMax, value);
+    mSum += value * count;
+  }
+
+  /**
+   * Removes all recorded values.
+   */
+  public synchronized void reset() {
+    for (int idx = 0; idx < mCounts.length; ++idx) {
+      mCounts[idx] = 0;
+    }
+    mTotalCount = 0;
+    mMin = Long.MAX_VALUE;
+    mMax = 0;
+    mSum = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("count=%d, min=%d, p50=%d, p99=%d, p99.9=%d, max=%d", mTotalCount,
+        getMin(), getValueAtPercentile(50), getValueAtPercentile(99),
+        getValueAtPercentile(99.9), getMax());
+  }
+
+  private int getHalfSubBucketCount() {
+    return 1 << (mPrecisionBits - 1);
+  }
+
+  // Values in bucket of given index are between its lowest and highest equivalent value.
+  private long getHighestEquivalentValue(int idx) {
+    if (idx < getSubBucketCount()) {
+      return idx;
+    }
+    int bucketIdx = idx - getSubBucketCount();
+    int shift = bucketIdx / getHalfSubBucketCount() + 1;
+    long subBucket = bucketIdx % getHalfSubBucketCount() + getHalfSubBucketCount();
+    long lowestEquivalentValue = subBucket << shift;
+    return lowestEquivalentValue + ((1L << shift) - 1);
+  }
+
+  // Values below sub bucket count have their own buckets. Larger values are shifted right until
+  // they have precisionBits bits. Each shift has half of sub bucket count buckets, since the
+  // highest of the bits is always set.
+  private int getIndex(long value) {
+    if (value < getSubBucketCount()) {
+      return (int) value;
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (mPrecisionBits - 1);
+    return getSubBucketCount() + (shift - 1) * getHalfSubBucketCount()
+        + (int) ((value >>> shift) - getHalfSubBucketCount());
+  }
+
+  private int getSubBucketCount() {
+    return 1 << mPrecisionBits;
+  }
+}
@@ -0,0 +1,197 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Merges log files of many sources, such as environments, into one timeline ordered by
+ * timestamps of log entries.
+ * </p>
+ *
+ * <p>
+ * Entry starts with a line beginning with a timestamp in given {@link SimpleDateFormat} pattern.
+ * Following lines without a timestamp, such as stack traces, belong to the same entry. Lines
+ * before the first entry of a file are placed at the start of the timeline.
+ * </p>
+ *
+ * <p>
+ * Timestamps are corrected by subtracting clock offset of their source, so that entries of hosts
+ * with skewed clocks are ordered correctly. Files are merged with a streaming k-way merge, so only
+ * one entry per source is held in memory at a time. Every source is assumed to be ordered by
+ * itself and order of its entries is kept. Entries with equal corrected timestamps are ordered by
+ * source's id.
+ * </p>
+ *
+ * <p>
+ * Every line of merged log starts with source's id in brackets. The first line of every entry
+ * continues with the corrected timestamp followed by the rest of the original line.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class LogMerger {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String LINE_SEPARATOR = String.format("%n");
+  private final DateFormat mDateFormat;
+
+  /**
+   * @param timestampFormat {@link SimpleDateFormat} pattern of timestamps starting log entries
+   */
+  public LogMerger(String timestampFormat) {
+    mDateFormat = new SimpleDateFormat(timestampFormat);
+    mDateFormat.setLenient(false);
+  }
+
+  /**
+   * Merges log files into destination file. Existing destination file is overwritten.
+   *
+   * @param logPaths log files keyed by id of their source
+   * @param clockOffsetsMillis how far ahead of the reference clock the clock of each source is.
+   *                           Sources without an offset are not corrected.
+   * @param destPath merged log file
+   * @return number of merged entries
+   * @throws IOException thrown when any file could not be read or written
+   */
+  public long merge(Map<Integer, Path> logPaths,
+                    Map<Integer, Long> clockOffsetsMillis,
+                    Path destPath) throws IOException {
+    PriorityQueue<LogSource> queue = new PriorityQueue<>(Math.max(1, logPaths.size()));
+    List<LogSource> sources = new ArrayList<>();
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+        Files.newOutputStream(destPath), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+      for (Map.Entry<Integer, Path> logPath : logPaths.entrySet()) {
+        Long clockOffsetMillis = clockOffsetsMillis.get(logPath.getKey());
+        LogSource source = new LogSource(logPath.getKey(), logPath.getValue(),
+            clockOffsetMillis == null ? 0 : clockOffsetMillis);
+        sources.add(source);
+        if (source.readEntry()) {
+          queue.add(source);
+        }
+      }
+
+      long entryCount = 0;
+      while (!queue.isEmpty()) {
+        LogSource source = queue.poll();
+        source.writeEntry(writer);
+        ++entryCount;
+        if (source.readEntry()) {
+          queue.add(source);
+        }
+      }
+      return entryCount;
+    } finally {
+      for (LogSource source : sources) {
+        IOUtils.closeQuietly(source);
+      }
+    }
+  }
+
+  // Reader of one log file which holds its current entry. Entries without a timestamp get
+  // Long.MIN_VALUE as their timestamp.
+  private class LogSource implements Comparable<LogSource>, Closeable {
+    private final int mId;
+    private final String mTag;
+    private final long mClockOffsetMillis;
+    private final BufferedReader mReader;
+    private final List<String> mLines = new ArrayList<>();
+    private String mNextLine;
+    private boolean mIsNextLineTimestamped;
+    private long mNextTimestamp;
+    private int mNextTimestampEnd;
+    private long mTimestamp;
+    private int mTimestampEnd;
+
+    public LogSource(int id, Path logPath, long clockOffsetMillis) throws IOException {
+      mId = id;
+      mTag = "[" + id + "] ";
+      mClockOffsetMillis = clockOffsetMillis;
+      mReader = new BufferedReader(new InputStreamReader(Files.newInputStream(logPath),
+          StandardCharsets.UTF_8), BUFFER_SIZE);
+      readNextLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+      mReader.close();
+    }
+
+    @Override
+    public int compareTo(LogSource other) {
+      if (mTimestamp != other.mTimestamp) {
+        return mTimestamp < other.mTimestamp ? -1 : 1;
+      }
+      return Integer.compare(mId, other.mId);
+    }
+
+    // Reads lines up to the next timestamped line. Returns false if there are no more entries.
+    public boolean readEntry() throws IOException {
+      mLines.clear();
+      if (mNextLine == null) {
+        return false;
+      }
+      mTimestamp = mNextTimestamp;
+      mTimestampEnd = mNextTimestampEnd;
+      mLines.add(mNextLine);
+      while (readNextLine() && !mIsNextLineTimestamped) {
+        mLines.add(mNextLine);
+      }
+      return true;
+    }
+
+    // Reads next line and parses its timestamp. Returns false on end of file.
+    private boolean readNextLine() throws IOException {
+      mNextLine = mReader.readLine();
+      if (mNextLine == null) {
+        return false;
+      }
+      ParsePosition position = new ParsePosition(0);
+      Date date = mDateFormat.parse(mNextLine, position);
+      mIsNextLineTimestamped = date != null;
+      if (mIsNextLineTimestamped) {
+        mNextTimestamp = date.getTime() - mClockOffsetMillis;
+        mNextTimestampEnd = position.getIndex();
+      } else {
+        mNextTimestamp = Long.MIN_VALUE;
+        mNextTimestampEnd = 0;
+      }
+      return true;
+    }
+
+    public void writeEntry(BufferedWriter writer) throws IOException {
+      String firstLine = mLines.get(0);
+      writer.write(mTag);
+      if (mTimestamp != Long.MIN_VALUE) {
+        writer.write(mDateFormat.format(new Date(mTimestamp)));
+        writer.write(firstLine, mTimestampEnd, firstLine.length() - mTimestampEnd);
+      } else {
+        writer.write(firstLine);
+      }
+      writer.write(LINE_SEPARATOR);
+      for (int lineIdx = 1; lineIdx < mLines.size(); ++lineIdx) {
+        writer.write(mTag);
+        writer.write(mLines.get(lineIdx));
+        writer.write(LINE_SEPARATOR);
+      }
+    }
+  }
+}
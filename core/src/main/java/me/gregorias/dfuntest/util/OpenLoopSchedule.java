@@ -0,0 +1,125 @@
+package me.gregorias.dfuntest.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Schedule of requests of an open-loop load, that is load whose requests are sent at fixed times
+ * regardless of whether responses to previous ones have arrived.
+ * </p>
+ *
+ * <p>
+ * Request rate grows linearly from 0 to peak rate during ramp-up, stays at peak rate during steady
+ * state and falls linearly to 0 during ramp-down. Latency of a request should be measured from its
+ * intended send time, so that a stalled system, which delays sending, is not measured only by the
+ * requests which happened to be sent.
+ * </p>
+ */
+public class OpenLoopSchedule {
+  private final double mPeakRatePerNano;
+  private final long mRampUpNanos;
+  private final long mSteadyStateNanos;
+  private final long mRampDownNanos;
+  private final long mRampUpRequestCount;
+  private final long mSteadyStateRequestCount;
+  private final long mRampDownRequestCount;
+
+  /**
+   * Phase of a load.
+   */
+  public enum Phase {
+    RAMP_UP, STEADY_STATE, RAMP_DOWN
+  }
+
+  /**
+   * @param peakRate number of requests per second in steady state
+   * @param rampUpDuration duration of ramp-up
+   * @param steadyStateDuration duration of steady state
+   * @param rampDownDuration duration of ramp-down
+   * @param unit unit of durations
+   */
+  public OpenLoopSchedule(double peakRate,
+                          long rampUpDuration,
+                          long steadyStateDuration,
+                          long rampDownDuration,
+                          TimeUnit unit) {
+    if (peakRate <= 0) {
+      throw new IllegalArgumentException("Peak rate should be positive.");
+    }
+    if (rampUpDuration < 0 || steadyStateDuration < 0 || rampDownDuration < 0) {
+      throw new IllegalArgumentException("Durations should be nonnegative.");
+    }
+    mPeakRatePerNano = peakRate / TimeUnit.SECONDS.toNanos(1);
+    mRampUpNanos = unit.toNanos(rampUpDuration);
+    mSteadyStateNanos = unit.toNanos(steadyStateDuration);
+    mRampDownNanos = unit.toNanos(rampDownDuration);
+    mRampUpRequestCount = (long) (mPeakRatePerNano * mRampUpNanos / 2);
+    mSteadyStateRequestCount = (long) (mPeakRatePerNano * mSteadyStateNanos);
+    mRampDownRequestCount = (long) (mPeakRatePerNano * mRampDownNanos / 2);
+  }
+
+  /**
+   * @param phase phase of load
+   * @return duration of the phase in nanoseconds
+   */
+  public long getDurationNanos(Phase phase) {
+    switch (phase) {
+      case RAMP_UP:
+        return mRampUpNanos;
+      case STEADY_STATE:
+        return mSteadyStateNanos;
+      case RAMP_DOWN:
+      default:
+        return mRampDownNanos;
+    }
+  }
+
+  /**
+   * @param requestIdx index of request
+   * @return send time of the request relative to start of load in nanoseconds
+   */
+  public long getIntendedSendTimeNanos(long requestIdx) {
+    checkRequestIdx(requestIdx);
+    // Request k, counting from 1 in its phase, is sent once the integral of rate reaches k.
+    if (requestIdx < mRampUpRequestCount) {
+      return (long) Math.sqrt(2 * mRampUpNanos * (requestIdx + 1) / mPeakRatePerNano);
+    }
+    long phaseRequestIdx = requestIdx - mRampUpRequestCount;
+    if (phaseRequestIdx < mSteadyStateRequestCount) {
+      return mRampUpNanos + (long) ((phaseRequestIdx + 1) / mPeakRatePerNano);
+    }
+    phaseRequestIdx -= mSteadyStateRequestCount;
+    double remainingFraction = Math.max(0,
+        1 - 2 * (phaseRequestIdx + 1) / (mPeakRatePerNano * mRampDownNanos));
+    return mRampUpNanos + mSteadyStateNanos
+        + (long) (mRampDownNanos * (1 - Math.sqrt(remainingFraction)));
+  }
+
+  /**
+   * @param requestIdx index of request
+   * @return phase in which the request is sent
+   */
+  public Phase getPhase(long requestIdx) {
+    checkRequestIdx(requestIdx);
+    if (requestIdx < mRampUpRequestCount) {
+      return Phase.RAMP_UP;
+    } else if (requestIdx < mRampUpRequestCount + mSteadyStateRequestCount) {
+      return Phase.STEADY_STATE;
+    } else {
+      return Phase.RAMP_DOWN;
+    }
+  }
+
+  /**
+   * @return number of requests in all phases
+   */
+  public long getRequestCount() {
+    return mRampUpRequestCount + mSteadyStateRequestCount + mRampDownRequestCount;
+  }
+
+  private void checkRequestIdx(long requestIdx) {
+    if (requestIdx < 0 || requestIdx >= getRequestCount()) {
+      throw new IndexOutOfBoundsException("Request index is out of schedule: " + requestIdx);
+    }
+  }
+}
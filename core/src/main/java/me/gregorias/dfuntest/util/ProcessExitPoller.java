@@ -0,0 +1,82 @@
+package me.gregorias.dfuntest.util;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects termination of many processes with a single thread, which periodically checks all
+ * registered processes, instead of a blocked thread per process.
+ */
+public class ProcessExitPoller {
+  public static final long DEFAULT_POLL_INTERVAL_MILLIS = 10;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProcessExitPoller.class);
+  private static final ProcessExitPoller PROCESS_EXIT_POLLER = new ProcessExitPoller(
+      DEFAULT_POLL_INTERVAL_MILLIS);
+  private final Map<ExitCheck, SettableFuture<Void>> mChecks = new ConcurrentHashMap<>();
+
+  /**
+   * @param pollIntervalMillis time between consecutive checks of all processes
+   */
+  public ProcessExitPoller(long pollIntervalMillis) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ProcessExitPoller-%d").build());
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        poll();
+      }
+    }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Nonblocking check of whether a process has exited.
+   */
+  public interface ExitCheck {
+    boolean hasExited() throws Exception;
+  }
+
+  public static ProcessExitPoller getProcessExitPoller() {
+    return PROCESS_EXIT_POLLER;
+  }
+
+  /**
+   * Starts watching a process.
+   *
+   * @param check check of process's termination
+   * @return future which is completed once check returns true or fails if check throws
+   */
+  public ListenableFuture<Void> register(ExitCheck check) {
+    SettableFuture<Void> future = SettableFuture.create();
+    mChecks.put(check, future);
+    return future;
+  }
+
+  private void poll() {
+    Iterator<Map.Entry<ExitCheck, SettableFuture<Void>>> iterator = mChecks.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<ExitCheck, SettableFuture<Void>> entry = iterator.next();
+      try {
+        if (entry.getValue().isCancelled()) {
+          iterator.remove();
+        } else if (entry.getKey().hasExited()) {
+          iterator.remove();
+          entry.getValue().set(null);
+        }
+      } catch (Exception e) {
+        LOGGER.debug("poll(): Exit check has failed.", e);
+        iterator.remove();
+        entry.getValue().setException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package me.gregorias.dfuntest.util;
+
+import java.io.OutputStream;
+
+/**
+ * Thread-safe output stream which keeps only the most recently written bytes in a buffer of fixed
+ * capacity. Older bytes are discarded.
+ */
+public class RingBufferOutputStream extends OutputStream {
+  private final byte[] mBuffer;
+  private long mWrittenByteCount = 0;
+
+  /**
+   * @param capacity maximal number of bytes kept
+   */
+  public RingBufferOutputStream(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity was nonpositive.");
+    }
+    mBuffer = new byte[capacity];
+  }
+
+  /**
+   * @return number of bytes which were written but are no longer kept
+   */
+  public synchronized long getDiscardedByteCount() {
+    return Math.max(0, mWrittenByteCount - mBuffer.length);
+  }
+
+  /**
+   * @return kept bytes in order in which they were written
+   */
+  public synchronized byte[] toByteArray() {
+    int size = (int) Math.min(mWrittenByteCount, mBuffer.length);
+    int start = (int) ((mWrittenByteCount - size) % mBuffer.length);
+    byte[] content = new byte[size];
+    int firstPartLength = Math.min(size, mBuffer.length - start);
+    System.arraycopy(mBuffer, start, content, 0, firstPartLength);
+    System.arraycopy(mBuffer, 0, content, firstPartLength, size - firstPartLength);
+    return content;
+  }
+
+  @Override
+  public synchronized void write(int oneByte) {
+    mBuffer[(int) (mWrittenByteCount % mBuffer.length)] = (byte) oneByte;
+    ++mWrittenByteCount;
+  }
+
+  @Override
+  public synchronized void write(byte[] bytes, int offset, int length) {
+    if (length > mBuffer.length) {
+      mWrittenByteCount += length - mBuffer.length;
+      offset += length - mBuffer.length;
+      length = mBuffer.length;
+    }
+    int position = (int) (mWrittenByteCount % mBuffer.length);
+    int firstPartLength = Math.min(length, mBuffer.length - position);
+    System.arraycopy(bytes, offset, mBuffer, position, firstPartLength);
+    System.arraycopy(bytes, offset + firstPartLength, mBuffer, 0, length - firstPartLength);
+    mWrittenByteCount += length;
+  }
+}
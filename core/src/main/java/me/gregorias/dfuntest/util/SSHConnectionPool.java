@@ -0,0 +1,392 @@
+package me.gregorias.dfuntest.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.schmizz.sshj.SSHClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Pool of authenticated SSH connections to a single remote host.
+ * </p>
+ *
+ * <p>
+ * A borrowed connection is leased, not owned. Every lease corresponds to one channel
+ * (exec session, SCP or SFTP subsystem) and a single connection is shared by at most
+ * maxSessionsPerConnection leases, which should not exceed the server's MaxSessions setting.
+ * New leases are placed on already used connections first so that concurrent operations
+ * share one transport. If the server refuses to open a session earlier than expected, its limit is
+ * lowered through {@link #releaseRefusedSession(SSHClient)}.
+ * </p>
+ *
+ * <p>
+ * Connections are created lazily, checked for liveness before being handed out and
+ * disconnected once they have stayed without leases for longer than the maximal idle time. Idle
+ * connections are evicted by a shared daemon thread even if the pool is not used anymore, so that
+ * their reader threads do not outlive the test run. At most maxSize connections exist at any
+ * time; {@link #borrow()} blocks when all of them are saturated.
+ * </p>
+ *
+ * <p>
+ * Every lease has to be given back either through {@link #release(SSHClient)} or
+ * {@link #invalidate(SSHClient)}.
+ * </p>
+ */
+public class SSHConnectionPool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SSHConnectionPool.class);
+  private static final ScheduledExecutorService EVICTION_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("SSHConnectionPoolEvictor-%d").build());
+  private final SSHClientFactory mSSHClientFactory;
+  private final InetAddress mRemoteInetAddress;
+  private final String mUsername;
+  private final Path mPrivateKeyPath;
+  private final int mMaxSize;
+  private final int mMaxSessionsPerConnection;
+  private final long mMaxIdleTimeNanos;
+
+  private final Map<SSHClient, PooledConnection> mConnections = new IdentityHashMap<>();
+  private int mPendingConnectionCount = 0;
+  private boolean mIsClosed = false;
+  private boolean mIsEvictionScheduled = false;
+
+  /**
+   * @param sshClientFactory Factory for SSHClients
+   * @param remoteInetAddress Remote host's address
+   * @param username Username of remote account
+   * @param privateKeyPath Path to private key file
+   * @param maxSize Maximal number of simultaneously open connections
+   * @param maxSessionsPerConnection Maximal number of simultaneous leases of one connection
+   * @param maxIdleTimeMillis Time after which a connection without leases is disconnected
+   */
+  public SSHConnectionPool(SSHClientFactory sshClientFactory,
+      InetAddress remoteInetAddress,
+      String username,
+      Path privateKeyPath,
+      int maxSize,
+      int maxSessionsPerConnection,
+      long maxIdleTimeMillis) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Maximal size of connection pool was nonpositive.");
+    }
+    if (maxSessionsPerConnection <= 0) {
+      throw new IllegalArgumentException("Maximal number of sessions was nonpositive.");
+    }
+    if (maxIdleTimeMillis < 0) {
+      throw new IllegalArgumentException("Maximal idle time was negative.");
+    }
+    mSSHClientFactory = sshClientFactory;
+    mRemoteInetAddress = remoteInetAddress;
+    mUsername = username;
+    mPrivateKeyPath = privateKeyPath;
+    mMaxSize = maxSize;
+    mMaxSessionsPerConnection = maxSessionsPerConnection;
+    mMaxIdleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTimeMillis);
+  }
+
+  /**
+   * Leases a live authenticated connection, creating it if necessary. Blocks if all connections
+   * are saturated and the pool is full.
+   *
+   * @return connected and authenticated client
+   * @throws InterruptedIOException thrown when interrupted while waiting for a connection
+   */
+  public SSHClient borrow() throws IOException {
+    List<SSHClient> victims = new ArrayList<>();
+    try {
+      synchronized (this) {
+        while (true) {
+          if (mIsClosed) {
+            throw new IOException("Connection pool has been closed.");
+          }
+          evictIdleConnections(victims);
+          PooledConnection connection = findConnectionWithFreeSession(victims);
+          if (connection != null) {
+            ++connection.mLeaseCount;
+            LOGGER.trace("borrow(): Sharing connection to {} with {} leases.",
+                mRemoteInetAddress, connection.mLeaseCount);
+            return connection.mClient;
+          }
+          if (getConnectionCount() < mMaxSize) {
+            ++mPendingConnectionCount;
+            break;
+          }
+          try {
+            this.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free connection.");
+          }
+        }
+      }
+    } finally {
+      disconnectAllQuietly(victims);
+    }
+
+    SSHClient client = null;
+    try {
+      client = connect();
+      return client;
+    } finally {
+      synchronized (this) {
+        --mPendingConnectionCount;
+        if (client != null) {
+          PooledConnection connection = new PooledConnection(client, mMaxSessionsPerConnection);
+          connection.mLeaseCount = 1;
+          mConnections.put(client, connection);
+        }
+        this.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Disconnects all connections without leases and makes the pool unusable. Leased connections
+   * are disconnected once their last lease is released.
+   */
+  public void close() {
+    List<SSHClient> victims = new ArrayList<>();
+    synchronized (this) {
+      mIsClosed = true;
+      Iterator<PooledConnection> iterator = mConnections.values().iterator();
+      while (iterator.hasNext()) {
+        PooledConnection connection = iterator.next();
+        if (connection.mLeaseCount == 0) {
+          iterator.remove();
+          victims.add(connection.mClient);
+        }
+      }
+      this.notifyAll();
+    }
+    disconnectAllQuietly(victims);
+  }
+
+  /**
+   * @return number of open connections, both leased and idle
+   */
+  public synchronized int getConnectionCount() {
+    return mConnections.size() + mPendingConnectionCount;
+  }
+
+  /**
+   * @return number of active leases on all connections
+   */
+  public synchronized int getLeaseCount() {
+    int leaseCount = 0;
+    for (PooledConnection connection : mConnections.values()) {
+      leaseCount += connection.mLeaseCount;
+    }
+    return leaseCount;
+  }
+
+  /**
+   * Disconnects leased connection, for example because it is in an unknown state. Other leases of
+   * this connection remain valid, but their operations will fail.
+   *
+   * @param client leased connection
+   */
+  public void invalidate(SSHClient client) {
+    synchronized (this) {
+      mConnections.remove(client);
+      this.notifyAll();
+    }
+    disconnectQuietly(client);
+  }
+
+  /**
+   * Returns a lease of connection to the pool.
+   *
+   * @param client leased connection
+   */
+  public void release(SSHClient client) {
+    List<SSHClient> victims = new ArrayList<>();
+    synchronized (this) {
+      release(client, victims);
+    }
+    disconnectAllQuietly(victims);
+  }
+
+  /**
+   * Returns a lease of connection on which the server has refused to open a new session.
+   * The connection is not leased more times than it currently is.
+   *
+   * @param client leased connection
+   */
+  public void releaseRefusedSession(SSHClient client) {
+    List<SSHClient> victims = new ArrayList<>();
+    synchronized (this) {
+      PooledConnection connection = mConnections.get(client);
+      if (connection != null) {
+        connection.mMaxLeaseCount = Math.max(1, connection.mLeaseCount - 1);
+        LOGGER.debug("releaseRefusedSession(): Lowering session limit of connection to {} to {}.",
+            mRemoteInetAddress, connection.mMaxLeaseCount);
+      }
+      release(client, victims);
+    }
+    disconnectAllQuietly(victims);
+  }
+
+  private static class PooledConnection {
+    private final SSHClient mClient;
+    private int mLeaseCount = 0;
+    private int mMaxLeaseCount;
+    private long mLastReleaseTime;
+
+    public PooledConnection(SSHClient client, int maxLeaseCount) {
+      mClient = client;
+      mMaxLeaseCount = maxLeaseCount;
+    }
+  }
+
+  private SSHClient connect() throws IOException {
+    LOGGER.trace("connect(): Connecting to {}.", mRemoteInetAddress);
+    SSHClient ssh = mSSHClientFactory.newSSHClient();
+    try {
+      ssh.loadKnownHosts();
+      // Compression is negotiated during the initial key exchange. Enabling it on a connected
+      // client would force another one.
+      ssh.useCompression();
+      ssh.connect(mRemoteInetAddress);
+      ssh.authPublickey(mUsername, mPrivateKeyPath.toString());
+    } catch (IOException | RuntimeException e) {
+      disconnectQuietly(ssh);
+      throw e;
+    }
+    return ssh;
+  }
+
+  // Disconnecting may wait for the remote host, so it is done outside of the pool's lock.
+  private static void disconnectAllQuietly(List<SSHClient> clients) {
+    for (SSHClient client : clients) {
+      disconnectQuietly(client);
+    }
+  }
+
+  private static void disconnectQuietly(SSHClient client) {
+    try {
+      client.disconnect();
+    } catch (IOException e) {
+      LOGGER.warn("disconnectQuietly(): Could not disconnect ssh.", e);
+    }
+  }
+
+  // Removes idle connections and adds them to victims which have to be disconnected.
+  private void evictIdleConnections(List<SSHClient> victims) {
+    long now = System.nanoTime();
+    Iterator<PooledConnection> iterator = mConnections.values().iterator();
+    while (iterator.hasNext()) {
+      PooledConnection connection = iterator.next();
+      if (connection.mLeaseCount == 0 && now - connection.mLastReleaseTime >= mMaxIdleTimeNanos) {
+        LOGGER.trace("evictIdleConnections(): Evicting idle connection to {}.",
+            mRemoteInetAddress);
+        iterator.remove();
+        victims.add(connection.mClient);
+      }
+    }
+  }
+
+  // Evicts idle connections on the eviction thread and schedules next eviction if some idle
+  // connections remain.
+  private void evictIdleConnectionsInBackground() {
+    List<SSHClient> victims = new ArrayList<>();
+    synchronized (this) {
+      mIsEvictionScheduled = false;
+      evictIdleConnections(victims);
+      scheduleEviction();
+      this.notifyAll();
+    }
+    disconnectAllQuietly(victims);
+  }
+
+  // Schedules eviction of the connection which has stayed idle the longest, unless one is already
+  // scheduled.
+  private void scheduleEviction() {
+    if (mIsClosed || mIsEvictionScheduled) {
+      return;
+    }
+    long now = System.nanoTime();
+    long delayNanos = -1;
+    for (PooledConnection connection : mConnections.values()) {
+      if (connection.mLeaseCount == 0) {
+        long connectionDelayNanos = connection.mLastReleaseTime + mMaxIdleTimeNanos - now;
+        if (delayNanos < 0 || connectionDelayNanos < delayNanos) {
+          delayNanos = Math.max(0, connectionDelayNanos);
+        }
+      }
+    }
+    if (delayNanos < 0) {
+      return;
+    }
+    mIsEvictionScheduled = true;
+    EVICTION_EXECUTOR.schedule(new Runnable() {
+      @Override
+      public void run() {
+        evictIdleConnectionsInBackground();
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // Finds live connection which may be leased once more. Connections which are already in use
+  // are preferred. Dead connections without leases are removed and added to victims.
+  private PooledConnection findConnectionWithFreeSession(List<SSHClient> victims) {
+    PooledConnection bestConnection = null;
+    List<PooledConnection> deadConnections = new ArrayList<>();
+    for (PooledConnection connection : mConnections.values()) {
+      if (connection.mLeaseCount >= connection.mMaxLeaseCount) {
+        continue;
+      }
+      if (!isAlive(connection.mClient)) {
+        if (connection.mLeaseCount == 0) {
+          deadConnections.add(connection);
+        }
+        continue;
+      }
+      if (bestConnection == null || connection.mLeaseCount > bestConnection.mLeaseCount) {
+        bestConnection = connection;
+      }
+    }
+    for (PooledConnection connection : deadConnections) {
+      mConnections.remove(connection.mClient);
+      victims.add(connection.mClient);
+    }
+    return bestConnection;
+  }
+
+  // Returns a lease. Connections which should be disconnected are added to victims.
+  private void release(SSHClient client, List<SSHClient> victims) {
+    PooledConnection connection = mConnections.get(client);
+    if (connection == null) {
+      // Connection has been invalidated in the meantime.
+      return;
+    }
+    --connection.mLeaseCount;
+    if (connection.mLeaseCount == 0) {
+      if (mIsClosed || !isAlive(client)) {
+        mConnections.remove(client);
+        victims.add(client);
+      } else {
+        connection.mLastReleaseTime = System.nanoTime();
+        evictIdleConnections(victims);
+        scheduleEviction();
+      }
+    }
+    this.notifyAll();
+  }
+
+  private static boolean isAlive(SSHClient client) {
+    return client.isConnected() && client.isAuthenticated();
+  }
+}
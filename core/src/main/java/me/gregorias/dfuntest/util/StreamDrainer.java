@@ -0,0 +1,68 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies input streams into output streams in background until end of input. All drained streams
+ * share one pool of daemon threads whose idle threads exit after a minute.
+ *
+ * Reading is blocking, so every stream occupies its own thread until it ends. The pool is not
+ * bounded, since a stream waiting for a free thread could block the process writing it.
+ * Draining many long-lived streams, such as outputs of running processes, therefore costs as
+ * many threads. Redirecting output to files avoids that cost.
+ */
+public final class StreamDrainer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamDrainer.class);
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new DrainerThreadFactory());
+
+  private StreamDrainer() {
+  }
+
+  /**
+   * Starts copying input into output. Input is closed once it ends or fails.
+   *
+   * @param input stream to drain
+   * @param output stream into which input is copied
+   * @return future which finishes once input has been drained. Its value is number of copied
+   *         bytes.
+   */
+  public static Future<Long> drain(final InputStream input, final OutputStream output) {
+    return EXECUTOR.submit(new Callable<Long>() {
+      @Override
+      public Long call() {
+        try {
+          return IOUtils.copyLarge(input, output);
+        } catch (IOException e) {
+          LOGGER.debug("drain(): Stream has ended with an error.", e);
+          return -1L;
+        } finally {
+          IOUtils.closeQuietly(input);
+        }
+      }
+    });
+  }
+
+  private static class DrainerThreadFactory implements ThreadFactory {
+    private final AtomicInteger mThreadCount = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "StreamDrainer-" + mThreadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.EnumSet;
+
+/**
+ * Streaming tar archiving and extraction of local files.
+ */
+public final class TarUtils {
+  private static final int EXECUTABLE_FILE_MODE = 0100755;
+  private static final int EXECUTABLE_MODE_BITS = 0111;
+
+  private TarUtils() {
+  }
+
+  /**
+   * Writes directory with its content as a tar archive to given stream. Entries are generated
+   * while walking the directory, so the archive is never held in memory. Entry names start with
+   * the directory's name, therefore extracting the archive recreates the directory.
+   *
+   * The output stream is not closed.
+   *
+   * @param dirPath directory to archive
+   * @param outputStream stream to write the archive to
+   * @return number of bytes of archived file content
+   */
+  public static long writeDirectory(Path dirPath, OutputStream outputStream) throws IOException {
+    Path absoluteDirPath = dirPath.toAbsolutePath().normalize();
+    Path basePath = absoluteDirPath.getParent();
+    if (basePath == null) {
+      throw new IllegalArgumentException("Can not archive root directory.");
+    }
+
+    TarArchiveOutputStream tarOutputStream = newTarArchiveOutputStream(outputStream);
+    TarWritingVisitor visitor = new TarWritingVisitor(basePath, tarOutputStream);
+    Files.walkFileTree(absoluteDirPath,
+        EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+        Integer.MAX_VALUE,
+        visitor);
+    tarOutputStream.finish();
+    tarOutputStream.flush();
+    return visitor.getContentByteCount();
+  }
+
+  /**
+   * Writes chosen files of a directory as a tar archive to given stream. Entry names start with
+   * the directory's name, like in {@link #writeDirectory(Path, OutputStream)}. Parent
+   * directories of the files are not archived.
+   *
+   * The output stream is not closed.
+   *
+   * @param dirPath directory containing the files
+   * @param relPaths paths of files relative to dirPath, with '/' as a separator
+   * @param outputStream stream to write the archive to
+   * @return number of bytes of archived file content
+   */
+  public static long writeFiles(Path dirPath, Collection<String> relPaths,
+      OutputStream outputStream) throws IOException {
+    Path absoluteDirPath = dirPath.toAbsolutePath().normalize();
+    Path basePath = absoluteDirPath.getParent();
+    if (basePath == null) {
+      throw new IllegalArgumentException("Can not archive root directory.");
+    }
+
+    TarArchiveOutputStream tarOutputStream = newTarArchiveOutputStream(outputStream);
+    long contentByteCount = 0;
+    for (String relPath : relPaths) {
+      Path filePath = absoluteDirPath.resolve(relPath);
+      contentByteCount += writeFileEntry(tarOutputStream, getEntryName(basePath, filePath),
+          filePath, Files.readAttributes(filePath, BasicFileAttributes.class));
+    }
+    tarOutputStream.finish();
+    tarOutputStream.flush();
+    return contentByteCount;
+  }
+
+  /**
+   * Extracts tar archive read from given stream into a directory. Files are streamed to disk
+   * entry by entry, so the archive is never held in memory. Existing files are overwritten.
+   *
+   * The input stream is not closed.
+   *
+   * @param inputStream stream of uncompressed tar archive
+   * @param destPath directory to extract the archive to. It is created if it does not exist.
+   * @return number of bytes of extracted file content
+   * @throws IOException thrown when archive is malformed, contains an entry outside of destPath
+   *         or could not be written
+   */
+  public static long extract(InputStream inputStream, Path destPath) throws IOException {
+    Path absoluteDestPath = destPath.toAbsolutePath().normalize();
+    Files.createDirectories(absoluteDestPath);
+    TarArchiveInputStream tarInputStream = new TarArchiveInputStream(inputStream);
+    long contentByteCount = 0;
+    TarArchiveEntry entry;
+    while ((entry = tarInputStream.getNextTarEntry()) != null) {
+      Path entryPath = absoluteDestPath.resolve(entry.getName()).normalize();
+      if (!entryPath.startsWith(absoluteDestPath)) {
+        throw new IOException(String.format("Archive entry %s is outside of %s.",
+            entry.getName(), absoluteDestPath));
+      }
+      if (entry.isDirectory()) {
+        Files.createDirectories(entryPath);
+        continue;
+      } else if (!entry.isFile()) {
+        continue;
+      }
+      Files.createDirectories(entryPath.getParent());
+      contentByteCount += Files.copy(tarInputStream, entryPath,
+          StandardCopyOption.REPLACE_EXISTING);
+      if ((entry.getMode() & EXECUTABLE_MODE_BITS) != 0) {
+        entryPath.toFile().setExecutable(true);
+      }
+    }
+    return contentByteCount;
+  }
+
+  private static String getEntryName(Path basePath, Path path) {
+    StringBuilder builder = new StringBuilder();
+    for (Path element : basePath.relativize(path)) {
+      if (builder.length() > 0) {
+        builder.append('/');
+      }
+      builder.append(element.toString());
+    }
+    return builder.toString();
+  }
+
+  private static long writeFileEntry(TarArchiveOutputStream tarOutputStream,
+      String entryName,
+      Path filePath,
+      BasicFileAttributes attrs) throws IOException {
+    TarArchiveEntry entry = new TarArchiveEntry(entryName);
+    if (Files.isExecutable(filePath)) {
+      entry.setMode(EXECUTABLE_FILE_MODE);
+    }
+    entry.setModTime(attrs.lastModifiedTime().toMillis());
+    entry.setSize(attrs.size());
+    tarOutputStream.putArchiveEntry(entry);
+    Files.copy(filePath, tarOutputStream);
+    tarOutputStream.closeArchiveEntry();
+    return attrs.size();
+  }
+
+  private static TarArchiveOutputStream newTarArchiveOutputStream(OutputStream outputStream) {
+    TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(outputStream);
+    tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    return tarOutputStream;
+  }
+
+  private static class TarWritingVisitor extends SimpleFileVisitor<Path> {
+    private final Path mBasePath;
+    private final TarArchiveOutputStream mTarOutputStream;
+    private long mContentByteCount = 0;
+
+    public TarWritingVisitor(Path basePath, TarArchiveOutputStream tarOutputStream) {
+      mBasePath = basePath;
+      mTarOutputStream = tarOutputStream;
+    }
+
+    public long getContentByteCount() {
+      return mContentByteCount;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+        throws IOException {
+      TarArchiveEntry entry = new TarArchiveEntry(getEntryName(mBasePath, dir) + "/");
+      entry.setModTime(attrs.lastModifiedTime().toMillis());
+      mTarOutputStream.putArchiveEntry(entry);
+      mTarOutputStream.closeArchiveEntry();
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+      mContentByteCount += writeFileEntry(mTarOutputStream, getEntryName(mBasePath, file), file,
+          attrs);
+      return FileVisitResult.CONTINUE;
+    }
+  }
+}
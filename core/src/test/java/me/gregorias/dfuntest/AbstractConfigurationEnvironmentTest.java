@@ -83,5 +83,10 @@ public class AbstractConfigurationEnvironmentTest {
     public void removeFile(String relPath) throws InterruptedException, IOException {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public SyncResult syncFilesFromLocalDisk(Path srcPath, String destRelPath) throws IOException {
+      throw new UnsupportedOperationException();
+    }
   }
 }
@@ -0,0 +1,165 @@
+package me.gregorias.dfuntest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class AppLifecycleTest {
+  private static final long TIMEOUT_MILLIS = 5000;
+  private static final long SHORT_TIMEOUT_MILLIS = 100;
+  private static final int APP_COUNT = 8;
+
+  @Test
+  public void startUpAllShouldStartAppsConcurrently() throws InterruptedException, IOException {
+    CountDownLatch startUpLatch = new CountDownLatch(APP_COUNT);
+    List<FakeApp> apps = new ArrayList<>();
+    for (int appIdx = 0; appIdx < APP_COUNT; ++appIdx) {
+      apps.add(new FakeApp(appIdx, startUpLatch));
+    }
+
+    AppLifecycle.startUpAll(apps, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+    for (FakeApp app : apps) {
+      assertTrue(app.mHasStarted);
+      assertFalse(app.mHasShutDown);
+      assertFalse(app.mHasBeenDestroyed);
+    }
+  }
+
+  @Test
+  public void startUpAllShouldShutDownStartedAppsAndDestroyFailedOnesOnFailure()
+      throws InterruptedException {
+    FakeApp app = new FakeApp(0, new CountDownLatch(0));
+    FakeApp failingApp = new FakeApp(1, new CountDownLatch(0));
+    failingApp.mStartUpException = new IOException("Could not start.");
+    List<FakeApp> apps = new ArrayList<>();
+    apps.add(app);
+    apps.add(failingApp);
+
+    try {
+      AppLifecycle.startUpAll(apps, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      fail("Start up should have failed.");
+    } catch (AppLifecycleException e) {
+      assertEquals(1, e.getFailures().size());
+      assertSame(failingApp.mStartUpException, e.getFailures().get(failingApp));
+    }
+
+    assertTrue(app.mHasShutDown);
+    assertFalse(app.mHasBeenDestroyed);
+    assertFalse(failingApp.mHasShutDown);
+    assertTrue(failingApp.mHasBeenDestroyed);
+  }
+
+  @Test
+  public void startUpAllShouldDestroyAllAppsOnError() throws AppLifecycleException,
+      InterruptedException {
+    FakeApp failingApp = new FakeApp(0, new CountDownLatch(0));
+    failingApp.mStartUpError = new Error("Unexpected error.");
+    FakeApp app = new FakeApp(1, new CountDownLatch(0));
+    List<FakeApp> apps = new ArrayList<>();
+    apps.add(failingApp);
+    apps.add(app);
+
+    try {
+      AppLifecycle.startUpAll(apps, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      fail("Start up should have thrown an error.");
+    } catch (Error e) {
+      assertSame(failingApp.mStartUpError, e);
+    }
+
+    assertTrue(failingApp.mHasBeenDestroyed);
+    assertTrue(app.mHasBeenDestroyed);
+  }
+
+  @Test
+  public void shutDownAllShouldDestroyAppsWhichHaveNotShutDownInTime()
+      throws InterruptedException {
+    FakeApp app = new FakeApp(0, new CountDownLatch(0));
+    FakeApp hangingApp = new FakeApp(1, new CountDownLatch(0));
+    hangingApp.mShutDownLatch = new CountDownLatch(1);
+    List<FakeApp> apps = new ArrayList<>();
+    apps.add(app);
+    apps.add(hangingApp);
+
+    Map<FakeApp, Exception> failures = AppLifecycle.shutDownAll(apps, SHORT_TIMEOUT_MILLIS,
+        TimeUnit.MILLISECONDS);
+
+    assertEquals(1, failures.size());
+    assertTrue(failures.get(hangingApp) instanceof TimeoutException);
+    assertTrue(app.mHasShutDown);
+    assertFalse(app.mHasBeenDestroyed);
+    assertTrue(hangingApp.mHasBeenDestroyed);
+  }
+
+  @Test
+  public void shutDownAllShouldReturnNoFailuresForNoApps() throws InterruptedException {
+    assertTrue(AppLifecycle.shutDownAll(Collections.<FakeApp>emptyList(), TIMEOUT_MILLIS,
+        TimeUnit.MILLISECONDS).isEmpty());
+  }
+
+  private static class FakeApp extends App<Environment> {
+    private final Environment mEnvironment = mock(Environment.class);
+    private final CountDownLatch mStartUpLatch;
+    private volatile IOException mStartUpException;
+    private volatile Error mStartUpError;
+    private volatile CountDownLatch mShutDownLatch = new CountDownLatch(0);
+    private volatile boolean mHasStarted = false;
+    private volatile boolean mHasShutDown = false;
+    private volatile boolean mHasBeenDestroyed = false;
+
+    public FakeApp(int id, CountDownLatch startUpLatch) {
+      super(id, "FakeApp" + id);
+      mStartUpLatch = startUpLatch;
+    }
+
+    @Override
+    public Environment getEnvironment() {
+      return mEnvironment;
+    }
+
+    // Waits until all apps sharing the latch are starting up, so sequential start up fails.
+    @Override
+    public void startUp() throws IOException {
+      if (mStartUpError != null) {
+        throw mStartUpError;
+      }
+      if (mStartUpException != null) {
+        throw mStartUpException;
+      }
+      mStartUpLatch.countDown();
+      try {
+        if (!mStartUpLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Other apps have not been started concurrently.");
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      mHasStarted = true;
+    }
+
+    @Override
+    public void shutDown() throws InterruptedException {
+      mShutDownLatch.await();
+      mHasShutDown = true;
+    }
+
+    @Override
+    public void destroy() {
+      mHasBeenDestroyed = true;
+    }
+  }
+}
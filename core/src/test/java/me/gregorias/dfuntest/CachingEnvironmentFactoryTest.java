@@ -0,0 +1,63 @@
+package me.gregorias.dfuntest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class CachingEnvironmentFactoryTest {
+  private final EnvironmentFactory<Environment> mMockEnvironmentFactory =
+      mock(EnvironmentFactory.class);
+  private final CachingEnvironmentFactory<Environment> mCachingEnvironmentFactory =
+      new CachingEnvironmentFactory<>(mMockEnvironmentFactory);
+
+  @Test
+  public void createShouldReuseEnvironmentsUntilClose() throws IOException {
+    Collection<Environment> envs = newEnvironments();
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+
+    Collection<Environment> firstEnvs = mCachingEnvironmentFactory.create();
+    mCachingEnvironmentFactory.destroy(firstEnvs);
+    Collection<Environment> secondEnvs = mCachingEnvironmentFactory.create();
+
+    assertEquals(new ArrayList<>(envs), new ArrayList<>(firstEnvs));
+    assertEquals(new ArrayList<>(envs), new ArrayList<>(secondEnvs));
+    assertTrue(mCachingEnvironmentFactory.hasEnvironments());
+    verify(mMockEnvironmentFactory).create();
+    verify(mMockEnvironmentFactory, never()).destroy(anyCollection());
+  }
+
+  @Test
+  public void closeShouldDestroyEnvironments() throws IOException {
+    Collection<Environment> envs = newEnvironments();
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+    mCachingEnvironmentFactory.create();
+
+    mCachingEnvironmentFactory.close();
+    mCachingEnvironmentFactory.close();
+
+    assertFalse(mCachingEnvironmentFactory.hasEnvironments());
+    verify(mMockEnvironmentFactory).destroy(envs);
+    mCachingEnvironmentFactory.create();
+    verify(mMockEnvironmentFactory, times(2)).create();
+  }
+
+  private static Collection<Environment> newEnvironments() {
+    Collection<Environment> envs = new ArrayList<>();
+    envs.add(mock(Environment.class));
+    envs.add(mock(Environment.class));
+    return envs;
+  }
+}
@@ -0,0 +1,56 @@
+package me.gregorias.dfuntest;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClockOffsetsTest {
+  private static final long OFFSET_MILLIS = 60 * 60 * 1000;
+  private static final long TOLERANCE_MILLIS = 5000;
+  private static final int SAMPLE_COUNT = 3;
+
+  @Test
+  public void measureMillisShouldReturnOffsetOfRemoteClock()
+      throws IOException, InterruptedException {
+    Environment env = mock(Environment.class);
+    RemoteProcess process = mock(RemoteProcess.class);
+    when(env.runCommand(anyListOf(String.class))).thenReturn(process);
+    when(process.getInputStream()).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        String remoteTime = (System.currentTimeMillis() + OFFSET_MILLIS) + "\n";
+        return new ByteArrayInputStream(remoteTime.getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    when(process.waitFor()).thenReturn(0);
+
+    long offsetMillis = ClockOffsets.measureMillis(env, SAMPLE_COUNT);
+
+    assertTrue(Math.abs(offsetMillis - OFFSET_MILLIS) < TOLERANCE_MILLIS);
+    verify(env, times(SAMPLE_COUNT)).runCommand(anyListOf(String.class));
+  }
+
+  @Test(expected = IOException.class)
+  public void measureMillisShouldFailOnUnexpectedOutput()
+      throws IOException, InterruptedException {
+    Environment env = mock(Environment.class);
+    RemoteProcess process = mock(RemoteProcess.class);
+    when(env.runCommand(anyListOf(String.class))).thenReturn(process);
+    when(process.getInputStream()).thenReturn(new ByteArrayInputStream(
+        "1420106400%3N".getBytes(StandardCharsets.UTF_8)));
+    when(process.waitFor()).thenReturn(0);
+
+    ClockOffsets.measureMillis(env, 1);
+  }
+}
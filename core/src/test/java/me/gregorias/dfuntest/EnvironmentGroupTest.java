@@ -0,0 +1,170 @@
+package me.gregorias.dfuntest;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.gregorias.dfuntest.BroadcastResult.EnvironmentResult;
+import me.gregorias.dfuntest.EnvironmentGroup.CompletionPolicy;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EnvironmentGroupTest {
+  private static final List<String> COMMAND = Arrays.asList("echo", "hello");
+  private final CountDownLatch mBlockingCommandLatch = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    mBlockingCommandLatch.countDown();
+  }
+
+  @Test
+  public void runCommandShouldAggregateExitCodesAndOutput() throws IOException,
+      InterruptedException {
+    Environment firstEnv = newEnvironment(0, newProcess(0, "first", ""));
+    Environment secondEnv = newEnvironment(1, newProcess(1, "", "second error"));
+    EnvironmentGroup<Environment> group = new EnvironmentGroup<>(Arrays.asList(firstEnv,
+        secondEnv));
+
+    BroadcastResult<Environment> result = group.runCommand(COMMAND, CompletionPolicy.ALL);
+
+    assertFalse(result.isSuccessful());
+    assertEquals(1, result.getSuccessCount());
+    assertEquals(Collections.singletonList(secondEnv), result.getFailedEnvironments());
+    assertTrue(result.getUnfinishedEnvironments().isEmpty());
+    EnvironmentResult firstResult = result.getResults().get(firstEnv);
+    assertEquals(0, (int) firstResult.getExitCode());
+    assertEquals("first", firstResult.getOutput());
+    EnvironmentResult secondResult = result.getResults().get(secondEnv);
+    assertEquals(1, (int) secondResult.getExitCode());
+    assertEquals("second error", secondResult.getErrorOutput());
+    assertNull(secondResult.getException());
+  }
+
+  @Test
+  public void runCommandShouldReturnOnFirstFailureWithFailFastPolicy() throws IOException,
+      InterruptedException {
+    IOException exception = new IOException();
+    Environment failingEnv = mock(Environment.class);
+    when(failingEnv.runCommand(COMMAND)).thenThrow(exception);
+    Environment blockingEnv = newBlockingEnvironment(1);
+    EnvironmentGroup<Environment> group = new EnvironmentGroup<>(Arrays.asList(failingEnv,
+        blockingEnv));
+
+    BroadcastResult<Environment> result = group.runCommand(COMMAND, CompletionPolicy.FAIL_FAST);
+
+    assertFalse(result.isSuccessful());
+    assertSame(exception, result.getResults().get(failingEnv).getException());
+    assertEquals(Collections.singletonList(blockingEnv), result.getUnfinishedEnvironments());
+  }
+
+  @Test
+  public void runCommandShouldReturnOnceQuorumHasSucceeded() throws IOException,
+      InterruptedException {
+    List<Environment> envs = new ArrayList<>();
+    envs.add(newEnvironment(0, newProcess(0, "", "")));
+    envs.add(newBlockingEnvironment(1));
+    envs.add(newEnvironment(2, newProcess(0, "", "")));
+    EnvironmentGroup<Environment> group = new EnvironmentGroup<>(envs);
+
+    BroadcastResult<Environment> result = group.runCommand(COMMAND, CompletionPolicy.quorum(2));
+
+    assertTrue(result.isSuccessful());
+    assertEquals(2, result.getSuccessCount());
+    assertEquals(Collections.singletonList(envs.get(1)), result.getUnfinishedEnvironments());
+  }
+
+  @Test
+  public void runCommandShouldReturnOnceQuorumIsImpossible() throws IOException,
+      InterruptedException {
+    List<Environment> envs = new ArrayList<>();
+    envs.add(newEnvironment(0, newProcess(1, "", "")));
+    envs.add(newBlockingEnvironment(1));
+    envs.add(newEnvironment(2, newProcess(2, "", "")));
+    EnvironmentGroup<Environment> group = new EnvironmentGroup<>(envs);
+
+    BroadcastResult<Environment> result = group.runCommand(COMMAND, CompletionPolicy.quorum(2));
+
+    assertFalse(result.isSuccessful());
+    assertEquals(2, result.getFailedEnvironments().size());
+    assertEquals(Collections.singletonList(envs.get(1)), result.getUnfinishedEnvironments());
+  }
+
+  @Test
+  public void copyFilesFromLocalDiskShouldUseAsynchronousOperationsWhenAvailable()
+      throws IOException, InterruptedException {
+    Path srcPath = FileSystems.getDefault().getPath("lib");
+    AsyncEnvironment asyncEnv = mock(AsyncEnvironment.class);
+    ListenableFuture<Void> copyFuture = Futures.immediateFuture(null);
+    when(asyncEnv.copyFilesFromLocalDiskAsync(srcPath, ".")).thenReturn(copyFuture);
+    Environment env = mock(Environment.class);
+    EnvironmentGroup<Environment> group = new EnvironmentGroup<>(Arrays.asList(asyncEnv, env));
+
+    BroadcastResult<Environment> result = group.copyFilesFromLocalDisk(srcPath, ".",
+        CompletionPolicy.ALL);
+
+    assertTrue(result.isSuccessful());
+    assertEquals(2, result.getSuccessCount());
+    assertNull(result.getResults().get(env).getExitCode());
+    verify(asyncEnv, never()).copyFilesFromLocalDisk(any(Path.class), anyString());
+    verify(env).copyFilesFromLocalDisk(srcPath, ".");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void quorumShouldThrowExceptionOnNonpositiveQuorum() {
+    CompletionPolicy.quorum(0);
+  }
+
+  private Environment newBlockingEnvironment(int id) throws IOException, InterruptedException {
+    Environment env = mock(Environment.class);
+    when(env.getId()).thenReturn(id);
+    final RemoteProcess process = newProcess(0, "", "");
+    when(env.runCommand(COMMAND)).thenAnswer(new Answer<RemoteProcess>() {
+      @Override
+      public RemoteProcess answer(InvocationOnMock invocation) throws InterruptedException {
+        mBlockingCommandLatch.await();
+        return process;
+      }
+    });
+    return env;
+  }
+
+  private static Environment newEnvironment(int id, RemoteProcess process) throws IOException,
+      InterruptedException {
+    Environment env = mock(Environment.class);
+    when(env.getId()).thenReturn(id);
+    when(env.runCommand(COMMAND)).thenReturn(process);
+    return env;
+  }
+
+  private static RemoteProcess newProcess(int exitCode, String output, String errorOutput)
+      throws IOException, InterruptedException {
+    RemoteProcess process = mock(RemoteProcess.class);
+    when(process.waitFor()).thenReturn(exitCode);
+    when(process.getInputStream()).thenReturn(new ByteArrayInputStream(output.getBytes()));
+    when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(errorOutput.getBytes()));
+    return process;
+  }
+}
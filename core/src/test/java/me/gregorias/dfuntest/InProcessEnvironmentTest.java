@@ -0,0 +1,142 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtilsImpl;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InProcessEnvironmentTest {
+  @Rule
+  public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+  private Path mEnvDir;
+  private Environment mInProcessEnvironment;
+  private String mTestClassPath;
+
+  /**
+   * Application run by tests. It prints its first argument, value of a system property, its
+   * working directory and the number of times it has been run in its class loader. Its second
+   * argument, if given, names a property to print instead.
+   */
+  public static class TestApplication {
+    private static int RUN_COUNT = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+      if (args[0].equals("fail")) {
+        throw new IllegalStateException("Failure requested.");
+      }
+      RUN_COUNT += 1;
+      String propertyKey = args.length > 1 ? args[1] : "test.property";
+      final String message = args[0] + " " + System.getProperty(propertyKey) + " "
+          + System.getProperty("user.dir") + " " + RUN_COUNT;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          System.out.println(message);
+        }
+      });
+      thread.start();
+      System.err.print("error");
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    mEnvDir = mTempFolder.newFolder().toPath();
+    mInProcessEnvironment = new InProcessEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl());
+    mTestClassPath = Paths.get(TestApplication.class.getProtectionDomain().getCodeSource()
+        .getLocation().toURI()).toString();
+  }
+
+  @Test
+  public void runCommandShouldRunMainClassInIsolatedContext() throws InterruptedException,
+      IOException {
+    List<String> command = Arrays.asList("java", "-Xmx64m", "-Dtest.property=value", "-cp",
+        mTestClassPath, TestApplication.class.getName(), "hello");
+
+    RemoteProcess firstProcess = mInProcessEnvironment.runCommand(command);
+    RemoteProcess secondProcess = mInProcessEnvironment.runCommand(command);
+
+    String expectedOutput = "hello value " + mEnvDir.toAbsolutePath() + " 1"
+        + System.lineSeparator();
+    for (RemoteProcess process : Arrays.asList(firstProcess, secondProcess)) {
+      assertEquals(0, process.waitFor());
+      assertEquals(expectedOutput, IOUtils.toString(process.getInputStream()));
+      assertEquals("error", IOUtils.toString(process.getErrorStream()));
+    }
+    assertEquals(null, System.getProperty("test.property"));
+  }
+
+  @Test
+  public void runCommandShouldResolveRelativePathPropertiesAgainstEnvironmentDirectory()
+      throws InterruptedException, IOException {
+    List<String> command = Arrays.asList("java", "-Dtest.logFile=app.log", "-cp", mTestClassPath,
+        TestApplication.class.getName(), "hello", "test.logFile");
+
+    RemoteProcess process = mInProcessEnvironment.runCommand(command);
+
+    assertEquals(0, process.waitFor());
+    String expectedOutput = "hello " + mEnvDir.toAbsolutePath().resolve("app.log") + " "
+        + mEnvDir.toAbsolutePath() + " 1" + System.lineSeparator();
+    assertEquals(expectedOutput, IOUtils.toString(process.getInputStream()));
+  }
+
+  @Test
+  public void runCommandShouldKeepStandardStreamAndNonPathProperties()
+      throws InterruptedException, IOException {
+    List<String> logFileCommand = Arrays.asList("java", "-Dtest.logFile=System.err", "-cp",
+        mTestClassPath, TestApplication.class.getName(), "hello", "test.logFile");
+    List<String> levelCommand = Arrays.asList("java", "-Dtest.level=app.log", "-cp",
+        mTestClassPath, TestApplication.class.getName(), "hello", "test.level");
+
+    RemoteProcess logFileProcess = mInProcessEnvironment.runCommand(logFileCommand);
+    RemoteProcess levelProcess = mInProcessEnvironment.runCommand(levelCommand);
+
+    assertEquals(0, logFileProcess.waitFor());
+    assertEquals(0, levelProcess.waitFor());
+    assertTrue(IOUtils.toString(logFileProcess.getInputStream()).startsWith("hello System.err "));
+    assertTrue(IOUtils.toString(levelProcess.getInputStream()).startsWith("hello app.log "));
+  }
+
+  @Test
+  public void runCommandShouldReturnNonzeroExitCodeIfMainThrows() throws InterruptedException,
+      IOException {
+    List<String> command = Arrays.asList("java", "-classpath", mTestClassPath,
+        TestApplication.class.getName(), "fail");
+
+    RemoteProcess process = mInProcessEnvironment.runCommand(command);
+
+    assertEquals(1, process.waitFor());
+  }
+
+  @Test(expected = IOException.class)
+  public void runCommandShouldThrowExceptionIfMainClassIsMissing() throws IOException {
+    List<String> command = Arrays.asList("java", "-cp", mTestClassPath, "NonexistentMain");
+    mInProcessEnvironment.runCommandAsynchronously(command);
+  }
+
+  @Test
+  public void runCommandShouldForkNonJavaCommands() throws InterruptedException, IOException {
+    List<String> command = new ArrayList<>();
+    command.add("touch");
+    command.add("forked");
+
+    RemoteProcess process = mInProcessEnvironment.runCommand(command);
+
+    assertEquals(0, process.waitFor());
+    assertTrue(mEnvDir.resolve("forked").toFile().exists());
+  }
+}
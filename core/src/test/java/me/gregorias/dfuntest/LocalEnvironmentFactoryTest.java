@@ -1,5 +1,7 @@
 package me.gregorias.dfuntest;
 
+import com.google.inject.Guice;
+import me.gregorias.dfuntest.testrunnerbuilders.GuiceTestRunnerModule;
 import me.gregorias.dfuntest.util.FileUtils;
 import org.junit.Test;
 
@@ -11,6 +13,7 @@ import java.util.Collection;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
@@ -88,4 +91,35 @@ public class LocalEnvironmentFactoryTest {
     factory.destroy(envs);
     verify(mockFileUtils, never()).deleteQuietly(any(File.class));
   }
+
+  @Test
+  public void injectorShouldCreateFactoryWithoutOptionalProperties() {
+    GuiceTestRunnerModule module = new GuiceTestRunnerModule();
+    module.addProperty(LocalEnvironmentFactory.ENV_COUNT_ARGUMENT_NAME, "1");
+    module.addProperty(LocalEnvironmentFactory.DIR_PREFIX_ARGUMENT_NAME, "unittest");
+
+    assertNotNull(Guice.createInjector(module).getInstance(LocalEnvironmentFactory.class));
+  }
+
+  @Test
+  public void injectorShouldCreateFactoryWithOptionalProperties() {
+    GuiceTestRunnerModule module = new GuiceTestRunnerModule();
+    module.addProperty(LocalEnvironmentFactory.ENV_COUNT_ARGUMENT_NAME, "1");
+    module.addProperty(LocalEnvironmentFactory.DIR_PREFIX_ARGUMENT_NAME, "unittest");
+    module.addProperty(LocalEnvironmentFactory.DEPLOYMENT_MODE_ARGUMENT_NAME, "HARD_LINK");
+    module.addProperty(LocalEnvironmentFactory.OUTPUT_DRAINING_MODE_ARGUMENT_NAME, "FILE");
+    module.addProperty(LocalEnvironmentFactory.OUTPUT_BUFFER_SIZE_ARGUMENT_NAME, "1024");
+
+    assertNotNull(Guice.createInjector(module).getInstance(LocalEnvironmentFactory.class));
+  }
+
+  @Test
+  public void injectorShouldCreateInProcessFactoryWithOptionalProperties() {
+    GuiceTestRunnerModule module = new GuiceTestRunnerModule();
+    module.addProperty(LocalEnvironmentFactory.ENV_COUNT_ARGUMENT_NAME, "1");
+    module.addProperty(LocalEnvironmentFactory.DIR_PREFIX_ARGUMENT_NAME, "unittest");
+    module.addProperty(LocalEnvironmentFactory.OUTPUT_DRAINING_MODE_ARGUMENT_NAME, "FILE");
+
+    assertNotNull(Guice.createInjector(module).getInstance(InProcessEnvironmentFactory.class));
+  }
 }
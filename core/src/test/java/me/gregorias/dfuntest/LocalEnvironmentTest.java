@@ -1,23 +1,31 @@
 package me.gregorias.dfuntest;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import me.gregorias.dfuntest.util.FileUtils;
 import me.gregorias.dfuntest.util.FileUtilsImpl;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -181,6 +189,34 @@ public class LocalEnvironmentTest {
     Files.deleteIfExists(localFile);
   }
 
+  @Test
+  public void syncFilesFromLocalDiskShouldTransferOnlyChangedFiles() throws IOException {
+    Path localDir = mLocalDir.resolve("lib");
+    Files.createDirectories(localDir);
+    Files.write(localDir.resolve("a.jar"), new byte[] {1, 2, 3});
+    Files.write(localDir.resolve("b.jar"), new byte[] {4, 5});
+    Path envDir = mEnvDir.resolve("lib");
+
+    SyncResult firstResult = mLocalEnvironment.syncFilesFromLocalDisk(localDir, ".");
+    assertEquals(2, firstResult.getTransferredFileCount());
+    assertEquals(5, firstResult.getTransferredByteCount());
+    assertEquals(0, firstResult.getSkippedByteCount());
+    assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(envDir.resolve("a.jar")));
+
+    Files.write(localDir.resolve("a.jar"), new byte[] {3, 2, 1});
+    Files.delete(localDir.resolve("b.jar"));
+    SyncResult secondResult = mLocalEnvironment.syncFilesFromLocalDisk(localDir, ".");
+    assertEquals(1, secondResult.getTransferredFileCount());
+    assertEquals(0, secondResult.getSkippedFileCount());
+    assertArrayEquals(new byte[] {3, 2, 1}, Files.readAllBytes(envDir.resolve("a.jar")));
+    assertFalse(Files.exists(envDir.resolve("b.jar")));
+
+    SyncResult thirdResult = mLocalEnvironment.syncFilesFromLocalDisk(localDir, ".");
+    assertEquals(0, thirdResult.getTransferredFileCount());
+    assertEquals(1, thirdResult.getSkippedFileCount());
+    assertEquals(3, thirdResult.getSkippedByteCount());
+  }
+
   @Test
   public void shouldRemoveFile() throws InterruptedException, IOException {
     Path envFile = Files.createTempFile(mEnvDir, PREFIX, "");
@@ -189,4 +225,148 @@ public class LocalEnvironmentTest {
     assertFalse(Files.exists(envFile));
   }
 
+  @Test
+  public void copyFilesFromLocalDiskShouldDeployThroughStagingAreaInLinkMode()
+      throws IOException {
+    FileUtils mockFileUtils = mock(FileUtils.class);
+    LocalStagingArea mockStagingArea = mock(LocalStagingArea.class);
+    Environment localEnvironment = new LocalEnvironment(0, mEnvDir, mockFileUtils,
+        mockStagingArea, LocalEnvironment.DeploymentMode.HARD_LINK);
+    Path sourcePath = FileSystems.getDefault().getPath("sourcedir");
+
+    localEnvironment.copyFilesFromLocalDisk(sourcePath, "targetdir");
+
+    verify(mockStagingArea).deploy(eq(sourcePath), eq(mEnvDir.resolve("targetdir")),
+        eq(LocalEnvironment.DeploymentMode.HARD_LINK));
+    verify(mockFileUtils, never()).copyDirectoryToDirectory(any(File.class), any(File.class));
+  }
+
+  @Test
+  public void syncFilesFromLocalDiskShouldLinkFilesInLinkMode() throws IOException {
+    Path libDir = mLocalDir.resolve("lib");
+    Files.createDirectories(libDir);
+    Files.write(libDir.resolve("a.jar"), new byte[] {1, 2, 3});
+    LocalStagingArea stagingArea = new LocalStagingArea(PREFIX,
+        FileUtilsImpl.getFileUtilsImpl());
+    Environment localEnvironment = new LocalEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl(), stagingArea,
+        LocalEnvironment.DeploymentMode.SYMBOLIC_LINK);
+
+    SyncResult result = localEnvironment.syncFilesFromLocalDisk(libDir, ".");
+
+    assertEquals(0, result.getSkippedFileCount());
+    assertEquals(1, result.getTransferredFileCount());
+    assertTrue(Files.isSymbolicLink(mEnvDir.resolve("lib")));
+    assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(mEnvDir.resolve("lib/a.jar")));
+
+    result = localEnvironment.syncFilesFromLocalDisk(libDir, ".");
+    assertEquals(1, result.getSkippedFileCount());
+    assertEquals(0, result.getTransferredFileCount());
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void syncFilesFromLocalDiskShouldDeployChangedFilesInLinkMode() throws IOException {
+    Path libDir = mLocalDir.resolve("lib");
+    Files.createDirectories(libDir);
+    Path jarPath = libDir.resolve("a.jar");
+    Files.write(jarPath, new byte[] {1, 2, 3});
+    Files.write(libDir.resolve("b.jar"), new byte[] {4});
+    LocalStagingArea stagingArea = new LocalStagingArea(PREFIX,
+        FileUtilsImpl.getFileUtilsImpl());
+    Environment localEnvironment = new LocalEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl(), stagingArea,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+    localEnvironment.syncFilesFromLocalDisk(libDir, ".");
+
+    Files.write(jarPath, new byte[] {5, 6});
+    Files.setLastModifiedTime(jarPath, FileTime.fromMillis(
+        Files.getLastModifiedTime(jarPath).toMillis() + 10000));
+    SyncResult result = localEnvironment.syncFilesFromLocalDisk(libDir, ".");
+
+    assertEquals(1, result.getTransferredFileCount());
+    assertEquals(2, result.getTransferredByteCount());
+    assertEquals(1, result.getSkippedFileCount());
+    assertArrayEquals(new byte[] {5, 6}, Files.readAllBytes(mEnvDir.resolve("lib/a.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnLinkModeWithoutStagingArea() {
+    new LocalEnvironment(0, mEnvDir, FileUtilsImpl.getFileUtilsImpl(), null,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+  }
+
+  @Test
+  public void runCommandShouldDrainOutputIntoBoundedMemoryBuffer() throws InterruptedException,
+      IOException {
+    final int bufferSize = 1024;
+    Environment localEnvironment = new LocalEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl(), null, LocalEnvironment.DeploymentMode.COPY,
+        LocalEnvironment.OutputDrainingMode.MEMORY, bufferSize);
+    List<String> command = new ArrayList<>();
+    command.add("sh");
+    command.add("-c");
+    command.add("seq 1 100000; echo error >&2");
+
+    RemoteProcess process = localEnvironment.runCommand(command);
+
+    assertEquals(0, process.waitFor());
+    String output = IOUtils.toString(process.getInputStream());
+    assertEquals(bufferSize, output.length());
+    assertTrue(output.endsWith("99999\n100000\n"));
+    assertEquals("error\n", IOUtils.toString(process.getErrorStream()));
+  }
+
+  @Test
+  public void runCommandShouldRedirectOutputToFiles() throws InterruptedException, IOException {
+    Environment localEnvironment = new LocalEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl(), null, LocalEnvironment.DeploymentMode.COPY,
+        LocalEnvironment.OutputDrainingMode.FILE, LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE);
+    List<String> command = new ArrayList<>();
+    command.add("sh");
+    command.add("-c");
+    command.add("echo output; echo error >&2");
+
+    RemoteProcess process = localEnvironment.runCommand(command);
+
+    assertEquals("output\n", IOUtils.toString(process.getInputStream()));
+    assertEquals("error\n", IOUtils.toString(process.getErrorStream()));
+    Path outputDirPath = mEnvDir.resolve(LocalEnvironment.PROCESS_OUTPUT_DIR_NAME);
+    assertArrayEquals("output\n".getBytes(), Files.readAllBytes(outputDirPath.resolve("0.out")));
+    assertArrayEquals("error\n".getBytes(), Files.readAllBytes(outputDirPath.resolve("0.err")));
+  }
+
+  @Test
+  public void runCommandAsyncShouldCompleteWithFinishedProcess() throws ExecutionException,
+      InterruptedException, IOException {
+    AsyncEnvironment localEnvironment = new LocalEnvironment(0, mEnvDir,
+        FileUtilsImpl.getFileUtilsImpl(), null, LocalEnvironment.DeploymentMode.COPY,
+        LocalEnvironment.OutputDrainingMode.MEMORY, LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE);
+    List<String> command = new ArrayList<>();
+    command.add("sh");
+    command.add("-c");
+    command.add("echo output; exit 3");
+
+    ListenableFuture<RemoteProcess> processFuture = localEnvironment.runCommandAsync(command);
+
+    RemoteProcess process = processFuture.get();
+    assertEquals(3, (int) localEnvironment.onExit(process).get());
+    assertEquals("output\n", IOUtils.toString(process.getInputStream()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void onExitShouldThrowExceptionOnForeignProcess() {
+    ((AsyncEnvironment) mLocalEnvironment).onExit(mock(RemoteProcess.class));
+  }
+
+  @Test
+  public void removeFileAsyncShouldRemoveFile() throws ExecutionException, InterruptedException,
+      IOException {
+    Path filePath = Files.createFile(mEnvDir.resolve("file"));
+
+    ((AsyncEnvironment) mLocalEnvironment).removeFileAsync("file").get();
+
+    assertFalse(Files.exists(filePath));
+  }
 }
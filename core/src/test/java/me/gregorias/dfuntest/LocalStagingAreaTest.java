@@ -0,0 +1,198 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtils;
+import me.gregorias.dfuntest.util.FileUtilsImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+public class LocalStagingAreaTest {
+  private static final byte[] FIRST_CONTENT = new byte[] {1, 2, 3};
+  private static final byte[] SECOND_CONTENT = new byte[] {4, 5};
+  private Path mTempDirectory = null;
+  private Path mSrcPath = null;
+
+  @Before
+  public void setUp() throws IOException {
+    mTempDirectory = Files.createTempDirectory("dfuntest");
+    mSrcPath = mTempDirectory.resolve("lib");
+    Files.createDirectories(mSrcPath.resolve("sub"));
+    Files.write(mSrcPath.resolve("a.jar"), FIRST_CONTENT);
+    Files.write(mSrcPath.resolve("sub").resolve("b.jar"), SECOND_CONTENT);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    org.apache.commons.io.FileUtils.deleteDirectory(mTempDirectory.toFile());
+  }
+
+  @Test
+  public void deployShouldHardLinkFilesToSharedStagedCopy() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path firstDestPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+    Path secondDestPath = Files.createDirectories(mTempDirectory.resolve("env1"));
+
+    SyncResult result = stagingArea.deploy(mSrcPath, firstDestPath,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+    stagingArea.deploy(mSrcPath, secondDestPath, LocalEnvironment.DeploymentMode.HARD_LINK);
+
+    assertEquals(2, result.getTransferredFileCount());
+    assertEquals(FIRST_CONTENT.length + SECOND_CONTENT.length,
+        result.getTransferredByteCount());
+    assertEquals(0, result.getSkippedFileCount());
+    Path stagedPath = stagingArea.stage(mSrcPath);
+    for (Path destPath : new Path[] {firstDestPath, secondDestPath}) {
+      Path deployedPath = destPath.resolve("lib");
+      assertFalse(Files.isSymbolicLink(deployedPath));
+      assertArrayEquals(SECOND_CONTENT, Files.readAllBytes(deployedPath.resolve("sub/b.jar")));
+      assertEquals(getFileKey(stagedPath.resolve("a.jar")),
+          getFileKey(deployedPath.resolve("a.jar")));
+    }
+    assertFalse(Files.getPosixFilePermissions(stagedPath.resolve("a.jar")).contains(
+        PosixFilePermission.OWNER_WRITE));
+
+    stagingArea.destroy();
+    assertFalse(Files.exists(stagedPath));
+  }
+
+  @Test
+  public void deployShouldSymbolicallyLinkDirectory() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.SYMBOLIC_LINK);
+
+    Path deployedPath = destPath.resolve("lib");
+    assertTrue(Files.isSymbolicLink(deployedPath));
+    assertEquals(stagingArea.stage(mSrcPath), Files.readSymbolicLink(deployedPath));
+    assertArrayEquals(FIRST_CONTENT, Files.readAllBytes(deployedPath.resolve("a.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void deployShouldReplaceExistingDeployment() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+    Files.createDirectories(destPath.resolve("lib"));
+    Files.write(destPath.resolve("lib").resolve("stale.jar"), FIRST_CONTENT);
+
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.HARD_LINK);
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.HARD_LINK);
+
+    assertFalse(Files.exists(destPath.resolve("lib").resolve("stale.jar")));
+    assertTrue(Files.exists(destPath.resolve("lib").resolve("a.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void deployShouldFallBackToCopyingWhenLinksAreNotSupported() throws IOException {
+    FileUtils fileUtils = newFileUtils();
+    doThrow(new IOException("Invalid cross-device link")).when(fileUtils).createLink(
+        any(Path.class), any(Path.class));
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", fileUtils);
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+
+    SyncResult result = stagingArea.deploy(mSrcPath, destPath,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+
+    assertEquals(2, result.getTransferredFileCount());
+    assertEquals(0, result.getSkippedFileCount());
+    assertArrayEquals(FIRST_CONTENT, Files.readAllBytes(destPath.resolve("lib/a.jar")));
+    assertArrayEquals(SECOND_CONTENT, Files.readAllBytes(destPath.resolve("lib/sub/b.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void deployShouldSkipFilesWhichAreAlreadyDeployed() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.HARD_LINK);
+    Object fileKey = getFileKey(destPath.resolve("lib/a.jar"));
+
+    SyncResult result = stagingArea.deploy(mSrcPath, destPath,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+
+    assertEquals(0, result.getTransferredFileCount());
+    assertEquals(2, result.getSkippedFileCount());
+    assertEquals(FIRST_CONTENT.length + SECOND_CONTENT.length, result.getSkippedByteCount());
+    assertEquals(fileKey, getFileKey(destPath.resolve("lib/a.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void deployShouldStageSourceAgainWhenItChanges() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.HARD_LINK);
+    Path firstStagedPath = stagingArea.stage(mSrcPath);
+
+    Path changedPath = mSrcPath.resolve("a.jar");
+    Files.write(changedPath, SECOND_CONTENT);
+    Files.setLastModifiedTime(changedPath, FileTime.fromMillis(
+        Files.getLastModifiedTime(changedPath).toMillis() + 10000));
+    Files.delete(mSrcPath.resolve("sub").resolve("b.jar"));
+    Files.write(mSrcPath.resolve("c.jar"), FIRST_CONTENT);
+    SyncResult result = stagingArea.deploy(mSrcPath, destPath,
+        LocalEnvironment.DeploymentMode.HARD_LINK);
+
+    assertFalse(firstStagedPath.equals(stagingArea.stage(mSrcPath)));
+    assertEquals(2, result.getTransferredFileCount());
+    assertEquals(0, result.getSkippedFileCount());
+    assertArrayEquals(SECOND_CONTENT, Files.readAllBytes(destPath.resolve("lib/a.jar")));
+    assertArrayEquals(FIRST_CONTENT, Files.readAllBytes(destPath.resolve("lib/c.jar")));
+    assertFalse(Files.exists(destPath.resolve("lib/sub/b.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test
+  public void deployShouldRelinkSymbolicLinkToChangedSource() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    Path destPath = Files.createDirectories(mTempDirectory.resolve("env0"));
+    stagingArea.deploy(mSrcPath, destPath, LocalEnvironment.DeploymentMode.SYMBOLIC_LINK);
+
+    Files.write(mSrcPath.resolve("c.jar"), FIRST_CONTENT);
+    SyncResult result = stagingArea.deploy(mSrcPath, destPath,
+        LocalEnvironment.DeploymentMode.SYMBOLIC_LINK);
+
+    assertEquals(1, result.getTransferredFileCount());
+    assertEquals(2, result.getSkippedFileCount());
+    assertEquals(stagingArea.stage(mSrcPath), Files.readSymbolicLink(destPath.resolve("lib")));
+    assertArrayEquals(FIRST_CONTENT, Files.readAllBytes(destPath.resolve("lib/c.jar")));
+    stagingArea.destroy();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deployShouldRejectCopyMode() throws IOException {
+    LocalStagingArea stagingArea = new LocalStagingArea("dfuntest", newFileUtils());
+    stagingArea.deploy(mSrcPath, mTempDirectory, LocalEnvironment.DeploymentMode.COPY);
+  }
+
+  private static Object getFileKey(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+  }
+
+  // Returns real file utilities which create staging directory inside test's directory.
+  private FileUtils newFileUtils() throws IOException {
+    FileUtils fileUtils = spy(FileUtilsImpl.getFileUtilsImpl());
+    doReturn(Files.createDirectories(mTempDirectory.resolve("staging"))).when(fileUtils)
+        .createTempDirectory(anyString());
+    return fileUtils;
+  }
+}
@@ -1,22 +1,49 @@
 package me.gregorias.dfuntest;
 
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
 import me.gregorias.dfuntest.util.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.inOrder;
@@ -28,6 +55,8 @@ import static org.mockito.Mockito.when;
 
 @SuppressWarnings("unchecked")
 public class MultiTestRunnerTest {
+  private static final long SHORT_TIMEOUT_MILLIS = 100;
+  private static final long LONG_TIMEOUT_MILLIS = 10000;
   private MultiTestRunner<Environment, App<Environment>> mMultiTestRunner = null;
 
   private final TestScript<App<Environment>> mMockTestScript = mock(TestScript.class);
@@ -40,9 +69,18 @@ public class MultiTestRunnerTest {
 
   private final Path mReportPath = FileSystems.getDefault().getPath("reportDir");
   private final FileUtils mMockFileUtils = mock(FileUtils.class);
+  private final Map<Path, StringWriter> mReportWriters = new HashMap<>();
 
   @Before
-  public void setUp() {
+  public void setUp() throws IOException {
+    when(mMockFileUtils.newBufferedWriter(any(Path.class))).thenAnswer(new Answer<Writer>() {
+      @Override
+      public Writer answer(InvocationOnMock invocation) {
+        StringWriter writer = new StringWriter();
+        mReportWriters.put((Path) invocation.getArguments()[0], writer);
+        return writer;
+      }
+    });
     mMultiTestRunner = new MultiTestRunner<>(mMockTestScript,
         mMockEnvironmentFactory,
         mMockEnvironmentPreparator,
@@ -100,6 +138,20 @@ public class MultiTestRunnerTest {
     assertEquals(TestResult.Type.FAILURE, result.getType());
   }
 
+  @Test
+  public void runShouldWriteTimingReportOnCreateEnvironmentsFail() throws IOException {
+    when(mMockEnvironmentFactory.create()).thenThrow(IOException.class);
+
+    mMultiTestRunner.run();
+
+    Path expectedTimingReportPath = mReportPath.resolve(MultiTestRunner.TIMING_REPORT_FILENAME);
+    ArgumentCaptor<String> contentCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mMockFileUtils).write(eq(expectedTimingReportPath), contentCaptor.capture());
+    String[] lines = contentCaptor.getValue().split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[1].startsWith("createEnvironments,"));
+  }
+
   @Test
   public void runShouldFailOnPrepareEnvironmentsFail() throws IOException {
     Collection<Environment> envs = new ArrayList<>();
@@ -281,8 +333,7 @@ public class MultiTestRunnerTest {
 
     multiTestRunner.run();
 
-    Path expectedSummaryReportPath = mReportPath.resolve(MultiTestRunner.REPORT_FILENAME);
-    verify(mMockFileUtils, times(2)).write(eq(expectedSummaryReportPath), anyString());
+    assertEquals(2, readSummaryReportLines().size());
 
     Path expectedFirstReportPath = mReportPath.resolve(firstTestScriptName).resolve(
         MultiTestRunner.REPORT_FILENAME);
@@ -293,6 +344,112 @@ public class MultiTestRunnerTest {
     verify(mMockFileUtils).write(eq(expectedSecondReportPath), anyString());
   }
 
+  @Test
+  public void runShouldWriteArtifactsToScriptReportDirectory() throws IOException {
+    String testScriptName = "TestScript";
+    Collection<Environment> envs = new ArrayList<>();
+    envs.add(mock(Environment.class));
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+    Map<String, String> artifacts = new HashMap<>();
+    artifacts.put("latency.txt", "histogram");
+    when(mMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success", artifacts));
+    when(mMockTestScript.toString()).thenReturn(testScriptName);
+
+    mMultiTestRunner.run();
+
+    verify(mMockFileUtils).write(mReportPath.resolve(testScriptName).resolve("latency.txt"),
+        "histogram");
+  }
+
+  @Test
+  public void runShouldTimeOutHungScriptAndRunNextOne() throws IOException,
+      InterruptedException {
+    TestScript<App<Environment>> secondMockTestScript = mock(TestScript.class);
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(mMockTestScript);
+    scripts.add(secondMockTestScript);
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        1,
+        SHORT_TIMEOUT_MILLIS,
+        mMockFileUtils);
+
+    Environment mockEnv = mock(Environment.class);
+    when(mMockEnvironmentFactory.create()).thenReturn(Arrays.asList(mockEnv));
+    App<Environment> mockApp = mock(App.class);
+    when(mockApp.getId()).thenReturn(3);
+    when(mockApp.getEnvironment()).thenReturn(mockEnv);
+    List<String> threadDumpCommand = Arrays.asList("jcmd", "1", "Thread.print");
+    when(mockApp.getThreadDumpCommand()).thenReturn(threadDumpCommand);
+    when(mMockApplicationFactory.newApp(mockEnv)).thenReturn(mockApp);
+    RemoteProcess mockThreadDumpProcess = mock(RemoteProcess.class);
+    when(mockThreadDumpProcess.getInputStream()).thenReturn(
+        new ByteArrayInputStream("dump".getBytes(StandardCharsets.UTF_8)));
+    when(mockThreadDumpProcess.getErrorStream()).thenReturn(
+        new ByteArrayInputStream(new byte[0]));
+    when(mockEnv.runCommandAsynchronously(threadDumpCommand)).thenReturn(mockThreadDumpProcess);
+    final CountDownLatch hangLatch = new CountDownLatch(1);
+    when(mMockTestScript.toString()).thenReturn("FirstTestScript");
+    when(mMockTestScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        hangLatch.await();
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+    when(secondMockTestScript.toString()).thenReturn("SecondTestScript");
+    when(secondMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+
+    TestResult result = multiTestRunner.run();
+
+    assertEquals(TestResult.Type.FAILURE, result.getType());
+    verify(mockApp).destroy();
+    verify(secondMockTestScript).run(anyCollection());
+    assertEquals(Arrays.asList("[TIMEOUT] FirstTestScript", "[SUCCESS] SecondTestScript"),
+        readSummaryReportLines());
+    verify(mMockFileUtils).write(mReportPath.resolve("FirstTestScript").resolve(
+        String.format(MultiTestRunner.THREAD_DUMP_FILENAME_FORMAT, 3)), "dump");
+    verify(mockThreadDumpProcess).waitFor();
+    verify(mockThreadDumpProcess, never()).destroy();
+  }
+
+  @Test
+  public void runShouldApplyTimeLimitOfScript() throws IOException {
+    TimeLimitedTestScript<App<Environment>> mockTestScript = mock(TimeLimitedTestScript.class);
+    when(mockTestScript.getTimeoutMillis()).thenReturn(SHORT_TIMEOUT_MILLIS);
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(mockTestScript,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        mMockFileUtils);
+
+    Environment mockEnv = mock(Environment.class);
+    when(mMockEnvironmentFactory.create()).thenReturn(Arrays.asList(mockEnv));
+    when(mMockApplicationFactory.newApp(mockEnv)).thenReturn(mock(App.class));
+    when(mockTestScript.toString()).thenReturn("TestScript");
+    when(mockTestScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        Thread.sleep(LONG_TIMEOUT_MILLIS);
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+
+    multiTestRunner.run();
+
+    assertEquals(Arrays.asList("[TIMEOUT] TestScript"), readSummaryReportLines());
+  }
+
   @Test
   public void runShouldContinueEvenIfWriteSummaryFails() throws IOException {
     String firstTestScriptName = "FirstTestScript";
@@ -326,8 +483,8 @@ public class MultiTestRunnerTest {
     Path expectedSecondReportPath = mReportPath.resolve(firstTestScriptName).resolve(
         MultiTestRunner.REPORT_FILENAME);
 
-    doThrow(IOException.class).when(mMockFileUtils).write(
-        eq(expectedSummaryReportPath), anyString());
+    doThrow(IOException.class).when(mMockFileUtils).newBufferedWriter(
+        eq(expectedSummaryReportPath));
 
     multiTestRunner.run();
 
@@ -373,7 +530,381 @@ public class MultiTestRunnerTest {
 
     multiTestRunner.run();
 
-    verify(mMockFileUtils, times(2)).write(eq(expectedSummaryReportPath), anyString());
+    assertEquals(2, readSummaryReportLines().size());
     verify(mMockFileUtils).write(eq(expectedSecondReportPath), anyString());
   }
+
+  @Test
+  public void runShouldRunParallelizableScriptsConcurrentlyOnDisjointGroups()
+      throws IOException {
+    final CountDownLatch latch = new CountDownLatch(2);
+    Answer<TestResult> awaitingAnswer = new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        latch.countDown();
+        if (latch.await(10, TimeUnit.SECONDS)) {
+          return new TestResult(TestResult.Type.SUCCESS, "Success");
+        } else {
+          return new TestResult(TestResult.Type.FAILURE, "Scripts did not run concurrently.");
+        }
+      }
+    };
+    ParallelizableTestScript<App<Environment>> firstMockTestScript =
+        mock(ParallelizableTestScript.class);
+    ParallelizableTestScript<App<Environment>> secondMockTestScript =
+        mock(ParallelizableTestScript.class);
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(firstMockTestScript);
+    scripts.add(secondMockTestScript);
+    for (ParallelizableTestScript<App<Environment>> script : Arrays.asList(firstMockTestScript,
+        secondMockTestScript)) {
+      when(script.getRequiredEnvironmentCount()).thenReturn(2);
+      when(script.run(anyCollection())).thenAnswer(awaitingAnswer);
+    }
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        2,
+        mMockFileUtils);
+
+    List<Environment> envs = new ArrayList<>();
+    for (int envIdx = 0; envIdx < 4; ++envIdx) {
+      envs.add(mock(Environment.class));
+    }
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+
+    TestResult result = multiTestRunner.run();
+
+    assertEquals(TestResult.Type.SUCCESS, result.getType());
+    ArgumentCaptor<Collection> preparedEnvsCaptor = ArgumentCaptor.forClass(Collection.class);
+    verify(mMockEnvironmentPreparator, times(2)).prepare(preparedEnvsCaptor.capture());
+    Set<Environment> preparedEnvs = new HashSet<>();
+    for (Collection<Environment> group : preparedEnvsCaptor.getAllValues()) {
+      assertEquals(2, group.size());
+      preparedEnvs.addAll(group);
+    }
+    assertEquals(new HashSet<>(envs), preparedEnvs);
+    verify(mMockEnvironmentPreparator, times(2)).cleanAll(anyCollection());
+    verify(mMockEnvironmentFactory).destroy(eq(envs));
+  }
+
+  @Test
+  public void runShouldReportFinishedScriptsAndStopRunningOnesWhenInterrupted()
+      throws InterruptedException, IOException {
+    final CountDownLatch lastScriptStartedLatch = new CountDownLatch(1);
+    final AtomicInteger runningScriptCount = new AtomicInteger(0);
+    ParallelizableTestScript<App<Environment>> blockedMockTestScript =
+        mock(ParallelizableTestScript.class);
+    ParallelizableTestScript<App<Environment>> finishedMockTestScript =
+        mock(ParallelizableTestScript.class);
+    final ParallelizableTestScript<App<Environment>> lastMockTestScript =
+        mock(ParallelizableTestScript.class);
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(blockedMockTestScript);
+    scripts.add(finishedMockTestScript);
+    scripts.add(lastMockTestScript);
+    for (ParallelizableTestScript<App<Environment>> script : Arrays.asList(blockedMockTestScript,
+        finishedMockTestScript, lastMockTestScript)) {
+      when(script.getRequiredEnvironmentCount()).thenReturn(2);
+    }
+    when(blockedMockTestScript.toString()).thenReturn("BlockedScript");
+    when(finishedMockTestScript.toString()).thenReturn("FinishedScript");
+    when(lastMockTestScript.toString()).thenReturn("LastScript");
+    when(finishedMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+    // Last script starts only once the runner has taken the result of the finished one, so the
+    // runner is interrupted while both remaining scripts wait for interruption.
+    Answer<TestResult> blockingAnswer = new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) {
+        runningScriptCount.incrementAndGet();
+        if (invocation.getMock() == lastMockTestScript) {
+          lastScriptStartedLatch.countDown();
+        }
+        try {
+          new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          runningScriptCount.decrementAndGet();
+        }
+        return new TestResult(TestResult.Type.SUCCESS, "Not interrupted");
+      }
+    };
+    when(blockedMockTestScript.run(anyCollection())).thenAnswer(blockingAnswer);
+    when(lastMockTestScript.run(anyCollection())).thenAnswer(blockingAnswer);
+    final MultiTestRunner multiTestRunner = new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        2,
+        mMockFileUtils);
+    List<Environment> envs = new ArrayList<>();
+    for (int envIdx = 0; envIdx < 4; ++envIdx) {
+      envs.add(mock(Environment.class));
+    }
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+    final AtomicInteger runningScriptCountOnDestroy = new AtomicInteger(-1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        runningScriptCountOnDestroy.set(runningScriptCount.get());
+        return null;
+      }
+    }).when(mMockEnvironmentFactory).destroy(anyCollection());
+    final AtomicReference<TestResult> result = new AtomicReference<>();
+    Thread runnerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        result.set(multiTestRunner.run());
+      }
+    });
+
+    runnerThread.start();
+    assertTrue(lastScriptStartedLatch.await(10, TimeUnit.SECONDS));
+    runnerThread.interrupt();
+    runnerThread.join();
+
+    assertEquals(TestResult.Type.FAILURE, result.get().getType());
+    assertEquals(Arrays.asList("[SUCCESS] FinishedScript"), readSummaryReportLines());
+    assertEquals(0, runningScriptCountOnDestroy.get());
+  }
+
+  @Test
+  public void runShouldGiveAllEnvironmentsToNonParallelizableScript() throws IOException {
+    ParallelizableTestScript<App<Environment>> parallelizableMockTestScript =
+        mock(ParallelizableTestScript.class);
+    when(parallelizableMockTestScript.getRequiredEnvironmentCount()).thenReturn(1);
+    when(parallelizableMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+    when(mMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(parallelizableMockTestScript);
+    scripts.add(mMockTestScript);
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        false,
+        mReportPath,
+        2,
+        mMockFileUtils);
+
+    List<Environment> envs = new ArrayList<>();
+    envs.add(mock(Environment.class));
+    envs.add(mock(Environment.class));
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+
+    multiTestRunner.run();
+
+    verify(mMockEnvironmentPreparator).prepare(eq(envs.subList(0, 1)));
+    verify(mMockEnvironmentPreparator).prepare(eq(envs.subList(1, 2)));
+    verify(mMockEnvironmentPreparator).restore(eq(envs));
+    verify(mMockApplicationFactory, times(3)).newApp(any(Environment.class));
+  }
+
+  @Test
+  public void runShouldGiveAllEnvironmentsToParallelizableScriptInSequentialMode()
+      throws IOException {
+    ParallelizableTestScript<App<Environment>> parallelizableMockTestScript =
+        mock(ParallelizableTestScript.class);
+    when(parallelizableMockTestScript.getRequiredEnvironmentCount()).thenReturn(1);
+    when(parallelizableMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(parallelizableMockTestScript,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        mMockFileUtils);
+
+    List<Environment> envs = new ArrayList<>();
+    envs.add(mock(Environment.class));
+    envs.add(mock(Environment.class));
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+
+    multiTestRunner.run();
+
+    verify(mMockEnvironmentPreparator).prepare(eq(envs));
+    verify(mMockApplicationFactory, times(2)).newApp(any(Environment.class));
+  }
+
+  @Test
+  public void runShouldWriteSummaryInScriptOrderInParallelMode() throws IOException {
+    final CountDownLatch secondScriptLatch = new CountDownLatch(1);
+    ParallelizableTestScript<App<Environment>> firstMockTestScript =
+        mock(ParallelizableTestScript.class);
+    ParallelizableTestScript<App<Environment>> secondMockTestScript =
+        mock(ParallelizableTestScript.class);
+    when(firstMockTestScript.getRequiredEnvironmentCount()).thenReturn(1);
+    when(secondMockTestScript.getRequiredEnvironmentCount()).thenReturn(1);
+    when(firstMockTestScript.toString()).thenReturn("FirstTestScript");
+    when(secondMockTestScript.toString()).thenReturn("SecondTestScript");
+    when(firstMockTestScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        secondScriptLatch.await(10, TimeUnit.SECONDS);
+        return new TestResult(TestResult.Type.FAILURE, "Failure");
+      }
+    });
+    when(secondMockTestScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) {
+        secondScriptLatch.countDown();
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(firstMockTestScript);
+    scripts.add(secondMockTestScript);
+    MultiTestRunner multiTestRunner = new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        2,
+        mMockFileUtils);
+
+    List<Environment> envs = new ArrayList<>();
+    envs.add(mock(Environment.class));
+    envs.add(mock(Environment.class));
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+
+    TestResult result = multiTestRunner.run();
+
+    assertEquals(TestResult.Type.FAILURE, result.getType());
+    assertEquals(Arrays.asList("[FAILURE] FirstTestScript", "[SUCCESS] SecondTestScript"),
+        readSummaryReportLines());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnNonpositiveMaxConcurrentScripts() {
+    Set<TestScript<App<Environment>>> scripts = new HashSet<>();
+    scripts.add(mMockTestScript);
+    new MultiTestRunner<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        true,
+        true,
+        mReportPath,
+        0,
+        mMockFileUtils);
+  }
+
+  @Test
+  public void injectorShouldCreateRunnerWithoutOptionalProperties() {
+    Injector injector = newInjector(new HashMap<String, String>());
+
+    assertNotNull(injector.getInstance(Key.get(
+        new TypeLiteral<MultiTestRunner<Environment, App<Environment>>>() { })));
+  }
+
+  @Test(expected = ProvisionException.class)
+  public void injectorShouldApplyBoundMaxConcurrentScripts() {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(MultiTestRunner.MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME, "0");
+    Injector injector = newInjector(properties);
+
+    injector.getInstance(Key.get(
+        new TypeLiteral<MultiTestRunner<Environment, App<Environment>>>() { }));
+  }
+
+  @Test
+  public void injectorShouldApplyBoundScriptTimeout() throws IOException {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(MultiTestRunner.SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME,
+        Long.toString(SHORT_TIMEOUT_MILLIS));
+    MultiTestRunner<Environment, App<Environment>> multiTestRunner = newInjector(properties)
+        .getInstance(Key.get(
+            new TypeLiteral<MultiTestRunner<Environment, App<Environment>>>() { }));
+    Environment mockEnv = mock(Environment.class);
+    when(mMockEnvironmentFactory.create()).thenReturn(Arrays.asList(mockEnv));
+    when(mMockApplicationFactory.newApp(mockEnv)).thenReturn(mock(App.class));
+    when(mMockTestScript.toString()).thenReturn("TestScript");
+    when(mMockTestScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        Thread.sleep(LONG_TIMEOUT_MILLIS);
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+
+    multiTestRunner.run();
+
+    assertEquals(Arrays.asList("[TIMEOUT] TestScript"), readSummaryReportLines());
+  }
+
+  @Test
+  public void runShouldWriteTimingReport() throws IOException {
+    Collection<Environment> envs = new ArrayList<>();
+    Environment mockEnv = mock(Environment.class);
+    when(mockEnv.getId()).thenReturn(7);
+    envs.add(mockEnv);
+    when(mMockEnvironmentFactory.create()).thenReturn(envs);
+    when(mMockTestScript.toString()).thenReturn("TestScript");
+    when(mMockTestScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+
+    mMultiTestRunner.run();
+
+    Path expectedTimingReportPath = mReportPath.resolve(MultiTestRunner.TIMING_REPORT_FILENAME);
+    ArgumentCaptor<String> contentCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mMockFileUtils).write(eq(expectedTimingReportPath), contentCaptor.capture());
+    List<String> lines = Arrays.asList(contentCaptor.getValue().split("\n"));
+    assertEquals(TimingReport.CSV_HEADER, lines.get(0));
+    List<String> phases = new ArrayList<>();
+    for (String line : lines.subList(1, lines.size())) {
+      String[] columns = line.split(",");
+      phases.add(columns[0]);
+      if (!columns[1].isEmpty()) {
+        assertEquals("TestScript", columns[1]);
+        assertEquals("7", columns[2]);
+      }
+    }
+    assertEquals(Arrays.asList("createEnvironments", "prepare", "newApp", "runScript",
+        "collectOutput", "cleanAll", "destroyEnvironments"), phases);
+  }
+
+  private List<String> readSummaryReportLines() {
+    String content = mReportWriters.get(mReportPath.resolve(MultiTestRunner.REPORT_FILENAME))
+        .toString();
+    return Arrays.asList(content.split("\r?\n"));
+  }
+
+  private Injector newInjector(final Map<String, String> properties) {
+    properties.put(MultiTestRunner.SHOULD_PREPARE_ARGUMENT_NAME, "true");
+    properties.put(MultiTestRunner.SHOULD_CLEAN_ARGUMENT_NAME, "true");
+    return Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        Names.bindProperties(binder(), properties);
+        bind(Path.class).annotatedWith(Names.named(MultiTestRunner.REPORT_PATH_ARGUMENT_NAME))
+            .toInstance(mReportPath);
+        bind(FileUtils.class).toInstance(mMockFileUtils);
+        bind(new TypeLiteral<Set<TestScript<App<Environment>>>>() { })
+            .annotatedWith(Names.named(MultiTestRunner.SCRIPTS_ARGUMENT_NAME))
+            .toInstance(Collections.singleton(mMockTestScript));
+        bind(new TypeLiteral<EnvironmentFactory<Environment>>() { })
+            .toInstance(mMockEnvironmentFactory);
+        bind(new TypeLiteral<EnvironmentPreparator<Environment>>() { })
+            .toInstance(mMockEnvironmentPreparator);
+        bind(new TypeLiteral<ApplicationFactory<Environment, App<Environment>>>() { })
+            .toInstance(mMockApplicationFactory);
+      }
+    });
+  }
 }
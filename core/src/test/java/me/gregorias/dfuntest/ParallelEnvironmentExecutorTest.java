@@ -0,0 +1,237 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.ParallelEnvironmentExecutor.EnvironmentAction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelEnvironmentExecutorTest {
+  @Test
+  public void executeShouldRunActionOnAllEnvironmentsConcurrently() throws InterruptedException {
+    final int envCount = 4;
+    Collection<Environment> envs = newEnvironments(envCount, envCount);
+    final CountDownLatch latch = new CountDownLatch(envCount);
+    final Set<Environment> visitedEnvs = Collections.synchronizedSet(new HashSet<Environment>());
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor(envCount, 1);
+
+    Map<Environment, Exception> failures = executor.execute(envs,
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) throws IOException, InterruptedException {
+            visitedEnvs.add(env);
+            latch.countDown();
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+              throw new IOException("Actions have not run concurrently.");
+            }
+          }
+        });
+
+    assertTrue(failures.isEmpty());
+    assertEquals(new HashSet<>(envs), visitedEnvs);
+  }
+
+  @Test
+  public void executeShouldRespectLimits() throws InterruptedException {
+    final int maxConcurrency = 3;
+    final int maxConcurrencyPerHost = 2;
+    List<Environment> envs = newEnvironments(12, 2);
+    final AtomicInteger runningActionCount = new AtomicInteger(0);
+    final AtomicInteger maxRunningActionCount = new AtomicInteger(0);
+    final AtomicInteger firstHostRunningActionCount = new AtomicInteger(0);
+    final AtomicInteger maxFirstHostRunningActionCount = new AtomicInteger(0);
+    final String firstHost = envs.get(0).getHostname();
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor(maxConcurrency,
+        maxConcurrencyPerHost);
+
+    Map<Environment, Exception> failures = executor.execute(envs,
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) throws InterruptedException {
+            boolean isFirstHost = env.getHostname().equals(firstHost);
+            updateMax(maxRunningActionCount, runningActionCount.incrementAndGet());
+            if (isFirstHost) {
+              updateMax(maxFirstHostRunningActionCount,
+                  firstHostRunningActionCount.incrementAndGet());
+            }
+            Thread.sleep(20);
+            if (isFirstHost) {
+              firstHostRunningActionCount.decrementAndGet();
+            }
+            runningActionCount.decrementAndGet();
+          }
+        });
+
+    assertTrue(failures.isEmpty());
+    assertTrue(maxRunningActionCount.get() <= maxConcurrency);
+    assertTrue(maxFirstHostRunningActionCount.get() <= maxConcurrencyPerHost);
+  }
+
+  @Test
+  public void executeShouldNotApplyHostLimitToLocalEnvironments() throws InterruptedException {
+    final int envCount = 6;
+    List<Environment> envs = new ArrayList<>();
+    for (int envIdx = 0; envIdx < envCount; ++envIdx) {
+      LocalEnvironment env = mock(LocalEnvironment.class);
+      when(env.getId()).thenReturn(envIdx);
+      when(env.getHostname()).thenReturn("localhost");
+      envs.add(env);
+    }
+    final CountDownLatch latch = new CountDownLatch(envCount);
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor(envCount, 1);
+
+    Map<Environment, Exception> failures = executor.execute(envs,
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) throws IOException, InterruptedException {
+            latch.countDown();
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+              throw new IOException("Actions have not run concurrently.");
+            }
+          }
+        });
+
+    assertTrue(failures.isEmpty());
+  }
+
+  @Test
+  public void executeShouldCollectFailuresPerEnvironment() throws InterruptedException {
+    List<Environment> envs = newEnvironments(3, 3);
+    final Environment failingEnv = envs.get(1);
+    final IOException exception = new IOException();
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor();
+
+    Map<Environment, Exception> failures = executor.execute(envs,
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) throws IOException {
+            if (env == failingEnv) {
+              throw exception;
+            }
+          }
+        });
+
+    assertEquals(1, failures.size());
+    assertSame(exception, failures.get(failingEnv));
+  }
+
+  @Test
+  public void executeWithRollbackShouldRollBackAllEnvironmentsOnFailure()
+      throws InterruptedException {
+    List<Environment> envs = newEnvironments(3, 2);
+    final Environment failingEnv = envs.get(2);
+    final Set<Environment> rolledBackEnvs =
+        Collections.synchronizedSet(new HashSet<Environment>());
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor();
+
+    try {
+      executor.executeWithRollback(envs,
+          new EnvironmentAction<Environment>() {
+            @Override
+            public void run(Environment env) throws IOException {
+              if (env == failingEnv) {
+                throw new IOException();
+              }
+            }
+          },
+          new EnvironmentAction<Environment>() {
+            @Override
+            public void run(Environment env) throws IOException {
+              rolledBackEnvs.add(env);
+              throw new IOException("Rollback failures should only be logged.");
+            }
+          });
+      fail();
+    } catch (ParallelExecutionException e) {
+      assertEquals(Collections.singleton(failingEnv), e.getFailures().keySet());
+    }
+    assertEquals(new HashSet<>(envs), rolledBackEnvs);
+  }
+
+  @Test
+  public void executeWithRollbackShouldNotRollBackOnSuccess() throws IOException,
+      InterruptedException {
+    List<Environment> envs = newEnvironments(2, 1);
+    final AtomicInteger rollbackCount = new AtomicInteger(0);
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor();
+
+    executor.executeWithRollback(envs,
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) {
+          }
+        },
+        new EnvironmentAction<Environment>() {
+          @Override
+          public void run(Environment env) {
+            rollbackCount.incrementAndGet();
+          }
+        });
+
+    assertEquals(0, rollbackCount.get());
+  }
+
+  @Test
+  public void executeShouldRecordDurationPerEnvironmentInCurrentPhase()
+      throws InterruptedException {
+    List<Environment> envs = newEnvironments(2, 1);
+    TimingReport timingReport = new TimingReport();
+    ParallelEnvironmentExecutor executor = new ParallelEnvironmentExecutor();
+
+    TimingReport.PhaseTimer timer = timingReport.startPhase("prepare", "A", envs);
+    executor.execute(envs, new EnvironmentAction<Environment>() {
+      @Override
+      public void run(Environment env) {
+      }
+    });
+    timer.stop();
+
+    List<String> phases = new ArrayList<>();
+    for (String line : timingReport.toCsvLines().subList(1, 4)) {
+      phases.add(line.split(",")[0]);
+    }
+    Collections.sort(phases);
+    assertEquals(Arrays.asList("prepare", "preparePerEnvironment", "preparePerEnvironment"),
+        phases);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnNonpositiveLimit() {
+    new ParallelEnvironmentExecutor(1, 0);
+  }
+
+  private static List<Environment> newEnvironments(int envCount, int hostCount) {
+    List<Environment> envs = new ArrayList<>();
+    for (int envIdx = 0; envIdx < envCount; ++envIdx) {
+      Environment env = mock(Environment.class);
+      when(env.getId()).thenReturn(envIdx);
+      when(env.getHostname()).thenReturn("host" + (envIdx % hostCount));
+      envs.add(env);
+    }
+    return envs;
+  }
+
+  private static void updateMax(AtomicInteger max, int value) {
+    int currentMax;
+    do {
+      currentMax = max.get();
+    } while (value > currentMax && !max.compareAndSet(currentMax, value));
+  }
+}
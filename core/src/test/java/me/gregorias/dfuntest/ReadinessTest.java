@@ -0,0 +1,161 @@
+package me.gregorias.dfuntest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReadinessTest {
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  @Test
+  public void awaitAllShouldReturnOnceAllProbesAreReady() throws InterruptedException,
+      TimeoutException {
+    List<CountingProbe> probes = new ArrayList<>();
+    probes.add(new CountingProbe(1));
+    probes.add(new CountingProbe(3));
+
+    Readiness.awaitAll(probes, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, 1, 1);
+
+    assertEquals(1, probes.get(0).mCheckCount.get());
+    assertEquals(3, probes.get(1).mCheckCount.get());
+  }
+
+  @Test
+  public void awaitAllShouldTreatExceptionsAsNotReady() throws InterruptedException,
+      TimeoutException {
+    final AtomicInteger checkCount = new AtomicInteger(0);
+    ReadinessProbe probe = new ReadinessProbe() {
+      @Override
+      public boolean isReady() throws IOException {
+        if (checkCount.incrementAndGet() == 1) {
+          throw new IOException("Connection refused.");
+        }
+        return true;
+      }
+    };
+
+    Readiness.awaitAll(Collections.singleton(probe), TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, 1,
+        1);
+
+    assertEquals(2, checkCount.get());
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void awaitAllShouldThrowExceptionOnDeadline() throws InterruptedException,
+      TimeoutException {
+    Readiness.awaitAll(Collections.singleton(new CountingProbe(Integer.MAX_VALUE)), 20,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void awaitAllShouldNotPollProbesAfterDeadline() throws InterruptedException {
+    ReadinessProbe slowProbe = new ReadinessProbe() {
+      @Override
+      public boolean isReady() throws InterruptedException {
+        Thread.sleep(50);
+        return false;
+      }
+    };
+    CountingProbe nextProbe = new CountingProbe(Integer.MAX_VALUE);
+    List<ReadinessProbe> probes = new ArrayList<>();
+    probes.add(slowProbe);
+    probes.add(nextProbe);
+
+    try {
+      Readiness.awaitAll(probes, 20, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      assertEquals(0, nextProbe.mCheckCount.get());
+      return;
+    }
+    fail("Expected TimeoutException.");
+  }
+
+  @Test
+  public void boundTimeoutMillisShouldReturnMaximumOutsideOfAwaitAll() {
+    assertEquals(1000, Readiness.boundTimeoutMillis(1000));
+  }
+
+  @Test
+  public void boundTimeoutMillisShouldBeBoundedByDeadlineOfAwaitAll()
+      throws InterruptedException, TimeoutException {
+    final AtomicInteger boundTimeoutMillis = new AtomicInteger(0);
+    ReadinessProbe probe = new ReadinessProbe() {
+      @Override
+      public boolean isReady() {
+        boundTimeoutMillis.set(Readiness.boundTimeoutMillis(Integer.MAX_VALUE));
+        return true;
+      }
+    };
+
+    Readiness.awaitAll(Collections.singleton(probe), TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+    assertTrue(boundTimeoutMillis.get() > 0);
+    assertTrue(boundTimeoutMillis.get() <= TIMEOUT_MILLIS);
+    assertEquals(1000, Readiness.boundTimeoutMillis(1000));
+  }
+
+  @Test
+  public void socketReadinessProbeShouldBeReadyWhenPortIsOpen() throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+          serverSocket.getLocalPort());
+      assertTrue(new SocketReadinessProbe(address).isReady());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void socketReadinessProbeShouldThrowExceptionWhenPortIsClosed() throws IOException {
+    InetSocketAddress address;
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+          serverSocket.getLocalPort());
+    }
+    new SocketReadinessProbe(address).isReady();
+  }
+
+  @Test
+  public void logLineReadinessProbeShouldBeReadyIffGrepFindsLine() throws IOException,
+      InterruptedException {
+    Environment env = mock(Environment.class);
+    RemoteProcess foundProcess = mock(RemoteProcess.class);
+    when(foundProcess.waitFor()).thenReturn(0);
+    RemoteProcess notFoundProcess = mock(RemoteProcess.class);
+    when(notFoundProcess.waitFor()).thenReturn(1);
+    when(env.runCommand(anyListOf(String.class))).thenReturn(notFoundProcess, foundProcess);
+    ReadinessProbe probe = new LogLineReadinessProbe(env, "app.log", "Started");
+
+    assertFalse(probe.isReady());
+    assertTrue(probe.isReady());
+  }
+
+  private static class CountingProbe implements ReadinessProbe {
+    private final int mReadyCheckCount;
+    private final AtomicInteger mCheckCount = new AtomicInteger(0);
+
+    public CountingProbe(int readyCheckCount) {
+      mReadyCheckCount = readyCheckCount;
+    }
+
+    @Override
+    public boolean isReady() {
+      return mCheckCount.incrementAndGet() >= mReadyCheckCount;
+    }
+  }
+}
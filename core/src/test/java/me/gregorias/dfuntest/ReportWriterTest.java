@@ -0,0 +1,153 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReportWriterTest {
+  private static final String SCRIPT_NAME = "script";
+  private final Path mReportPath = FileSystems.getDefault().getPath("report");
+  private final FileUtils mMockFileUtils = mock(FileUtils.class);
+  private final Map<Path, StringWriter> mWriters = new HashMap<>();
+  private final Collection<Environment> mEnvs = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    when(mMockFileUtils.newBufferedWriter(any(Path.class))).thenAnswer(new Answer<Writer>() {
+      @Override
+      public Writer answer(InvocationOnMock invocation) {
+        StringWriter writer = new StringWriter();
+        mWriters.put((Path) invocation.getArguments()[0], writer);
+        return writer;
+      }
+    });
+    Environment env = mock(Environment.class);
+    when(env.getId()).thenReturn(3);
+    when(env.getHostname()).thenReturn("host\"3");
+    mEnvs.add(env);
+  }
+
+  @Test
+  public void writeResultShouldWriteSummaryLine() throws IOException {
+    try (ReportWriter reportWriter = new ReportWriter(mReportPath, mMockFileUtils)) {
+      reportWriter.writeResult(SCRIPT_NAME, new TestResult(TestResult.Type.SUCCESS, "ok"), 0,
+          mEnvs);
+    }
+
+    verify(mMockFileUtils).createDirectories(mReportPath);
+    assertEquals(String.format("[SUCCESS] %s%n", SCRIPT_NAME),
+        getContent(ReportWriter.SUMMARY_REPORT_FILENAME));
+  }
+
+  @Test
+  public void writeResultShouldWriteEscapedJsonLine() throws IOException {
+    TestResult result = new TestResult(TestResult.Type.FAILURE, "line\n\"quoted\"\\",
+        Collections.singletonMap("log", "content"));
+    try (ReportWriter reportWriter = new ReportWriter(mReportPath, mMockFileUtils)) {
+      reportWriter.writeResult(SCRIPT_NAME, result, 1500, mEnvs);
+    }
+
+    assertEquals(String.format("{\"script\":\"script\",\"result\":\"FAILURE\","
+        + "\"description\":\"line\\n\\\"quoted\\\"\\\\\",\"durationMillis\":1500,"
+        + "\"environments\":[{\"id\":3,\"hostname\":\"host\\\"3\"}],\"artifacts\":[\"log\"]}%n"),
+        getContent(ReportWriter.JSON_REPORT_FILENAME));
+  }
+
+  @Test
+  public void writeResultShouldWriteOneJUnitSuitePerScript() throws IOException {
+    try (ReportWriter reportWriter = new ReportWriter(mReportPath, mMockFileUtils)) {
+      reportWriter.writeResult(SCRIPT_NAME, new TestResult(TestResult.Type.SUCCESS, "ok"), 1500,
+          Collections.<Environment>emptyList());
+      reportWriter.writeResult(SCRIPT_NAME, new TestResult(TestResult.Type.FAILURE, "a<b"), 0,
+          mEnvs);
+      reportWriter.writeResult(SCRIPT_NAME, new TestResult(TestResult.Type.TIMEOUT, "hung"), 0,
+          mEnvs);
+    }
+
+    String content = getContent(ReportWriter.JUNIT_REPORT_FILENAME);
+    assertTrue(content.startsWith("<?xml"));
+    assertTrue(content.trim().endsWith("</testsuites>"));
+    assertEquals(3, countOccurrences(content, "<testsuite "));
+    assertTrue(content.contains("tests=\"1\" failures=\"0\" errors=\"0\" skipped=\"0\""
+        + " time=\"1.500\""));
+    assertTrue(content.contains("tests=\"1\" failures=\"1\" errors=\"0\""));
+    assertTrue(content.contains("tests=\"1\" failures=\"0\" errors=\"1\""));
+    assertTrue(content.contains("<failure message=\"a&lt;b\"/>"));
+    assertTrue(content.contains("<error type=\"timeout\" message=\"hung\"/>"));
+    assertTrue(content.contains("<property name=\"environment.3\" value=\"host&quot;3\"/>"));
+  }
+
+  @Test
+  public void writeResultShouldReplaceCharactersIllegalInXml() throws IOException {
+    TestResult result = new TestResult(TestResult.Type.FAILURE, "a\u0000b\u001bc\td\re");
+    try (ReportWriter reportWriter = new ReportWriter(mReportPath, mMockFileUtils)) {
+      reportWriter.writeResult(SCRIPT_NAME, result, 0, mEnvs);
+    }
+
+    String content = getContent(ReportWriter.JUNIT_REPORT_FILENAME);
+    assertTrue(content.contains("<failure message=\"a&#65533;b&#65533;c&#9;d&#13;e\"/>"));
+  }
+
+  @Test
+  public void constructorShouldCloseOpenedFilesOnFailure() throws IOException {
+    Path jsonReportPath = mReportPath.resolve(ReportWriter.JSON_REPORT_FILENAME);
+    ClosingTrackingWriter summaryWriter = new ClosingTrackingWriter();
+    when(mMockFileUtils.newBufferedWriter(eq(mReportPath.resolve(
+        ReportWriter.SUMMARY_REPORT_FILENAME)))).thenReturn(summaryWriter);
+    doThrow(IOException.class).when(mMockFileUtils).newBufferedWriter(eq(jsonReportPath));
+
+    try {
+      new ReportWriter(mReportPath, mMockFileUtils).close();
+      fail("Opening report should have failed.");
+    } catch (IOException e) {
+      assertTrue(summaryWriter.mIsClosed);
+    }
+  }
+
+  private static class ClosingTrackingWriter extends StringWriter {
+    private boolean mIsClosed = false;
+
+    @Override
+    public void close() throws IOException {
+      mIsClosed = true;
+      super.close();
+    }
+  }
+
+  private String getContent(String filename) {
+    return mWriters.get(mReportPath.resolve(filename)).toString();
+  }
+
+  private static int countOccurrences(String content, String pattern) {
+    int count = 0;
+    int index = content.indexOf(pattern);
+    while (index != -1) {
+      ++count;
+      index = content.indexOf(pattern, index + pattern.length());
+    }
+    return count;
+  }
+}
@@ -82,8 +82,9 @@ public class SSHEnvironmentFactoryTest {
 
     List<String> expectedCommand = new ArrayList<>();
     expectedCommand.add("rmdir");
-    expectedCommand.add(mRemoteDir);
+    expectedCommand.add("'" + mRemoteDir + "'");
     verify(sshEnvironment).runCommand(eq(expectedCommand), eq("."));
+    verify(sshEnvironment).close();
   }
 
   @Test
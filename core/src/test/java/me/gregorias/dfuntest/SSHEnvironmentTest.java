@@ -1,15 +1,20 @@
 package me.gregorias.dfuntest;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import me.gregorias.dfuntest.util.FileManifest;
 import me.gregorias.dfuntest.util.FileUtils;
 import me.gregorias.dfuntest.util.SSHClientFactory;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.connection.ConnectionException;
+import net.schmizz.sshj.connection.channel.OpenFailException;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.connection.channel.direct.Session.Command;
+import net.schmizz.sshj.connection.channel.direct.Signal;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.xfer.LocalDestFile;
 import net.schmizz.sshj.xfer.LocalSourceFile;
 import net.schmizz.sshj.xfer.scp.SCPFileTransfer;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
@@ -17,27 +22,41 @@ import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -87,6 +106,165 @@ public class SSHEnvironmentTest {
     verify(mockSCPFileTransfer).upload(any(LocalSourceFile.class), eq(expectedDestination));
   }
 
+  @Test
+  public void copyFilesFromLocalDiskShouldStreamDirectoryThroughRemoteTar() throws IOException {
+    SFTPClient mockSFTP = mock(SFTPClient.class);
+    when(mMockSSHClient.newSFTPClient()).thenReturn(mockSFTP);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockProbeCommand = mock(Command.class);
+    when(mockProbeCommand.getExitStatus()).thenReturn(0);
+    when(mockSession.exec(contains("command -v tar"))).thenReturn(mockProbeCommand);
+    Command mockTarCommand = mock(Command.class);
+    ByteArrayOutputStream tarStream = new ByteArrayOutputStream();
+    when(mockTarCommand.getOutputStream()).thenReturn(tarStream);
+    when(mockTarCommand.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+    when(mockTarCommand.getExitStatus()).thenReturn(0);
+    when(mockSession.exec(startsWith("tar -xf -"))).thenReturn(mockTarCommand);
+
+    Path from = Files.createTempDirectory("dfuntest");
+    try {
+      Files.write(from.resolve("file"), new byte[] {1, 2, 3});
+      when(mMockFileUtils.isDirectory(eq(from))).thenReturn(true);
+      String to = "foo";
+
+      mSSHEnv.copyFilesFromLocalDisk(from, to);
+
+      String expectedDestination = FilenameUtils.concat(REMOTE_HOME_PATH, to);
+      verify(mockSession).exec(eq("tar -xf - -C '" + expectedDestination + "'"));
+      verify(mMockSSHClient, never()).newSCPFileTransfer();
+      TarArchiveInputStream tarInputStream = new TarArchiveInputStream(
+          new ByteArrayInputStream(tarStream.toByteArray()));
+      assertEquals(from.getFileName() + "/", tarInputStream.getNextTarEntry().getName());
+      assertEquals(from.getFileName() + "/file", tarInputStream.getNextTarEntry().getName());
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(from.toFile());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void copyFilesFromLocalDiskShouldReadTarErrorsWhileWritingArchive()
+      throws IOException {
+    SFTPClient mockSFTP = mock(SFTPClient.class);
+    when(mMockSSHClient.newSFTPClient()).thenReturn(mockSFTP);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockProbeCommand = mock(Command.class);
+    when(mockProbeCommand.getExitStatus()).thenReturn(0);
+    when(mockSession.exec(contains("command -v tar"))).thenReturn(mockProbeCommand);
+    Command mockTarCommand = mock(Command.class);
+    // Remote tar which does not consume its input until its error output has been read.
+    final CountDownLatch errorReadLatch = new CountDownLatch(1);
+    when(mockTarCommand.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]) {
+      @Override
+      public synchronized int read(byte[] buffer, int offset, int length) {
+        errorReadLatch.countDown();
+        return super.read(buffer, offset, length);
+      }
+    });
+    when(mockTarCommand.getOutputStream()).thenReturn(new OutputStream() {
+      @Override
+      public void write(int oneByte) throws IOException {
+        try {
+          errorReadLatch.await();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+    });
+    when(mockTarCommand.getExitStatus()).thenReturn(0);
+    when(mockSession.exec(startsWith("tar -xf -"))).thenReturn(mockTarCommand);
+
+    Path from = Files.createTempDirectory("dfuntest");
+    try {
+      Files.write(from.resolve("file"), new byte[] {1, 2, 3});
+      when(mMockFileUtils.isDirectory(eq(from))).thenReturn(true);
+
+      mSSHEnv.copyFilesFromLocalDisk(from, "foo");
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(from.toFile());
+    }
+  }
+
+  @Test
+  public void copyFilesFromLocalDiskShouldFallBackToSCPWhenTarIsMissing() throws IOException {
+    SCPFileTransfer mockSCPFileTransfer = mock(SCPFileTransfer.class);
+    when(mMockSSHClient.newSCPFileTransfer()).thenReturn(mockSCPFileTransfer);
+    SFTPClient mockSFTP = mock(SFTPClient.class);
+    when(mMockSSHClient.newSFTPClient()).thenReturn(mockSFTP);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockProbeCommand = mock(Command.class);
+    when(mockProbeCommand.getExitStatus()).thenReturn(1);
+    when(mockSession.exec(contains("command -v tar"))).thenReturn(mockProbeCommand);
+
+    Path from = FileSystems.getDefault().getPath(".");
+    when(mMockFileUtils.isDirectory(eq(from))).thenReturn(true);
+    String to = "foo";
+
+    mSSHEnv.copyFilesFromLocalDisk(from, to);
+
+    String expectedDestination = FilenameUtils.concat(REMOTE_HOME_PATH, to);
+    verify(mockSCPFileTransfer).upload(any(LocalSourceFile.class), eq(expectedDestination));
+    verify(mockSession, never()).exec(startsWith("tar"));
+  }
+
+  @Test
+  public void syncFilesFromLocalDiskShouldUploadOnlyChangedFiles() throws IOException {
+    SFTPClient mockSFTP = mock(SFTPClient.class);
+    when(mMockSSHClient.newSFTPClient()).thenReturn(mockSFTP);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+
+    Path from = Files.createTempDirectory("dfuntest");
+    try {
+      Files.write(from.resolve("a.jar"), new byte[] {1, 2, 3});
+      Files.write(from.resolve("b.jar"), new byte[] {4, 5});
+      String cachedManifest = StringUtils.join(FileManifest.fromDirectory(from).toLines(), '\n');
+      Files.write(from.resolve("b.jar"), new byte[] {5, 4});
+      when(mMockFileUtils.isDirectory(eq(from))).thenReturn(true);
+      String to = "foo";
+      String remoteDir = FilenameUtils.concat(REMOTE_HOME_PATH, to);
+      String remoteManifest = remoteDir + "/" + from.getFileName() + "/"
+          + FileManifest.MANIFEST_FILE_NAME;
+
+      Command mockReadCommand = mock(Command.class);
+      when(mockReadCommand.getInputStream()).thenReturn(
+          new ByteArrayInputStream(cachedManifest.getBytes(StandardCharsets.UTF_8)));
+      when(mockReadCommand.getExitStatus()).thenReturn(0);
+      when(mockSession.exec(eq("cat '" + remoteManifest + "'"))).thenReturn(mockReadCommand);
+      Command mockProbeCommand = mock(Command.class);
+      when(mockProbeCommand.getExitStatus()).thenReturn(0);
+      when(mockSession.exec(contains("command -v tar"))).thenReturn(mockProbeCommand);
+      Command mockTarCommand = mock(Command.class);
+      ByteArrayOutputStream tarStream = new ByteArrayOutputStream();
+      when(mockTarCommand.getOutputStream()).thenReturn(tarStream);
+      when(mockTarCommand.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+      when(mockTarCommand.getExitStatus()).thenReturn(0);
+      when(mockSession.exec(eq("tar -xf - -C '" + remoteDir + "'"))).thenReturn(mockTarCommand);
+      Command mockWriteCommand = mock(Command.class);
+      ByteArrayOutputStream manifestStream = new ByteArrayOutputStream();
+      when(mockWriteCommand.getOutputStream()).thenReturn(manifestStream);
+      when(mockWriteCommand.getExitStatus()).thenReturn(0);
+      when(mockSession.exec(eq("cat > '" + remoteManifest + "'"))).thenReturn(mockWriteCommand);
+
+      SyncResult result = mSSHEnv.syncFilesFromLocalDisk(from, to);
+
+      assertEquals(1, result.getTransferredFileCount());
+      assertEquals(2, result.getTransferredByteCount());
+      assertEquals(1, result.getSkippedFileCount());
+      assertEquals(3, result.getSkippedByteCount());
+      TarArchiveInputStream tarInputStream = new TarArchiveInputStream(
+          new ByteArrayInputStream(tarStream.toByteArray()));
+      assertEquals(from.getFileName() + "/b.jar", tarInputStream.getNextTarEntry().getName());
+      assertNull(tarInputStream.getNextTarEntry());
+      assertEquals(StringUtils.join(FileManifest.fromDirectory(from).toLines(), '\n'),
+          new String(manifestStream.toByteArray(), StandardCharsets.UTF_8));
+    } finally {
+      org.apache.commons.io.FileUtils.deleteDirectory(from.toFile());
+    }
+  }
+
   @Test(expected = IOException.class)
   public void copyFilesShouldThrowExceptionWhenSCPFails() throws IOException {
     SCPFileTransfer mockSCPFileTransfer = mock(SCPFileTransfer.class);
@@ -214,6 +392,40 @@ public class SSHEnvironmentTest {
     verify(mockSession).exec(contains(file));
   }
 
+  @Test
+  public void removeFileShouldQuotePathForRemoteShell() throws IOException, InterruptedException {
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+
+    mSSHEnv.removeFile("it's a file; true");
+    verify(mockSession).exec(eq("cd '" + REMOTE_HOME_PATH + "';rm -rf 'it'\\''s a file; true'"));
+  }
+
+  @Test
+  public void commandsShouldResolveTildeOfRemoteHomePath()
+      throws IOException, InterruptedException {
+    SSHClientFactory mockSSHClientFactory = mock(SSHClientFactory.class);
+    when(mockSSHClientFactory.newSSHClient()).thenReturn(mMockSSHClient);
+    SSHEnvironment sshEnv = new SSHEnvironment(ID,
+        USERNAME,
+        PRIVATE_KEY_PATH,
+        REMOTE_ADDRESS,
+        "~/" + REMOTE_HOME_PATH,
+        EXECUTOR,
+        mockSSHClientFactory,
+        mMockFileUtils);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+
+    sshEnv.removeFile("foo");
+    assertEquals(REMOTE_HOME_PATH, sshEnv.getRemoteHomePath());
+    verify(mockSession).exec(eq("cd '" + REMOTE_HOME_PATH + "';rm -rf 'foo'"));
+  }
+
   @Test(expected = IOException.class)
   public void removeFileShouldFailOnRMCommandFail() throws IOException, InterruptedException {
     Session mockSession = mock(Session.class);
@@ -296,6 +508,26 @@ public class SSHEnvironmentTest {
     verify(mMockSSHClient).authPublickey(eq(USERNAME), eq(PRIVATE_KEY_PATH.toString()));
   }
 
+  @Test
+  public void runCommandShouldReuseLiveConnection() throws IOException, InterruptedException {
+    when(mMockSSHClient.isConnected()).thenReturn(true);
+    when(mMockSSHClient.isAuthenticated()).thenReturn(true);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+    List<String> command = new ArrayList<>();
+    command.add("echo");
+    command.add("hello");
+    mSSHEnv.runCommand(command);
+    mSSHEnv.runCommand(command);
+    verify(mMockSSHClient, times(1)).connect(eq(REMOTE_ADDRESS));
+    verify(mMockSSHClient, never()).disconnect();
+
+    mSSHEnv.close();
+    verify(mMockSSHClient).disconnect();
+  }
+
   @Test
   public void runCommandShouldRunCommandWithProperArgumentsAndWaitForIt()
       throws IOException, InterruptedException {
@@ -384,6 +616,66 @@ public class SSHEnvironmentTest {
     verify(mMockSSHClient).disconnect();
   }
 
+  @Test
+  public void runCommandAsyncShouldFinishCommandOnceItsChannelCloses()
+      throws ExecutionException, IOException, InterruptedException {
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+    when(mockCommand.isOpen()).thenReturn(true, true, false);
+    when(mockCommand.getExitStatus()).thenReturn(5);
+    List<String> command = new ArrayList<>();
+    command.add("echo");
+    command.add("hello");
+
+    ListenableFuture<RemoteProcess> processFuture = mSSHEnv.runCommandAsync(command);
+
+    RemoteProcess process = processFuture.get();
+    assertEquals(5, (int) mSSHEnv.onExit(process).get());
+    assertEquals(5, process.waitFor());
+    verify(mockSession).exec(contains(StringUtils.join(command, " ")));
+    verify(mockCommand).close();
+    verify(mockSession).close();
+  }
+
+  @Test
+  public void runCommandAsynchronouslyShouldNotOccupyExecutorWhileCommandRuns()
+      throws ExecutionException, IOException, InterruptedException, TimeoutException {
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    final AtomicBoolean isRunningCommandOpen = new AtomicBoolean(true);
+    Command runningCommand = mock(Command.class);
+    doAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) {
+        return isRunningCommandOpen.get();
+      }
+    }).when(runningCommand).isOpen();
+    Command finishedCommand = mock(Command.class);
+    when(finishedCommand.getExitStatus()).thenReturn(3);
+    when(mockSession.exec(anyString())).thenReturn(runningCommand, finishedCommand);
+    List<String> command = new ArrayList<>();
+    command.add("sleep");
+    command.add("1000");
+
+    RemoteProcess runningProcess = mSSHEnv.runCommandAsynchronously(command);
+    RemoteProcess finishedProcess = mSSHEnv.runCommandAsynchronously(command);
+
+    try {
+      assertEquals(3, (int) mSSHEnv.onExit(finishedProcess).get(10, TimeUnit.SECONDS));
+      verify(runningCommand, never()).join();
+    } finally {
+      isRunningCommandOpen.set(false);
+    }
+    assertEquals(0, (int) mSSHEnv.onExit(runningProcess).get(10, TimeUnit.SECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void onExitShouldThrowExceptionOnForeignProcess() {
+    mSSHEnv.onExit(mock(RemoteProcess.class));
+  }
+
   @Test
   public void runCommandAsynchronouslyShouldStillWorkOnSessionCloseFailure()
       throws IOException, InterruptedException {
@@ -463,6 +755,81 @@ public class SSHEnvironmentTest {
     process.waitFor();
   }
 
+  @Test
+  public void runCommandAsynchronouslyShouldShareConnectionBetweenCommands()
+      throws IOException, InterruptedException {
+    when(mMockSSHClient.isConnected()).thenReturn(true);
+    when(mMockSSHClient.isAuthenticated()).thenReturn(true);
+    Session firstMockSession = mock(Session.class);
+    Session secondMockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(firstMockSession, secondMockSession);
+    Command firstMockCommand = mock(Command.class);
+    Command secondMockCommand = mock(Command.class);
+    when(firstMockSession.exec(anyString())).thenReturn(firstMockCommand);
+    when(secondMockSession.exec(anyString())).thenReturn(secondMockCommand);
+    BlockingQueue<Object> joinAnswers = new LinkedBlockingQueue<>();
+    doAnswer(new BlockingAnswer(joinAnswers)).when(firstMockCommand).join();
+    doAnswer(new BlockingAnswer(joinAnswers)).when(secondMockCommand).join();
+    List<String> command = new ArrayList<>();
+    command.add("sleep");
+    command.add("1");
+
+    RemoteProcess firstProcess = mSSHEnv.runCommandAsynchronously(command);
+    RemoteProcess secondProcess = mSSHEnv.runCommandAsynchronously(command);
+    verify(mMockSSHClient, times(1)).connect(any(InetAddress.class));
+    verify(mMockSSHClient, times(2)).startSession();
+
+    joinAnswers.add(0);
+    joinAnswers.add(0);
+    firstProcess.waitFor();
+    secondProcess.waitFor();
+    verify(mMockSSHClient, never()).disconnect();
+  }
+
+  @Test
+  public void runCommandAsynchronouslyShouldRetryOnRefusedSession()
+      throws IOException, InterruptedException {
+    when(mMockSSHClient.isConnected()).thenReturn(true);
+    when(mMockSSHClient.isAuthenticated()).thenReturn(true);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession())
+        .thenThrow(new OpenFailException("session", 1, "refused"))
+        .thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+    List<String> command = new ArrayList<>();
+    command.add("echo");
+    command.add("hello");
+
+    mSSHEnv.runCommand(command);
+    verify(mMockSSHClient, times(2)).startSession();
+    verify(mockSession).exec(contains(StringUtils.join(command, " ")));
+  }
+
+  @Test
+  public void destroyShouldKillCommandWithoutDisconnectingSharedConnection()
+      throws IOException, InterruptedException {
+    when(mMockSSHClient.isConnected()).thenReturn(true);
+    when(mMockSSHClient.isAuthenticated()).thenReturn(true);
+    Session mockSession = mock(Session.class);
+    when(mMockSSHClient.startSession()).thenReturn(mockSession);
+    Command mockCommand = mock(Command.class);
+    when(mockSession.exec(anyString())).thenReturn(mockCommand);
+    BlockingQueue<Object> joinAnswers = new LinkedBlockingQueue<>();
+    doAnswer(new BlockingAnswer(joinAnswers)).when(mockCommand).join();
+    List<String> command = new ArrayList<>();
+    command.add("sleep");
+    command.add("100");
+
+    RemoteProcess process = mSSHEnv.runCommandAsynchronously(command);
+    process.destroy();
+    verify(mockCommand).signal(eq(Signal.KILL));
+    verify(mockCommand).close();
+    verify(mMockSSHClient, never()).disconnect();
+    joinAnswers.add(0);
+    process.waitFor();
+  }
+
   @Test(expected = ConnectionException.class)
   public void runCommandAsynchronouslyShouldThrowExceptionOnExecFailAndDisconnectSSHClient()
       throws IOException, InterruptedException {
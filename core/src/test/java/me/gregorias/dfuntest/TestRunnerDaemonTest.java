@@ -0,0 +1,254 @@
+package me.gregorias.dfuntest;
+
+import me.gregorias.dfuntest.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class TestRunnerDaemonTest {
+  private static final String FIRST_SCRIPT_NAME = "first";
+  private static final String SECOND_SCRIPT_NAME = "second";
+  private final TestScript<App<Environment>> mMockFirstScript = mock(TestScript.class);
+  private final TestScript<App<Environment>> mMockSecondScript = mock(TestScript.class);
+  private final EnvironmentFactory<Environment> mMockEnvironmentFactory =
+      mock(EnvironmentFactory.class);
+  private final EnvironmentPreparator<Environment> mMockEnvironmentPreparator =
+      mock(EnvironmentPreparator.class);
+  private final ApplicationFactory<Environment, App<Environment>> mMockApplicationFactory =
+      mock(ApplicationFactory.class);
+  private final FileUtils mMockFileUtils = mock(FileUtils.class);
+  private final Path mReportPath = FileSystems.getDefault().getPath("reportDir");
+  private final Collection<Environment> mEnvs = new ArrayList<>();
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private TestRunnerDaemon<Environment, App<Environment>> mDaemon;
+
+  @Before
+  public void setUp() throws IOException {
+    mEnvs.add(mock(Environment.class));
+    when(mMockFileUtils.newBufferedWriter(any(Path.class))).thenAnswer(new Answer<Writer>() {
+      @Override
+      public Writer answer(InvocationOnMock invocation) {
+        return new StringWriter();
+      }
+    });
+    when(mMockEnvironmentFactory.create()).thenReturn(mEnvs);
+    when(mMockFirstScript.toString()).thenReturn(FIRST_SCRIPT_NAME);
+    when(mMockFirstScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.SUCCESS, "Success"));
+    when(mMockSecondScript.toString()).thenReturn(SECOND_SCRIPT_NAME);
+    when(mMockSecondScript.run(anyCollection())).thenReturn(
+        new TestResult(TestResult.Type.FAILURE, "Failure"));
+    Set<TestScript<App<Environment>>> scripts = new LinkedHashSet<>();
+    scripts.add(mMockFirstScript);
+    scripts.add(mMockSecondScript);
+    mDaemon = new TestRunnerDaemon<>(scripts,
+        mMockEnvironmentFactory,
+        mMockEnvironmentPreparator,
+        mMockApplicationFactory,
+        mReportPath,
+        MultiTestRunner.DEFAULT_MAX_CONCURRENT_SCRIPTS,
+        MultiTestRunner.DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+        0,
+        mMockFileUtils);
+  }
+
+  @After
+  public void tearDown() {
+    mDaemon.shutDown();
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void runShouldKeepEnvironmentsBetweenRuns() throws IOException {
+    TestResult firstResult = mDaemon.run(Collections.singleton(FIRST_SCRIPT_NAME), false);
+    TestResult secondResult = mDaemon.run(Collections.<String>emptyList(), true);
+
+    assertEquals(TestResult.Type.SUCCESS, firstResult.getType());
+    assertEquals(TestResult.Type.FAILURE, secondResult.getType());
+    verify(mMockEnvironmentFactory).create();
+    verify(mMockEnvironmentFactory, never()).destroy(anyCollection());
+    verify(mMockEnvironmentPreparator, times(2)).prepare(anyCollection());
+    verify(mMockEnvironmentPreparator, never()).cleanAll(anyCollection());
+    verify(mMockFirstScript, times(2)).run(anyCollection());
+    verify(mMockSecondScript).run(anyCollection());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void runShouldThrowExceptionOnUnknownScript() {
+    mDaemon.run(Collections.singleton("unknown"), true);
+  }
+
+  @Test
+  public void daemonShouldRunSubmittedScriptsAndShutDown() throws Exception {
+    mDaemon.start();
+    Future<Void> serveFuture = mExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        mDaemon.serve();
+        return null;
+      }
+    });
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), mDaemon.getPort())) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+          StandardCharsets.UTF_8));
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+          StandardCharsets.UTF_8), true);
+
+      writer.println(TestRunnerDaemon.LIST_REQUEST);
+      assertEquals(FIRST_SCRIPT_NAME, reader.readLine());
+      assertEquals(SECOND_SCRIPT_NAME, reader.readLine());
+      assertEquals(TestRunnerDaemon.END_RESPONSE, reader.readLine());
+
+      writer.println(TestRunnerDaemon.RUN_REQUEST + " " + FIRST_SCRIPT_NAME);
+      assertEquals("SUCCESS " + mReportPath.resolve("run-0") + " TestRunner has run all tests"
+          + " successfully.", reader.readLine());
+
+      writer.println(TestRunnerDaemon.RERUN_REQUEST + " " + SECOND_SCRIPT_NAME);
+      assertTrue(reader.readLine().startsWith("FAILURE " + mReportPath.resolve("run-1")));
+
+      writer.println(TestRunnerDaemon.RUN_REQUEST + " unknown");
+      assertTrue(reader.readLine().startsWith(TestRunnerDaemon.ERROR_RESPONSE));
+
+      writer.println(TestRunnerDaemon.SHUTDOWN_REQUEST);
+      assertEquals(TestRunnerDaemon.OK_RESPONSE, reader.readLine());
+    }
+
+    serveFuture.get(10, TimeUnit.SECONDS);
+    verify(mMockEnvironmentFactory).create();
+    verify(mMockEnvironmentPreparator).prepare(anyCollection());
+    verify(mMockEnvironmentPreparator).restore(anyCollection());
+    verify(mMockEnvironmentFactory).destroy(mEnvs);
+  }
+
+  @Test
+  public void runShouldSynchronizeSourceFilesChangedSinceLastRun() throws IOException {
+    final Path srcPath = Files.createTempDirectory("dfuntest").resolve("lib");
+    Files.createDirectories(srcPath);
+    Path srcFilePath = srcPath.resolve("a.txt");
+    Files.write(srcFilePath, "first".getBytes(StandardCharsets.UTF_8));
+    final List<String> deployedContents = new ArrayList<>();
+    EnvironmentPreparator<Environment> preparator = mock(EnvironmentPreparator.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws IOException {
+        for (Environment env : (Collection<Environment>) invocation.getArguments()[0]) {
+          env.syncFilesFromLocalDisk(srcPath, ".");
+        }
+        return null;
+      }
+    }).when(preparator).prepare(anyCollection());
+    final Path localCopyPath = srcPath.resolveSibling("copy");
+    when(mMockFirstScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws IOException {
+        for (App<Environment> app : (Collection<App<Environment>>) invocation.getArguments()[0]) {
+          app.getEnvironment().copyFilesToLocalDisk("lib/a.txt", localCopyPath);
+          deployedContents.add(new String(Files.readAllBytes(localCopyPath.resolve("a.txt")),
+              StandardCharsets.UTF_8));
+        }
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+    when(mMockApplicationFactory.newApp(any(Environment.class))).thenAnswer(
+        new Answer<App<Environment>>() {
+          @Override
+          public App<Environment> answer(InvocationOnMock invocation) {
+            App<Environment> app = mock(App.class);
+            when(app.getEnvironment()).thenReturn((Environment) invocation.getArguments()[0]);
+            return app;
+          }
+        });
+    TestRunnerDaemon<Environment, App<Environment>> daemon = new TestRunnerDaemon<>(
+        Collections.singleton(mMockFirstScript),
+        new LocalEnvironmentFactory(1, "dfuntest", LocalEnvironment.DeploymentMode.HARD_LINK,
+            LocalEnvironment.OutputDrainingMode.NONE, LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE),
+        preparator,
+        mMockApplicationFactory,
+        mReportPath,
+        MultiTestRunner.DEFAULT_MAX_CONCURRENT_SCRIPTS,
+        MultiTestRunner.DEFAULT_SCRIPT_TIMEOUT_MILLIS,
+        0,
+        mMockFileUtils);
+
+    try {
+      daemon.run(Collections.<String>emptyList(), true);
+      Files.write(srcFilePath, "second".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(srcFilePath, FileTime.fromMillis(
+          Files.getLastModifiedTime(srcFilePath).toMillis() + 10000));
+      daemon.run(Collections.<String>emptyList(), true);
+    } finally {
+      daemon.shutDown();
+      org.apache.commons.io.FileUtils.deleteDirectory(srcPath.getParent().toFile());
+    }
+
+    assertEquals(Arrays.asList("first", "second"), deployedContents);
+  }
+
+  @Test(timeout = 20000)
+  public void shutDownShouldInterruptRunInProgress() throws Exception {
+    final CountDownLatch runStartedLatch = new CountDownLatch(1);
+    when(mMockFirstScript.run(anyCollection())).thenAnswer(new Answer<TestResult>() {
+      @Override
+      public TestResult answer(InvocationOnMock invocation) throws InterruptedException {
+        runStartedLatch.countDown();
+        new CountDownLatch(1).await();
+        return new TestResult(TestResult.Type.SUCCESS, "Success");
+      }
+    });
+    Future<TestResult> runFuture = mExecutor.submit(new Callable<TestResult>() {
+      @Override
+      public TestResult call() {
+        return mDaemon.run(Collections.singleton(FIRST_SCRIPT_NAME), true);
+      }
+    });
+    assertTrue(runStartedLatch.await(10, TimeUnit.SECONDS));
+
+    mDaemon.shutDown();
+
+    assertEquals(TestResult.Type.FAILURE, runFuture.get(10, TimeUnit.SECONDS).getType());
+    verify(mMockEnvironmentFactory).destroy(mEnvs);
+  }
+}
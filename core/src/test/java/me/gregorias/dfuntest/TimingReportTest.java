@@ -0,0 +1,94 @@
+package me.gregorias.dfuntest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TimingReportTest {
+  @Test
+  public void toCsvLinesShouldReturnEntriesSortedByStartTime() {
+    Collection<Environment> envs = new ArrayList<>();
+    for (int envIdx = 0; envIdx < 2; ++envIdx) {
+      Environment env = mock(Environment.class);
+      when(env.getId()).thenReturn(envIdx);
+      envs.add(env);
+    }
+    TimingReport timingReport = new TimingReport();
+
+    timingReport.record("runScript", "Script, first", envs, TimeUnit.MILLISECONDS.toNanos(30),
+        TimeUnit.MILLISECONDS.toNanos(100));
+    timingReport.record("prepare", "", envs, TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(20));
+
+    List<String> lines = timingReport.toCsvLines();
+    assertEquals(3, lines.size());
+    assertEquals(TimingReport.CSV_HEADER, lines.get(0));
+    assertEquals("prepare,,0 1,10,20", lines.get(1));
+    assertEquals("runScript,\"Script, first\",0 1,30,100", lines.get(2));
+  }
+
+  @Test
+  public void getTotalDurationsShouldSumDurationsPerPhase() {
+    Collection<Environment> envs = Collections.emptyList();
+    TimingReport timingReport = new TimingReport();
+
+    timingReport.record("restore", "A", envs, 0, TimeUnit.MILLISECONDS.toNanos(5));
+    timingReport.record("runScript", "A", envs, 1, TimeUnit.MILLISECONDS.toNanos(7));
+    timingReport.record("restore", "B", envs, 2, TimeUnit.MILLISECONDS.toNanos(11));
+
+    Map<String, Long> totalDurations = timingReport.getTotalDurations();
+    assertEquals(2, totalDurations.size());
+    assertEquals(Long.valueOf(16), totalDurations.get("restore"));
+    assertEquals(Long.valueOf(7), totalDurations.get("runScript"));
+  }
+
+  @Test
+  public void stoppedPhaseTimerShouldRecordPhase() {
+    TimingReport timingReport = new TimingReport();
+
+    TimingReport.PhaseTimer timer = timingReport.startPhase("collectOutput", "A",
+        Collections.<Environment>emptyList());
+    timer.stop();
+
+    List<String> lines = timingReport.toCsvLines();
+    assertEquals(2, lines.size());
+    assertEquals("collectOutput", lines.get(1).split(",")[0]);
+  }
+
+  @Test
+  public void startPhaseShouldSetCurrentPhaseUntilStopped() {
+    TimingReport timingReport = new TimingReport();
+    Environment env = mock(Environment.class);
+    when(env.getId()).thenReturn(3);
+
+    TimingReport.PhaseTimer outerTimer = timingReport.startPhase("restore", "A",
+        Collections.singleton(env));
+    TimingReport.PhaseTimer innerTimer = timingReport.startPhase("collectOutput", "A",
+        Collections.singleton(env));
+    assertSame(innerTimer, TimingReport.getCurrentPhase());
+    innerTimer.recordEnvironment(env, System.nanoTime(), System.nanoTime());
+    innerTimer.stop();
+    assertSame(outerTimer, TimingReport.getCurrentPhase());
+    outerTimer.stop();
+    assertNull(TimingReport.getCurrentPhase());
+
+    List<String> phases = new ArrayList<>();
+    for (String line : timingReport.toCsvLines()) {
+      phases.add(line.split(",")[0]);
+    }
+    assertEquals(4, phases.size());
+    assertTrue(phases.contains("collectOutputPerEnvironment"));
+  }
+}
@@ -0,0 +1,34 @@
+package me.gregorias.dfuntest.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ExponentialBackoffTest {
+  @Test
+  public void nextDelayMillisShouldDoubleUntilMaximum() {
+    ExponentialBackoff backoff = new ExponentialBackoff(10, 50);
+
+    assertEquals(10, backoff.nextDelayMillis());
+    assertEquals(20, backoff.nextDelayMillis());
+    assertEquals(40, backoff.nextDelayMillis());
+    assertEquals(50, backoff.nextDelayMillis());
+    assertEquals(50, backoff.nextDelayMillis());
+  }
+
+  @Test
+  public void resetShouldRestartSequence() {
+    ExponentialBackoff backoff = new ExponentialBackoff(10, 50);
+    backoff.nextDelayMillis();
+    backoff.nextDelayMillis();
+
+    backoff.reset();
+
+    assertEquals(10, backoff.nextDelayMillis());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnMaximumSmallerThanInitialDelay() {
+    new ExponentialBackoff(10, 5);
+  }
+}
@@ -0,0 +1,92 @@
+package me.gregorias.dfuntest.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileManifestTest {
+  @Rule
+  public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+  private Path mDir;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = mTempFolder.newFolder().toPath();
+    Files.createDirectories(mDir.resolve("sub"));
+    Files.write(mDir.resolve("a.jar"), new byte[] {1, 2, 3});
+    Files.write(mDir.resolve("sub").resolve("b.jar"), new byte[] {4, 5});
+  }
+
+  @Test
+  public void fromDirectoryShouldListAllFilesExceptManifest() throws IOException {
+    Files.write(mDir.resolve(FileManifest.MANIFEST_FILE_NAME), new byte[] {6});
+
+    FileManifest manifest = FileManifest.fromDirectory(mDir);
+
+    List<String> expectedPaths = new ArrayList<>();
+    expectedPaths.add("a.jar");
+    expectedPaths.add("sub/b.jar");
+    assertEquals(expectedPaths, new ArrayList<>(manifest.getPaths()));
+    assertEquals(3, manifest.getSize("a.jar"));
+    assertEquals(5, manifest.getTotalSize());
+  }
+
+  @Test
+  public void manifestShouldBeEqualToItsParsedSerialization() throws IOException {
+    FileManifest manifest = FileManifest.fromDirectory(mDir);
+    FileManifest parsedManifest = FileManifest.fromLines(manifest.toLines());
+
+    assertTrue(manifest.findChangedPaths(parsedManifest).isEmpty());
+    assertTrue(manifest.findRemovedPaths(parsedManifest).isEmpty());
+  }
+
+  @Test
+  public void findChangedPathsShouldReturnNewAndModifiedFiles() throws IOException {
+    FileManifest oldManifest = FileManifest.fromDirectory(mDir);
+    Files.write(mDir.resolve("a.jar"), new byte[] {3, 2, 1});
+    Files.write(mDir.resolve("c.jar"), new byte[] {7});
+
+    List<String> changedPaths = FileManifest.fromDirectory(mDir).findChangedPaths(oldManifest);
+
+    List<String> expectedPaths = new ArrayList<>();
+    expectedPaths.add("a.jar");
+    expectedPaths.add("c.jar");
+    assertEquals(expectedPaths, changedPaths);
+  }
+
+  @Test
+  public void findRemovedPathsShouldReturnDeletedFiles() throws IOException {
+    FileManifest oldManifest = FileManifest.fromDirectory(mDir);
+    Files.delete(mDir.resolve("sub").resolve("b.jar"));
+
+    List<String> removedPaths = FileManifest.fromDirectory(mDir).findRemovedPaths(oldManifest);
+
+    List<String> expectedPaths = new ArrayList<>();
+    expectedPaths.add("sub/b.jar");
+    assertEquals(expectedPaths, removedPaths);
+  }
+
+  @Test
+  public void fromLinesShouldIgnoreMalformedLines() throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("");
+    lines.add("abc notanumber a.jar");
+    lines.add("abc 3");
+
+    FileManifest manifest = FileManifest.fromLines(lines);
+
+    assertTrue(manifest.getPaths().isEmpty());
+    assertEquals(2, FileManifest.fromDirectory(mDir).findChangedPaths(manifest).size());
+  }
+}
@@ -0,0 +1,88 @@
+package me.gregorias.dfuntest.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+  @Test
+  public void shouldCountSmallValuesExactly() {
+    LatencyHistogram histogram = new LatencyHistogram(7);
+    for (int value = 1; value <= 100; ++value) {
+      histogram.recordValue(value);
+    }
+
+    assertEquals(100, histogram.getTotalCount());
+    assertEquals(1, histogram.getMin());
+    assertEquals(100, histogram.getMax());
+    assertEquals(50.5, histogram.getMean(), 0.0);
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(99, histogram.getValueAtPercentile(99));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void shouldReportLargeValuesWithBoundedRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram(7);
+    long[] values = {1000, 123456, 987654321, Long.MAX_VALUE / 3};
+    for (long value : values) {
+      histogram.recordValue(value);
+    }
+
+    for (int valueIdx = 0; valueIdx < values.length; ++valueIdx) {
+      long reportedValue = histogram.getValueAtPercentile(100.0 * (valueIdx + 1) / values.length);
+      assertTrue(reportedValue >= values[valueIdx]);
+      assertTrue(reportedValue - values[valueIdx] <= values[valueIdx] / 64);
+    }
+  }
+
+  @Test
+  public void addShouldMergeHistograms() {
+    LatencyHistogram first = new LatencyHistogram();
+    first.recordValue(10, 3);
+    LatencyHistogram second = new LatencyHistogram();
+    second.recordValue(2000);
+
+    first.add(second);
+
+    assertEquals(4, first.getTotalCount());
+    assertEquals(10, first.getValueAtPercentile(75));
+    assertEquals(2000, first.getValueAtPercentile(100));
+    assertEquals(10, first.getMin());
+  }
+
+  @Test
+  public void decodeShouldRestoreEncodedHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram(5);
+    histogram.recordValue(7, 2);
+    histogram.recordValue(300000);
+
+    LatencyHistogram decodedHistogram = LatencyHistogram.decode(histogram.encode());
+
+    assertEquals(histogram.encode(), decodedHistogram.encode());
+    assertEquals(5, decodedHistogram.getPrecisionBits());
+    assertEquals(3, decodedHistogram.getTotalCount());
+    assertEquals(300000, decodedHistogram.getMax());
+    assertEquals(histogram.getMean(), decodedHistogram.getMean(), 0.0);
+  }
+
+  @Test
+  public void emptyHistogramShouldReportZeros() {
+    LatencyHistogram histogram = LatencyHistogram.decode(new LatencyHistogram().encode());
+
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addShouldThrowExceptionOnDifferentPrecision() {
+    new LatencyHistogram(5).add(new LatencyHistogram(6));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void recordValueShouldThrowExceptionOnNegativeValue() {
+    new LatencyHistogram().recordValue(-1);
+  }
+}
@@ -0,0 +1,123 @@
+package me.gregorias.dfuntest.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogMergerTest {
+  private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd_HH:mm:ss.SSSZ";
+  private Path mTempDirectory = null;
+  private Path mDestPath = null;
+
+  @Before
+  public void setUp() throws IOException {
+    mTempDirectory = Files.createTempDirectory("dfuntest");
+    mDestPath = mTempDirectory.resolve("timeline.log");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    org.apache.commons.io.FileUtils.deleteDirectory(mTempDirectory.toFile());
+  }
+
+  @Test
+  public void mergeShouldInterleaveEntriesByTimestamp() throws IOException {
+    Map<Integer, Path> logPaths = new TreeMap<>();
+    logPaths.put(0, writeLog("0.log",
+        "2015-01-01_10:00:00.000+0000 [main] first",
+        "2015-01-01_10:00:02.000+0000 [main] third"));
+    logPaths.put(1, writeLog("1.log",
+        "2015-01-01_10:00:01.000+0000 [main] second",
+        "2015-01-01_10:00:03.000+0000 [main] fourth"));
+
+    long entryCount = new LogMerger(TIMESTAMP_FORMAT).merge(logPaths,
+        Collections.<Integer, Long>emptyMap(), mDestPath);
+
+    assertEquals(4, entryCount);
+    List<String> lines = Files.readAllLines(mDestPath, StandardCharsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertEquals("[0] ", lines.get(0).substring(0, 4));
+    assertEquals("[1] ", lines.get(1).substring(0, 4));
+    assertEquals("[0] ", lines.get(2).substring(0, 4));
+    assertEquals("[1] ", lines.get(3).substring(0, 4));
+    assertEquals(" [main] fourth", lines.get(3).substring(lines.get(3).indexOf(' ', 4)));
+  }
+
+  @Test
+  public void mergeShouldCorrectTimestampsByClockOffsets() throws IOException {
+    Map<Integer, Path> logPaths = new TreeMap<>();
+    logPaths.put(0, writeLog("0.log", "2015-01-01_10:00:01.000+0000 [main] first"));
+    logPaths.put(1, writeLog("1.log", "2015-01-01_10:00:01.500+0000 [main] second"));
+    Map<Integer, Long> clockOffsetsMillis = new HashMap<>();
+    clockOffsetsMillis.put(0, 1000L);
+
+    new LogMerger(TIMESTAMP_FORMAT).merge(logPaths, clockOffsetsMillis, mDestPath);
+
+    List<String> lines = Files.readAllLines(mDestPath, StandardCharsets.UTF_8);
+    assertEquals(Arrays.asList(
+        "[0] " + format("2015-01-01_10:00:00.000+0000") + " [main] first",
+        "[1] " + format("2015-01-01_10:00:01.500+0000") + " [main] second"), lines);
+  }
+
+  @Test
+  public void mergeShouldKeepContinuationLinesWithTheirEntry() throws IOException {
+    Map<Integer, Path> logPaths = new TreeMap<>();
+    logPaths.put(0, writeLog("0.log",
+        "header",
+        "2015-01-01_10:00:00.000+0000 [main] exception",
+        "\tat Foo.bar",
+        "2015-01-01_10:00:02.000+0000 [main] last"));
+    logPaths.put(1, writeLog("1.log", "2015-01-01_10:00:01.000+0000 [main] middle"));
+
+    long entryCount = new LogMerger(TIMESTAMP_FORMAT).merge(logPaths,
+        Collections.<Integer, Long>emptyMap(), mDestPath);
+
+    assertEquals(4, entryCount);
+    List<String> lines = Files.readAllLines(mDestPath, StandardCharsets.UTF_8);
+    assertEquals(5, lines.size());
+    assertEquals("[0] header", lines.get(0));
+    assertEquals("[0] \tat Foo.bar", lines.get(2));
+    assertEquals("[1] ", lines.get(3).substring(0, 4));
+    assertEquals("[0] ", lines.get(4).substring(0, 4));
+  }
+
+  @Test
+  public void mergeShouldWriteEmptyTimelineOfEmptyLogs() throws IOException {
+    Map<Integer, Path> logPaths = new TreeMap<>();
+    logPaths.put(0, writeLog("0.log"));
+
+    assertEquals(0, new LogMerger(TIMESTAMP_FORMAT).merge(logPaths,
+        Collections.<Integer, Long>emptyMap(), mDestPath));
+    assertEquals(0, Files.size(mDestPath));
+  }
+
+  // Formats timestamp in local time zone, like LogMerger does.
+  private static String format(String timestamp) {
+    try {
+      SimpleDateFormat dateFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+      return dateFormat.format(dateFormat.parse(timestamp));
+    } catch (ParseException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private Path writeLog(String filename, String... lines) throws IOException {
+    return Files.write(mTempDirectory.resolve(filename), Arrays.asList(lines),
+        StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,68 @@
+package me.gregorias.dfuntest.util;
+
+import me.gregorias.dfuntest.util.OpenLoopSchedule.Phase;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenLoopScheduleTest {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void shouldSendRequestsInEveryPhaseAccordingToRate() {
+    OpenLoopSchedule schedule = new OpenLoopSchedule(100, 2, 3, 4, TimeUnit.SECONDS);
+
+    assertEquals(100 + 300 + 200, schedule.getRequestCount());
+    assertEquals(Phase.RAMP_UP, schedule.getPhase(99));
+    assertEquals(Phase.STEADY_STATE, schedule.getPhase(100));
+    assertEquals(Phase.STEADY_STATE, schedule.getPhase(399));
+    assertEquals(Phase.RAMP_DOWN, schedule.getPhase(400));
+    assertEquals(3 * NANOS_PER_SECOND, schedule.getDurationNanos(Phase.STEADY_STATE));
+  }
+
+  @Test
+  public void shouldEndPhasesAtTheirBoundaries() {
+    OpenLoopSchedule schedule = new OpenLoopSchedule(100, 2, 3, 4, TimeUnit.SECONDS);
+
+    assertEquals(2 * NANOS_PER_SECOND, schedule.getIntendedSendTimeNanos(99), 1);
+    assertEquals(5 * NANOS_PER_SECOND, schedule.getIntendedSendTimeNanos(399), 1);
+    assertEquals(9 * NANOS_PER_SECOND, schedule.getIntendedSendTimeNanos(599), 1);
+  }
+
+  @Test
+  public void shouldSpaceSteadyStateRequestsEvenly() {
+    OpenLoopSchedule schedule = new OpenLoopSchedule(1000, 0, 1, 0, TimeUnit.SECONDS);
+
+    for (long requestIdx = 0; requestIdx < schedule.getRequestCount(); ++requestIdx) {
+      assertEquals((requestIdx + 1) * NANOS_PER_SECOND / 1000,
+          schedule.getIntendedSendTimeNanos(requestIdx), 1);
+    }
+  }
+
+  @Test
+  public void shouldIncreaseSendIntervalsDuringRampDown() {
+    OpenLoopSchedule schedule = new OpenLoopSchedule(100, 1, 0, 1, TimeUnit.SECONDS);
+
+    long previousTime = schedule.getIntendedSendTimeNanos(50);
+    long previousInterval = 0;
+    for (long requestIdx = 51; requestIdx < schedule.getRequestCount(); ++requestIdx) {
+      long time = schedule.getIntendedSendTimeNanos(requestIdx);
+      assertTrue(time - previousTime >= previousInterval);
+      previousInterval = time - previousTime;
+      previousTime = time;
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void getIntendedSendTimeNanosShouldThrowExceptionOutOfSchedule() {
+    new OpenLoopSchedule(100, 0, 1, 0, TimeUnit.SECONDS).getIntendedSendTimeNanos(100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowExceptionOnNonpositiveRate() {
+    new OpenLoopSchedule(0, 0, 1, 0, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,68 @@
+package me.gregorias.dfuntest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProcessExitPollerTest {
+  private static final long POLL_INTERVAL_MILLIS = 1;
+  private final ProcessExitPoller mPoller = new ProcessExitPoller(POLL_INTERVAL_MILLIS);
+
+  @Test
+  public void registerShouldCompleteFutureOnceProcessHasExited() throws ExecutionException,
+      InterruptedException {
+    final AtomicInteger checkCount = new AtomicInteger(0);
+    final int exitCheckCount = 3;
+    ListenableFuture<Void> future = mPoller.register(new ProcessExitPoller.ExitCheck() {
+      @Override
+      public boolean hasExited() {
+        return checkCount.incrementAndGet() >= exitCheckCount;
+      }
+    });
+
+    future.get();
+
+    Thread.sleep(10 * POLL_INTERVAL_MILLIS);
+    assertEquals(exitCheckCount, checkCount.get());
+  }
+
+  @Test
+  public void registerShouldFailFutureOnFailedCheck() throws InterruptedException {
+    final IOException exception = new IOException();
+    ListenableFuture<Void> future = mPoller.register(new ProcessExitPoller.ExitCheck() {
+      @Override
+      public boolean hasExited() throws IOException {
+        throw exception;
+      }
+    });
+
+    try {
+      future.get();
+      fail("Expected failed future.");
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void registerShouldNotCompleteFutureOfRunningProcess() throws InterruptedException {
+    ListenableFuture<Void> future = mPoller.register(new ProcessExitPoller.ExitCheck() {
+      @Override
+      public boolean hasExited() {
+        return false;
+      }
+    });
+
+    Thread.sleep(10 * POLL_INTERVAL_MILLIS);
+    assertFalse(future.isDone());
+    future.cancel(false);
+  }
+}
@@ -0,0 +1,47 @@
+package me.gregorias.dfuntest.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RingBufferOutputStreamTest {
+  @Test
+  public void toByteArrayShouldReturnAllBytesBelowCapacity() {
+    RingBufferOutputStream outputStream = new RingBufferOutputStream(4);
+
+    outputStream.write(1);
+    outputStream.write(new byte[] {2, 3}, 0, 2);
+
+    assertArrayEquals(new byte[] {1, 2, 3}, outputStream.toByteArray());
+    assertEquals(0, outputStream.getDiscardedByteCount());
+  }
+
+  @Test
+  public void toByteArrayShouldReturnMostRecentBytesAfterWrapping() {
+    RingBufferOutputStream outputStream = new RingBufferOutputStream(4);
+
+    outputStream.write(new byte[] {1, 2, 3}, 0, 3);
+    outputStream.write(new byte[] {0, 4, 5, 6, 0}, 1, 3);
+    outputStream.write(7);
+
+    assertArrayEquals(new byte[] {4, 5, 6, 7}, outputStream.toByteArray());
+    assertEquals(3, outputStream.getDiscardedByteCount());
+  }
+
+  @Test
+  public void writeShouldKeepTailOfArrayLongerThanCapacity() {
+    RingBufferOutputStream outputStream = new RingBufferOutputStream(3);
+
+    outputStream.write(1);
+    outputStream.write(new byte[] {2, 3, 4, 5, 6}, 0, 5);
+
+    assertArrayEquals(new byte[] {4, 5, 6}, outputStream.toByteArray());
+    assertEquals(3, outputStream.getDiscardedByteCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnNonpositiveCapacity() {
+    new RingBufferOutputStream(0);
+  }
+}
@@ -0,0 +1,303 @@
+package me.gregorias.dfuntest.util;
+
+import net.schmizz.sshj.SSHClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SSHConnectionPoolTest {
+  private static final String USERNAME = "username";
+  private static final Path PRIVATE_KEY_PATH = FileSystems.getDefault().getPath("key");
+  private static final InetAddress REMOTE_ADDRESS = InetAddress.getLoopbackAddress();
+  private static final long MAX_IDLE_TIME_MILLIS = 60 * 1000;
+  private static final int MAX_SESSIONS = 2;
+
+  private SSHClientFactory mMockSSHClientFactory = null;
+
+  @Before
+  public void setUp() {
+    mMockSSHClientFactory = mock(SSHClientFactory.class);
+  }
+
+  @Test
+  public void borrowShouldConnectAndAuthenticate() throws IOException {
+    SSHClient client = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(client);
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    assertSame(client, pool.borrow());
+    verify(client).loadKnownHosts();
+    verify(client).useCompression();
+    verify(client).connect(eq(REMOTE_ADDRESS));
+    verify(client).authPublickey(eq(USERNAME), eq(PRIVATE_KEY_PATH.toString()));
+  }
+
+  @Test
+  public void borrowShouldReuseReleasedLiveConnection() throws IOException {
+    SSHClient client = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(client);
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    pool.release(pool.borrow());
+    pool.release(pool.borrow());
+
+    verify(mMockSSHClientFactory, times(1)).newSSHClient();
+    verify(client, times(1)).connect(any(InetAddress.class));
+    verify(client, never()).disconnect();
+    assertEquals(1, pool.getConnectionCount());
+  }
+
+  @Test
+  public void borrowShouldShareConnectionUpToSessionLimit() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(2, MAX_IDLE_TIME_MILLIS);
+
+    assertSame(firstClient, pool.borrow());
+    assertSame(firstClient, pool.borrow());
+    assertSame(secondClient, pool.borrow());
+    assertEquals(3, pool.getLeaseCount());
+    assertEquals(2, pool.getConnectionCount());
+  }
+
+  @Test
+  public void borrowShouldPreferConnectionInUse() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(2, MAX_IDLE_TIME_MILLIS);
+
+    pool.borrow();
+    pool.borrow();
+    pool.borrow();
+    pool.release(firstClient);
+    pool.release(firstClient);
+
+    assertSame(secondClient, pool.borrow());
+  }
+
+  @Test
+  public void releaseRefusedSessionShouldLowerSessionLimitOfConnection() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(2, MAX_IDLE_TIME_MILLIS);
+
+    pool.borrow();
+    pool.borrow();
+    pool.releaseRefusedSession(firstClient);
+
+    assertSame(secondClient, pool.borrow());
+    assertEquals(2, pool.getLeaseCount());
+  }
+
+  @Test
+  public void borrowShouldNotReuseDeadConnection() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    pool.release(pool.borrow());
+    when(firstClient.isConnected()).thenReturn(false);
+
+    assertSame(secondClient, pool.borrow());
+    verify(firstClient).disconnect();
+    assertEquals(1, pool.getConnectionCount());
+  }
+
+  @Test
+  public void borrowShouldEvictConnectionsIdleForTooLong() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(1, 0);
+
+    pool.release(pool.borrow());
+
+    verify(firstClient).disconnect();
+    assertSame(secondClient, pool.borrow());
+  }
+
+  @Test
+  public void poolShouldEvictIdleConnectionWithoutFurtherOperations() throws IOException {
+    SSHClient client = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(client);
+    SSHConnectionPool pool = newPool(1, 50);
+
+    pool.release(pool.borrow());
+
+    verify(client, timeout(10000)).disconnect();
+    assertEquals(0, pool.getConnectionCount());
+  }
+
+  @Test(timeout = 10000)
+  public void releaseShouldDisconnectEvictedConnectionOutsideOfLock() throws Exception {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    final CountDownLatch disconnectStartedLatch = new CountDownLatch(1);
+    final CountDownLatch disconnectLatch = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws InterruptedException {
+        disconnectStartedLatch.countDown();
+        disconnectLatch.await();
+        return null;
+      }
+    }).when(firstClient).disconnect();
+    final SSHConnectionPool pool = newPool(1, 0);
+    final SSHClient borrowedClient = pool.borrow();
+
+    Thread releasingThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        pool.release(borrowedClient);
+      }
+    });
+    releasingThread.start();
+    disconnectStartedLatch.await();
+
+    assertSame(secondClient, pool.borrow());
+    disconnectLatch.countDown();
+    releasingThread.join();
+  }
+
+  @Test
+  public void borrowShouldBlockWhenPoolIsExhausted() throws Exception {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    final SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    pool.borrow();
+    SSHClient borrowedClient = pool.borrow();
+    final BlockingQueue<SSHClient> borrowedClients = new LinkedBlockingQueue<>();
+    Thread borrowingThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          borrowedClients.put(pool.borrow());
+        } catch (IOException | InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    borrowingThread.start();
+    assertNull(borrowedClients.poll(100, TimeUnit.MILLISECONDS));
+
+    pool.release(borrowedClient);
+    assertSame(firstClient, borrowedClients.poll(10, TimeUnit.SECONDS));
+    assertEquals(MAX_SESSIONS, pool.getLeaseCount());
+    borrowingThread.join();
+    verify(mMockSSHClientFactory, times(1)).newSSHClient();
+  }
+
+  @Test
+  public void borrowShouldFreeSlotOnConnectFailure() throws IOException {
+    SSHClient failingClient = newLiveClient();
+    SSHClient client = newLiveClient();
+    doThrow(IOException.class).when(failingClient).connect(any(InetAddress.class));
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(failingClient, client);
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    try {
+      pool.borrow();
+      fail();
+    } catch (IOException e) {
+      verify(failingClient).disconnect();
+    }
+    assertEquals(0, pool.getConnectionCount());
+    assertSame(client, pool.borrow());
+  }
+
+  @Test
+  public void invalidateShouldDisconnectAndFreeSlot() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+
+    pool.invalidate(pool.borrow());
+
+    verify(firstClient).disconnect();
+    assertNotSame(firstClient, pool.borrow());
+  }
+
+  @Test
+  public void closeShouldDisconnectIdleAndLaterReleasedConnections() throws IOException {
+    SSHClient firstClient = newLiveClient();
+    SSHClient secondClient = newLiveClient();
+    when(mMockSSHClientFactory.newSSHClient()).thenReturn(firstClient, secondClient);
+    SSHConnectionPool pool = newPool(2, MAX_IDLE_TIME_MILLIS);
+
+    SSHClient idleClient = pool.borrow();
+    pool.borrow();
+    SSHClient borrowedClient = pool.borrow();
+    pool.release(idleClient);
+    pool.release(idleClient);
+    pool.close();
+    verify(idleClient).disconnect();
+    verify(borrowedClient, never()).disconnect();
+
+    pool.release(borrowedClient);
+    verify(borrowedClient).disconnect();
+    assertEquals(0, pool.getConnectionCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void borrowShouldFailOnClosedPool() throws IOException {
+    SSHConnectionPool pool = newPool(1, MAX_IDLE_TIME_MILLIS);
+    pool.close();
+    pool.borrow();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorShouldThrowExceptionOnNonpositiveSize() {
+    newPool(0, MAX_IDLE_TIME_MILLIS);
+  }
+
+  private SSHClient newLiveClient() {
+    SSHClient client = mock(SSHClient.class);
+    when(client.isConnected()).thenReturn(true);
+    when(client.isAuthenticated()).thenReturn(true);
+    return client;
+  }
+
+  private SSHConnectionPool newPool(int maxSize, long maxIdleTimeMillis) {
+    return new SSHConnectionPool(mMockSSHClientFactory,
+        REMOTE_ADDRESS,
+        USERNAME,
+        PRIVATE_KEY_PATH,
+        maxSize,
+        MAX_SESSIONS,
+        maxIdleTimeMillis);
+  }
+}
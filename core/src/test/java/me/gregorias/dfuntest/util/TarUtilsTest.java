@@ -0,0 +1,139 @@
+package me.gregorias.dfuntest.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TarUtilsTest {
+  private Path mTempDirectory = null;
+
+  @Before
+  public void setUp() throws IOException {
+    mTempDirectory = Files.createTempDirectory("dfuntest");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    org.apache.commons.io.FileUtils.deleteDirectory(mTempDirectory.toFile());
+  }
+
+  @Test
+  public void writeDirectoryShouldArchiveWholeTreeUnderDirectoryName() throws IOException {
+    Path dir = mTempDirectory.resolve("lib");
+    Files.createDirectories(dir.resolve("sub"));
+    byte[] firstContent = new byte[] {1, 2, 3};
+    byte[] secondContent = new byte[] {4, 5};
+    Files.write(dir.resolve("a.jar"), firstContent);
+    Files.write(dir.resolve("sub").resolve("b.jar"), secondContent);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    long byteCount = TarUtils.writeDirectory(dir, outputStream);
+
+    assertEquals(firstContent.length + secondContent.length, byteCount);
+    Map<String, byte[]> files = new HashMap<>();
+    int directoryCount = 0;
+    TarArchiveInputStream tarInputStream = new TarArchiveInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+    TarArchiveEntry entry;
+    while ((entry = tarInputStream.getNextTarEntry()) != null) {
+      assertTrue(entry.getName().startsWith("lib/"));
+      if (entry.isDirectory()) {
+        ++directoryCount;
+      } else {
+        files.put(entry.getName(), IOUtils.toByteArray(tarInputStream));
+      }
+    }
+    assertEquals(2, directoryCount);
+    assertEquals(2, files.size());
+    assertArrayEquals(firstContent, files.get("lib/a.jar"));
+    assertArrayEquals(secondContent, files.get("lib/sub/b.jar"));
+  }
+
+  @Test
+  public void writeDirectoryShouldWriteValidArchiveOfEmptyDirectory() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    assertEquals(0, TarUtils.writeDirectory(mTempDirectory, outputStream));
+
+    TarArchiveInputStream tarInputStream = new TarArchiveInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+    assertTrue(tarInputStream.getNextTarEntry().isDirectory());
+    assertNull(tarInputStream.getNextTarEntry());
+  }
+
+  @Test
+  public void extractShouldRecreateArchivedDirectory() throws IOException {
+    Path dir = mTempDirectory.resolve("lib");
+    Files.createDirectories(dir.resolve("sub"));
+    byte[] content = new byte[] {1, 2, 3};
+    Files.write(dir.resolve("sub").resolve("a.jar"), content);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    TarUtils.writeDirectory(dir, outputStream);
+    Path destPath = mTempDirectory.resolve("dest");
+
+    long byteCount = TarUtils.extract(new ByteArrayInputStream(outputStream.toByteArray()),
+        destPath);
+
+    assertEquals(content.length, byteCount);
+    assertArrayEquals(content, Files.readAllBytes(destPath.resolve("lib").resolve("sub")
+        .resolve("a.jar")));
+  }
+
+  @Test
+  public void extractShouldReadArchiveCompressedWithCodec() throws IOException {
+    Path file = mTempDirectory.resolve("log.txt");
+    byte[] content = "line\n".getBytes(StandardCharsets.UTF_8);
+    Files.write(file, content);
+    ByteArrayOutputStream tarOutputStream = new ByteArrayOutputStream();
+    TarUtils.writeFiles(mTempDirectory, Collections.singleton("log.txt"), tarOutputStream);
+    ByteArrayOutputStream gzipOutputStream = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GzipCompressorOutputStream(gzipOutputStream)) {
+      outputStream.write(tarOutputStream.toByteArray());
+    }
+    Path destPath = mTempDirectory.resolve("dest");
+
+    try (InputStream inputStream = CompressionCodec.GZIP.newDecompressingInputStream(
+        new ByteArrayInputStream(gzipOutputStream.toByteArray()))) {
+      TarUtils.extract(inputStream, destPath);
+    }
+
+    Path extractedFile = destPath.resolve(mTempDirectory.getFileName()).resolve("log.txt");
+    assertArrayEquals(content, Files.readAllBytes(extractedFile));
+  }
+
+  @Test(expected = IOException.class)
+  public void extractShouldRejectEntryOutsideOfDestination() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(outputStream);
+    TarArchiveEntry entry = new TarArchiveEntry("../escaped.txt");
+    entry.setSize(1);
+    tarOutputStream.putArchiveEntry(entry);
+    tarOutputStream.write(1);
+    tarOutputStream.closeArchiveEntry();
+    tarOutputStream.finish();
+
+    TarUtils.extract(new ByteArrayInputStream(outputStream.toByteArray()),
+        mTempDirectory.resolve("dest"));
+  }
+}
@@ -1,50 +1,113 @@
 package me.gregorias.dfuntest.example;
 
-import me.gregorias.dfuntest.CommandException;
+import me.gregorias.dfuntest.App;
+import me.gregorias.dfuntest.AppLifecycle;
+import me.gregorias.dfuntest.AppLifecycleException;
+import me.gregorias.dfuntest.Readiness;
 import me.gregorias.dfuntest.TestScript;
+import me.gregorias.dfuntest.util.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Base implementation for Example's test scripts which adds start up and shut down functionality.
+ * Base implementation for Example's test scripts which adds start up, readiness and shut down
+ * functionality. Applications are started and shut down concurrently with {@link AppLifecycle}.
  */
 public abstract class AbstractExampleTestScript implements TestScript<ExampleApp> {
+  protected static final long START_UP_TIMEOUT_MILLIS = 30000;
+  protected static final long READINESS_TIMEOUT_MILLIS = 10000;
+  protected static final long SHUT_DOWN_TIMEOUT_MILLIS = 30000;
+  protected static final long LIFECYCLE_TIMEOUT_MILLIS = START_UP_TIMEOUT_MILLIS
+      + READINESS_TIMEOUT_MILLIS + SHUT_DOWN_TIMEOUT_MILLIS;
   private static final Logger LOGGER = LoggerFactory.getLogger(AbstractExampleTestScript.class);
+  private static final long NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
 
-  protected void startUpApps(Collection<ExampleApp> apps) throws CommandException, IOException {
-    Collection<ExampleApp> startedApps = new ArrayList<>();
-    for (ExampleApp app : apps) {
-      try {
-        app.startUp();
-        startedApps.add(app);
-      } catch (CommandException | IOException e) {
-        LOGGER.error("run(): Could not start app {}.", app.getId(), e);
-        shutDownApps(startedApps);
-        throw e;
+  /**
+   * Formats throughput and percentiles of latencies in nanoseconds, so that load scripts report
+   * them the same way.
+   *
+   * @param name name of measured requests
+   * @param histogram latencies of requests in nanoseconds
+   * @param elapsedNanos duration in which requests were sent
+   * @return single line summary
+   */
+  protected static String formatLatencies(String name, LatencyHistogram histogram,
+                                          long elapsedNanos) {
+    double throughput = histogram.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1)
+        / elapsedNanos;
+    return String.format("%s: count=%d, throughput=%.1f/s, p50=%dus, p99=%dus, p99.9=%dus,"
+        + " max=%dus", name, histogram.getTotalCount(), throughput,
+        histogram.getValueAtPercentile(50) / NANOS_PER_MICRO,
+        histogram.getValueAtPercentile(99) / NANOS_PER_MICRO,
+        histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+        histogram.getMax() / NANOS_PER_MICRO);
+  }
+
+  /**
+   * Starts up applications concurrently and waits until all of them are ready.
+   *
+   * @param apps Applications to start up
+   * @throws IOException thrown when an app could not be started or was not ready in time. All
+   *         apps are shut down then.
+   */
+  protected void startUpApps(Collection<ExampleApp> apps) throws IOException {
+    try {
+      AppLifecycle.startUpAll(apps, START_UP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Start up was interrupted.", e);
+    } catch (AppLifecycleException e) {
+      LOGGER.error("startUpApps(): Could not start apps {}.", getIds(e.getFailures().keySet()),
+          e);
+      throw e;
+    }
+
+    try {
+      Readiness.awaitAll(apps, READINESS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException | TimeoutException e) {
+      LOGGER.error("startUpApps(): Apps were not ready in time.", e);
+      shutDownApps(apps);
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
       }
+      throw new IOException("Apps were not ready in time.", e);
     }
   }
 
   /**
-   * Shuts down applications.
+   * Shuts down applications concurrently. Apps which do not shut down in time are destroyed.
    *
    * @param apps Applications to shut down
    * @return true iff every app was shut down correctly.
    */
   protected boolean shutDownApps(Collection<ExampleApp> apps) {
-    boolean hasAnAppFailed = false;
-    for (ExampleApp app : apps) {
-      try {
-        app.shutDown();
-      } catch (IOException | InterruptedException e) {
-        hasAnAppFailed = true;
-        LOGGER.warn("run(): Could not shut down app {}.", app.getId(), e);
+    try {
+      Map<ExampleApp, Exception> failures = AppLifecycle.shutDownAll(apps,
+          SHUT_DOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      if (!failures.isEmpty()) {
+        LOGGER.warn("shutDownApps(): Could not shut down apps {}.", getIds(failures.keySet()));
       }
+      return failures.isEmpty();
+    } catch (InterruptedException e) {
+      LOGGER.warn("shutDownApps(): Shut down was interrupted.", e);
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static List<Integer> getIds(Collection<? extends App<?>> apps) {
+    List<Integer> ids = new ArrayList<>();
+    for (App<?> app : apps) {
+      ids.add(app.getId());
     }
-    return !hasAnAppFailed;
+    return ids;
   }
 }
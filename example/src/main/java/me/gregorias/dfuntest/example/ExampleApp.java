@@ -3,15 +3,19 @@ package me.gregorias.dfuntest.example;
 import me.gregorias.dfuntest.App;
 import me.gregorias.dfuntest.CommandException;
 import me.gregorias.dfuntest.Environment;
+import me.gregorias.dfuntest.InProcessEnvironment;
+import me.gregorias.dfuntest.Readiness;
 import me.gregorias.dfuntest.RemoteProcess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -21,17 +25,29 @@ import java.util.List;
  */
 public class ExampleApp extends App<Environment> {
   public static final String LOG_FILE = "stdlog.log";
+  /**
+   * Format of timestamps starting lines of {@link #LOG_FILE}. It has neither spaces nor quotes,
+   * because SSH environments pass commands through a shell.
+   */
+  public static final String LOG_DATE_TIME_FORMAT = "yyyy-MM-dd_HH:mm:ss.SSSZ";
   public static final String LOCAL_PORT_ENV_FIELD = "local-port";
   public static final String SERVER_HOSTNAME_ENV_FIELD = "server-hostname";
   public static final String SERVER_PORT_ENV_FIELD = "server-port";
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExampleApp.class);
+  private static final int INTEGER_BYTE_SIZE = Integer.SIZE / Byte.SIZE;
+  private static final int READ_BUFFER_SIZE = 8 * 1024;
+  private static final int INITIAL_RESPONSE_CAPACITY = 64;
+  private static final int REQUEST_TIMEOUT_MILLIS = 30000;
+  private static final int READINESS_CHECK_TIMEOUT_MILLIS = 1000;
+  private static final int UNKNOWN_PID = -1;
   private final Environment mEnvironment;
   private final InetSocketAddress mThisAppSocketAddress;
   private final String mServerHostname;
   private final int mServerPort;
 
-  private RemoteProcess mProcess;
+  private volatile RemoteProcess mProcess;
+  private volatile int mPid = UNKNOWN_PID;
 
   public ExampleApp(int id, String name, Environment environment) {
     super(id, name);
@@ -47,11 +63,58 @@ public class ExampleApp extends App<Environment> {
     return mEnvironment;
   }
 
-  public List<Integer> getPingedIDs() throws IOException {
+  /**
+   * Application is ready once it responds to a GET_PID request. Its process ID is kept for
+   * thread dumps. The request times out at the deadline of {@link Readiness#awaitAll}.
+   */
+  @Override
+  public boolean isReady() throws IOException {
+    mPid = getPid(Readiness.boundTimeoutMillis(READINESS_CHECK_TIMEOUT_MILLIS));
+    return true;
+  }
+
+  /**
+   * @return ID of the application's process, -1 if it is unknown
+   * @throws IOException thrown when request has failed
+   */
+  public int getPid() throws IOException {
+    return getPid(REQUEST_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Thread dump is taken with jcmd once the application has been checked for readiness, which
+   * provides its process ID. Applications run in process share the runner's process ID, so they
+   * have no thread dump command.
+   */
+  @Override
+  public List<String> getThreadDumpCommand() {
+    int pid = mPid;
+    if (pid == UNKNOWN_PID || mEnvironment instanceof InProcessEnvironment) {
+      return null;
+    }
+    return Arrays.asList("jcmd", Integer.toString(pid), "Thread.print");
+  }
+
+  /**
+   * @return IDs of applications which have pinged this application, in order of first ping
+   * @throws IOException thrown when request has failed
+   */
+  public int[] getPingedIDs() throws IOException {
     ByteBuffer getIDMessage = ByteBuffer.allocateDirect(1);
     getIDMessage.put(PingApplication.GET_ID_TYPE);
     getIDMessage.flip();
-    return sendMessageAndGetResponse(getIDMessage);
+    return sendMessageAndGetResponse(getIDMessage, REQUEST_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Opens a persistent connection to this application which allows pipelining many requests.
+   * Methods of this class use one connection per request instead.
+   *
+   * @return opened connection
+   * @throws IOException thrown when connection could not be established
+   */
+  public PipelinedConnection openPipelinedConnection() throws IOException {
+    return PipelinedConnection.open(mThisAppSocketAddress);
   }
 
   public void ping(int id) throws IOException {
@@ -59,7 +122,7 @@ public class ExampleApp extends App<Environment> {
     pingMessage.put(PingApplication.PING_TYPE);
     pingMessage.putInt(id);
     pingMessage.flip();
-    sendMessageAndGetResponse(pingMessage);
+    sendMessageAndGetResponse(pingMessage, REQUEST_TIMEOUT_MILLIS);
   }
 
   @Override
@@ -70,6 +133,8 @@ public class ExampleApp extends App<Environment> {
     runCommand.add("java");
     runCommand.add("-Dorg.slf4j.simpleLogger.logFile=" + LOG_FILE);
     runCommand.add("-Dorg.slf4j.simpleLogger.defaultLogLevel=trace");
+    runCommand.add("-Dorg.slf4j.simpleLogger.showDateTime=true");
+    runCommand.add("-Dorg.slf4j.simpleLogger.dateTimeFormat=" + LOG_DATE_TIME_FORMAT);
     runCommand.add("-cp");
     runCommand.add("lib/*:dfuntest-example.jar");
     runCommand.add("me.gregorias.dfuntest.example.PingApplication");
@@ -77,6 +142,7 @@ public class ExampleApp extends App<Environment> {
     runCommand.add(Integer.toString(mThisAppSocketAddress.getPort()));
     runCommand.add(mServerHostname);
     runCommand.add(Integer.toString(mServerPort));
+    mPid = UNKNOWN_PID;
     mProcess = mEnvironment.runCommandAsynchronously(runCommand);
   }
 
@@ -95,42 +161,78 @@ public class ExampleApp extends App<Environment> {
     }
   }
 
+  /**
+   * Kills the process of the application. Does not wait for {@link #startUp()} and
+   * {@link #shutDown()}.
+   */
+  @Override
+  public void destroy() throws IOException {
+    RemoteProcess process = mProcess;
+    if (process != null) {
+      LOGGER.debug("[{}] destroy()", getId());
+      process.destroy();
+    }
+  }
+
   private void close() throws IOException {
     ByteBuffer closeMessage = ByteBuffer.allocateDirect(1);
     closeMessage.put(PingApplication.CLOSE_TYPE);
     closeMessage.flip();
-    sendMessageAndGetResponse(closeMessage);
+    sendMessageAndGetResponse(closeMessage, REQUEST_TIMEOUT_MILLIS);
   }
 
-  private List<Integer> readIntListResponse(SocketChannel channel) throws IOException {
-    LOGGER.trace("readIntListResponse()");
+  private int getPid(int timeoutMillis) throws IOException {
+    ByteBuffer getPidMessage = ByteBuffer.allocateDirect(1);
+    getPidMessage.put(PingApplication.GET_PID_TYPE);
+    getPidMessage.flip();
+    int[] response = sendMessageAndGetResponse(getPidMessage, timeoutMillis);
+    if (response.length != 1) {
+      throw new EOFException("Response to GET_PID was incomplete.");
+    }
+    return response[0];
+  }
 
-    final int integerByteSize = Integer.SIZE / Byte.SIZE;
-    ByteBuffer readBuffer = ByteBuffer.allocateDirect(integerByteSize);
-    List<Integer> responseList = new LinkedList<>();
-    int readCount = 0;
-    while (readCount != -1) {
-      while (readBuffer.hasRemaining() && readCount != -1) {
-        readCount = channel.read(readBuffer);
-      }
-      if (!readBuffer.hasRemaining()) {
-        readBuffer.flip();
-        responseList.add(readBuffer.getInt());
-        readBuffer.flip();
-      } else if (readBuffer.hasRemaining() && readBuffer.position() != 0) {
-        throw new EOFException("Unexpected EOF encountered.");
+  // Reads response until EOF in chunks and decodes whole ints of every chunk at once. An int split
+  // between chunks is carried over to the next one. The buffer is allocated per call on the heap,
+  // so that concurrent requests do not contend for it and idle apps do not hold native memory.
+  // Response is read through the socket's stream, since unlike the channel it honours the read
+  // timeout.
+  private int[] readIntArrayResponse(InputStream inputStream) throws IOException {
+    LOGGER.trace("readIntArrayResponse()");
+    int[] response = new int[INITIAL_RESPONSE_CAPACITY];
+    int responseLength = 0;
+    ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    int readByteCount;
+    while ((readByteCount = inputStream.read(readBuffer.array(), readBuffer.position(),
+        readBuffer.remaining())) != -1) {
+      readBuffer.position(readBuffer.position() + readByteCount);
+      readBuffer.flip();
+      int intCount = readBuffer.remaining() / INTEGER_BYTE_SIZE;
+      if (responseLength + intCount > response.length) {
+        response = Arrays.copyOf(response, Math.max(2 * response.length,
+            responseLength + intCount));
       }
+      readBuffer.asIntBuffer().get(response, responseLength, intCount);
+      responseLength += intCount;
+      readBuffer.position(readBuffer.position() + intCount * INTEGER_BYTE_SIZE);
+      readBuffer.compact();
     }
-    LOGGER.trace("readIntListResponse() -> {}", responseList.size());
-    return responseList;
+    if (readBuffer.position() != 0) {
+      throw new EOFException("Unexpected EOF encountered.");
+    }
+    LOGGER.trace("readIntArrayResponse() -> {}", responseLength);
+    return Arrays.copyOf(response, responseLength);
   }
 
-  private List<Integer> sendMessageAndGetResponse(ByteBuffer message) throws IOException {
+  private int[] sendMessageAndGetResponse(ByteBuffer message, int timeoutMillis)
+      throws IOException {
     LOGGER.trace("sendMessageAndGetResponse(): sending message to {}.", mThisAppSocketAddress);
-    try (SocketChannel sc = SocketChannel.open(mThisAppSocketAddress)) {
+    try (SocketChannel sc = SocketChannel.open()) {
+      sc.socket().connect(mThisAppSocketAddress, timeoutMillis);
+      sc.socket().setSoTimeout(timeoutMillis);
       writeEntireBufferToChannel(sc, message);
       sc.shutdownOutput();
-      return readIntListResponse(sc);
+      return readIntArrayResponse(sc.socket().getInputStream());
     }
   }
 
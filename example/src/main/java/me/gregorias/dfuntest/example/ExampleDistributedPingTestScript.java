@@ -1,16 +1,19 @@
 package me.gregorias.dfuntest.example;
 
-import me.gregorias.dfuntest.CommandException;
+import me.gregorias.dfuntest.Readiness;
+import me.gregorias.dfuntest.ReadinessProbe;
 import me.gregorias.dfuntest.TestResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This test script tests whether all applications send their id to initial application.
@@ -18,36 +21,47 @@ import java.util.Set;
 public class ExampleDistributedPingTestScript extends AbstractExampleTestScript {
   private static final Logger LOGGER = LoggerFactory.getLogger(
       ExampleDistributedPingTestScript.class);
+  private static final long PING_TIMEOUT_MILLIS = 10000;
 
   @Override
   public TestResult run(Collection<ExampleApp> apps) {
     List<ExampleApp> appList = new ArrayList<>(apps);
-    Set<Integer> expectedIDs = new HashSet<>();
     TestResult result = new TestResult(TestResult.Type.SUCCESS, "Test was successful.");
 
     try {
       startUpApps(apps);
-    } catch (CommandException | IOException e) {
+    } catch (IOException e) {
       return new TestResult(TestResult.Type.FAILURE, "An app could not be started.");
     }
 
-    for (ExampleApp app : apps) {
-      expectedIDs.add(app.getId());
+    // Pinged IDs are distinct, so they are compared with expected ones as sorted arrays.
+    final int[] expectedIDs = new int[appList.size()];
+    for (int appIdx = 0; appIdx < expectedIDs.length; ++appIdx) {
+      expectedIDs[appIdx] = appList.get(appIdx).getId();
     }
+    Arrays.sort(expectedIDs);
 
+    final ExampleApp zeroApp = appList.get(0);
     try {
-      // Sleep to give applications time to start up.
-      Thread.sleep(5000);
+      // Every app pings the first one periodically, so wait until all pings have arrived.
+      Readiness.awaitAll(Collections.singleton(new ReadinessProbe() {
+        @Override
+        public boolean isReady() throws IOException {
+          return Arrays.equals(getSortedPingedIDs(zeroApp), expectedIDs);
+        }
+      }), PING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOGGER.warn("run(): Not all pings have arrived in time.");
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
 
-    ExampleApp zeroApp = appList.get(0);
     try {
-      Set<Integer> pingedIDs = new HashSet<>(zeroApp.getPingedIDs());
-      if (!pingedIDs.equals(expectedIDs)) {
+      int[] pingedIDs = getSortedPingedIDs(zeroApp);
+      if (!Arrays.equals(pingedIDs, expectedIDs)) {
         String errorMsg = String.format("Returned IDs are not equal to the set of all"
-            + " application IDs. Expected: %s, got: %s", expectedIDs, pingedIDs);
+            + " application IDs. Expected: %s, got: %s", Arrays.toString(expectedIDs),
+            Arrays.toString(pingedIDs));
         LOGGER.error("run(): " + errorMsg);
         result = new TestResult(TestResult.Type.FAILURE, errorMsg);
       }
@@ -65,4 +79,10 @@ public class ExampleDistributedPingTestScript extends AbstractExampleTestScript
   public String toString() {
     return "DistributedPingTestScript";
   }
+
+  private static int[] getSortedPingedIDs(ExampleApp app) throws IOException {
+    int[] pingedIDs = app.getPingedIDs();
+    Arrays.sort(pingedIDs);
+    return pingedIDs;
+  }
 }
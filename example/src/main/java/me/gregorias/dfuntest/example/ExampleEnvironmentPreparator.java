@@ -2,17 +2,34 @@ package me.gregorias.dfuntest.example;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import me.gregorias.dfuntest.BroadcastResult;
+import me.gregorias.dfuntest.ClockOffsets;
 import me.gregorias.dfuntest.Environment;
+import me.gregorias.dfuntest.EnvironmentGroup;
 import me.gregorias.dfuntest.EnvironmentPreparator;
+import me.gregorias.dfuntest.ParallelEnvironmentExecutor;
+import me.gregorias.dfuntest.ParallelEnvironmentExecutor.EnvironmentAction;
+import me.gregorias.dfuntest.ParallelExecutionException;
+import me.gregorias.dfuntest.RemoteProcess;
+import me.gregorias.dfuntest.SyncResult;
+import me.gregorias.dfuntest.util.CompressionCodec;
+import me.gregorias.dfuntest.util.LogMerger;
+import me.gregorias.dfuntest.util.TarUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Preparator of testing environments for example tests.
@@ -27,61 +44,130 @@ import java.util.LinkedList;
  * <li> This package is in dfuntest-example.jar file. </li>
  * </ul>
  *
+ * All environments are handled concurrently by {@link ParallelEnvironmentExecutor}. Single
+ * commands are broadcast to them through {@link EnvironmentGroup}. Both bound the number of
+ * operations running at the same time.
+ *
+ * Output is archived with tar and compressed with configured {@link CompressionCodec} on every
+ * environment before it is copied, since trace logs compress well and their transfer dominates
+ * collection time. Collected archives are extracted locally unless configured otherwise.
+ *
+ * Extracted logs of all environments are then merged by timestamp into {@value #TIMELINE_FILE}
+ * with {@link LogMerger}. Clock offset of every environment is measured with
+ * {@link ClockOffsets} during collection, so that skewed clocks do not reorder the timeline.
+ *
  * @author Grzegorz Milka
  */
 public class ExampleEnvironmentPreparator implements EnvironmentPreparator<Environment> {
   public static final String INITIAL_PORT_ARGUMENT_NAME =
       "ExampleEnvironmentPreparator.initialPort";
+  public static final String OUTPUT_COMPRESSION_ARGUMENT_NAME =
+      "ExampleEnvironmentPreparator.outputCompression";
+  public static final String SHOULD_DECOMPRESS_OUTPUT_ARGUMENT_NAME =
+      "ExampleEnvironmentPreparator.shouldDecompressOutput";
+  public static final String SHOULD_MERGE_OUTPUT_ARGUMENT_NAME =
+      "ExampleEnvironmentPreparator.shouldMergeOutput";
+  public static final CompressionCodec DEFAULT_OUTPUT_COMPRESSION = CompressionCodec.GZIP;
+  public static final boolean DEFAULT_SHOULD_DECOMPRESS_OUTPUT = true;
+  public static final boolean DEFAULT_SHOULD_MERGE_OUTPUT = true;
+  public static final String TIMELINE_FILE = "timeline.log";
   private static final Logger LOGGER = LoggerFactory.getLogger(ExampleEnvironmentPreparator.class);
   private static final Path LIBS_PATH = FileSystems.getDefault().getPath("lib");
   private static final Path JAR_PATH = FileSystems.getDefault().getPath("dfuntest-example.jar");
+  private static final int CLOCK_OFFSET_SAMPLE_COUNT = 3;
   private final int mInitialPort;
+  private CompressionCodec mOutputCompression = DEFAULT_OUTPUT_COMPRESSION;
+  private boolean mShouldDecompressOutput = DEFAULT_SHOULD_DECOMPRESS_OUTPUT;
+  private boolean mShouldMergeOutput = DEFAULT_SHOULD_MERGE_OUTPUT;
+  private final ParallelEnvironmentExecutor mParallelExecutor = new ParallelEnvironmentExecutor();
 
+  /**
+   * @param initialPort port of application in environment with id 0. Other applications use
+   *                    consecutive ports.
+   */
   @Inject
   public ExampleEnvironmentPreparator(@Named(INITIAL_PORT_ARGUMENT_NAME) int initialPort) {
     mInitialPort = initialPort;
   }
 
+  /**
+   * Overrides compression of output archived on environments before it is collected. Guice calls
+   * it only if {@value #OUTPUT_COMPRESSION_ARGUMENT_NAME} is bound.
+   *
+   * @param outputCompression compression of output archive. With {@link CompressionCodec#NONE}
+   *                          output is copied as is.
+   */
+  @Inject(optional = true)
+  public void setOutputCompression(@Named(OUTPUT_COMPRESSION_ARGUMENT_NAME)
+                                   CompressionCodec outputCompression) {
+    mOutputCompression = outputCompression;
+  }
+
+  /**
+   * Overrides whether collected archive should be extracted and removed. Guice calls it only if
+   * {@value #SHOULD_DECOMPRESS_OUTPUT_ARGUMENT_NAME} is bound.
+   *
+   * @param shouldDecompressOutput whether collected archive should be extracted and removed
+   */
+  @Inject(optional = true)
+  public void setShouldDecompressOutput(@Named(SHOULD_DECOMPRESS_OUTPUT_ARGUMENT_NAME)
+                                        boolean shouldDecompressOutput) {
+    mShouldDecompressOutput = shouldDecompressOutput;
+  }
+
+  /**
+   * Overrides whether collected logs should be merged into {@value #TIMELINE_FILE}. Guice calls it
+   * only if {@value #SHOULD_MERGE_OUTPUT_ARGUMENT_NAME} is bound.
+   *
+   * @param shouldMergeOutput whether collected logs should be merged. Logs are merged only if they
+   *                          are decompressed.
+   */
+  @Inject(optional = true)
+  public void setShouldMergeOutput(@Named(SHOULD_MERGE_OUTPUT_ARGUMENT_NAME)
+                                   boolean shouldMergeOutput) {
+    mShouldMergeOutput = shouldMergeOutput;
+  }
+
   @Override
   public void cleanAll(Collection<Environment> envs) {
-    String errorMsg = "cleanAll(): Could not clean environment.";
-    cleanOutput(envs);
-    for (Environment env : envs) {
-      try {
-        env.removeFile("lib");
-        env.removeFile("dfuntest-example.jar");
-      } catch (IOException e) {
-        LOGGER.error(errorMsg, e);
-      } catch (InterruptedException e) {
-        LOGGER.warn(errorMsg, e);
-        Thread.currentThread().interrupt();
+    executeBestEffort(envs, new EnvironmentAction<Environment>() {
+      @Override
+      public void run(Environment env) throws IOException, InterruptedException {
+        cleanAll(env);
       }
-    }
+    }, "cleanAll(): Could not clean environment.");
   }
 
   @Override
   public void cleanOutput(Collection<Environment> envs) {
-    String errorMsg = "cleanOutput(): Could not clean output in environment.";
-    for (Environment env : envs) {
-      try {
-        env.removeFile(ExampleApp.LOG_FILE);
-      } catch (IOException e) {
-        LOGGER.error(errorMsg, e);
-      } catch (InterruptedException e) {
-        LOGGER.warn(errorMsg, e);
-        Thread.currentThread().interrupt();
+    try {
+      BroadcastResult<Environment> result = new EnvironmentGroup<>(envs).removeFile(
+          ExampleApp.LOG_FILE, EnvironmentGroup.CompletionPolicy.ALL);
+      for (Environment env : result.getFailedEnvironments()) {
+        LOGGER.error("cleanOutput(): Could not clean output in environment {}.", env.getId(),
+            result.getResults().get(env).getException());
       }
+    } catch (InterruptedException e) {
+      LOGGER.warn("cleanOutput(): Interrupted while cleaning output.", e);
+      Thread.currentThread().interrupt();
     }
   }
 
   @Override
-  public void collectOutput(Collection<Environment> envs, Path destPath) {
-    for (Environment env : envs) {
-      try {
-        env.copyFilesToLocalDisk(ExampleApp.LOG_FILE, destPath.resolve(env.getId() + ""));
-      } catch (IOException e) {
-        LOGGER.warn("collectOutput(): Could not copy log file.", e);
+  public void collectOutput(Collection<Environment> envs, final Path destPath) {
+    final Map<Integer, Long> clockOffsetsMillis = new ConcurrentHashMap<>();
+    final boolean shouldMergeOutput = shouldMergeOutput();
+    executeBestEffort(envs, new EnvironmentAction<Environment>() {
+      @Override
+      public void run(Environment env) throws IOException, InterruptedException {
+        if (shouldMergeOutput) {
+          measureClockOffset(env, clockOffsetsMillis);
+        }
+        collectOutput(env, destPath.resolve(env.getId() + ""));
       }
+    }, "collectOutput(): Could not collect log file.");
+    if (shouldMergeOutput && !Thread.currentThread().isInterrupted()) {
+      mergeOutput(envs, destPath, clockOffsetsMillis);
     }
   }
 
@@ -93,37 +179,166 @@ public class ExampleEnvironmentPreparator implements EnvironmentPreparator<Envir
       throw new IllegalArgumentException("Collection of environments is empty.");
     }
 
-    String serverHostname = getServerHostname(envs);
-    Collection<Environment> preparedEnvs = new LinkedList<>();
-    for (Environment env : envs) {
-      prepareEnvConfiguration(env, serverHostname);
-      try {
-        String targetPath = ".";
-        env.copyFilesFromLocalDisk(JAR_PATH.toAbsolutePath(), targetPath);
-        env.copyFilesFromLocalDisk(LIBS_PATH.toAbsolutePath(), targetPath);
-        preparedEnvs.add(env);
-      } catch (IOException e) {
-        cleanAll(preparedEnvs);
-        LOGGER.error("prepare() -> Could not prepare environment.", e);
-        throw e;
-      }
+    prepareEnvsConfiguration(envs);
+
+    try {
+      mParallelExecutor.executeWithRollback(envs,
+          new EnvironmentAction<Environment>() {
+            @Override
+            public void run(Environment env) throws IOException {
+              prepare(env);
+            }
+          },
+          new EnvironmentAction<Environment>() {
+            @Override
+            public void run(Environment env) throws IOException, InterruptedException {
+              cleanAll(env);
+            }
+          });
+    } catch (ParallelExecutionException e) {
+      LOGGER.error("prepare() -> Could not prepare environments.", e);
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while preparing environments.");
     }
   }
 
   @Override
   public void restore(Collection<Environment> envs) throws IOException {
     LOGGER.info("restore()");
+    prepareEnvsConfiguration(envs);
   }
 
-  private String getServerHostname(Collection<Environment> envs) {
-    Iterator<Environment> environmentIterator = envs.iterator();
-    return environmentIterator.next().getHostname();
+  private void cleanAll(Environment env) throws IOException, InterruptedException {
+    cleanOutput(env);
+    env.removeFile("lib");
+    env.removeFile("dfuntest-example.jar");
   }
 
-  private void prepareEnvConfiguration(Environment env, String serverHostname) {
-    int portSkew = env.getId();
-    env.setProperty(ExampleApp.LOCAL_PORT_ENV_FIELD, mInitialPort + portSkew);
-    env.setProperty(ExampleApp.SERVER_HOSTNAME_ENV_FIELD, serverHostname);
-    env.setProperty(ExampleApp.SERVER_PORT_ENV_FIELD, mInitialPort);
+  private void cleanOutput(Environment env) throws IOException, InterruptedException {
+    env.removeFile(ExampleApp.LOG_FILE);
+  }
+
+  // Archives log file on the environment, so that only compressed output is transferred, and
+  // optionally extracts the archive locally.
+  private void collectOutput(Environment env, Path envDestPath)
+      throws IOException, InterruptedException {
+    if (mOutputCompression == CompressionCodec.NONE) {
+      env.copyFilesToLocalDisk(ExampleApp.LOG_FILE, envDestPath);
+      return;
+    }
+
+    String archiveName = ExampleApp.LOG_FILE + mOutputCompression.getArchiveExtension();
+    try {
+      RemoteProcess tarProcess = env.runCommand(Arrays.asList("tar",
+          mOutputCompression.getTarCreateOption(), archiveName, ExampleApp.LOG_FILE));
+      int exitCode = tarProcess.waitFor();
+      if (exitCode != 0) {
+        throw new IOException(String.format("Archiving of %s in environment %d has ended with"
+            + " failure exit code: %d", ExampleApp.LOG_FILE, env.getId(), exitCode));
+      }
+      env.copyFilesToLocalDisk(archiveName, envDestPath);
+    } finally {
+      removeArchive(env, archiveName);
+    }
+
+    if (mShouldDecompressOutput) {
+      Path archivePath = envDestPath.resolve(archiveName);
+      try (InputStream inputStream = mOutputCompression.newDecompressingInputStream(
+          new BufferedInputStream(Files.newInputStream(archivePath)))) {
+        TarUtils.extract(inputStream, envDestPath);
+      }
+      Files.delete(archivePath);
+    }
+  }
+
+  // Removes output archive from the environment. Failure is only logged, so that it does not hide
+  // the result of collection.
+  private void removeArchive(Environment env, String archiveName) throws InterruptedException {
+    try {
+      env.removeFile(archiveName);
+    } catch (IOException e) {
+      LOGGER.warn("removeArchive(): Could not remove {} from environment {}.", archiveName,
+          env.getId(), e);
+    }
+  }
+
+  private void measureClockOffset(Environment env, Map<Integer, Long> clockOffsetsMillis)
+      throws InterruptedException {
+    try {
+      long clockOffsetMillis = ClockOffsets.measureMillis(env, CLOCK_OFFSET_SAMPLE_COUNT);
+      LOGGER.debug("measureClockOffset(): Clock of environment {} is {} ms ahead.", env.getId(),
+          clockOffsetMillis);
+      clockOffsetsMillis.put(env.getId(), clockOffsetMillis);
+    } catch (IOException e) {
+      LOGGER.warn("measureClockOffset(): Could not measure clock offset of environment {}. Its"
+          + " log will not be corrected.", env.getId(), e);
+    }
+  }
+
+  // Merges collected logs of all environments into one timeline in destPath.
+  private void mergeOutput(Collection<Environment> envs,
+      Path destPath,
+      Map<Integer, Long> clockOffsetsMillis) {
+    Map<Integer, Path> logPaths = new TreeMap<>();
+    for (Environment env : envs) {
+      Path logPath = destPath.resolve(env.getId() + "").resolve(ExampleApp.LOG_FILE);
+      if (Files.isRegularFile(logPath)) {
+        logPaths.put(env.getId(), logPath);
+      }
+    }
+    if (logPaths.isEmpty()) {
+      LOGGER.debug("mergeOutput(): There are no collected logs to merge.");
+      return;
+    }
+
+    try {
+      long entryCount = new LogMerger(ExampleApp.LOG_DATE_TIME_FORMAT).merge(logPaths,
+          clockOffsetsMillis, destPath.resolve(TIMELINE_FILE));
+      LOGGER.info("mergeOutput(): Merged {} entries of {} logs.", entryCount, logPaths.size());
+    } catch (IOException e) {
+      LOGGER.error("mergeOutput(): Could not merge logs.", e);
+    }
+  }
+
+  // Logs are merged only if they are collected uncompressed or decompressed after collection.
+  private boolean shouldMergeOutput() {
+    return mShouldMergeOutput
+        && (mOutputCompression == CompressionCodec.NONE || mShouldDecompressOutput);
+  }
+
+  private void executeBestEffort(Collection<Environment> envs,
+      EnvironmentAction<Environment> action,
+      String errorMsg) {
+    try {
+      Map<Environment, Exception> failures = mParallelExecutor.execute(envs, action);
+      for (Exception failure : failures.values()) {
+        LOGGER.error(errorMsg, failure);
+      }
+    } catch (InterruptedException e) {
+      LOGGER.warn(errorMsg, e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void prepare(Environment env) throws IOException {
+    String targetPath = ".";
+    env.copyFilesFromLocalDisk(JAR_PATH.toAbsolutePath(), targetPath);
+    SyncResult libsSyncResult = env.syncFilesFromLocalDisk(LIBS_PATH.toAbsolutePath(),
+        targetPath);
+    LOGGER.info("prepare(): Synchronized libraries of environment {}: {}.", env.getId(),
+        libsSyncResult);
+  }
+
+  // The first environment hosts the server. Environments may be prepared in separate groups, so
+  // its port depends on its id.
+  private void prepareEnvsConfiguration(Collection<Environment> envs) {
+    Environment serverEnv = envs.iterator().next();
+    for (Environment env : envs) {
+      env.setProperty(ExampleApp.LOCAL_PORT_ENV_FIELD, mInitialPort + env.getId());
+      env.setProperty(ExampleApp.SERVER_HOSTNAME_ENV_FIELD, serverEnv.getHostname());
+      env.setProperty(ExampleApp.SERVER_PORT_ENV_FIELD, mInitialPort + serverEnv.getId());
+    }
   }
 }
@@ -3,6 +3,7 @@ package me.gregorias.dfuntest.example;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
@@ -13,11 +14,14 @@ import me.gregorias.dfuntest.ApplicationFactory;
 import me.gregorias.dfuntest.Environment;
 import me.gregorias.dfuntest.EnvironmentFactory;
 import me.gregorias.dfuntest.EnvironmentPreparator;
+import me.gregorias.dfuntest.InProcessEnvironmentFactory;
+import me.gregorias.dfuntest.LocalEnvironment;
 import me.gregorias.dfuntest.LocalEnvironmentFactory;
 import me.gregorias.dfuntest.MultiTestRunner;
 import me.gregorias.dfuntest.SSHEnvironmentFactory;
 import me.gregorias.dfuntest.TestResult;
 import me.gregorias.dfuntest.TestRunner;
+import me.gregorias.dfuntest.TestRunnerDaemon;
 import me.gregorias.dfuntest.TestScript;
 import me.gregorias.dfuntest.testrunnerbuilders.GuiceTestRunnerModule;
 import org.apache.commons.cli.BasicParser;
@@ -35,6 +39,7 @@ import org.apache.commons.configuration.tree.ConfigurationNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
@@ -70,6 +75,13 @@ import java.util.concurrent.Executors;
  * </p>
  *
  * <p>
+ * With --daemon option environments are created and prepared once and kept alive by
+ * {@link TestRunnerDaemon}, which runs tests submitted on a loopback port, for example:
+ *
+ * {@code echo "RUN" | nc localhost 9970}
+ * </p>
+ *
+ * <p>
  * For help:
  *
  * {@code ExampleGuiceMain --help}
@@ -89,6 +101,7 @@ public class ExampleGuiceMain {
 
   private static final String CONFIG_OPTION = "config";
   private static final String CONFIG_FILE_OPTION = "config-file";
+  private static final String DAEMON_OPTION = "daemon";
   private static final String ENV_FACTORY_OPTION = "env-factory";
   private static final String HELP_OPTION = "help";
 
@@ -98,9 +111,11 @@ public class ExampleGuiceMain {
   private static final Map<String, String> DEFAULT_PROPERTIES = newDefaultProperties();
 
   private static Class<? extends EnvironmentFactory<Environment>> mEnvironmentFactoryClass;
+  private static boolean mShouldRunDaemon;
 
   public static void main(String[] args) {
     mEnvironmentFactoryClass = null;
+    mShouldRunDaemon = false;
     Map<String, String> properties = new HashMap<>(DEFAULT_PROPERTIES);
     Map<String, String> argumentProperties;
     try {
@@ -128,6 +143,10 @@ public class ExampleGuiceMain {
     ExampleGuiceModule guiceExampleModule = new ExampleGuiceModule();
 
     Injector injector = Guice.createInjector(guiceBaseModule, guiceExampleModule);
+    if (mShouldRunDaemon) {
+      runDaemon(injector.getInstance(Key.get(new TestRunnerDaemonTypeLiteral())));
+      return;
+    }
     TestRunner testRunner = injector.getInstance(TestRunner.class);
 
     TestResult result = testRunner.run();
@@ -158,6 +177,8 @@ public class ExampleGuiceMain {
       multiBinder.addBinding().toInstance(new ExampleSanityTestScript());
       multiBinder.addBinding().toInstance(new ExamplePingGetIDTestScript());
       multiBinder.addBinding().toInstance(new ExampleDistributedPingTestScript());
+      multiBinder.addBinding().to(ExampleLoadTestScript.class);
+      multiBinder.addBinding().to(ExampleOpenLoopLoadTestScript.class);
       bind(TestRunner.class).to(new MultiTestRunnerTypeLiteral()).in(Singleton.class);
     }
 
@@ -190,6 +211,10 @@ public class ExampleGuiceMain {
       TypeLiteral<MultiTestRunner<Environment, ExampleApp>> {
   }
 
+  private static class TestRunnerDaemonTypeLiteral extends
+      TypeLiteral<TestRunnerDaemon<Environment, ExampleApp>> {
+  }
+
   private static String calculateCurrentTimeStamp() {
     return new SimpleDateFormat("yyyyMMdd-HHmmssSSS").format(new Date());
   }
@@ -226,13 +251,15 @@ public class ExampleGuiceMain {
 
     OptionBuilder.withLongOpt(ENV_FACTORY_OPTION);
     OptionBuilder.hasArg();
-    OptionBuilder.withDescription("Environment factory name. Can be either local or ssh.");
+    OptionBuilder.withDescription("Environment factory name. Can be local, inprocess or ssh.");
 
     Option envFactoryOption = OptionBuilder.create();
 
     options.addOption(configOption);
     options.addOption(configFileOption);
     options.addOption(envFactoryOption);
+    options.addOption(null, DAEMON_OPTION, false, "Keep environments alive and run tests"
+        + " submitted on TestRunnerDaemon.port of loopback address.");
     options.addOption("h", HELP_OPTION, false, "Print help.");
     return options;
   }
@@ -240,10 +267,46 @@ public class ExampleGuiceMain {
   private static Map<String, String> newDefaultProperties() {
     Map<String, String> properties = new HashMap<>();
     properties.put(LocalEnvironmentFactory.DIR_PREFIX_ARGUMENT_NAME, ENV_DIR_PREFIX);
+    properties.put(LocalEnvironmentFactory.DEPLOYMENT_MODE_ARGUMENT_NAME,
+        LocalEnvironment.DeploymentMode.HARD_LINK.name());
+    properties.put(LocalEnvironmentFactory.OUTPUT_DRAINING_MODE_ARGUMENT_NAME,
+        LocalEnvironment.OutputDrainingMode.FILE.name());
+    properties.put(LocalEnvironmentFactory.OUTPUT_BUFFER_SIZE_ARGUMENT_NAME,
+        Integer.toString(LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE));
     properties.put(SSHEnvironmentFactory.REMOTE_DIR_ARGUMENT_NAME, ENV_DIR_PREFIX);
     properties.put(MultiTestRunner.SHOULD_PREPARE_ARGUMENT_NAME, "true");
     properties.put(MultiTestRunner.SHOULD_CLEAN_ARGUMENT_NAME, "true");
     properties.put(MultiTestRunner.REPORT_PATH_ARGUMENT_NAME, calculateReportPath().toString());
+    properties.put(MultiTestRunner.MAX_CONCURRENT_SCRIPTS_ARGUMENT_NAME,
+        Integer.toString(MultiTestRunner.DEFAULT_MAX_CONCURRENT_SCRIPTS));
+    properties.put(MultiTestRunner.SCRIPT_TIMEOUT_MILLIS_ARGUMENT_NAME,
+        Long.toString(MultiTestRunner.DEFAULT_SCRIPT_TIMEOUT_MILLIS));
+    properties.put(TestRunnerDaemon.PORT_ARGUMENT_NAME,
+        Integer.toString(TestRunnerDaemon.DEFAULT_PORT));
+    properties.put(ExampleEnvironmentPreparator.OUTPUT_COMPRESSION_ARGUMENT_NAME,
+        ExampleEnvironmentPreparator.DEFAULT_OUTPUT_COMPRESSION.name());
+    properties.put(ExampleEnvironmentPreparator.SHOULD_DECOMPRESS_OUTPUT_ARGUMENT_NAME,
+        Boolean.toString(ExampleEnvironmentPreparator.DEFAULT_SHOULD_DECOMPRESS_OUTPUT));
+    properties.put(ExampleEnvironmentPreparator.SHOULD_MERGE_OUTPUT_ARGUMENT_NAME,
+        Boolean.toString(ExampleEnvironmentPreparator.DEFAULT_SHOULD_MERGE_OUTPUT));
+    properties.put(ExampleLoadTestScript.DURATION_MILLIS_ARGUMENT_NAME,
+        Long.toString(ExampleLoadTestScript.DEFAULT_DURATION_MILLIS));
+    properties.put(ExampleLoadTestScript.CONCURRENCY_ARGUMENT_NAME,
+        Integer.toString(ExampleLoadTestScript.DEFAULT_CONCURRENCY));
+    properties.put(ExampleLoadTestScript.TARGET_RATE_ARGUMENT_NAME,
+        Integer.toString(ExampleLoadTestScript.DEFAULT_TARGET_RATE));
+    properties.put(ExampleLoadTestScript.GET_ID_PERCENTAGE_ARGUMENT_NAME,
+        Integer.toString(ExampleLoadTestScript.DEFAULT_GET_ID_PERCENTAGE));
+    properties.put(ExampleOpenLoopLoadTestScript.PEAK_RATE_ARGUMENT_NAME,
+        Integer.toString(ExampleOpenLoopLoadTestScript.DEFAULT_PEAK_RATE));
+    properties.put(ExampleOpenLoopLoadTestScript.RAMP_UP_MILLIS_ARGUMENT_NAME,
+        Long.toString(ExampleOpenLoopLoadTestScript.DEFAULT_RAMP_UP_MILLIS));
+    properties.put(ExampleOpenLoopLoadTestScript.STEADY_STATE_MILLIS_ARGUMENT_NAME,
+        Long.toString(ExampleOpenLoopLoadTestScript.DEFAULT_STEADY_STATE_MILLIS));
+    properties.put(ExampleOpenLoopLoadTestScript.RAMP_DOWN_MILLIS_ARGUMENT_NAME,
+        Long.toString(ExampleOpenLoopLoadTestScript.DEFAULT_RAMP_DOWN_MILLIS));
+    properties.put(ExampleOpenLoopLoadTestScript.GET_ID_PERCENTAGE_ARGUMENT_NAME,
+        Integer.toString(ExampleOpenLoopLoadTestScript.DEFAULT_GET_ID_PERCENTAGE));
     return properties;
   }
 
@@ -292,12 +355,17 @@ public class ExampleGuiceMain {
       }
     }
 
+    mShouldRunDaemon = cmd.hasOption(DAEMON_OPTION);
+
     if (cmd.hasOption(ENV_FACTORY_OPTION)) {
       String argValue = cmd.getOptionValue(ENV_FACTORY_OPTION);
       switch (argValue) {
         case "local":
           mEnvironmentFactoryClass = LocalEnvironmentFactory.class;
           break;
+        case "inprocess":
+          mEnvironmentFactoryClass = InProcessEnvironmentFactory.class;
+          break;
         case "ssh":
           mEnvironmentFactoryClass = SSHEnvironmentFactory.class;
           break;
@@ -315,4 +383,22 @@ public class ExampleGuiceMain {
 
     return properties;
   }
+
+  private static void runDaemon(final TestRunnerDaemon<Environment, ExampleApp> daemon) {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        daemon.shutDown();
+      }
+    });
+
+    try {
+      daemon.start();
+      daemon.serve();
+    } catch (IOException e) {
+      LOGGER.error("runDaemon(): Daemon has failed.", e);
+      daemon.shutDown();
+      System.exit(1);
+    }
+  }
 }
@@ -0,0 +1,219 @@
+package me.gregorias.dfuntest.example;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import me.gregorias.dfuntest.TestResult;
+import me.gregorias.dfuntest.TimeLimitedTestScript;
+import me.gregorias.dfuntest.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Closed-loop load test. Each of concurrency clients repeatedly sends PING or GET_ID request to
+ * one of applications over its own {@link PipelinedConnection} and waits for the response before
+ * sending the next one. If target rate is positive, clients are paced so that together they send
+ * that many requests per second at most.
+ * </p>
+ *
+ * <p>
+ * Latencies of both request types are recorded in nanoseconds in separate
+ * {@link LatencyHistogram}s. Throughput and latency percentiles are reported in the description of
+ * the result. Encoded histograms, which may be merged with histograms of other runs, and a summary
+ * are saved as artifacts in the report directory of this script.
+ * </p>
+ */
+public class ExampleLoadTestScript extends AbstractExampleTestScript
+    implements TimeLimitedTestScript<ExampleApp> {
+  public static final String DURATION_MILLIS_ARGUMENT_NAME =
+      "ExampleLoadTestScript.durationMillis";
+  public static final String CONCURRENCY_ARGUMENT_NAME = "ExampleLoadTestScript.concurrency";
+  public static final String TARGET_RATE_ARGUMENT_NAME = "ExampleLoadTestScript.targetRate";
+  public static final String GET_ID_PERCENTAGE_ARGUMENT_NAME =
+      "ExampleLoadTestScript.getIDPercentage";
+  public static final long DEFAULT_DURATION_MILLIS = 5000;
+  public static final int DEFAULT_CONCURRENCY = 4;
+  public static final int DEFAULT_TARGET_RATE = 0;
+  public static final int DEFAULT_GET_ID_PERCENTAGE = 10;
+  public static final String PING_HISTOGRAM_FILENAME = "ping-latency.hist";
+  public static final String GET_ID_HISTOGRAM_FILENAME = "getid-latency.hist";
+  public static final String SUMMARY_FILENAME = "load-summary.txt";
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExampleLoadTestScript.class);
+  private static final int LOAD_PING_ID_OFFSET = 1000000;
+  private static final long TERMINATION_GRACE_MILLIS = 10000;
+  private final long mDurationMillis;
+  private final int mConcurrency;
+  private final int mTargetRate;
+  private final int mGetIDPercentage;
+
+  public ExampleLoadTestScript() {
+    this(DEFAULT_DURATION_MILLIS, DEFAULT_CONCURRENCY, DEFAULT_TARGET_RATE,
+        DEFAULT_GET_ID_PERCENTAGE);
+  }
+
+  /**
+   * @param durationMillis duration of load
+   * @param concurrency number of clients sending requests
+   * @param targetRate maximal number of requests per second sent by all clients. 0 means no limit.
+   * @param getIDPercentage percentage of requests which are GET_ID, the rest are PING
+   */
+  @Inject
+  public ExampleLoadTestScript(@Named(DURATION_MILLIS_ARGUMENT_NAME) long durationMillis,
+                               @Named(CONCURRENCY_ARGUMENT_NAME) int concurrency,
+                               @Named(TARGET_RATE_ARGUMENT_NAME) int targetRate,
+                               @Named(GET_ID_PERCENTAGE_ARGUMENT_NAME) int getIDPercentage) {
+    if (durationMillis <= 0 || concurrency <= 0 || targetRate < 0) {
+      throw new IllegalArgumentException("Duration and concurrency should be positive and target"
+          + " rate nonnegative.");
+    }
+    if (getIDPercentage < 0 || getIDPercentage > 100) {
+      throw new IllegalArgumentException("GET_ID percentage should be between 0 and 100.");
+    }
+    mDurationMillis = durationMillis;
+    mConcurrency = concurrency;
+    mTargetRate = targetRate;
+    mGetIDPercentage = getIDPercentage;
+  }
+
+  @Override
+  public TestResult run(Collection<ExampleApp> apps) {
+    LOGGER.info("run(): Running load of {} clients for {} ms.", mConcurrency, mDurationMillis);
+    try {
+      startUpApps(apps);
+    } catch (IOException e) {
+      return new TestResult(TestResult.Type.FAILURE, "An app could not be started.");
+    }
+
+    try {
+      return generateLoad(new ArrayList<>(apps));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new TestResult(TestResult.Type.FAILURE, "Load test was interrupted.");
+    } finally {
+      shutDownApps(apps);
+    }
+  }
+
+  /**
+   * Load lasts for the configured duration, so the limit is that and time of apps' lifecycle.
+   */
+  @Override
+  public long getTimeoutMillis() {
+    return mDurationMillis + TERMINATION_GRACE_MILLIS + LIFECYCLE_TIMEOUT_MILLIS;
+  }
+
+  @Override
+  public String toString() {
+    return "ExampleLoadTestScript";
+  }
+
+  private class LoadClient implements Runnable {
+    private final int mClientIdx;
+    private final ExampleApp mApp;
+    private final long mDeadline;
+    private final long mSendIntervalNanos;
+    private final LatencyHistogram mPingHistogram;
+    private final LatencyHistogram mGetIDHistogram;
+    private final AtomicLong mErrorCount;
+
+    public LoadClient(int clientIdx,
+                      ExampleApp app,
+                      long deadline,
+                      long sendIntervalNanos,
+                      LatencyHistogram pingHistogram,
+                      LatencyHistogram getIDHistogram,
+                      AtomicLong errorCount) {
+      mClientIdx = clientIdx;
+      mApp = app;
+      mDeadline = deadline;
+      mSendIntervalNanos = sendIntervalNanos;
+      mPingHistogram = pingHistogram;
+      mGetIDHistogram = getIDHistogram;
+      mErrorCount = errorCount;
+    }
+
+    @Override
+    public void run() {
+      Random random = new Random(mClientIdx);
+      try (PipelinedConnection connection = mApp.openPipelinedConnection()) {
+        long nextSendTime = System.nanoTime();
+        while (System.nanoTime() < mDeadline) {
+          if (mSendIntervalNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nextSendTime - System.nanoTime());
+            nextSendTime += mSendIntervalNanos;
+          }
+          boolean isGetID = random.nextInt(100) < mGetIDPercentage;
+          long startTime = System.nanoTime();
+          if (isGetID) {
+            connection.getPingedIDs().get();
+            mGetIDHistogram.recordValue(System.nanoTime() - startTime);
+          } else {
+            connection.ping(LOAD_PING_ID_OFFSET + mClientIdx).get();
+            mPingHistogram.recordValue(System.nanoTime() - startTime);
+          }
+        }
+      } catch (ExecutionException | IOException e) {
+        LOGGER.warn("LoadClient.run(): Client {} has failed.", mClientIdx, e);
+        mErrorCount.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private TestResult generateLoad(List<ExampleApp> apps) throws InterruptedException {
+    LatencyHistogram pingHistogram = new LatencyHistogram();
+    LatencyHistogram getIDHistogram = new LatencyHistogram();
+    AtomicLong errorCount = new AtomicLong();
+    long sendIntervalNanos = mTargetRate == 0 ? 0
+        : TimeUnit.SECONDS.toNanos(mConcurrency) / mTargetRate;
+
+    ExecutorService executor = Executors.newFixedThreadPool(mConcurrency);
+    long startTime = System.nanoTime();
+    long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(mDurationMillis);
+    for (int clientIdx = 0; clientIdx < mConcurrency; ++clientIdx) {
+      executor.execute(new LoadClient(clientIdx, apps.get(clientIdx % apps.size()), deadline,
+          sendIntervalNanos, pingHistogram, getIDHistogram, errorCount));
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(mDurationMillis + TERMINATION_GRACE_MILLIS,
+          TimeUnit.MILLISECONDS)) {
+        LOGGER.warn("generateLoad(): Clients have not finished in time.");
+        errorCount.incrementAndGet();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    long elapsedNanos = System.nanoTime() - startTime;
+
+    String summary = formatLatencies("PING", pingHistogram, elapsedNanos) + "\n"
+        + formatLatencies("GET_ID", getIDHistogram, elapsedNanos) + "\n"
+        + String.format("errors=%d", errorCount.get());
+    LOGGER.info("generateLoad(): Load has ended.\n{}", summary);
+
+    Map<String, String> artifacts = new LinkedHashMap<>();
+    artifacts.put(PING_HISTOGRAM_FILENAME, pingHistogram.encode());
+    artifacts.put(GET_ID_HISTOGRAM_FILENAME, getIDHistogram.encode());
+    artifacts.put(SUMMARY_FILENAME, summary);
+    TestResult.Type type = TestResult.Type.SUCCESS;
+    if (errorCount.get() > 0
+        || pingHistogram.getTotalCount() + getIDHistogram.getTotalCount() == 0) {
+      type = TestResult.Type.FAILURE;
+    }
+    return new TestResult(type, summary.replace("\n", "; "), artifacts);
+  }
+}
@@ -2,6 +2,7 @@ package me.gregorias.dfuntest.example;
 
 import me.gregorias.dfuntest.Environment;
 import me.gregorias.dfuntest.EnvironmentFactory;
+import me.gregorias.dfuntest.LocalEnvironment;
 import me.gregorias.dfuntest.LocalEnvironmentFactory;
 import me.gregorias.dfuntest.testrunnerbuilders.ManualTestRunnerBuilder;
 import me.gregorias.dfuntest.SSHEnvironmentFactory;
@@ -80,6 +81,8 @@ public class ExampleManualMain {
     builder.addTestScript(new ExampleSanityTestScript());
     builder.addTestScript(new ExamplePingGetIDTestScript());
     builder.addTestScript(new ExampleDistributedPingTestScript());
+    builder.addTestScript(new ExampleLoadTestScript());
+    builder.addTestScript(new ExampleOpenLoopLoadTestScript());
 
     builder.setShouldPrepareEnvironments(true);
     builder.setShouldCleanEnvironments(true);
@@ -114,7 +117,11 @@ public class ExampleManualMain {
     switch (args[1]) {
       case "local":
         int envCount = Integer.parseInt(args[2]);
-        return new LocalEnvironmentFactory(envCount, ENV_DIR_PREFIX);
+        return new LocalEnvironmentFactory(envCount,
+            ENV_DIR_PREFIX,
+            LocalEnvironment.DeploymentMode.HARD_LINK,
+            LocalEnvironment.OutputDrainingMode.FILE,
+            LocalEnvironment.DEFAULT_OUTPUT_BUFFER_SIZE);
       case "ssh":
         if (args.length < 5) {
           LOGGER.error(USAGE);
@@ -0,0 +1,241 @@
+package me.gregorias.dfuntest.example;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import me.gregorias.dfuntest.TestResult;
+import me.gregorias.dfuntest.TimeLimitedTestScript;
+import me.gregorias.dfuntest.util.LatencyHistogram;
+import me.gregorias.dfuntest.util.OpenLoopSchedule;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Open-loop load test. Requests are sent to applications over {@link PipelinedConnection}s at
+ * times given by {@link OpenLoopSchedule}, without waiting for responses to previous requests, so
+ * a stall of the system does not stop the load.
+ * </p>
+ *
+ * <p>
+ * Latency of a request is measured from its intended send time, not from the time it was actually
+ * sent, which also accounts for the time a request was delayed by a stalled connection. Steady
+ * state latencies are recorded in the same histograms and reported in the same format as in
+ * {@link ExampleLoadTestScript}. Latencies of ramp-up and ramp-down are recorded separately.
+ * </p>
+ */
+public class ExampleOpenLoopLoadTestScript extends AbstractExampleTestScript
+    implements TimeLimitedTestScript<ExampleApp> {
+  public static final String PEAK_RATE_ARGUMENT_NAME = "ExampleOpenLoopLoadTestScript.peakRate";
+  public static final String RAMP_UP_MILLIS_ARGUMENT_NAME =
+      "ExampleOpenLoopLoadTestScript.rampUpMillis";
+  public static final String STEADY_STATE_MILLIS_ARGUMENT_NAME =
+      "ExampleOpenLoopLoadTestScript.steadyStateMillis";
+  public static final String RAMP_DOWN_MILLIS_ARGUMENT_NAME =
+      "ExampleOpenLoopLoadTestScript.rampDownMillis";
+  public static final String GET_ID_PERCENTAGE_ARGUMENT_NAME =
+      "ExampleOpenLoopLoadTestScript.getIDPercentage";
+  public static final int DEFAULT_PEAK_RATE = 1000;
+  public static final long DEFAULT_RAMP_UP_MILLIS = 1000;
+  public static final long DEFAULT_STEADY_STATE_MILLIS = 5000;
+  public static final long DEFAULT_RAMP_DOWN_MILLIS = 1000;
+  public static final int DEFAULT_GET_ID_PERCENTAGE = 10;
+  public static final String RAMP_HISTOGRAM_FILENAME = "ramp-latency.hist";
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+      ExampleOpenLoopLoadTestScript.class);
+  private static final int LOAD_PING_ID = 2000000;
+  private static final long COMPLETION_GRACE_MILLIS = 10000;
+  private final OpenLoopSchedule mSchedule;
+  private final long mDurationMillis;
+  private final int mGetIDPercentage;
+
+  public ExampleOpenLoopLoadTestScript() {
+    this(DEFAULT_PEAK_RATE, DEFAULT_RAMP_UP_MILLIS, DEFAULT_STEADY_STATE_MILLIS,
+        DEFAULT_RAMP_DOWN_MILLIS, DEFAULT_GET_ID_PERCENTAGE);
+  }
+
+  /**
+   * @param peakRate number of requests per second sent to all applications in steady state
+   * @param rampUpMillis duration of ramp-up
+   * @param steadyStateMillis duration of steady state
+   * @param rampDownMillis duration of ramp-down
+   * @param getIDPercentage percentage of requests which are GET_ID, the rest are PING
+   */
+  @Inject
+  public ExampleOpenLoopLoadTestScript(@Named(PEAK_RATE_ARGUMENT_NAME) int peakRate,
+                                       @Named(RAMP_UP_MILLIS_ARGUMENT_NAME) long rampUpMillis,
+                                       @Named(STEADY_STATE_MILLIS_ARGUMENT_NAME)
+                                       long steadyStateMillis,
+                                       @Named(RAMP_DOWN_MILLIS_ARGUMENT_NAME) long rampDownMillis,
+                                       @Named(GET_ID_PERCENTAGE_ARGUMENT_NAME)
+                                       int getIDPercentage) {
+    if (getIDPercentage < 0 || getIDPercentage > 100) {
+      throw new IllegalArgumentException("GET_ID percentage should be between 0 and 100.");
+    }
+    mSchedule = new OpenLoopSchedule(peakRate, rampUpMillis, steadyStateMillis, rampDownMillis,
+        TimeUnit.MILLISECONDS);
+    if (mSchedule.getRequestCount() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Schedule has too many requests.");
+    }
+    mDurationMillis = rampUpMillis + steadyStateMillis + rampDownMillis;
+    mGetIDPercentage = getIDPercentage;
+  }
+
+  @Override
+  public TestResult run(Collection<ExampleApp> apps) {
+    LOGGER.info("run(): Running open-loop load of {} requests.", mSchedule.getRequestCount());
+    try {
+      startUpApps(apps);
+    } catch (IOException e) {
+      return new TestResult(TestResult.Type.FAILURE, "An app could not be started.");
+    }
+
+    List<PipelinedConnection> connections = new ArrayList<>();
+    try {
+      for (ExampleApp app : apps) {
+        connections.add(app.openPipelinedConnection());
+      }
+      return generateLoad(connections);
+    } catch (IOException e) {
+      LOGGER.error("run(): Could not connect to an app.", e);
+      return new TestResult(TestResult.Type.FAILURE, "Could not connect to an app.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new TestResult(TestResult.Type.FAILURE, "Load test was interrupted.");
+    } finally {
+      for (PipelinedConnection connection : connections) {
+        IOUtils.closeQuietly(connection);
+      }
+      shutDownApps(apps);
+    }
+  }
+
+  /**
+   * Load lasts for the duration of all phases of the schedule, so the limit is that, time to
+   * receive the last responses and time of apps' lifecycle.
+   */
+  @Override
+  public long getTimeoutMillis() {
+    return mDurationMillis + COMPLETION_GRACE_MILLIS + LIFECYCLE_TIMEOUT_MILLIS;
+  }
+
+  @Override
+  public String toString() {
+    return "ExampleOpenLoopLoadTestScript";
+  }
+
+  private static class LatencyRecorder implements FutureCallback<Object> {
+    private final long mIntendedSendTime;
+    private final LatencyHistogram mHistogram;
+    private final AtomicLong mErrorCount;
+    private final CountDownLatch mCompletionLatch;
+
+    public LatencyRecorder(long intendedSendTime,
+                           LatencyHistogram histogram,
+                           AtomicLong errorCount,
+                           CountDownLatch completionLatch) {
+      mIntendedSendTime = intendedSendTime;
+      mHistogram = histogram;
+      mErrorCount = errorCount;
+      mCompletionLatch = completionLatch;
+    }
+
+    @Override
+    public void onSuccess(Object result) {
+      mHistogram.recordValue(System.nanoTime() - mIntendedSendTime);
+      mCompletionLatch.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      mErrorCount.incrementAndGet();
+      mCompletionLatch.countDown();
+    }
+  }
+
+  private TestResult generateLoad(List<PipelinedConnection> connections)
+      throws InterruptedException {
+    LatencyHistogram pingHistogram = new LatencyHistogram();
+    LatencyHistogram getIDHistogram = new LatencyHistogram();
+    LatencyHistogram rampHistogram = new LatencyHistogram();
+    AtomicLong errorCount = new AtomicLong();
+    int requestCount = (int) mSchedule.getRequestCount();
+    CountDownLatch completionLatch = new CountDownLatch(requestCount);
+    Random random = new Random(0);
+    long maxSendLagNanos = 0;
+
+    long startTime = System.nanoTime();
+    for (int requestIdx = 0; requestIdx < requestCount; ++requestIdx) {
+      long intendedSendTime = startTime + mSchedule.getIntendedSendTimeNanos(requestIdx);
+      sleepUntil(intendedSendTime);
+      maxSendLagNanos = Math.max(maxSendLagNanos, System.nanoTime() - intendedSendTime);
+
+      PipelinedConnection connection = connections.get(requestIdx % connections.size());
+      boolean isGetID = random.nextInt(100) < mGetIDPercentage;
+      LatencyHistogram histogram = rampHistogram;
+      if (mSchedule.getPhase(requestIdx) == OpenLoopSchedule.Phase.STEADY_STATE) {
+        histogram = isGetID ? getIDHistogram : pingHistogram;
+      }
+      try {
+        ListenableFuture<?> response = isGetID ? connection.getPingedIDs()
+            : connection.ping(LOAD_PING_ID);
+        Futures.addCallback(response, new LatencyRecorder(intendedSendTime, histogram,
+            errorCount, completionLatch));
+      } catch (IOException e) {
+        LOGGER.debug("generateLoad(): Could not send request.", e);
+        errorCount.incrementAndGet();
+        completionLatch.countDown();
+      }
+    }
+
+    if (!completionLatch.await(COMPLETION_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+      LOGGER.warn("generateLoad(): {} requests have not been answered in time.",
+          completionLatch.getCount());
+      errorCount.addAndGet(completionLatch.getCount());
+    }
+
+    long steadyStateNanos = mSchedule.getDurationNanos(OpenLoopSchedule.Phase.STEADY_STATE);
+    long rampNanos = mSchedule.getDurationNanos(OpenLoopSchedule.Phase.RAMP_UP)
+        + mSchedule.getDurationNanos(OpenLoopSchedule.Phase.RAMP_DOWN);
+    String summary = formatLatencies("PING", pingHistogram, steadyStateNanos) + "\n"
+        + formatLatencies("GET_ID", getIDHistogram, steadyStateNanos) + "\n"
+        + formatLatencies("RAMP", rampHistogram, Math.max(1, rampNanos)) + "\n"
+        + String.format("errors=%d, maxSendLag=%dus", errorCount.get(),
+            TimeUnit.NANOSECONDS.toMicros(maxSendLagNanos));
+    LOGGER.info("generateLoad(): Load has ended.\n{}", summary);
+
+    Map<String, String> artifacts = new LinkedHashMap<>();
+    artifacts.put(ExampleLoadTestScript.PING_HISTOGRAM_FILENAME, pingHistogram.encode());
+    artifacts.put(ExampleLoadTestScript.GET_ID_HISTOGRAM_FILENAME, getIDHistogram.encode());
+    artifacts.put(RAMP_HISTOGRAM_FILENAME, rampHistogram.encode());
+    artifacts.put(ExampleLoadTestScript.SUMMARY_FILENAME, summary);
+    TestResult.Type type = errorCount.get() > 0 || requestCount == 0 ? TestResult.Type.FAILURE
+        : TestResult.Type.SUCCESS;
+    return new TestResult(type, summary.replace("\n", "; "), artifacts);
+  }
+
+  private static void sleepUntil(long time) throws InterruptedException {
+    long remainingNanos;
+    while ((remainingNanos = time - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remainingNanos);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+}
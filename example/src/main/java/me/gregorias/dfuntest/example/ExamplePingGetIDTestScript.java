@@ -1,46 +1,46 @@
 package me.gregorias.dfuntest.example;
 
-import me.gregorias.dfuntest.CommandException;
+import com.google.common.primitives.Ints;
+import me.gregorias.dfuntest.ParallelizableTestScript;
 import me.gregorias.dfuntest.TestResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * This TestScript checks whether applications will return all ids that were pinged to them.
  */
-public class ExamplePingGetIDTestScript extends AbstractExampleTestScript {
+public class ExamplePingGetIDTestScript extends AbstractExampleTestScript
+    implements ParallelizableTestScript<ExampleApp> {
   private static final Logger LOGGER = LoggerFactory.getLogger(ExamplePingGetIDTestScript.class);
   private static final int PING_ID = 1087;
+  private static final int REQUIRED_ENVIRONMENT_COUNT = 2;
+
+  @Override
+  public int getRequiredEnvironmentCount() {
+    return REQUIRED_ENVIRONMENT_COUNT;
+  }
 
   @Override
   public TestResult run(Collection<ExampleApp> apps) {
     LOGGER.info("run()");
     try {
       startUpApps(apps);
-    } catch (CommandException | IOException e) {
+    } catch (IOException e) {
       return new TestResult(TestResult.Type.FAILURE, "An app could not be started.");
     }
 
-    try {
-      Thread.sleep(5000);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    }
-
     TestResult result = new TestResult(TestResult.Type.SUCCESS, "Test was successful.");
     try {
       for (ExampleApp app : apps) {
         LOGGER.info("run(): Testing app {}", app.getId());
         try {
           app.ping(PING_ID);
-          Set<Integer> pingedIDs = new HashSet<>(app.getPingedIDs());
+          int[] pingedIDs = app.getPingedIDs();
 
-          if (!pingedIDs.contains(PING_ID)) {
+          if (!Ints.contains(pingedIDs, PING_ID)) {
             return new TestResult(TestResult.Type.FAILURE, String.format(
                 "%d app did not return expected ping: %d.", app.getId(), PING_ID));
           }
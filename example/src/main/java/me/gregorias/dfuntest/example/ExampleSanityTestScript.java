@@ -1,6 +1,6 @@
 package me.gregorias.dfuntest.example;
 
-import me.gregorias.dfuntest.CommandException;
+import me.gregorias.dfuntest.ParallelizableTestScript;
 import me.gregorias.dfuntest.TestResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,24 +11,25 @@ import java.util.Collection;
 /**
  * Basic test script checking whether application can be started up and shut down.
  */
-public class ExampleSanityTestScript extends AbstractExampleTestScript {
+public class ExampleSanityTestScript extends AbstractExampleTestScript
+    implements ParallelizableTestScript<ExampleApp> {
   private static final Logger LOGGER = LoggerFactory.getLogger(ExampleSanityTestScript.class);
+  private static final int REQUIRED_ENVIRONMENT_COUNT = 1;
+
+  @Override
+  public int getRequiredEnvironmentCount() {
+    return REQUIRED_ENVIRONMENT_COUNT;
+  }
+
   @Override
   public TestResult run(Collection<ExampleApp> apps) {
     LOGGER.info("run()");
     try {
       startUpApps(apps);
-    } catch (CommandException | IOException e) {
+    } catch (IOException e) {
       return new TestResult(TestResult.Type.FAILURE, "An app could not be started.");
     }
 
-    try {
-      // Sleep to give applications time to start up.
-      Thread.sleep(1000);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    }
-
     boolean wasSuccessful = shutDownApps(apps);
     if (!wasSuccessful) {
       return new TestResult(TestResult.Type.FAILURE, "An app could not be shut down.");
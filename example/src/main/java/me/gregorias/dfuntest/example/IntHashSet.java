@@ -0,0 +1,83 @@
+package me.gregorias.dfuntest.example;
+
+/**
+ * Set of primitive ints using open addressing with linear probing, so that adding an int neither
+ * boxes it nor allocates, except for amortized table growth.
+ *
+ * This class is not thread-safe.
+ */
+class IntHashSet {
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+  private static final int HASH_MULTIPLIER = 0x9E3779B9;
+  private int[] mKeys;
+  private boolean[] mIsUsed;
+  private int mSize = 0;
+
+  public IntHashSet() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param initialCapacity expected number of elements
+   */
+  public IntHashSet(int initialCapacity) {
+    int tableSize = Integer.highestOneBit(Math.max(2 * initialCapacity - 1, 1)) << 1;
+    mKeys = new int[tableSize];
+    mIsUsed = new boolean[tableSize];
+  }
+
+  /**
+   * @param key int to add
+   * @return true iff set did not contain the key
+   */
+  public boolean add(int key) {
+    int idx = findSlot(mKeys, mIsUsed, key);
+    if (mIsUsed[idx]) {
+      return false;
+    }
+    mKeys[idx] = key;
+    mIsUsed[idx] = true;
+    ++mSize;
+    if (2 * mSize > mKeys.length) {
+      grow();
+    }
+    return true;
+  }
+
+  /**
+   * @param key int to check
+   * @return true iff set contains the key
+   */
+  public boolean contains(int key) {
+    return mIsUsed[findSlot(mKeys, mIsUsed, key)];
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  // Returns index of the key or of the free slot where it should be put. Table is never full.
+  private static int findSlot(int[] keys, boolean[] isUsed, int key) {
+    int mask = keys.length - 1;
+    int hashShift = Integer.SIZE - Integer.numberOfTrailingZeros(keys.length);
+    int idx = (key * HASH_MULTIPLIER) >>> hashShift;
+    while (isUsed[idx] && keys[idx] != key) {
+      idx = (idx + 1) & mask;
+    }
+    return idx;
+  }
+
+  private void grow() {
+    int[] keys = new int[2 * mKeys.length];
+    boolean[] isUsed = new boolean[2 * mKeys.length];
+    for (int oldIdx = 0; oldIdx < mKeys.length; ++oldIdx) {
+      if (mIsUsed[oldIdx]) {
+        int idx = findSlot(keys, isUsed, mKeys[oldIdx]);
+        keys[idx] = mKeys[oldIdx];
+        isUsed[idx] = true;
+      }
+    }
+    mKeys = keys;
+    mIsUsed = isUsed;
+  }
+}
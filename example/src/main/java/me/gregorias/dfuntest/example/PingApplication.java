@@ -4,14 +4,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -36,45 +41,109 @@ import java.util.concurrent.TimeUnit;
  * GET_ID - type is equal to 1; payload is empty. On response the server sends a stream of 4
  * byte ids of applications that have sent a ping.
  * CLOSE - type is equal to 2; payload is empty. Closes this application.
+ * SESSION - type is equal to 3; payload is empty. Switches the connection to session mode.
+ * GET_PID - type is equal to 4; payload is empty. On response the server sends its 4 byte process
+ * ID, or -1 if it is unknown.
+ *
+ * In session mode the connection is kept open and carries any number of messages, each prefixed
+ * with its 4 byte length, so that half-close is not needed to end them. Every message gets a
+ * response in order of messages. A response is prefixed with its 4 byte length as well and has
+ * the same content as in the one-shot mode, that is it is empty unless the message is GET_ID or
+ * GET_PID.
+ * Clients may send messages without waiting for responses to previous ones. The connection is
+ * closed after CLOSE message or once the client has closed its output and all responses have been
+ * sent.
+ *
+ * Connections are multiplexed by a single selector thread with non-blocking channels, so slow or
+ * idle clients do not delay others. Complete PING and GET_ID messages may be handled by a pool of
+ * worker threads instead of the selector thread.
  */
 public class PingApplication implements Runnable {
   public static final byte PING_TYPE = 0;
   public static final byte GET_ID_TYPE = 1;
   public static final byte CLOSE_TYPE = 2;
+  public static final byte SESSION_TYPE = 3;
+  public static final byte GET_PID_TYPE = 4;
   public static final int PING_MESSAGE_LENGTH = 5;
+  public static final int DEFAULT_BACKLOG = 128;
+  public static final int DEFAULT_WORKER_THREAD_COUNT = 0;
   private static final Logger LOGGER = LoggerFactory.getLogger(PingApplication.class);
   private static final int INTEGER_BYTE_SIZE = Integer.SIZE / Byte.SIZE;
+  private static final int PINGED_IDS_INITIAL_CAPACITY = 64;
+  private static final int SESSION_INPUT_BUFFER_SIZE = 4096;
+  private static final int SESSION_OUTPUT_BUFFER_INITIAL_SIZE = 256;
   private static final long CLIENT_DELAY = 1;
-  private static final int EXPECTED_ARGUMENT_COUNT = 4;
+  private static final int MIN_ARGUMENT_COUNT = 4;
+  private static final int MAX_ARGUMENT_COUNT = 6;
+  private static final int UNKNOWN_PID = -1;
+  private static final int PID = readPid();
   private final int mLocalPort;
   private final InetSocketAddress mServerSocketAddress;
+  private final int mBacklog;
   private final ScheduledExecutorService mScheduledExecutorService =
       Executors.newScheduledThreadPool(1);
-  private final Set<Integer> mPingedIDs = new HashSet<>();
-  private ByteBuffer mResponseBuffer = ByteBuffer.wrap(new byte[0]);
-  private boolean mIsClosed = false;
+  private final ExecutorService mWorkerExecutorService;
+  private final Queue<Connection> mHandledConnections = new ConcurrentLinkedQueue<>();
+  private final IntHashSet mPingedIDs = new IntHashSet(PINGED_IDS_INITIAL_CAPACITY);
+
+  // IDs from mPingedIDs in order of arrival, between 0 and position. IDs are only appended, so
+  // views of already written part stay valid while new IDs are added.
+  private ByteBuffer mPingedIDsBuffer = ByteBuffer.allocateDirect(PINGED_IDS_INITIAL_CAPACITY
+      * INTEGER_BYTE_SIZE);
+  private Selector mSelector;
+  private volatile boolean mIsClosed = false;
 
   private final ClientTask mClientTask;
   private final ByteBuffer mPingBuffer;
 
   public PingApplication(int id, int localPort, InetSocketAddress serverSocketAddress) {
+    this(id, localPort, serverSocketAddress, DEFAULT_BACKLOG, DEFAULT_WORKER_THREAD_COUNT);
+  }
+
+  /**
+   * @param id unique id of this application
+   * @param localPort local port number to listen for connections
+   * @param serverSocketAddress address of server to which pings will be sent
+   * @param backlog maximum number of pending connections
+   * @param workerThreadCount number of threads handling received messages. If it is 0 messages are
+   *                          handled by the selector thread.
+   */
+  public PingApplication(int id,
+                         int localPort,
+                         InetSocketAddress serverSocketAddress,
+                         int backlog,
+                         int workerThreadCount) {
+    if (backlog < 1) {
+      throw new IllegalArgumentException("Backlog should be positive.");
+    }
+    if (workerThreadCount < 0) {
+      throw new IllegalArgumentException("Worker thread count should be nonnegative.");
+    }
     mClientTask = new ClientTask();
     mLocalPort = localPort;
     mServerSocketAddress = serverSocketAddress;
+    mBacklog = backlog;
+    if (workerThreadCount > 0) {
+      mWorkerExecutorService = Executors.newFixedThreadPool(workerThreadCount);
+    } else {
+      mWorkerExecutorService = null;
+    }
     mPingBuffer = preparePingBuffer(id);
   }
 
   /**
-   * This main starts PingApplication. It expects 4 arguments:
+   * This main starts PingApplication. It expects 4 to 6 arguments:
    *
    * id - unique integer id.
    * local port - local port number to listen for connections.
    * server hostname - hostname of server to which pings will be sent.
    * server port - port number of server.
+   * backlog - optional maximum number of pending connections.
+   * worker thread count - optional number of threads handling received messages.
    * @param args program arguments.
    */
   public static void main(String[] args) {
-    if (args.length != EXPECTED_ARGUMENT_COUNT) {
+    if (args.length < MIN_ARGUMENT_COUNT || args.length > MAX_ARGUMENT_COUNT) {
       LOGGER.error("Incorrect arguments provided.");
       return;
     }
@@ -83,19 +152,28 @@ public class PingApplication implements Runnable {
       int localPort;
       String hostname = args[2];
       int remotePort;
+      int backlog = DEFAULT_BACKLOG;
+      int workerThreadCount = DEFAULT_WORKER_THREAD_COUNT;
       try {
         id = Integer.parseInt(args[0]);
         localPort = Integer.parseInt(args[1]);
         remotePort = Integer.parseInt(args[3]);
+        if (args.length > MIN_ARGUMENT_COUNT) {
+          backlog = Integer.parseInt(args[MIN_ARGUMENT_COUNT]);
+        }
+        if (args.length > MIN_ARGUMENT_COUNT + 1) {
+          workerThreadCount = Integer.parseInt(args[MIN_ARGUMENT_COUNT + 1]);
+        }
       } catch (NumberFormatException e) {
         LOGGER.error("Incorrect arguments provided.");
         return;
       }
-      LOGGER.info("main(): id={}, localPort={}, hostname={}, remotePort={}", id, localPort,
-          hostname,
-          remotePort);
+      LOGGER.info("main(): id={}, localPort={}, hostname={}, remotePort={}, backlog={},"
+          + " workerThreadCount={}", id, localPort, hostname, remotePort, backlog,
+          workerThreadCount);
       InetSocketAddress serverSocketAddress = new InetSocketAddress(hostname, remotePort);
-      PingApplication app = new PingApplication(id, localPort, serverSocketAddress);
+      PingApplication app = new PingApplication(id, localPort, serverSocketAddress, backlog,
+          workerThreadCount);
       app.run();
     } catch (RuntimeException e) {
       LOGGER.error("Caught runtime exception.", e);
@@ -109,21 +187,40 @@ public class PingApplication implements Runnable {
         CLIENT_DELAY,
         CLIENT_DELAY,
         TimeUnit.SECONDS);
-    try {
-      ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+    try (Selector selector = Selector.open();
+         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+      mSelector = selector;
       SocketAddress localAddress = new InetSocketAddress(mLocalPort);
-      serverSocketChannel.bind(localAddress, 1);
+      serverSocketChannel.configureBlocking(false);
+      serverSocketChannel.bind(localAddress, mBacklog);
+      serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
       while (!mIsClosed) {
-        LOGGER.debug("run(): Ready to handle new connection.");
-        try (SocketChannel socketChannel = serverSocketChannel.accept()) {
-          LOGGER.debug("run(): Accepted new connection from {}.", socketChannel.getRemoteAddress());
-          socketChannel.configureBlocking(true);
-          handleClientConnection(socketChannel);
+        selector.select();
+        respondToHandledConnections();
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext() && !mIsClosed) {
+          SelectionKey key = keyIterator.next();
+          keyIterator.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            acceptConnections(serverSocketChannel);
+          } else if (key.isReadable()) {
+            readMessage((Connection) key.attachment());
+          } else if (key.isWritable()) {
+            writeResponse((Connection) key.attachment());
+          }
         }
       }
+      closeRemainingConnections();
     } catch (IOException e) {
       LOGGER.error("run()", e);
     }
+    if (mWorkerExecutorService != null) {
+      LOGGER.info("run(): Shutting down worker threads.");
+      mWorkerExecutorService.shutdownNow();
+    }
     LOGGER.info("run(): Shutting down ping task.");
     mScheduledExecutorService.shutdown();
     try {
@@ -148,69 +245,246 @@ public class PingApplication implements Runnable {
     }
   }
 
+  /**
+   * State of a single client connection. It is modified either by the selector thread or by a
+   * worker thread while the connection is not registered for any operation.
+   */
+  private static class Connection {
+    private final SocketChannel mChannel;
+    private final SelectionKey mKey;
+    private final ByteBuffer mMessageBuffer = ByteBuffer.allocate(PING_MESSAGE_LENGTH);
+    private ByteBuffer mResponseBuffer = null;
+    private boolean mHasReachedEndOfStream = false;
+    private boolean mIsClosing = false;
+    private boolean mIsSession = false;
+    private boolean mIsBroken = false;
+    private boolean mShouldCloseApplication = false;
+    private ByteBuffer mSessionInputBuffer = null;
+    private ByteBuffer mSessionOutputBuffer = null;
+
+    public Connection(SocketChannel channel, SelectionKey key) {
+      mChannel = channel;
+      mKey = key;
+    }
+  }
+
+  private void acceptConnections(ServerSocketChannel serverSocketChannel) throws IOException {
+    SocketChannel socketChannel;
+    while ((socketChannel = serverSocketChannel.accept()) != null) {
+      LOGGER.debug("acceptConnections(): Accepted new connection from {}.",
+          socketChannel.getRemoteAddress());
+      socketChannel.configureBlocking(false);
+      SelectionKey key = socketChannel.register(mSelector, 0);
+      key.attach(new Connection(socketChannel, key));
+      key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
   private void addPing(int pingID) {
     LOGGER.debug("addPing({})", pingID);
     synchronized (mPingedIDs) {
-      if (!mPingedIDs.contains(pingID)) {
-        mPingedIDs.add(pingID);
-        ByteBuffer updatedByteBuffer = ByteBuffer.allocateDirect(
-            mResponseBuffer.capacity() + INTEGER_BYTE_SIZE);
-        updatedByteBuffer.put(mResponseBuffer);
-        updatedByteBuffer.putInt(pingID);
-        mResponseBuffer = updatedByteBuffer;
-        mResponseBuffer.rewind();
+      if (mPingedIDs.add(pingID)) {
+        if (mPingedIDsBuffer.remaining() < INTEGER_BYTE_SIZE) {
+          ByteBuffer grownBuffer = ByteBuffer.allocateDirect(2 * mPingedIDsBuffer.capacity());
+          mPingedIDsBuffer.flip();
+          grownBuffer.put(mPingedIDsBuffer);
+          mPingedIDsBuffer = grownBuffer;
+        }
+        mPingedIDsBuffer.putInt(pingID);
       }
     }
   }
 
+  // Appends length-prefixed response to session output, growing it if necessary.
+  private void appendSessionResponse(Connection connection, ByteBuffer response) {
+    ByteBuffer outputBuffer = connection.mSessionOutputBuffer;
+    int requiredCapacity = outputBuffer.position() + INTEGER_BYTE_SIZE + response.remaining();
+    if (requiredCapacity > outputBuffer.capacity()) {
+      int newCapacity = Math.max(requiredCapacity, 2 * outputBuffer.capacity());
+      ByteBuffer newOutputBuffer = ByteBuffer.allocate(newCapacity);
+      outputBuffer.flip();
+      newOutputBuffer.put(outputBuffer);
+      outputBuffer = newOutputBuffer;
+      connection.mSessionOutputBuffer = newOutputBuffer;
+    }
+    outputBuffer.putInt(response.remaining());
+    outputBuffer.put(response);
+  }
+
   private void closeApplication() {
     LOGGER.info("closeApplication()");
     mIsClosed = true;
   }
 
-  private void handleClientConnection(SocketChannel socketChannel) {
-    LOGGER.debug("handleClientConnection()");
-    byte[] messageArray = new byte[PING_MESSAGE_LENGTH];
-    ByteBuffer initialMessageBuffer = ByteBuffer.wrap(messageArray);
+  private void closeConnection(Connection connection) {
+    connection.mKey.cancel();
+    try {
+      connection.mChannel.close();
+    } catch (IOException e) {
+      LOGGER.warn("closeConnection(): Caught exception when closing a connection.", e);
+    }
+  }
+
+  private void closeRemainingConnections() {
+    for (SelectionKey key : mSelector.keys()) {
+      if (key.attachment() != null) {
+        closeConnection((Connection) key.attachment());
+      }
+    }
+  }
+
+  // Responds to a connection which requested application close once the client has closed its
+  // output.
+  private void finishClose(Connection connection) {
+    LOGGER.debug("finishClose()");
     try {
-      readInitialMessage(socketChannel, initialMessageBuffer);
+      connection.mChannel.shutdownOutput();
     } catch (IOException e) {
-      LOGGER.warn("handleClientConnection(): Caught exception when reading a message.", e);
+      LOGGER.warn("finishClose(): Caught IOException when closing channel which requested"
+          + " application close.", e);
+    }
+    closeConnection(connection);
+    closeApplication();
+  }
+
+  private static ByteBuffer getPidBuffer() {
+    ByteBuffer pidBuffer = ByteBuffer.allocate(INTEGER_BYTE_SIZE);
+    pidBuffer.putInt(PID);
+    pidBuffer.flip();
+    return pidBuffer;
+  }
+
+  // Returns a view of pinged IDs with its own position and limit, so that it can be written
+  // concurrently with addition of new IDs.
+  private ByteBuffer getPingedIDsBuffer() {
+    synchronized (mPingedIDs) {
+      ByteBuffer pingedIDsView = mPingedIDsBuffer.duplicate();
+      pingedIDsView.flip();
+      return pingedIDsView;
+    }
+  }
+
+  // Handles a complete message. Called by the selector thread.
+  private void handleMessage(final Connection connection) {
+    ByteBuffer messageBuffer = connection.mMessageBuffer;
+    messageBuffer.flip();
+    if (!messageBuffer.hasRemaining()) {
+      LOGGER.warn("handleMessage(): Initial message is empty.");
+      closeConnection(connection);
       return;
     }
-    initialMessageBuffer.flip();
-    if (!initialMessageBuffer.hasRemaining()) {
-      LOGGER.warn("handleClientConnection(): Initial message is empty.");
+
+    if (messageBuffer.get(0) == CLOSE_TYPE) {
+      LOGGER.debug("handleMessage(): Received close order.");
+      if (connection.mHasReachedEndOfStream) {
+        finishClose(connection);
+      } else {
+        connection.mIsClosing = true;
+        connection.mKey.interestOps(SelectionKey.OP_READ);
+      }
+    } else if (messageBuffer.get(0) == SESSION_TYPE) {
+      LOGGER.debug("handleMessage(): Starting session.");
+      startSession(connection);
+    } else {
+      handleRequestsAndRespond(connection);
+    }
+  }
+
+  // Handles received requests and responds to them either immediately or, if there are worker
+  // threads, once a worker has handled them. Called by the selector thread.
+  private void handleRequestsAndRespond(final Connection connection) {
+    if (mWorkerExecutorService == null) {
+      handleRequests(connection);
+      respond(connection);
+    } else {
+      mWorkerExecutorService.execute(new Runnable() {
+        @Override
+        public void run() {
+          handleRequests(connection);
+          mHandledConnections.add(connection);
+          mSelector.wakeup();
+        }
+      });
+    }
+  }
+
+  private void handlePing(ByteBuffer messageBuffer) {
+    try {
+      int pingID = messageBuffer.getInt();
+      addPing(pingID);
+    } catch (BufferUnderflowException e) {
+      LOGGER.warn("handlePing(): Received ping, but without adequate ID.");
+    }
+  }
+
+  // Handles PING and GET_ID messages or all complete messages of a session. Called by the selector
+  // or a worker thread.
+  private void handleRequests(Connection connection) {
+    if (connection.mIsSession) {
+      handleSessionRequests(connection);
       return;
     }
+    ByteBuffer messageBuffer = connection.mMessageBuffer;
+    byte type = messageBuffer.get();
+    LOGGER.debug("handleRequests(): Received message of type: {}", type);
+    switch (type) {
+      case PING_TYPE:
+        handlePing(messageBuffer);
+        break;
+      case GET_ID_TYPE:
+        connection.mResponseBuffer = getPingedIDsBuffer();
+        break;
+      case GET_PID_TYPE:
+        connection.mResponseBuffer = getPidBuffer();
+        break;
+      default:
+    }
+  }
 
-    byte type = initialMessageBuffer.get();
-    LOGGER.debug("handleClientConnection(): Received message of type: {}", type);
+  private void handleSessionRequest(Connection connection, ByteBuffer messageBuffer) {
+    byte type = messageBuffer.get();
+    LOGGER.trace("handleSessionRequest(): Received message of type: {}", type);
+    ByteBuffer response = ByteBuffer.allocate(0);
     switch (type) {
       case PING_TYPE:
-        try {
-          int pingID = initialMessageBuffer.getInt();
-          addPing(pingID);
-        } catch (BufferUnderflowException e) {
-          LOGGER.warn("handleClientConnection(): Received ping, but without adequate ID.");
-        }
+        handlePing(messageBuffer);
         break;
       case GET_ID_TYPE:
-        sendPingedIDs(socketChannel);
+        response = getPingedIDsBuffer();
+        break;
+      case GET_PID_TYPE:
+        response = getPidBuffer();
         break;
       case CLOSE_TYPE:
-        try {
-          LOGGER.debug("handleClientConnection(): Received close order.");
-          waitForClientClose(socketChannel);
-          socketChannel.shutdownOutput();
-        } catch (IOException e) {
-          LOGGER.warn("handleClientConnection(): Caught IOException when closing channel which"
-                  + " requested application close.", e);
-        }
-        closeApplication();
+        LOGGER.debug("handleSessionRequest(): Received close order.");
+        connection.mShouldCloseApplication = true;
         break;
       default:
+        LOGGER.warn("handleSessionRequest(): Received message of unknown type: {}", type);
     }
+    appendSessionResponse(connection, response);
+  }
+
+  private void handleSessionRequests(Connection connection) {
+    ByteBuffer inputBuffer = connection.mSessionInputBuffer;
+    inputBuffer.flip();
+    while (inputBuffer.remaining() >= INTEGER_BYTE_SIZE && !connection.mShouldCloseApplication) {
+      int length = inputBuffer.getInt(inputBuffer.position());
+      if (length < 1 || length > PING_MESSAGE_LENGTH) {
+        LOGGER.warn("handleSessionRequests(): Received message of invalid length: {}", length);
+        connection.mIsBroken = true;
+        break;
+      }
+      if (inputBuffer.remaining() < INTEGER_BYTE_SIZE + length) {
+        break;
+      }
+      inputBuffer.position(inputBuffer.position() + INTEGER_BYTE_SIZE);
+      ByteBuffer messageBuffer = inputBuffer.slice();
+      messageBuffer.limit(length);
+      inputBuffer.position(inputBuffer.position() + length);
+      handleSessionRequest(connection, messageBuffer);
+    }
+    inputBuffer.compact();
   }
 
   private ByteBuffer preparePingBuffer(int id) {
@@ -221,26 +495,90 @@ public class PingApplication implements Runnable {
     return buffer;
   }
 
-  private void readInitialMessage(SocketChannel channel, ByteBuffer initialMessageBuffer)
-      throws IOException {
-    int readCount = 0;
-    while (initialMessageBuffer.hasRemaining() && readCount != -1) {
-      readCount = channel.read(initialMessageBuffer);
+  // Reads available part of a message and handles it once it is complete, that is once the
+  // message buffer is full or the client has closed its output.
+  private void readMessage(Connection connection) {
+    try {
+      if (connection.mIsClosing) {
+        waitForClientClose(connection);
+        return;
+      }
+      ByteBuffer readBuffer = connection.mIsSession ? connection.mSessionInputBuffer
+          : connection.mMessageBuffer;
+      int readCount;
+      do {
+        readCount = connection.mChannel.read(readBuffer);
+      } while (readCount > 0 && readBuffer.hasRemaining());
+      connection.mHasReachedEndOfStream = readCount == -1;
+      if (connection.mIsSession) {
+        connection.mKey.interestOps(0);
+        handleRequestsAndRespond(connection);
+        return;
+      }
+      boolean isSessionStart = readBuffer.position() > 0 && readBuffer.get(0) == SESSION_TYPE;
+      if (readBuffer.hasRemaining() && !connection.mHasReachedEndOfStream && !isSessionStart) {
+        return;
+      }
+    } catch (IOException e) {
+      LOGGER.warn("readMessage(): Caught exception when reading a message.", e);
+      closeConnection(connection);
+      return;
     }
+    connection.mKey.interestOps(0);
+    handleMessage(connection);
   }
 
-  private void sendPingedIDs(SocketChannel socketChannel) {
-    synchronized (mPingedIDs) {
-      writeEntireBufferAndHideException(socketChannel, mResponseBuffer);
-      mResponseBuffer.rewind();
+  private void respond(Connection connection) {
+    if (connection.mIsSession) {
+      respondInSession(connection);
+    } else if (connection.mResponseBuffer == null || !connection.mResponseBuffer.hasRemaining()) {
+      closeConnection(connection);
+    } else {
+      connection.mKey.interestOps(SelectionKey.OP_WRITE);
     }
   }
 
-  private void waitForClientClose(SocketChannel socketChannel) throws IOException {
-    int readCount = 0;
-    while (readCount != -1) {
-      ByteBuffer sponge = ByteBuffer.wrap(new byte[PING_MESSAGE_LENGTH]);
-      readCount = socketChannel.read(sponge);
+  private void respondInSession(Connection connection) {
+    if (connection.mSessionOutputBuffer.position() > 0) {
+      connection.mKey.interestOps(SelectionKey.OP_WRITE);
+    } else if (connection.mShouldCloseApplication) {
+      finishClose(connection);
+    } else if (connection.mIsBroken || connection.mHasReachedEndOfStream) {
+      closeConnection(connection);
+    } else {
+      connection.mKey.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  private void respondToHandledConnections() {
+    Connection connection;
+    while ((connection = mHandledConnections.poll()) != null) {
+      if (connection.mKey.isValid()) {
+        respond(connection);
+      }
+    }
+  }
+
+  // Switches connection to session mode, keeping the already read beginning of the first message.
+  private void startSession(Connection connection) {
+    connection.mIsSession = true;
+    connection.mSessionInputBuffer = ByteBuffer.allocate(SESSION_INPUT_BUFFER_SIZE);
+    connection.mSessionOutputBuffer = ByteBuffer.allocate(SESSION_OUTPUT_BUFFER_INITIAL_SIZE);
+    ByteBuffer messageBuffer = connection.mMessageBuffer;
+    messageBuffer.position(1);
+    connection.mSessionInputBuffer.put(messageBuffer);
+    handleRequestsAndRespond(connection);
+  }
+
+  private void waitForClientClose(Connection connection) throws IOException {
+    ByteBuffer sponge = ByteBuffer.allocate(PING_MESSAGE_LENGTH);
+    int readCount;
+    do {
+      sponge.clear();
+      readCount = connection.mChannel.read(sponge);
+    } while (readCount > 0);
+    if (readCount == -1) {
+      finishClose(connection);
     }
   }
 
@@ -254,4 +592,48 @@ public class PingApplication implements Runnable {
           + " buffer.", e);
     }
   }
+
+  private void writeResponse(Connection connection) {
+    if (connection.mIsSession) {
+      writeSessionResponses(connection);
+      return;
+    }
+    try {
+      connection.mChannel.write(connection.mResponseBuffer);
+      if (!connection.mResponseBuffer.hasRemaining()) {
+        closeConnection(connection);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("writeResponse(): Encountered exception when sending response.", e);
+      closeConnection(connection);
+    }
+  }
+
+  private void writeSessionResponses(Connection connection) {
+    ByteBuffer outputBuffer = connection.mSessionOutputBuffer;
+    try {
+      outputBuffer.flip();
+      connection.mChannel.write(outputBuffer);
+    } catch (IOException e) {
+      LOGGER.warn("writeSessionResponses(): Encountered exception when sending responses.", e);
+      closeConnection(connection);
+      return;
+    } finally {
+      outputBuffer.compact();
+    }
+    if (outputBuffer.position() == 0) {
+      respondInSession(connection);
+    }
+  }
+
+  // Java 7 has no direct way to get process ID, but JVM's name has the form of pid@hostname.
+  private static int readPid() {
+    String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+    try {
+      return Integer.parseInt(jvmName.substring(0, jvmName.indexOf('@')));
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      LOGGER.warn("readPid(): Could not read process ID from JVM name: {}", jvmName);
+      return UNKNOWN_PID;
+    }
+  }
 }
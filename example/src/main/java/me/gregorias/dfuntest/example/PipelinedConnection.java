@@ -0,0 +1,204 @@
+package me.gregorias.dfuntest.example;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Persistent connection to {@link PingApplication} in its session mode.
+ *
+ * Requests are sent without waiting for responses to previous ones. Responses come in order of
+ * requests and complete futures returned for them by a reader thread. This connection may be used
+ * by many threads.
+ */
+public class PipelinedConnection implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedConnection.class);
+  private static final int INTEGER_BYTE_SIZE = Integer.SIZE / Byte.SIZE;
+  private static final Function<int[], Void> TO_VOID = new Function<int[], Void>() {
+    @Override
+    public Void apply(int[] response) {
+      return null;
+    }
+  };
+  private final SocketChannel mChannel;
+  private final Queue<SettableFuture<int[]>> mPendingResponses = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer mRequestBuffer = ByteBuffer.allocate(INTEGER_BYTE_SIZE
+      + PingApplication.PING_MESSAGE_LENGTH);
+  private final Thread mReaderThread;
+  private volatile IOException mFailure = null;
+
+  private PipelinedConnection(SocketChannel channel, InetSocketAddress address) {
+    mChannel = channel;
+    mReaderThread = new Thread(new ResponseReader(), "PipelinedConnection-" + address);
+    mReaderThread.setDaemon(true);
+  }
+
+  /**
+   * Opens connection to application and starts its session.
+   *
+   * @param address address of application
+   * @return opened connection
+   * @throws IOException thrown when connection could not be established
+   */
+  public static PipelinedConnection open(InetSocketAddress address) throws IOException {
+    LOGGER.debug("open({})", address);
+    SocketChannel channel = SocketChannel.open(address);
+    try {
+      ByteBuffer sessionMessage = ByteBuffer.allocate(1);
+      sessionMessage.put(PingApplication.SESSION_TYPE);
+      sessionMessage.flip();
+      writeEntireBufferToChannel(channel, sessionMessage);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    PipelinedConnection connection = new PipelinedConnection(channel, address);
+    connection.mReaderThread.start();
+    return connection;
+  }
+
+  /**
+   * Closes connection. Futures of requests without response fail.
+   */
+  @Override
+  public void close() throws IOException {
+    LOGGER.debug("close()");
+    mChannel.close();
+    try {
+      mReaderThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends CLOSE request, which closes the application and this connection.
+   *
+   * @return future completed once application has acknowledged the request
+   * @throws IOException thrown when request could not be sent
+   */
+  public ListenableFuture<Void> closeApplication() throws IOException {
+    return Futures.transform(sendRequest(PingApplication.CLOSE_TYPE), TO_VOID);
+  }
+
+  /**
+   * Sends GET_ID request.
+   *
+   * @return future of ids of applications which have pinged the application
+   * @throws IOException thrown when request could not be sent
+   */
+  public ListenableFuture<int[]> getPingedIDs() throws IOException {
+    return sendRequest(PingApplication.GET_ID_TYPE);
+  }
+
+  /**
+   * Sends PING request.
+   *
+   * @param id id of pinging application
+   * @return future completed once application has handled the ping
+   * @throws IOException thrown when request could not be sent
+   */
+  public ListenableFuture<Void> ping(int id) throws IOException {
+    return Futures.transform(sendRequest(PingApplication.PING_TYPE, id), TO_VOID);
+  }
+
+  private class ResponseReader implements Runnable {
+    @Override
+    public void run() {
+      LOGGER.debug("ResponseReader.run()");
+      ByteBuffer lengthBuffer = ByteBuffer.allocate(INTEGER_BYTE_SIZE);
+      try {
+        while (true) {
+          lengthBuffer.clear();
+          readEntireBufferFromChannel(lengthBuffer);
+          lengthBuffer.flip();
+          ByteBuffer responseBuffer = ByteBuffer.allocate(lengthBuffer.getInt());
+          readEntireBufferFromChannel(responseBuffer);
+          responseBuffer.flip();
+          SettableFuture<int[]> response = mPendingResponses.poll();
+          if (response == null) {
+            throw new IOException("Received response without request.");
+          }
+          response.set(decodeIntArray(responseBuffer));
+        }
+      } catch (IOException e) {
+        LOGGER.debug("ResponseReader.run(): Connection has ended.", e);
+        mFailure = e;
+        failPendingResponses();
+      }
+    }
+  }
+
+  private static int[] decodeIntArray(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() % INTEGER_BYTE_SIZE != 0) {
+      throw new IOException("Response length is not a multiple of integer size.");
+    }
+    int[] ints = new int[buffer.remaining() / INTEGER_BYTE_SIZE];
+    buffer.asIntBuffer().get(ints);
+    return ints;
+  }
+
+  private void failPendingResponses() {
+    SettableFuture<int[]> response;
+    while ((response = mPendingResponses.poll()) != null) {
+      response.setException(mFailure);
+    }
+  }
+
+  private void readEntireBufferFromChannel(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (mChannel.read(buffer) == -1) {
+        throw new EOFException("Connection has been closed by application.");
+      }
+    }
+  }
+
+  // Sends length-prefixed message. Response future is queued in the same order as messages are
+  // written.
+  private ListenableFuture<int[]> sendRequest(byte type, int... payload) throws IOException {
+    SettableFuture<int[]> response = SettableFuture.create();
+    synchronized (mRequestBuffer) {
+      if (mFailure != null) {
+        throw new IOException("Connection has failed.", mFailure);
+      }
+      mRequestBuffer.clear();
+      mRequestBuffer.putInt(1 + payload.length * INTEGER_BYTE_SIZE);
+      mRequestBuffer.put(type);
+      for (int value : payload) {
+        mRequestBuffer.putInt(value);
+      }
+      mRequestBuffer.flip();
+      mPendingResponses.add(response);
+      try {
+        writeEntireBufferToChannel(mChannel, mRequestBuffer);
+      } catch (IOException e) {
+        mChannel.close();
+        throw e;
+      }
+    }
+    // Reader might have failed pending responses before this one has been queued.
+    if (mFailure != null) {
+      failPendingResponses();
+    }
+    return response;
+  }
+
+  private static void writeEntireBufferToChannel(SocketChannel channel, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
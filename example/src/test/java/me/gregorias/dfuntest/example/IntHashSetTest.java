@@ -0,0 +1,71 @@
+package me.gregorias.dfuntest.example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntHashSetTest {
+  @Test
+  public void addShouldReturnTrueOnlyForNewKeys() {
+    IntHashSet set = new IntHashSet();
+
+    assertTrue(set.add(5));
+    assertTrue(set.add(-5));
+    assertFalse(set.add(5));
+    assertFalse(set.add(-5));
+
+    assertEquals(2, set.size());
+  }
+
+  @Test
+  public void setShouldHoldZeroAndExtremeKeys() {
+    IntHashSet set = new IntHashSet();
+    assertFalse(set.contains(0));
+
+    assertTrue(set.add(0));
+    assertTrue(set.add(Integer.MIN_VALUE));
+    assertTrue(set.add(Integer.MAX_VALUE));
+
+    assertTrue(set.contains(0));
+    assertTrue(set.contains(Integer.MIN_VALUE));
+    assertTrue(set.contains(Integer.MAX_VALUE));
+    assertFalse(set.add(0));
+    assertEquals(3, set.size());
+  }
+
+  @Test
+  public void setShouldKeepAllKeysAfterGrowingPastLoadFactor() {
+    final int keyCount = 1000;
+    IntHashSet set = new IntHashSet(1);
+
+    // Multiples of a power of two collide in small tables.
+    for (int keyIdx = 0; keyIdx < keyCount; ++keyIdx) {
+      assertTrue(set.add(keyIdx * 1024));
+    }
+
+    assertEquals(keyCount, set.size());
+    for (int keyIdx = 0; keyIdx < keyCount; ++keyIdx) {
+      assertTrue(set.contains(keyIdx * 1024));
+      assertFalse(set.contains(keyIdx * 1024 + 1));
+    }
+  }
+
+  @Test
+  public void contentShouldNotDependOnInsertionOrder() {
+    final int keyCount = 100;
+    IntHashSet ascendingSet = new IntHashSet(1);
+    IntHashSet descendingSet = new IntHashSet(1);
+
+    for (int keyIdx = 0; keyIdx < keyCount; ++keyIdx) {
+      ascendingSet.add(keyIdx);
+      descendingSet.add(keyCount - 1 - keyIdx);
+    }
+
+    assertEquals(ascendingSet.size(), descendingSet.size());
+    for (int key = -1; key <= keyCount; ++key) {
+      assertEquals(ascendingSet.contains(key), descendingSet.contains(key));
+    }
+  }
+}